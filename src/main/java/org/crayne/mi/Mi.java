@@ -1,62 +1,138 @@
 package org.crayne.mi;
 
+import org.crayne.mi.bytecode.common.ByteCodeException;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
-import org.crayne.mi.bytecode.writer.ByteCodeCompiler;
+import org.crayne.mi.bytecode.linker.ByteCodeLinker;
+import org.crayne.mi.bytecode.linker.ByteCodeObject;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationLevel;
+import org.crayne.mi.bytecode.optimizer.pass.PassManager;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeOptimizer;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.crayne.mi.cache.MiIncrementalBuild;
+import org.crayne.mi.cache.MiModuleCache;
 import org.crayne.mi.log.MessageHandler;
 import org.crayne.mi.parsing.ast.Node;
+import org.crayne.mi.parsing.ast.NodeType;
 import org.crayne.mi.parsing.lexer.Token;
 import org.crayne.mi.parsing.lexer.Tokenizer;
 import org.crayne.mi.parsing.parser.Parser;
+import org.crayne.mi.stdlib.MiStandardLibSnapshot;
+import org.crayne.mi.util.CompileTimings;
 import org.crayne.mi.util.SyntaxTree;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 public class Mi {
 
     private static final List<String> multiTokens = Arrays.asList("<<", ">>", "->", "&&", "||", "==", "!=", "::", "<=", ">=", "++", "--", "+=", "*=", "/=", "-=", "%=", "<<=", ">>=", "&=", "|=");
     private final MessageHandler out;
+    private final PeepholeOptimizer peepholeOptimizer;
+    private final PassManager passManager;
+    private volatile CompileTimings timings = new CompileTimings();
+    private volatile boolean measureAllocations;
 
     public Mi(@NotNull final PrintStream out, final boolean enableColor) {
         this.out = new MessageHandler(out, enableColor);
+        this.peepholeOptimizer = PeepholeOptimizer.withDefaultRules();
+        this.passManager = PassManager.withDefaultPasses(peepholeOptimizer);
     }
 
     public MessageHandler messageHandler() {
         return out;
     }
 
-    private Optional<SyntaxTree> parse(@NotNull final String stdlib, @NotNull final String code, final File inputFile) {
-        final String actualCode = stdlib + code + "\n";
+    // project specific rules can be added here, they run on every program compiled by this instance
+    public PeepholeOptimizer peepholeOptimizer() {
+        return peepholeOptimizer;
+    }
+
+    // passes can be toggled by name or added here, the timings of the last compilation can be read from it as well
+    public PassManager passManager() {
+        return passManager;
+    }
+
+    // wall time and allocation of every phase of the last compilation
+    public CompileTimings timings() {
+        return timings;
+    }
+
+    // measuring allocation is not free, so the timings only include it once this is turned on
+    public void measureAllocations(final boolean measure) {
+        this.measureAllocations = measure;
+    }
+
+    private Optional<SyntaxTree> parse(@NotNull final String stdlib, @NotNull final String code, final File inputFile, final MiModuleCache cache,
+                                       @NotNull final OptimizationLevel level, final ByteCodeProfile profile) {
+        return parse(stdlib, code, "", inputFile, cache, level, profile);
+    }
+
+    // the cache is optional, without one every module is compiled from scratch.
+    // imports are declarations generated from other objects, they go after the code so that line numbers in error messages stay the same
+    private Optional<SyntaxTree> parse(@NotNull final String stdlib, @NotNull final String code, @NotNull final String imports, final File inputFile, final MiModuleCache cache,
+                                       @NotNull final OptimizationLevel level, final ByteCodeProfile profile) {
+        timings = new CompileTimings(measureAllocations);
+        final String actualCode = stdlib + code + "\n" + imports;
         this.out.setProgram(actualCode);
 
+        // the standard library is only tokenized, parsed and checked by the first compile against it
+        final Optional<MiStandardLibSnapshot> snapshot = MiStandardLibSnapshot.of(stdlib, multiTokens);
         final Tokenizer tokenizer = new Tokenizer(out, multiTokens);
-        final List<Token> tokenList = tokenizer.tokenize(actualCode);
+        snapshot.ifPresent(s -> s.resume(tokenizer));
+        final List<Token> tokenList = timings.measure("Tokenizer.tokenize", () -> tokenizer.tokenize(snapshot.isPresent() ? code + "\n" + imports : actualCode));
         if (tokenizer.encounteredError()) return Optional.empty();
 
         final Parser parser = new Parser(out, tokenizer.stdlibFinishLine());
-        final Node node = parser.parse(tokenList, actualCode);
-        return node == null ? Optional.empty() : Optional.of(new SyntaxTree(node, out, actualCode, tokenizer.stdlibFinishLine(), inputFile));
+        parser.timings(timings);
+        snapshot.ifPresent(s -> s.seed(parser));
+        final MiIncrementalBuild build = cache == null ? null : cache.prepare(tokenList, level, profile);
+        if (build != null) parser.elideScopes(build.elidedScopes());
+        if (!imports.isEmpty()) parser.elideScopes(importedScopes(tokenList, importsBeginLine(stdlib, code)));
+
+        final Node node = parser.parse(build == null ? tokenList : build.tokens(), actualCode);
+        return node == null ? Optional.empty() : Optional.of(new SyntaxTree(node, out, actualCode, tokenizer.stdlibFinishLine(), inputFile, build));
+    }
+
+    private static int importsBeginLine(@NotNull final String stdlib, @NotNull final String code) {
+        return (int) (stdlib + code + "\n").chars().filter(c -> c == '\n').count() + 1;
+    }
+
+    // imported functions are declared with an empty body, which must not be checked for missing return statements
+    private static Set<Token> importedScopes(@NotNull final List<Token> tokens, final int importsBeginLine) {
+        final Set<Token> scopes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 1; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+            if (token.actualLine() >= importsBeginLine && NodeType.of(token) == NodeType.LBRACE && NodeType.of(tokens.get(i - 1)) == NodeType.RPAREN) scopes.add(token);
+        }
+        return scopes;
+    }
+
+    // entry points are full function names (for example 'testing.main'), everything they cannot reach is left out of the binary.
+    // without any entry points, all intern functions are kept
+    public List<ByteCodeInstruction> compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final String... entryPoints) {
+        return compile(stdlib, code, MiCompileOptions.DEFAULT, entryPoints);
     }
 
-    public List<ByteCodeInstruction> compile(@NotNull final String stdlib, @NotNull final String code) {
-        final Optional<SyntaxTree> tree = parse(stdlib, code, null);
+    public List<ByteCodeInstruction> compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final MiCompileOptions options,
+                                             @NotNull final String... entryPoints) {
+        final Optional<SyntaxTree> tree = parse(stdlib, code, null, options.cache(), options.level(), options.profile());
         if (tree.isEmpty()) return new ArrayList<>();
-        final ByteCodeCompiler compiler = new ByteCodeCompiler(tree.get());
-        final List<ByteCodeInstruction> result = compiler.compile();
-        //System.out.println(compiler);
-        return result;
+        return tree.get().compile(List.of(entryPoints), passManager, options.level(), options.profile(), timings);
     }
 
-    public void compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile) {
-        final Optional<SyntaxTree> tree = parse(stdlib, code, inputFile);
+    public void compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile, @NotNull final String... entryPoints) {
+        compile(stdlib, code, file, inputFile, MiCompileOptions.DEFAULT, entryPoints);
+    }
+
+    public void compile(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile,
+                        @NotNull final MiCompileOptions options, @NotNull final String... entryPoints) {
+        final Optional<SyntaxTree> tree = parse(stdlib, code, inputFile, options.cache(), options.level(), options.profile());
         if (tree.isPresent()) {
             try {
-                tree.get().compile(file);
+                tree.get().compile(file, List.of(entryPoints), passManager, options.level(), options.profile(), options.compression(), timings);
             } catch (Throwable e) {
                 tree.get().error("Error encountered when trying to compile: " + e.getClass().getSimpleName() + " " + e.getMessage());
                 e.printStackTrace();
@@ -64,4 +140,53 @@ public class Mi {
         }
     }
 
+    // compiles a single file into a relocatable object. whatever it uses from other files has to be exported by one of the given objects
+    public Optional<ByteCodeObject> compileObject(@NotNull final String stdlib, @NotNull final String code, final File inputFile, @NotNull final List<ByteCodeObject> imports) {
+        return compileObject(stdlib, code, inputFile, imports, OptimizationLevel.DEFAULT);
+    }
+
+    public Optional<ByteCodeObject> compileObject(@NotNull final String stdlib, @NotNull final String code, final File inputFile, @NotNull final List<ByteCodeObject> imports,
+                                                  @NotNull final OptimizationLevel level) {
+        final Optional<SyntaxTree> tree = parse(stdlib, code, ByteCodeObject.stubs(imports), inputFile, null, level, null);
+        return tree.flatMap(t -> t.compileObject(importsBeginLine(stdlib, code), level, timings));
+    }
+
+    public void compileObject(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile, @NotNull final List<ByteCodeObject> imports) {
+        compileObject(stdlib, code, file, inputFile, imports, OptimizationLevel.DEFAULT);
+    }
+
+    public void compileObject(@NotNull final String stdlib, @NotNull final String code, @NotNull final File file, @NotNull final File inputFile, @NotNull final List<ByteCodeObject> imports,
+                              @NotNull final OptimizationLevel level) {
+        out.infoMsg("Compiling " + inputFile.getName() + " to an object...");
+        final Optional<ByteCodeObject> object = compileObject(stdlib, code, inputFile, imports, level);
+        if (object.isEmpty()) {
+            out.errorMsg("Could not compile " + inputFile.getName() + ". See error output above.");
+            return;
+        }
+        try {
+            final CompileTimings.Phase write = timings.begin("file write");
+            object.get().write(file);
+            write.end();
+            out.infoMsg("Completed. See output file here: " + file.getAbsolutePath());
+        } catch (final IOException e) {
+            out.errorMsg("Could not write object file: " + e.getClass().getSimpleName() + " " + e.getMessage());
+        }
+    }
+
+    // links the objects into one program, which is only optimized now, since that is the first time the whole program is known
+    public List<ByteCodeInstruction> link(@NotNull final List<ByteCodeObject> objects, @NotNull final String... entryPoints) {
+        return link(objects, OptimizationLevel.DEFAULT, entryPoints);
+    }
+
+    public List<ByteCodeInstruction> link(@NotNull final List<ByteCodeObject> objects, @NotNull final OptimizationLevel level, @NotNull final String... entryPoints) {
+        timings = new CompileTimings(measureAllocations);
+        try {
+            final List<ByteCodeInstruction> linked = timings.measure("ByteCodeLinker.link", () -> ByteCodeLinker.link(objects));
+            return timings.measure("optimization passes", () -> passManager.run(linked, List.of(entryPoints), level));
+        } catch (final ByteCodeException e) {
+            out.errorMsg("Could not link: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
 }
@@ -0,0 +1,33 @@
+package org.crayne.mi;
+
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationLevel;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.crayne.mi.cache.MiModuleCache;
+import org.jetbrains.annotations.NotNull;
+
+// everything optional about a compilation. the cache and the profile may be null, without a cache every module is compiled from scratch
+// and the profile is the one of an earlier run of the program (see ByteCodeInterpreter.profile()).
+// the compression only matters when compiling to a file, its sections are compressed unless it is ByteCodeCompression.NONE
+public record MiCompileOptions(MiModuleCache cache, @NotNull OptimizationLevel level, ByteCodeProfile profile, @NotNull ByteCodeCompression compression) {
+
+    public static final MiCompileOptions DEFAULT = new MiCompileOptions(null, OptimizationLevel.DEFAULT, null, ByteCodeCompression.DEFAULT);
+
+    // unchanged top-level modules are taken from the cache instead of being checked and compiled again
+    public MiCompileOptions withCache(final MiModuleCache cache) {
+        return new MiCompileOptions(cache, level, profile, compression);
+    }
+
+    public MiCompileOptions withLevel(@NotNull final OptimizationLevel level) {
+        return new MiCompileOptions(cache, level, profile, compression);
+    }
+
+    public MiCompileOptions withProfile(final ByteCodeProfile profile) {
+        return new MiCompileOptions(cache, level, profile, compression);
+    }
+
+    public MiCompileOptions withCompression(@NotNull final ByteCodeCompression compression) {
+        return new MiCompileOptions(cache, level, profile, compression);
+    }
+
+}
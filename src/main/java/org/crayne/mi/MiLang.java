@@ -1,12 +1,23 @@
 package org.crayne.mi;
 
 import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeException;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
 import org.crayne.mi.bytecode.communication.MiCommunicator;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.crayne.mi.bytecode.profile.ByteCodeProfiler;
 import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.bytecode.linker.ByteCodeObject;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationLevel;
 import org.crayne.mi.bytecode.reader.ByteCodeReader;
+import org.crayne.mi.bytecode.reader.ByteCodeSnapshot;
+import org.crayne.mi.bytecode.writer.ByteCodeCompiler;
+import org.crayne.mi.cache.MiModuleCache;
 import org.crayne.mi.log.MessageHandler;
 import org.crayne.mi.stdlib.MiStandardLib;
+import org.crayne.mi.util.CompileTimings;
+import org.crayne.mi.util.PhaseTiming;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
@@ -62,7 +73,7 @@ public class MiLang {
         return Optional.of(result);
     }
 
-    private static final Set<String> validArgs = new HashSet<>(Arrays.asList("file", "main"));
+    private static final Set<String> validArgs = new HashSet<>(Arrays.asList("file", "main", "cache", "object", "import", "out", "opt", "timings", "profile", "snapshot", "compress"));
 
     public static Predicate<String> invalidArgument = arg -> !validArgs.contains(arg);
 
@@ -91,17 +102,94 @@ public class MiLang {
         }
     }
 
+    public static Optional<List<ByteCodeObject>> readObjects(@NotNull final List<String> files, @NotNull final MessageHandler messageHandler) {
+        final List<ByteCodeObject> objects = new ArrayList<>();
+        for (final String file : files) {
+            try {
+                objects.add(ByteCodeObject.read(new File(file)));
+            } catch (final IOException | ByteCodeException e) {
+                messageHandler.errorMsg("Could not read object file '" + file + "': " + e.getClass().getSimpleName() + " " + e.getMessage());
+                return Optional.empty();
+            }
+        }
+        return Optional.of(objects);
+    }
+
+    // opt=0 compiles fastest, opt=3 produces the fastest program. without the argument, opt=2 is used
+    private static Optional<OptimizationLevel> optimizationLevel(@NotNull final List<Argument> params, @NotNull final MessageHandler messageHandler) {
+        final Optional<Argument> opt = params.stream().filter(a -> a.key.equals("opt")).findFirst();
+        if (opt.isEmpty()) return Optional.of(OptimizationLevel.DEFAULT);
+
+        final Optional<OptimizationLevel> level = OptimizationLevel.of(opt.get().value());
+        if (level.isEmpty()) messageHandler.errorMsg("Expected an optimization level from 0 to 3, but got '" + opt.get().value() + "'");
+        return level;
+    }
+
+    // compress='speed' or compress='ratio' compresses the sections of the written .mib file
+    private static Optional<ByteCodeCompression> compression(@NotNull final List<Argument> params, @NotNull final MessageHandler messageHandler) {
+        final Optional<Argument> compress = params.stream().filter(a -> a.key.equals("compress")).findFirst();
+        if (compress.isEmpty()) return Optional.of(ByteCodeCompression.DEFAULT);
+
+        final Optional<ByteCodeCompression> compression = ByteCodeCompression.of(compress.get().value());
+        if (compression.isEmpty()) messageHandler.errorMsg("Expected a compression of either 'none', 'speed' or 'ratio', but got '" + compress.get().value() + "'");
+        return compression;
+    }
+
+    // timings=true prints how long every phase of the compilation took and how much it allocated
+    private static boolean timingsRequested(@NotNull final List<Argument> params) {
+        return params.stream().anyMatch(a -> a.key.equals("timings") && a.value().equals("true"));
+    }
+
+    private static void printTimings(@NotNull final Mi mi, @NotNull final List<Argument> params) {
+        if (!timingsRequested(params)) return;
+        final MessageHandler messageHandler = mi.messageHandler();
+        for (final PhaseTiming phase : mi.timings().phases()) {
+            messageHandler.infoMsg(phase.toString());
+            if (phase.name().equals("optimization passes")) mi.passManager().timings().forEach(pass -> messageHandler.infoMsg("    " + pass));
+        }
+    }
+
+    // every file='some.mio' argument is linked in the order given, into out='program.mib' (or the first object's name with .mib)
+    private static void link(@NotNull final Mi mi, @NotNull final List<Argument> params) {
+        final MessageHandler messageHandler = mi.messageHandler();
+        final List<String> files = params.stream().filter(a -> a.key.equals("file")).map(Argument::value).toList();
+        final Optional<List<ByteCodeObject>> objects = readObjects(files, messageHandler);
+        if (objects.isEmpty()) return;
+
+        final File outputFile = new File(params.stream().filter(a -> a.key.equals("out")).map(Argument::value).findFirst()
+                .orElse(StringUtils.substringBeforeLast(files.get(0), ".") + ".mib"));
+
+        final String[] entryPoints = params.stream().filter(a -> a.key.equals("main")).map(Argument::value).toList().toArray(new String[0]);
+        final Optional<OptimizationLevel> level = optimizationLevel(params, messageHandler);
+        if (level.isEmpty()) return;
+        final Optional<ByteCodeCompression> compression = compression(params, messageHandler);
+        if (compression.isEmpty()) return;
+
+        messageHandler.infoMsg("Linking " + files.size() + " object" + (files.size() == 1 ? "" : "s") + "...");
+        final List<ByteCodeInstruction> linked = mi.link(objects.get(), level.get(), entryPoints);
+        if (linked.isEmpty()) return;
+        try {
+            final CompileTimings.Phase write = mi.timings().begin("file write");
+            ByteCodeCompiler.compileToFile(linked, outputFile, compression.get());
+            write.end();
+            messageHandler.infoMsg("Completed. See output file here: " + outputFile.getAbsolutePath());
+            printTimings(mi, params);
+        } catch (final IOException e) {
+            messageHandler.errorMsg("Could not write output file: " + e.getClass().getSimpleName() + " " + e.getMessage());
+        }
+    }
+
     public static void main(@NotNull final String... args) {
         final Mi mi = new Mi(System.out, true);
         final MessageHandler messageHandler = mi.messageHandler();
 
         if (args.length == 0) {
-            messageHandler.errorMsg("Expected either 'compile' or 'run' as first argument in args: " + Arrays.toString(args));
+            messageHandler.errorMsg("Expected either 'compile', 'link' or 'run' as first argument in args: " + Arrays.toString(args));
             return;
         }
         final String first = args[0];
-        if (!first.equals("compile") && !first.equals("run")) {
-            messageHandler.errorMsg("Expected either 'compile' or 'run' as first argument in args: " + Arrays.toString(args));
+        if (!first.equals("compile") && !first.equals("link") && !first.equals("run")) {
+            messageHandler.errorMsg("Expected either 'compile', 'link' or 'run' as first argument in args: " + Arrays.toString(args));
             return;
         }
         final boolean compile = first.equals("compile");
@@ -114,14 +202,49 @@ public class MiLang {
                 "No input file specified (specify using the file='some file.mi' argument)", params);
 
         if (inputFile.isEmpty()) return;
+        mi.measureAllocations(timingsRequested(params));
 
+        if (first.equals("link")) {
+            link(mi, params);
+            return;
+        }
         if (compile) {
             final Optional<String> code = readCode(inputFile.get(), messageHandler);
             if (code.isEmpty()) return;
+            final Optional<OptimizationLevel> level = optimizationLevel(params, messageHandler);
+            if (level.isEmpty()) return;
+
+            // object=true compiles to a relocatable object instead, which can use whatever the objects given by import='other.mio' export
+            if (params.stream().anyMatch(a -> a.key.equals("object") && a.value().equals("true"))) {
+                final Optional<List<ByteCodeObject>> imports = readObjects(params.stream().filter(a -> a.key.equals("import")).map(Argument::value).toList(), messageHandler);
+                if (imports.isEmpty()) return;
+
+                final File objectFile = new File(StringUtils.substringBeforeLast(inputFile.get(), ".") + ".mio");
+                mi.compileObject(MiStandardLib.standardLib(), code.get(), objectFile, new File(inputFile.get()), imports.get(), level.get());
+                printTimings(mi, params);
+                return;
+            }
 
             final File outputFile = new File(StringUtils.substringBeforeLast(inputFile.get(), ".") + ".mib");
+            // profile='some.mip' optimizes for what a run with the same argument on 'run' recorded
+            final Optional<String> profileFile = params.stream().filter(a -> a.key.equals("profile")).map(Argument::value).findFirst();
+            final ByteCodeProfile profile;
+            try {
+                profile = profileFile.isEmpty() ? null : ByteCodeProfile.read(new File(profileFile.get()));
+            } catch (final IOException | ByteCodeException e) {
+                messageHandler.errorMsg("Could not read profile '" + profileFile.get() + "': " + e.getClass().getSimpleName() + " " + e.getMessage());
+                return;
+            }
 
-            mi.compile(MiStandardLib.standardLib(), code.get(), outputFile, new File(inputFile.get()));
+            final Optional<ByteCodeCompression> compression = compression(params, messageHandler);
+            if (compression.isEmpty()) return;
+
+            final String[] entryPoints = params.stream().filter(a -> a.key.equals("main")).map(Argument::value).toList().toArray(new String[0]);
+            // cache='some directory' keeps the bytecode of every top-level module there, so unchanged modules are not compiled again
+            final MiModuleCache cache = params.stream().filter(a -> a.key.equals("cache")).findFirst().map(a -> new MiModuleCache(new File(a.value()))).orElse(null);
+            final MiCompileOptions options = MiCompileOptions.DEFAULT.withCache(cache).withLevel(level.get()).withProfile(profile).withCompression(compression.get());
+            mi.compile(MiStandardLib.standardLib(), code.get(), outputFile, new File(inputFile.get()), options, entryPoints);
+            printTimings(mi, params);
             return;
         }
         final Optional<String> omainFunc = findKeyvalueOrElse("main", messageHandler,
@@ -130,10 +253,27 @@ public class MiLang {
 
         final String mainFunc = omainFunc.get();
         try {
-            final List<ByteCodeInstruction> instrs = ByteCodeReader.read(new File(inputFile.get()), messageHandler);
-            final ByteCodeInterpreter interpreter = new ByteCodeInterpreter(instrs, messageHandler);
+            final File file = new File(inputFile.get());
+            // a snapshot written with snapshot='some.mis' starts right where its interpreter was prepared
+            final ByteCodeInterpreter interpreter = ByteCodeSnapshot.isSnapshot(file)
+                    ? ByteCodeSnapshot.read(file).newInterpreter(messageHandler)
+                    : new ByteCodeInterpreter(ByteCodeReader.read(file, messageHandler), messageHandler);
+
+            // profile='some.mip' records what the program does while running, for compiling it with the same argument later
+            final Optional<String> profileFile = params.stream().filter(a -> a.key.equals("profile")).map(Argument::value).findFirst();
+            final ByteCodeProfiler profiler = profileFile.isPresent() ? interpreter.profile() : null;
+            // snapshot='some.mis' writes the prepared interpreter, so later runs of that file skip initializing the globals
+            final Optional<String> snapshotFile = params.stream().filter(a -> a.key.equals("snapshot")).map(Argument::value).findFirst();
+            if (snapshotFile.isPresent()) {
+                ByteCodeSnapshot.write(interpreter, new File(snapshotFile.get()));
+                messageHandler.infoMsg("Wrote snapshot to " + new File(snapshotFile.get()).getAbsolutePath());
+            }
             final MiCommunicator c = interpreter.newCommunicator();
             c.invoke(mainFunc);
+            if (profiler != null) {
+                profiler.profile().write(new File(profileFile.get()));
+                messageHandler.infoMsg("Wrote profile to " + new File(profileFile.get()).getAbsolutePath());
+            }
         } catch (final Throwable e) {
             e.printStackTrace();
         }
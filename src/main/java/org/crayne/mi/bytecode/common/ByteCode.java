@@ -2,7 +2,6 @@ package org.crayne.mi.bytecode.common;
 
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
-import org.apache.commons.lang3.ArrayUtils;
 import org.crayne.mi.parsing.lexer.Tokenizer;
 import org.jetbrains.annotations.NotNull;
 
@@ -17,11 +16,28 @@ public enum ByteCode {
     PROGRAM_HEADER((byte) 0x01),
     JUMP((byte) 0x03),
     JUMP_IF((byte) 0x04),
+    JUMP_IF_NOT((byte) 0x05),
     PUSH((byte) 0x07),
     POP((byte) 0x08),
 
     VALUE_AT_RELATIVE_ADDRESS((byte) 0x09),
 
+    // switches pop an int, char or enum value (its ordinal is used) and jump to the label of the matching case in a single step.
+    // table switches index their labels by (key - low), lookup switches binary search their sorted keys instead
+    TABLE_SWITCH((byte) 0x0A),
+    LOOKUP_SWITCH((byte) 0x0B),
+
+    // counted loops keep their counter, the hoisted bound and the step in three consecutive local variables.
+    // RANGE_LOOP_ENTER jumps past the loop if the counter is already out of range, RANGE_LOOP_NEXT adds the step
+    // and jumps back to the start of the loop scope while the counter is still in range, both in a single instruction
+    RANGE_LOOP_ENTER((byte) 0x0C),
+    RANGE_LOOP_NEXT((byte) 0x0D),
+
+    // POP_PUSH drops the top of the push stack (unlike POP, which drops variables), DUP pushes the top of the push stack once more.
+    // both are only emitted by the optimizer, for stores it found to be dead and locals that are loaded twice in a row
+    POP_PUSH((byte) 0x0E),
+    DUP((byte) 0x0F),
+
     // NOT operates on the current top of the stack.
     // a similar approach is taken for more miscellaneous operators like RELATIVE_TO_ABSOLUTE_ADDRESS as for the NOT operator.
     // the rest (plus, minus, etc) pop the top of the stack and use it as the 'y' value for the operator.
@@ -79,7 +95,19 @@ public enum ByteCode {
     NULL_VALUE((byte) 0xD4),
     CHARACTER_VALUE((byte) 0xD5),
 
-    RELATIVE_TO_ABSOLUTE_ADDRESS((byte) 0xD6);
+    RELATIVE_TO_ABSOLUTE_ADDRESS((byte) 0xD6),
+
+    // every function body begins with LOCAL_FRAME <max locals> <max push stack depth>, so that its whole frame is allocated at once.
+    // locals then live in fixed slots of that frame, which DEFINE_LOCAL <slot> and DECLARE_LOCAL <slot> <type> initialize,
+    // and the frame is dropped as a whole when the function ends instead of popping every local separately
+    LOCAL_FRAME((byte) 0xDB),
+    DEFINE_LOCAL((byte) 0xDC),
+    DECLARE_LOCAL((byte) 0xDD),
+
+    // globals live apart from the locals, addressed by the address the compiler gave them (beginning at 1), which is embedded in the instruction.
+    // LOAD_GLOBAL pushes the value of the global, STORE_GLOBAL pops a value and assigns it to the global
+    LOAD_GLOBAL((byte) 0xDE),
+    STORE_GLOBAL((byte) 0xDF);
 
     public static final byte BYTECODE_VERSION = 1;
 
@@ -97,8 +125,14 @@ public enum ByteCode {
         return of((byte) code);
     }
 
+    private static final ByteCode[] BY_CODE = new ByteCode[256];
+
+    static {
+        for (final ByteCode code : values()) BY_CODE[code.code & 0xFF] = code;
+    }
+
     public static Optional<ByteCode> of(final byte code) {
-        return Arrays.stream(values()).filter(b -> b.code == code).findFirst();
+        return Optional.ofNullable(BY_CODE[code & 0xFF]);
     }
 
     public static byte[] longToBytes(final long l) {
@@ -143,37 +177,38 @@ public enum ByteCode {
         return buffer.getDouble();
     }
 
+    // every instruction is built into an array of exactly its size, ending with the instruction finish code
+    private static ByteBuffer instruction(@NotNull final ByteCode code, final int operandBytes) {
+        return ByteBuffer.allocate(operandBytes + 2).put(code.code);
+    }
+
+    private static ByteCodeInstruction finish(@NotNull final ByteBuffer instr) {
+        return ByteCodeInstruction.of(instr.put(INSTRUCT_FINISH.code).array());
+    }
+
+    private static ByteCodeInstruction ofInts(@NotNull final ByteCode code, final int @NotNull ... operands) {
+        final ByteBuffer instr = instruction(code, operands.length * Integer.BYTES);
+        for (final int operand : operands) instr.putInt(operand);
+        return finish(instr);
+    }
+
     public static ByteCodeInstruction enumMember(@NotNull final ByteCodeEnumMember member) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(ENUM_VALUE.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(member.enumId()))).toList());
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(member.ordinal()))).toList());
-        }});
+        return ofInts(ENUM_VALUE, member.enumId(), member.ordinal());
     }
 
     public static ByteCodeEnumMember ofEnumMember(@NotNull final ByteCodeInstruction instr) {
-        final List<Byte> sub = List.of(instr.codes()).subList(1, instr.codes().length - 1);
-        final int enumId = bytesToInt(ArrayUtils.toPrimitive(sub.subList(0, 4).toArray(new Byte[0])));
-        final int member = bytesToInt(ArrayUtils.toPrimitive(sub.subList(4, 8).toArray(new Byte[0])));
-        return new ByteCodeEnumMember(enumId, member);
+        return new ByteCodeEnumMember(instr.intAt(1), instr.intAt(5));
     }
 
     public static List<ByteCodeInstruction> defineEnum(@NotNull final ByteCodeEnum enumDef) {
-        return new ArrayList<>() {
-            {
-                this.add(new ByteCodeInstruction(ENUM_DEFINITION_BEGIN.code));
-                this.addAll(enumDef
-                        .members()
-                        .stream()
-                        .map(m -> new ByteCodeInstruction(new ArrayList<>() {{
-                            this.add(ENUM_MEMBER_DEFINITION.code);
-                            final List<Byte> memberName = List.of(string(m).codes());
-                            this.addAll(memberName.subList(0, memberName.size() - 1));
-                        }}))
-                        .toList());
-                this.add(new ByteCodeInstruction(ENUM_DEFINITION_END.code));
-            }
-        };
+        final List<ByteCodeInstruction> result = new ArrayList<>();
+        result.add(new ByteCodeInstruction(ENUM_DEFINITION_BEGIN.code));
+        for (final String member : enumDef.members()) {
+            final byte[] memberName = stringToBytes(member);
+            result.add(finish(instruction(ENUM_MEMBER_DEFINITION, 1 + memberName.length).put(STRING_VALUE.code).put(memberName)));
+        }
+        result.add(new ByteCodeInstruction(ENUM_DEFINITION_END.code));
+        return result;
     }
 
     public static ByteCodeInstruction nullValue() {
@@ -181,113 +216,81 @@ public enum ByteCode {
     }
 
     public static ByteCodeInstruction floating(final float literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(FLOAT_VALUE.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(floatToBytes(literal))).toList());
-        }});
+        return finish(instruction(FLOAT_VALUE, Float.BYTES).putFloat(literal));
     }
 
     public static ByteCodeInstruction doubleFloating(final double literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(DOUBLE_VALUE.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(doubleToBytes(literal))).toList());
-        }});
+        return finish(instruction(DOUBLE_VALUE, Double.BYTES).putDouble(literal));
     }
 
-    public static Byte[] doubleFloating(@NotNull final String value) {
-        return doubleFloating(Tokenizer.isDouble(value) != null ? Double.parseDouble(value) : 0d).codes();
+    public static byte[] doubleFloating(@NotNull final String value) {
+        return doubleFloating(Tokenizer.isDouble(value) != null ? Double.parseDouble(value) : 0d).bytes();
     }
 
-    public static Byte[] floating(@NotNull final String value) {
-        return floating(Tokenizer.isFloat(value) != null ? Float.parseFloat(value) : 0f).codes();
+    public static byte[] floating(@NotNull final String value) {
+        return floating(Tokenizer.isFloat(value) != null ? Float.parseFloat(value) : 0f).bytes();
     }
 
     public static double ofFloat(@NotNull final ByteCodeInstruction instr) {
-        return bytesToFloat(ArrayUtils.toPrimitive(Arrays.stream(instr.codes()).toList().subList(1, instr.codes().length - 1).toArray(new Byte[0])));
+        return Float.intBitsToFloat(instr.intAt(1));
     }
 
     public static ByteCodeInstruction longInteger(final long literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(LONG_INTEGER_VALUE.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(longToBytes(literal))).toList());
-        }});
+        return finish(instruction(LONG_INTEGER_VALUE, Long.BYTES).putLong(literal));
     }
 
     public static ByteCodeInstruction integer(final int literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(INTEGER_VALUE.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(literal))).toList());
-        }});
+        return ofInts(INTEGER_VALUE, literal);
     }
 
     public static ByteCodeInstruction stdlibFinishLine(final int line) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(STDLIB_FINISH_LINE.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(line))).toList());
-        }});
+        return ofInts(STDLIB_FINISH_LINE, line);
     }
 
     public static ByteCodeInstruction traceback(final int line) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(TRACEBACK.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(line))).toList());
-        }});
+        return ofInts(TRACEBACK, line);
     }
 
     public static ByteCodeInstruction character(final int literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(CHARACTER_VALUE.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(literal))).toList());
-        }});
+        return ofInts(CHARACTER_VALUE, literal);
     }
 
     public static ByteCodeInstruction byteValue(final byte literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(BYTE_VALUE.code);
-            this.add(literal);
-        }});
+        return new ByteCodeInstruction(BYTE_VALUE.code, literal);
     }
 
     public static ByteCodeInstruction boolValue(final boolean literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(BOOL_VALUE.code);
-            this.addAll(List.of(ArrayUtils.toObject(intToBytes(literal ? 1 : 0))));
-        }});
+        return ofInts(BOOL_VALUE, literal ? 1 : 0);
     }
 
-    public static Byte[] longInteger(@NotNull final String value) {
-        return longInteger(Tokenizer.isLong(value) != null ? Tokenizer.isLong(value) : 0L).codes();
+    public static byte[] longInteger(@NotNull final String value) {
+        return longInteger(Tokenizer.isLong(value) != null ? Tokenizer.isLong(value) : 0L).bytes();
     }
 
-    public static Byte[] integer(@NotNull final String value) {
-        return integer(Tokenizer.isInt(value) != null ? Tokenizer.isInt(value) : 0).codes();
+    public static byte[] integer(@NotNull final String value) {
+        return integer(Tokenizer.isInt(value) != null ? Tokenizer.isInt(value) : 0).bytes();
     }
 
-    public static Byte[] character(@NotNull final String value) {
-        return character((value.startsWith("'") ? value.charAt(1) : Integer.parseInt(value))).codes(); // integer, because characters support unicode
+    public static byte[] character(@NotNull final String value) {
+        return character((value.startsWith("'") ? value.charAt(1) : Integer.parseInt(value))).bytes(); // integer, because characters support unicode
     }
 
-    public static Byte[] bool(@NotNull final String value) {
-        return boolValue(value.equals("1b")).codes();
+    public static byte[] bool(@NotNull final String value) {
+        return boolValue(value.equals("1b")).bytes();
     }
 
     public static ByteCodeInstruction string(@NotNull final String literal) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(STRING_VALUE.code);
-            final byte[] stringBytes = literal.getBytes(StandardCharsets.ISO_8859_1);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(stringBytes.length))).toList());
-            this.addAll(Arrays.stream(ArrayUtils.toObject(stringBytes)).toList());
-        }});
+        final byte[] stringBytes = literal.getBytes(StandardCharsets.ISO_8859_1);
+        return finish(instruction(STRING_VALUE, Integer.BYTES + stringBytes.length).putInt(stringBytes.length).put(stringBytes));
     }
 
-    public static Byte[] stringToBytes(@NotNull final String literal) {
-        final Byte[] codes = string(literal).codes();
-        return Arrays.stream(codes).toList().subList(1, codes.length - 1).toArray(new Byte[0]);
+    public static byte[] stringToBytes(@NotNull final String literal) {
+        final ByteCodeInstruction string = string(literal);
+        return string.bytes(1, string.length() - 1);
     }
 
     public static String bytesToString(@NotNull final ByteCodeInstruction instr) { // 32 bit int length = 4 bytes + 1 byte for the STRING_LITERAL code = 5 bytes offset until the actual string
-        // but remove last byte, since that will be the INSTRUCTION_FINISH code
-        return new String(ArrayUtils.toPrimitive(Arrays.stream(instr.codes()).toList().subList(5, instr.codes().length - 1).toArray(new Byte[0])), StandardCharsets.ISO_8859_1);
+        return instr.stringAt(1);
     }
 
     public static String bytesToString(final byte[] arr) {
@@ -295,59 +298,78 @@ public enum ByteCode {
     }
 
     public static String bytesToString(final byte[] arr, final boolean removeLengthBytes) {
-        return new String(ArrayUtils.toPrimitive(Arrays.stream(ArrayUtils.toObject(arr)).toList().subList(4, arr.length).toArray(new Byte[0])), StandardCharsets.ISO_8859_1);
+        return new String(arr, Integer.BYTES, arr.length - Integer.BYTES, StandardCharsets.ISO_8859_1);
     }
 
     public static ByteCodeInstruction call(final long id) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(FUNCTION_CALL.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(longToBytes(id))).toList());
-        }});
+        return finish(instruction(FUNCTION_CALL, Long.BYTES).putLong(id));
+    }
+
+    // <code> LONG_INTEGER_VALUE <id> STRING_VALUE <length> <characters> INSTRUCT_FINISH
+    private static ByteBuffer functionDefinition(@NotNull final ByteCode code, @NotNull final String name, final long functionId, final int extraBytes) {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        return instruction(code, 1 + Long.BYTES + 1 + Integer.BYTES + nameBytes.length + 1 + extraBytes)
+                .put(LONG_INTEGER_VALUE.code).putLong(functionId)
+                .put(STRING_VALUE.code).putInt(nameBytes.length).put(nameBytes)
+                .put(INSTRUCT_FINISH.code);
     }
 
     public static ByteCodeInstruction function(@NotNull final String name, final long functionId) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(FUNCTION_DEFINITION_BEGIN.code);
-            this.addAll(Arrays.stream(longInteger(functionId).codes()).toList().subList(0, 9));
-            this.addAll(Arrays.stream(string(name).codes()).toList());
-        }});
+        return finish(functionDefinition(FUNCTION_DEFINITION_BEGIN, name, functionId, 0));
     }
 
     public static ByteCodeInstruction nativeFunction(@NotNull final String javaMethod, final long functionId) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(NATIVE_FUNCTION_DEFINITION_BEGIN.code);
-            this.addAll(Arrays.stream(longInteger(functionId).codes()).toList().subList(0, 9));
-            this.addAll(Arrays.stream(string(javaMethod).codes()).toList());
-            this.add(FUNCTION_DEFINITION_END.code);
-        }});
+        return finish(functionDefinition(NATIVE_FUNCTION_DEFINITION_BEGIN, javaMethod, functionId, 1).put(FUNCTION_DEFINITION_END.code));
+    }
+
+    private static ByteCodeInstruction ofType(@NotNull final ByteCode code, @NotNull final ByteDatatype type) {
+        final byte[] typeBytes = type.bytes();
+        return finish(instruction(code, typeBytes.length).put(typeBytes));
     }
 
     public static ByteCodeInstruction defineVariable(@NotNull final ByteDatatype type) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(DEFINE_VARIABLE.code);
-            this.addAll(List.of(type.bytes()));
-        }});
+        return ofType(DEFINE_VARIABLE, type);
     }
 
     public static ByteCodeInstruction declareVariable(@NotNull final ByteDatatype type) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(DECLARE_VARIABLE.code);
-            this.addAll(List.of(type.bytes()));
-        }});
+        return ofType(DECLARE_VARIABLE, type);
+    }
+
+    public static ByteCodeInstruction localFrame(final int maxLocals, final int maxStack) {
+        return ofInts(LOCAL_FRAME, maxLocals, maxStack);
+    }
+
+    public static ByteCodeInstruction defineLocal(final int slot) {
+        return ofInts(DEFINE_LOCAL, slot);
+    }
+
+    public static ByteCodeInstruction declareLocal(final int slot, @NotNull final ByteDatatype type) {
+        final byte[] typeBytes = type.bytes();
+        return finish(instruction(DECLARE_LOCAL, Integer.BYTES + typeBytes.length).putInt(slot).put(typeBytes));
+    }
+
+    public static ByteCodeInstruction loadGlobal(final int address) {
+        return ofInts(LOAD_GLOBAL, address);
+    }
+
+    public static ByteCodeInstruction storeGlobal(final int address) {
+        return ofInts(STORE_GLOBAL, address);
     }
 
     public static ByteCodeInstruction cast(@NotNull final ByteDatatype type) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(CAST.code);
-            this.addAll(List.of(type.bytes()));
-        }});
+        return ofType(CAST, type);
     }
 
     public static ByteCodeInstruction pop(final int amount) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(POP.code);
-            this.addAll(Arrays.stream(ArrayUtils.toObject(intToBytes(amount))).toList());
-        }});
+        return ofInts(POP, amount);
+    }
+
+    public static ByteCodeInstruction popPush() {
+        return new ByteCodeInstruction(POP_PUSH.code);
+    }
+
+    public static ByteCodeInstruction dup() {
+        return new ByteCodeInstruction(DUP.code);
     }
 
     public static ByteCodeInstruction header() {
@@ -357,24 +379,72 @@ public enum ByteCode {
     }
 
     public static ByteCodeInstruction jumpIf(final int to) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(JUMP_IF.code);
-            this.addAll(List.of(ArrayUtils.toObject(intToBytes(to))));
-        }});
+        return ofInts(JUMP_IF, to);
+    }
+
+    public static ByteCodeInstruction jumpIfNot(final int to) {
+        return ofInts(JUMP_IF_NOT, to);
+    }
+
+    // pushes the given value instruction, whose last byte (the instruction finish code) is left out
+    public static ByteCodeInstruction push(final byte @NotNull ... value) {
+        return finish(instruction(PUSH, value.length - 1).put(value, 0, value.length - 1));
+    }
+
+    public static ByteCodeInstruction push(@NotNull final ByteCodeInstruction value) {
+        return push(value.bytes());
+    }
+
+    // TABLE_SWITCH <low> <count> <default label> <label>*count
+    // LOOKUP_SWITCH <count> <default label> (<key> <label>)*count
+    public static ByteCodeInstruction switchInstruction(@NotNull final ByteCodeSwitch switchInstr) {
+        final int count = switchInstr.keys().length;
+        final boolean table = switchInstr.table();
+        final ByteBuffer instr = instruction(table ? TABLE_SWITCH : LOOKUP_SWITCH, ((table ? 3 : 2) + count * (table ? 1 : 2)) * Integer.BYTES);
+        if (table) instr.putInt(count == 0 ? 0 : switchInstr.keys()[0]);
+
+        instr.putInt(count).putInt(switchInstr.defaultLabel());
+        for (int i = 0; i < count; i++) {
+            if (!table) instr.putInt(switchInstr.keys()[i]);
+            instr.putInt(switchInstr.labels()[i]);
+        }
+        return finish(instr);
+    }
+
+    public static ByteCodeSwitch ofSwitch(@NotNull final ByteCodeInstruction instr) {
+        final boolean table = instr.code(0) == TABLE_SWITCH.code;
+        if (!table && instr.code(0) != LOOKUP_SWITCH.code) throw new ByteCodeException("Expected a switch instruction, got " + instr);
+
+        int at = 1;
+        final int low = table ? instr.intAt(at) : 0;
+        if (table) at += Integer.BYTES;
+        final int count = instr.intAt(at);
+        final int defaultLabel = instr.intAt(at + Integer.BYTES);
+        at += 2 * Integer.BYTES;
+        final int[] keys = new int[count];
+        final int[] labels = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (table) keys[i] = low + i;
+            else {
+                keys[i] = instr.intAt(at);
+                at += Integer.BYTES;
+            }
+            labels[i] = instr.intAt(at);
+            at += Integer.BYTES;
+        }
+        return new ByteCodeSwitch(table, defaultLabel, keys, labels);
+    }
+
+    public static ByteCodeInstruction rangeLoopEnter(final int counterAddress, final int to) {
+        return ofInts(RANGE_LOOP_ENTER, counterAddress, to);
     }
 
-    public static ByteCodeInstruction push(@NotNull final Byte... value) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(PUSH.code);
-            this.addAll(List.of(value).subList(0, value.length - 1));
-        }});
+    public static ByteCodeInstruction rangeLoopNext(final int counterAddress, final int to) {
+        return ofInts(RANGE_LOOP_NEXT, counterAddress, to);
     }
 
     public static ByteCodeInstruction jump(final int to) {
-        return new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(JUMP.code);
-            this.addAll(List.of(ArrayUtils.toObject(intToBytes(to))));
-        }});
+        return ofInts(JUMP, to);
     }
 
 }
@@ -0,0 +1,70 @@
+package org.crayne.mi.bytecode.common;
+
+import org.jetbrains.annotations.NotNull;
+
+// builds the instructions of a loaded program into a few large shared chunks instead of one array per instruction.
+// an instruction is begun, its operands are put and it is finished, after which its codes never change again.
+// instructions never span two chunks, so one that does not fit anymore is moved into the next chunk while it is being built
+public class ByteCodeBuffer {
+
+    public static final int CHUNK_SIZE = 1 << 16;
+    private static final int FIRST_CHUNK_SIZE = 1 << 12;
+
+    private byte[] chunk = new byte[FIRST_CHUNK_SIZE];
+    private int begin;
+    private int position;
+
+    public ByteCodeBuffer begin(final byte opcode) {
+        position = begin;
+        return put(opcode);
+    }
+
+    public ByteCodeBuffer put(final byte b) {
+        reserve(1);
+        chunk[position++] = b;
+        return this;
+    }
+
+    public ByteCodeBuffer put(final byte @NotNull [] bytes, final int offset, final int length) {
+        reserve(length);
+        System.arraycopy(bytes, offset, chunk, position, length);
+        position += length;
+        return this;
+    }
+
+    public ByteCodeBuffer put(final byte @NotNull [] bytes) {
+        return put(bytes, 0, bytes.length);
+    }
+
+    public ByteCodeBuffer putInt(final int i) {
+        reserve(Integer.BYTES);
+        chunk[position++] = (byte) (i >>> 24);
+        chunk[position++] = (byte) (i >>> 16);
+        chunk[position++] = (byte) (i >>> 8);
+        chunk[position++] = (byte) i;
+        return this;
+    }
+
+    public ByteCodeBuffer putLong(final long l) {
+        return putInt((int) (l >>> 32)).putInt((int) l);
+    }
+
+    // adds the instruction finish code and hands out the instruction
+    public ByteCodeInstruction finish() {
+        put(ByteCode.INSTRUCT_FINISH.code());
+        final ByteCodeInstruction instr = ByteCodeInstruction.of(chunk, begin, position - begin);
+        begin = position;
+        return instr;
+    }
+
+    private void reserve(final int bytes) {
+        if (chunk.length - position >= bytes) return;
+        final int building = position - begin;
+        final byte[] next = new byte[Math.max(Math.min(chunk.length * 2, CHUNK_SIZE), building + bytes)];
+        System.arraycopy(chunk, begin, next, 0, building);
+        chunk = next;
+        begin = 0;
+        position = building;
+    }
+
+}
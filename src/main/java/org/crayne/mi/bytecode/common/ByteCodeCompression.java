@@ -0,0 +1,79 @@
+package org.crayne.mi.bytecode.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// how the sections of a .mib file are compressed. files written without compression stay version 2 files,
+// compressed ones are version 3 files, whose sections and functions are deflated whenever that makes them smaller (see ByteCodeFileFormat)
+public enum ByteCodeCompression {
+
+    NONE(Deflater.NO_COMPRESSION),
+
+    // deflates quickly, for files that are written often
+    SPEED(Deflater.BEST_SPEED),
+
+    // the smallest files, at the cost of a slower compilation. inflating is just as fast as with SPEED
+    RATIO(Deflater.BEST_COMPRESSION);
+
+    public static final ByteCodeCompression DEFAULT = NONE;
+
+    // deflate never compresses better than about 1032 to 1
+    private static final int MAX_RATIO = 1032;
+
+    private final int level;
+
+    ByteCodeCompression(final int level) {
+        this.level = level;
+    }
+
+    // 'none', 'speed' or 'ratio'
+    public static Optional<ByteCodeCompression> of(@NotNull final String compression) {
+        return Arrays.stream(values()).filter(c -> c.name().equalsIgnoreCase(compression.trim())).findFirst();
+    }
+
+    public byte[] deflate(final byte @NotNull [] bytes) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            final byte[] buffer = new byte[8192];
+            while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // the given amount of bytes, inflated from the remaining bytes of the buffer. the length comes from the file,
+    // so it is checked against the most that deflate could ever have compressed the stored bytes from, before anything is allocated for it
+    public static ByteBuffer inflate(@NotNull final ByteBuffer deflated, final int length) {
+        if (length < 0 || length > (long) deflated.remaining() * MAX_RATIO + 16)
+            throw new ByteCodeException("Compressed section of " + deflated.remaining() + " bytes cannot inflate to " + length + " bytes");
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(deflated.duplicate());
+            final byte[] bytes = new byte[length];
+            int at = 0;
+            while (at < length) {
+                final int inflated = inflater.inflate(bytes, at, length - at);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                at += inflated;
+            }
+            if (at != length) throw new ByteCodeException("Compressed section does not inflate to its length of " + length + " bytes");
+            return ByteBuffer.wrap(bytes);
+        } catch (final DataFormatException e) {
+            throw new ByteCodeException("Malformed compressed section: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package org.crayne.mi.bytecode.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// every string, long and double of a program, each stored once and referred to by its index
+public class ByteCodeConstantPool {
+
+    private final List<Object> constants;
+    private final Map<Object, Integer> indices = new HashMap<>();
+
+    public ByteCodeConstantPool() {
+        this.constants = new ArrayList<>();
+    }
+
+    private ByteCodeConstantPool(@NotNull final List<Object> constants) {
+        this.constants = constants;
+    }
+
+    private int add(@NotNull final Object constant) {
+        return indices.computeIfAbsent(constant, c -> {
+            constants.add(c);
+            return constants.size() - 1;
+        });
+    }
+
+    public int string(@NotNull final String value) {
+        return add(value);
+    }
+
+    public int longInteger(final long value) {
+        return add(value);
+    }
+
+    public int doubleFloating(final double value) {
+        return add(value);
+    }
+
+    public int size() {
+        return constants.size();
+    }
+
+    private <T> T get(final int index, @NotNull final Class<T> type) {
+        if (index < 0 || index >= constants.size()) throw new ByteCodeException("Constant pool index " + index + " out of bounds for " + constants.size() + " constants");
+        final Object constant = constants.get(index);
+        if (!type.isInstance(constant)) throw new ByteCodeException("Expected a " + type.getSimpleName().toLowerCase() + " at constant pool index " + index);
+        return type.cast(constant);
+    }
+
+    public String string(final int index) {
+        return get(index, String.class);
+    }
+
+    public long longInteger(final int index) {
+        return get(index, Long.class);
+    }
+
+    public double doubleFloating(final int index) {
+        return get(index, Double.class);
+    }
+
+    public void write(@NotNull final ByteArrayOutputStream out) {
+        ByteCodeFileFormat.writeVarInt(out, constants.size());
+        for (final Object constant : constants) {
+            if (constant instanceof final String s) {
+                final byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+                out.write(ByteCode.STRING_VALUE.code());
+                ByteCodeFileFormat.writeVarInt(out, bytes.length);
+                out.writeBytes(bytes);
+            } else if (constant instanceof final Long l) {
+                out.write(ByteCode.LONG_INTEGER_VALUE.code());
+                out.writeBytes(ByteCode.longToBytes(l));
+            } else {
+                out.write(ByteCode.DOUBLE_VALUE.code());
+                out.writeBytes(ByteCode.doubleToBytes((Double) constant));
+            }
+        }
+    }
+
+    public static ByteCodeConstantPool read(@NotNull final ByteBuffer in) {
+        final int count = ByteCodeFileFormat.readVarInt(in);
+        if (count < 0) throw new ByteCodeException("Negative constant count in constant pool");
+        final List<Object> constants = new ArrayList<>(Math.min(count, in.remaining()));
+        for (int i = 0; i < count; i++) {
+            final byte tag = in.get();
+            if (tag == ByteCode.STRING_VALUE.code()) {
+                final byte[] bytes = new byte[ByteCodeFileFormat.readVarInt(in)];
+                in.get(bytes);
+                constants.add(new String(bytes, StandardCharsets.ISO_8859_1));
+            } else if (tag == ByteCode.LONG_INTEGER_VALUE.code()) {
+                constants.add(in.getLong());
+            } else if (tag == ByteCode.DOUBLE_VALUE.code()) {
+                constants.add(in.getDouble());
+            } else {
+                throw new ByteCodeException("Unknown constant type " + String.format("%02x", tag) + " in constant pool");
+            }
+        }
+        return new ByteCodeConstantPool(constants);
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.crayne.mi.bytecode.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+// the layout of a compiled .mib file. version 1 files are nothing but the instructions written one after another,
+// version 2 files begin with the same five bytes as the program header of version 1, followed by the version and a table of sections:
+//
+//   01 00 6D 00 75 <version> <section count> { <section id> <offset> <length> }*   (offsets and lengths are 4 byte ints, relative to the beginning of the file)
+//
+// version 3 files are laid out the same way, except that every section says how it is stored and how long it is once inflated:
+//
+//   01 00 6D 00 75 03 <section count> { <section id> <STORED | DEFLATED | CHUNKED> <offset> <stored length> <length> }*
+//
+// the code of a version 3 file is always CHUNKED: every function is deflated on its own, and so is the code in between two functions,
+// so that a function only has to be inflated once it is decoded. the function table says where each function is stored.
+// the code in between functions starts where the function before it is stored and ends where the next one is stored.
+// where every function is stored is only known once it is deflated, so the function table of a version 3 file comes after its code.
+//
+// the constant pool holds every string, long and double used by the program only once, the function table holds the id, name, the types
+// of the parameters and code offset of every function together with its line table, and the code holds the instructions,
+// with their operands written as variable length integers or indices into the constant pool
+public class ByteCodeFileFormat {
+
+    private ByteCodeFileFormat() {}
+
+    public static final byte VERSION = 2;
+    public static final byte COMPRESSED_VERSION = 3;
+
+    // how a section of a version 3 file is stored, see ByteCodeCompression
+    public static final byte STORED = 0x00;
+    public static final byte DEFLATED = 0x01;
+    public static final byte CHUNKED = 0x02;
+
+    private static final byte[] MAGIC = new byte[] {ByteCode.PROGRAM_HEADER.code(), (byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75};
+
+    public enum Section {
+        CONSTANTS((byte) 0x01),
+        FUNCTIONS((byte) 0x02),
+        CODE((byte) 0x03);
+
+        private final byte id;
+
+        Section(final byte id) {
+            this.id = id;
+        }
+
+        public byte id() {
+            return id;
+        }
+
+        public static Section of(final byte id) {
+            for (final Section section : values()) {
+                if (section.id == id) return section;
+            }
+            throw new ByteCodeException("Unknown bytecode file section " + id);
+        }
+    }
+
+    public static boolean supported(final int version) {
+        return version == VERSION || version == COMPRESSED_VERSION;
+    }
+
+    public static int sectionEntrySize(final int version) {
+        return version == COMPRESSED_VERSION ? 2 + 3 * Integer.BYTES : 1 + 2 * Integer.BYTES;
+    }
+
+    public static int headerSize(final int version, final int sections) {
+        return MAGIC.length + 2 + sections * sectionEntrySize(version);
+    }
+
+    public static void writeMagic(@NotNull final ByteBuffer out, final byte version) {
+        out.put(MAGIC);
+        out.put(version);
+    }
+
+    // the version of the file in the given buffer, without moving its position
+    public static int version(@NotNull final ByteBuffer in) {
+        if (in.remaining() <= MAGIC.length) throw new ByteCodeException("Reached end of file");
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (in.get(in.position() + i) != MAGIC[i]) throw new ByteCodeException("Not an mi bytecode file, missing the program header");
+        }
+        return in.get(in.position() + MAGIC.length);
+    }
+
+    public static int version(final byte @NotNull [] file) {
+        return version(ByteBuffer.wrap(file));
+    }
+
+    // unsigned LEB128, so negative ints still round trip, they just take five bytes
+    public static void writeVarInt(@NotNull final ByteArrayOutputStream out, final int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    public static void writeVarLong(@NotNull final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    // zigzag first, for values that are just as likely to be small and negative
+    public static void writeSignedVarInt(@NotNull final ByteArrayOutputStream out, final int value) {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readVarInt(@NotNull final ByteBuffer in) {
+        return (int) readVarLong(in);
+    }
+
+    public static long readVarLong(@NotNull final ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new ByteCodeException("Malformed variable length integer at position " + in.position());
+    }
+
+    public static int readSignedVarInt(@NotNull final ByteBuffer in) {
+        final int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.crayne.mi.bytecode.common;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+// an entry of the function table of a version 2 .mib file. index is the position of the definition in the program, codeOffset and codeLength
+// the position and size of the encoded function in the code section and length the number of instructions up to and including the end of the function.
+// storedOffset and storedLength are where the function is in the code section as it is stored in the file, which is only different
+// in version 3 files, where every function is deflated on its own.
+// native functions have no body and no parameters in the table, their name is the java method they are bound to.
+// lines maps the position of every traceback inside of the function (relative to its definition) to its line
+public record ByteCodeFunctionEntry(long id, @NotNull String name, @NotNull List<ByteDatatype> parameters, boolean nativeFunction,
+                                    int index, int codeOffset, int codeLength, int storedOffset, int storedLength, int length,
+                                    @NotNull SortedMap<Integer, Integer> lines) {
+
+    // the same function, stored somewhere else
+    public ByteCodeFunctionEntry stored(final int offset, final int length) {
+        return new ByteCodeFunctionEntry(id, name, parameters, nativeFunction, index, codeOffset, codeLength, offset, length, this.length, lines);
+    }
+
+    // functions that do not get any smaller when deflated are stored as they are
+    public boolean deflated() {
+        return storedLength < codeLength;
+    }
+
+    // the signature as the compiler writes it into the definition, for example '!PARENT.testing.add[int:2, int:2]'
+    public String signature() {
+        return nativeFunction ? name : name + parameters;
+    }
+
+    public static String name(@NotNull final String signature) {
+        final int parameters = signature.indexOf('[');
+        return parameters == -1 ? signature : signature.substring(0, parameters);
+    }
+
+    // only needed where all there is to go by is the signature, like in version 1 files
+    public static List<ByteDatatype> parameters(@NotNull final String signature) {
+        final String parameters = StringUtils.substringBetween(signature, "[", "]");
+        if (parameters == null || parameters.isEmpty()) return List.of();
+        return Arrays.stream(parameters.split(", ")).map(ByteDatatype::fromString).toList();
+    }
+
+}
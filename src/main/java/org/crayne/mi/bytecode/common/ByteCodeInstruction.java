@@ -1,42 +1,94 @@
 package org.crayne.mi.bytecode.common;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.crayne.mi.bytecode.reader.ByteCodeReader;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class ByteCodeInstruction {
 
-    private final Byte[] codes;
+    // the codes of the instruction, ending with the instruction finish code, are codes[offset] up to codes[offset + length - 1].
+    // the instructions of a loaded program share the buffers of their program (see ByteCodeBuffer), so the array is never handed out
+    private final byte[] codes;
+    private final int offset;
+    private final int length;
 
-    public ByteCodeInstruction(@NotNull final Collection<Byte> codes) {
-        if (codes.isEmpty()) throw new IllegalArgumentException("Expected bytecode values for instruction, received empty array");
-
-        final List<Byte> codeList = new ArrayList<>(codes);
-        codeList.add(ByteCode.INSTRUCT_FINISH.code());
-        this.codes = codeList.toArray(new Byte[0]);
+    private ByteCodeInstruction(final byte @NotNull [] codes, final int offset, final int length) {
+        this.codes = codes;
+        this.offset = offset;
+        this.length = length;
     }
 
-    public ByteCodeInstruction(@NotNull final Byte... codes) {
+    // the given codes, without the instruction finish code
+    public ByteCodeInstruction(final byte @NotNull ... codes) {
         if (codes.length == 0) throw new IllegalArgumentException("Expected bytecode values for instruction, received empty array");
 
-        final List<Byte> codeList = new ArrayList<>(List.of(codes.clone()));
-        codeList.add(ByteCode.INSTRUCT_FINISH.code());
-        this.codes = codeList.toArray(new Byte[0]);
+        this.codes = Arrays.copyOf(codes, codes.length + 1);
+        this.codes[codes.length] = ByteCode.INSTRUCT_FINISH.code();
+        this.offset = 0;
+        this.length = this.codes.length;
+    }
+
+    // takes over the given part of the array, which already ends with the instruction finish code and must not change anymore
+    public static ByteCodeInstruction of(final byte @NotNull [] codes, final int offset, final int length) {
+        if (length < 2) throw new IllegalArgumentException("Expected bytecode values for instruction, received empty array");
+        if (codes[offset + length - 1] != ByteCode.INSTRUCT_FINISH.code()) throw new IllegalArgumentException("Expected the instruction to end with the instruction finish code");
+        return new ByteCodeInstruction(codes, offset, length);
+    }
+
+    public static ByteCodeInstruction of(final byte @NotNull [] codes) {
+        return of(codes, 0, codes.length);
     }
 
     public Optional<ByteCode> type() {
-        return ByteCode.of(codes[0]);
+        return ByteCode.of(codes[offset]);
+    }
+
+    // the amount of codes, including the instruction finish code
+    public int length() {
+        return length;
+    }
+
+    public byte code(final int index) {
+        return codes[offset + Objects.checkIndex(index, length)];
+    }
+
+    public int intAt(final int index) {
+        Objects.checkFromIndexSize(index, Integer.BYTES, length);
+        final int at = offset + index;
+        return (codes[at] & 0xFF) << 24 | (codes[at + 1] & 0xFF) << 16 | (codes[at + 2] & 0xFF) << 8 | (codes[at + 3] & 0xFF);
+    }
+
+    public long longAt(final int index) {
+        return (long) intAt(index) << 32 | (intAt(index + Integer.BYTES) & 0xFFFFFFFFL);
+    }
+
+    // a string stored as its length followed by its characters, beginning at the given index
+    public String stringAt(final int index) {
+        final int stringLength = intAt(index);
+        Objects.checkFromIndexSize(index + Integer.BYTES, stringLength, length);
+        return new String(codes, offset + index + Integer.BYTES, stringLength, StandardCharsets.ISO_8859_1);
     }
 
-    public Byte[] codes() {
-        return codes;
+    // a copy of the codes, including the instruction finish code
+    public byte[] bytes() {
+        return Arrays.copyOfRange(codes, offset, offset + length);
+    }
+
+    public byte[] bytes(final int begin, final int end) {
+        Objects.checkFromToIndex(begin, end, length);
+        return Arrays.copyOfRange(codes, offset + begin, offset + end);
+    }
+
+    // a read only view of the codes, including the instruction finish code
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(codes, offset, length).slice().asReadOnlyBuffer();
     }
 
     public static String write(@NotNull final ByteCodeInstruction instr) {
-        return new String(ArrayUtils.toPrimitive(instr.codes), StandardCharsets.ISO_8859_1);
+        return new String(instr.codes, instr.offset, instr.length, StandardCharsets.ISO_8859_1);
     }
 
     public String write() {
@@ -44,28 +96,17 @@ public class ByteCodeInstruction {
     }
 
     public static ByteCodeInstruction read(@NotNull final String instr) {
-        return new ByteCodeInstruction(
-                Arrays.stream(ArrayUtils.toObject(instr.getBytes(StandardCharsets.ISO_8859_1)))
-                        .toList()
-                        .subList(0, instr.length() - 1)
-                        .toArray(new Byte[0])
-        );
+        return of(instr.getBytes(StandardCharsets.ISO_8859_1));
     }
 
     public String toString() {
         final Optional<ByteCode> type = type();
         if (type.isEmpty()) return ";";
-        if (codes.length == 2) return type.get().name().toLowerCase() + " ;";
-
-        return type.get().name().toLowerCase() + " " + String.join(" ",
-                Arrays.stream(codes)
-                        .toList()
-                        .subList(1, codes.length - 1)
-                        .stream()
-                        .map(ByteCodeReader::byteToHexString)
-                        //.map(b -> "" + (int) b)
-                        .toList()
-        ).trim() + " ;";
+        if (length == 2) return type.get().name().toLowerCase() + " ;";
+
+        final StringJoiner operands = new StringJoiner(" ");
+        for (int i = 1; i < length - 1; i++) operands.add(ByteCodeReader.byteToHexString(code(i)));
+        return type.get().name().toLowerCase() + " " + operands.toString().trim() + " ;";
     }
 
 }
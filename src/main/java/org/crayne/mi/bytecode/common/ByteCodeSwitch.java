@@ -0,0 +1,48 @@
+package org.crayne.mi.bytecode.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.function.IntUnaryOperator;
+
+public record ByteCodeSwitch(boolean table, int defaultLabel, int @NotNull [] keys, int @NotNull [] labels) {
+
+    // a table needs one label for every key between the lowest and the highest one (holes jump to the default label),
+    // so it is only used as long as at most half of its entries would be holes
+    public static ByteCodeSwitch of(@NotNull final SortedMap<Integer, Integer> cases, final int defaultLabel) {
+        if (cases.isEmpty()) return new ByteCodeSwitch(false, defaultLabel, new int[0], new int[0]);
+
+        final long range = (long) cases.lastKey() - cases.firstKey() + 1;
+        if (range <= 2L * cases.size()) {
+            final int low = cases.firstKey();
+            final int[] keys = new int[(int) range];
+            final int[] labels = new int[(int) range];
+            for (int i = 0; i < range; i++) {
+                keys[i] = low + i;
+                labels[i] = cases.getOrDefault(low + i, defaultLabel);
+            }
+            return new ByteCodeSwitch(true, defaultLabel, keys, labels);
+        }
+        return new ByteCodeSwitch(false, defaultLabel,
+                cases.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                cases.values().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    public int labelOf(final int key) {
+        if (table) {
+            final long index = (long) key - (keys.length == 0 ? 0 : keys[0]);
+            return index < 0 || index >= labels.length ? defaultLabel : labels[(int) index];
+        }
+        final int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? defaultLabel : labels[index];
+    }
+
+    public ByteCodeSwitch relabel(@NotNull final IntUnaryOperator newLabel) {
+        return new ByteCodeSwitch(table, newLabel.applyAsInt(defaultLabel), keys, Arrays.stream(labels).map(newLabel).toArray());
+    }
+
+    public String toString() {
+        return (table ? "table" : "lookup") + "switch(" + defaultLabel + ", " + Arrays.toString(keys) + " -> " + Arrays.toString(labels) + ")";
+    }
+}
@@ -1,11 +1,9 @@
 package org.crayne.mi.bytecode.common;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 public class ByteDatatype {
 
@@ -102,12 +100,9 @@ public class ByteDatatype {
         return id;
     }
 
-    public Byte[] bytes() {
-        if (id != 7) return new Byte[] {code};
-        return new ArrayList<Byte>() {{
-            this.add(code);
-            this.addAll(List.of(ArrayUtils.toObject(ByteCode.intToBytes(id))));
-        }}.toArray(new Byte[0]);
+    public byte[] bytes() {
+        if (id != 7) return new byte[] {code};
+        return ByteBuffer.allocate(1 + Integer.BYTES).put(code).putInt(id).array();
     }
 
     public String toString() {
@@ -0,0 +1,174 @@
+package org.crayne.mi.bytecode.linker;
+
+import org.crayne.mi.bytecode.common.*;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.Function;
+
+public class ByteCodeLinker {
+
+    private record Relocation(@NotNull Map<Long, Long> functions, @NotNull Map<Long, Long> globals, @NotNull Map<Long, Long> enums) {}
+
+    private final List<ByteCodeObject> objects;
+    private final Map<ByteCodeSymbol.Kind, Map<String, Long>> exported = new EnumMap<>(ByteCodeSymbol.Kind.class);
+    private final Map<ByteCodeSymbol.Kind, Map<String, ByteCodeObject>> exportedBy = new EnumMap<>(ByteCodeSymbol.Kind.class);
+    private final List<Relocation> relocations = new ArrayList<>();
+
+    public ByteCodeLinker(@NotNull final List<ByteCodeObject> objects) {
+        this.objects = objects;
+        for (final ByteCodeSymbol.Kind kind : ByteCodeSymbol.Kind.values()) {
+            exported.put(kind, new HashMap<>());
+            exportedBy.put(kind, new HashMap<>());
+        }
+    }
+
+    public static List<ByteCodeInstruction> link(@NotNull final List<ByteCodeObject> objects) {
+        return new ByteCodeLinker(objects).link();
+    }
+
+    // the standard library keeps its ids, everything defined by an object gets the next free id in link order,
+    // which is exactly the order the runtime gives out global addresses and enum ids in, since the sections are appended in that order too
+    public List<ByteCodeInstruction> link() {
+        if (objects.isEmpty()) throw new ByteCodeException("Expected at least one object to link");
+        final ByteCodeObject first = objects.get(0);
+        for (final ByteCodeObject object : objects) {
+            if (!object.stdlibHash().equals(first.stdlibHash()))
+                throw new ByteCodeException("Cannot link objects that were compiled against different standard libraries");
+        }
+        assignExports(first);
+        for (int i = 0; i < objects.size(); i++) resolveImports(objects.get(i), relocations.get(i));
+
+        final List<ByteCodeInstruction> program = new ArrayList<>();
+        program.add(ByteCode.header());
+        program.add(ByteCode.stdlibFinishLine(first.stdlibFinishLine()));
+        append(program, first.stdlib().globals());
+        appendUnits(program, ByteCodeUnit::globals);
+        append(program, first.stdlib().enums());
+        appendUnits(program, ByteCodeUnit::enums);
+        append(program, first.stdlib().natives());
+        appendUnits(program, ByteCodeUnit::natives);
+        append(program, first.stdlib().scopes());
+        appendUnits(program, ByteCodeUnit::scopes);
+        append(program, first.stdlib().result());
+        appendUnits(program, ByteCodeUnit::result);
+        return program;
+    }
+
+    private void assignExports(@NotNull final ByteCodeObject first) {
+        final Map<ByteCodeSymbol.Kind, Long> next = new EnumMap<>(Map.of(
+                ByteCodeSymbol.Kind.FUNCTION, first.stdlibFunctions(),
+                ByteCodeSymbol.Kind.GLOBAL, (long) first.stdlibGlobals() + 1, // global addresses begin at 1
+                ByteCodeSymbol.Kind.ENUM, (long) first.stdlibEnums()));
+
+        for (final ByteCodeObject object : objects) {
+            final Relocation relocation = new Relocation(new HashMap<>(), new HashMap<>(), new HashMap<>());
+            relocations.add(relocation);
+
+            final List<ByteCodeSymbol> exports = object.exports().stream().sorted(Comparator.comparingLong(ByteCodeSymbol::id)).toList();
+            for (final ByteCodeSymbol symbol : exports) {
+                final ByteCodeObject previous = exportedBy.get(symbol.kind()).putIfAbsent(symbol.name(), object);
+                if (previous != null) throw new ByteCodeException("Symbol '" + symbol.name() + "' is defined by more than one object");
+
+                final long id = next.get(symbol.kind());
+                next.put(symbol.kind(), id + 1);
+                exported.get(symbol.kind()).put(symbol.name(), id);
+                relocationOf(relocation, symbol.kind()).put(symbol.id(), id);
+            }
+        }
+    }
+
+    private static Map<Long, Long> relocationOf(@NotNull final Relocation relocation, @NotNull final ByteCodeSymbol.Kind kind) {
+        return switch (kind) {
+            case FUNCTION -> relocation.functions();
+            case GLOBAL -> relocation.globals();
+            case ENUM -> relocation.enums();
+        };
+    }
+
+    private void resolveImports(@NotNull final ByteCodeObject object, @NotNull final Relocation relocation) {
+        for (final ByteCodeSymbol symbol : object.imports()) {
+            final Long id = exported.get(symbol.kind()).get(symbol.name());
+            if (id == null) throw new ByteCodeException("Unresolved " + symbol.kind().name().toLowerCase() + " '" + symbol.name() + "', no object defines it");
+            relocationOf(relocation, symbol.kind()).put(symbol.id(), id);
+        }
+    }
+
+    private void appendUnits(@NotNull final List<ByteCodeInstruction> program, @NotNull final Function<ByteCodeUnit, List<ByteCodeInstruction>> section) {
+        for (int i = 0; i < objects.size(); i++) {
+            final ByteCodeObject object = objects.get(i);
+            final Relocation relocation = relocations.get(i);
+            final List<ByteCodeInstruction> instrs = section.apply(object.unit());
+
+            final List<ByteCodeInstruction> relocated = new ArrayList<>(instrs.size());
+            for (int j = 0; j < instrs.size(); j++) {
+                relocated.add(relocate(object, relocation, instrs.get(j), j + 1 < instrs.size() ? instrs.get(j + 1) : null));
+            }
+            append(program, relocated);
+        }
+    }
+
+    // branch targets of every section are relative to its beginning
+    private static void append(@NotNull final List<ByteCodeInstruction> program, @NotNull final List<ByteCodeInstruction> section) {
+        final int offset = program.size();
+        for (final ByteCodeInstruction instr : section) {
+            program.add(ByteCodeLabels.isBranch(instr) ? ByteCodeLabels.relocate(instr, t -> t + offset) : instr);
+        }
+    }
+
+    private static long relocate(@NotNull final Map<Long, Long> relocation, final long id, final long stdlibIds, @NotNull final String what) {
+        if (id < stdlibIds) return id;
+        final Long relocated = relocation.get(id);
+        if (relocated == null) throw new ByteCodeException("Object references unknown " + what + " " + id);
+        return relocated;
+    }
+
+    // objects are never optimized, so the compiler output still has its exact shape: a global variable is either accessed with its address
+    // embedded in LOAD_GLOBAL or STORE_GLOBAL, or by pushing its address right before the instruction that uses it,
+    // while local variables are accessed by relative address or converted with RELATIVE_TO_ABSOLUTE_ADDRESS first
+    private static boolean usesGlobalAddress(final ByteCodeInstruction next) {
+        if (next == null) return false;
+        final ByteCode type = next.type().orElse(null);
+        return type == ByteCode.VALUE_AT_ADDRESS || type == ByteCode.MUTATE_VARIABLE || type == ByteCode.MUTATE_VARIABLE_AND_PUSH
+                || type == ByteCode.INC_VARIABLE || type == ByteCode.DEC_VARIABLE || type == ByteCode.INC_VARIABLE_AND_PUSH || type == ByteCode.DEC_VARIABLE_AND_PUSH;
+    }
+
+    private static ByteCodeInstruction relocate(@NotNull final ByteCodeObject object, @NotNull final Relocation relocation,
+                                                @NotNull final ByteCodeInstruction instr, final ByteCodeInstruction next) {
+        final byte[] codes = instr.bytes();
+        final ByteCode type = instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+        return switch (type) {
+            case FUNCTION_CALL -> ByteCode.call(relocate(relocation.functions(), ByteCodeLabels.longOperand(instr), object.stdlibFunctions(), "function"));
+            case LOAD_GLOBAL, STORE_GLOBAL -> {
+                final long relocated = relocate(relocation.globals(), ByteCodeLabels.intOperand(instr), object.stdlibGlobals() + 1L, "global variable");
+                yield type == ByteCode.LOAD_GLOBAL ? ByteCode.loadGlobal((int) relocated) : ByteCode.storeGlobal((int) relocated);
+            }
+            case FUNCTION_DEFINITION_BEGIN, NATIVE_FUNCTION_DEFINITION_BEGIN -> {
+                final long id = relocate(relocation.functions(), ByteCodeLabels.definitionId(instr), object.stdlibFunctions(), "function");
+                yield patch(codes, 2, ByteCode.longToBytes(id));
+            }
+            case PUSH -> {
+                if (codes[1] == ByteCode.ENUM_VALUE.code()) {
+                    final ByteCodeEnumMember member = ByteCode.ofEnumMember(new ByteCodeInstruction(Arrays.copyOfRange(codes, 1, codes.length - 1)));
+                    final long id = relocate(relocation.enums(), member.enumId(), object.stdlibEnums(), "enum");
+                    yield ByteCode.push(ByteCode.enumMember(new ByteCodeEnumMember((int) id, member.ordinal())));
+                }
+                if (codes[1] == ByteCode.INTEGER_VALUE.code() && usesGlobalAddress(next)) {
+                    final int address = instr.intAt(2);
+                    final long relocated = relocate(relocation.globals(), address, object.stdlibGlobals() + 1L, "global variable");
+                    yield ByteCode.push(ByteCode.integer((int) relocated));
+                }
+                yield instr;
+            }
+            default -> instr;
+        };
+    }
+
+    // the codes are a copy of the instruction, so they can be patched in place
+    private static ByteCodeInstruction patch(final byte @NotNull [] codes, final int at, final byte @NotNull [] value) {
+        System.arraycopy(value, 0, codes, at, value.length);
+        return ByteCodeInstruction.of(codes);
+    }
+
+}
@@ -0,0 +1,210 @@
+package org.crayne.mi.bytecode.linker;
+
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// a relocatable object, compiled from a single mi file. the standard library is compiled into every object, so that the linker
+// does not need a compiler; the linker only takes it from the first object and checks that all others were compiled against the same one
+public class ByteCodeObject {
+
+    private static final int MAGIC = 0x006D696F; // 'mio'
+    private static final int FORMAT_VERSION = 1;
+
+    private final String stdlibHash;
+    private final int stdlibFinishLine;
+    private final long stdlibFunctions;
+    private final int stdlibGlobals;
+    private final int stdlibEnums;
+    private final ByteCodeUnit stdlib;
+    private final ByteCodeUnit unit;
+    private final List<ByteCodeSymbol> symbols;
+
+    public ByteCodeObject(@NotNull final String stdlibHash, final int stdlibFinishLine, final long stdlibFunctions, final int stdlibGlobals, final int stdlibEnums,
+                          @NotNull final ByteCodeUnit stdlib, @NotNull final ByteCodeUnit unit, @NotNull final List<ByteCodeSymbol> symbols) {
+        this.stdlibHash = stdlibHash;
+        this.stdlibFinishLine = stdlibFinishLine;
+        this.stdlibFunctions = stdlibFunctions;
+        this.stdlibGlobals = stdlibGlobals;
+        this.stdlibEnums = stdlibEnums;
+        this.stdlib = stdlib;
+        this.unit = unit;
+        this.symbols = symbols;
+    }
+
+    public String stdlibHash() {
+        return stdlibHash;
+    }
+
+    public int stdlibFinishLine() {
+        return stdlibFinishLine;
+    }
+
+    // ids below these belong to the standard library, which keeps the same ids in every object
+    public long stdlibFunctions() {
+        return stdlibFunctions;
+    }
+
+    public int stdlibGlobals() {
+        return stdlibGlobals;
+    }
+
+    public int stdlibEnums() {
+        return stdlibEnums;
+    }
+
+    public ByteCodeUnit stdlib() {
+        return stdlib;
+    }
+
+    public ByteCodeUnit unit() {
+        return unit;
+    }
+
+    public List<ByteCodeSymbol> symbols() {
+        return symbols;
+    }
+
+    public List<ByteCodeSymbol> exports() {
+        return symbols.stream().filter(s -> !s.imported()).toList();
+    }
+
+    public List<ByteCodeSymbol> imports() {
+        return symbols.stream().filter(ByteCodeSymbol::imported).toList();
+    }
+
+    public static String stdlibHash(@NotNull final List<String> stdlibLines) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (final String line : stdlibLines) digest.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class StubModule {
+        private final Map<String, StubModule> submodules = new LinkedHashMap<>();
+        private final List<ByteCodeSymbol> symbols = new ArrayList<>();
+
+        private void write(@NotNull final StringBuilder out) {
+            // enums first, since the declarations after them may use them as types
+            symbols.stream().sorted(Comparator.comparing(ByteCodeSymbol::kind, Comparator.comparing(k -> k != ByteCodeSymbol.Kind.ENUM)))
+                    .forEach(s -> out.append(s.declaration()).append("\n"));
+
+            submodules.forEach((name, sub) -> {
+                out.append("mod ").append(name).append(" {\n");
+                sub.write(out);
+                out.append("}\n");
+            });
+        }
+    }
+
+    private static String modulePath(@NotNull final ByteCodeSymbol symbol) {
+        final String name = StringUtils.removeStart(StringUtils.substringBefore(symbol.name(), "["), "!PARENT");
+        return StringUtils.removeStart(StringUtils.substringBeforeLast(name, "."), ".");
+    }
+
+    // mi source declaring everything the given objects export, which is what other objects are compiled against.
+    // modules cannot be reopened, so all declarations of one module end up in a single block
+    public static String stubs(@NotNull final Collection<ByteCodeObject> objects) {
+        final StubModule root = new StubModule();
+        for (final ByteCodeObject object : objects) {
+            for (final ByteCodeSymbol symbol : object.exports()) {
+                StubModule module = root;
+                final String path = modulePath(symbol);
+                if (!path.isEmpty()) for (final String name : path.split("\\.")) module = module.submodules.computeIfAbsent(name, n -> new StubModule());
+                module.symbols.add(symbol);
+            }
+        }
+        final StringBuilder out = new StringBuilder();
+        root.write(out);
+        return out.toString();
+    }
+
+    private static void writeSection(@NotNull final DataOutputStream out, @NotNull final List<ByteCodeInstruction> section) throws IOException {
+        out.writeInt(section.size());
+        for (final ByteCodeInstruction instr : section) {
+            out.writeInt(instr.length() - 1); // without the instruction finish code, which is added back when reading
+            out.write(instr.bytes(0, instr.length() - 1));
+        }
+    }
+
+    private static List<ByteCodeInstruction> readSection(@NotNull final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final List<ByteCodeInstruction> section = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final byte[] codes = new byte[in.readInt()];
+            in.readFully(codes);
+            section.add(new ByteCodeInstruction(codes));
+        }
+        return section;
+    }
+
+    private static void writeUnit(@NotNull final DataOutputStream out, @NotNull final ByteCodeUnit unit) throws IOException {
+        writeSection(out, unit.globals());
+        writeSection(out, unit.enums());
+        writeSection(out, unit.natives());
+        writeSection(out, unit.scopes());
+        writeSection(out, unit.result());
+    }
+
+    private static ByteCodeUnit readUnit(@NotNull final DataInputStream in) throws IOException {
+        return new ByteCodeUnit(readSection(in), readSection(in), readSection(in), readSection(in), readSection(in));
+    }
+
+    public void write(@NotNull final File file) throws IOException {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(stdlibHash);
+            out.writeInt(stdlibFinishLine);
+            out.writeLong(stdlibFunctions);
+            out.writeInt(stdlibGlobals);
+            out.writeInt(stdlibEnums);
+            writeUnit(out, stdlib);
+            writeUnit(out, unit);
+
+            out.writeInt(symbols.size());
+            for (final ByteCodeSymbol symbol : symbols) {
+                out.writeByte(symbol.kind().ordinal());
+                out.writeLong(symbol.id());
+                out.writeUTF(symbol.name());
+                out.writeUTF(symbol.declaration());
+                out.writeBoolean(symbol.imported());
+            }
+        }
+    }
+
+    public static ByteCodeObject read(@NotNull final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new ByteCodeException("'" + file.getName() + "' is not an mi object file");
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION) throw new ByteCodeException("Unsupported object file version " + version + " in '" + file.getName() + "'");
+
+            final String stdlibHash = in.readUTF();
+            final int stdlibFinishLine = in.readInt();
+            final long stdlibFunctions = in.readLong();
+            final int stdlibGlobals = in.readInt();
+            final int stdlibEnums = in.readInt();
+            final ByteCodeUnit stdlib = readUnit(in);
+            final ByteCodeUnit unit = readUnit(in);
+
+            final int symbolCount = in.readInt();
+            final List<ByteCodeSymbol> symbols = new ArrayList<>(symbolCount);
+            for (int i = 0; i < symbolCount; i++) {
+                final ByteCodeSymbol.Kind kind = ByteCodeSymbol.Kind.values()[in.readByte()];
+                symbols.add(new ByteCodeSymbol(kind, in.readLong(), in.readUTF(), in.readUTF(), in.readBoolean()));
+            }
+            return new ByteCodeObject(stdlibHash, stdlibFinishLine, stdlibFunctions, stdlibGlobals, stdlibEnums, stdlib, unit, symbols);
+        }
+    }
+
+}
@@ -0,0 +1,14 @@
+package org.crayne.mi.bytecode.linker;
+
+import org.jetbrains.annotations.NotNull;
+
+// a function, global variable or enum that an object either defines (and exports) or only imports from another object.
+// the id is the function id, global address or enum id the object was compiled with, the name is what the linker resolves imports by,
+// and the declaration is the mi source needed to compile other objects against this one
+public record ByteCodeSymbol(@NotNull Kind kind, long id, @NotNull String name, @NotNull String declaration, boolean imported) {
+
+    public enum Kind {
+        FUNCTION, GLOBAL, ENUM
+    }
+
+}
@@ -0,0 +1,11 @@
+package org.crayne.mi.bytecode.linker;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+// the sections of a compiled program that belong to either the standard library or to one object.
+// every branch target is relative to the beginning of its own section
+public record ByteCodeUnit(@NotNull List<ByteCodeInstruction> globals, @NotNull List<ByteCodeInstruction> enums, @NotNull List<ByteCodeInstruction> natives,
+                           @NotNull List<ByteCodeInstruction> scopes, @NotNull List<ByteCodeInstruction> result) { }
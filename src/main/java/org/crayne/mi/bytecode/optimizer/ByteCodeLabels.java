@@ -0,0 +1,173 @@
+package org.crayne.mi.bytecode.optimizer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteCodeSwitch;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+public class ByteCodeLabels {
+
+    private ByteCodeLabels() {}
+
+    // every jump in mi bytecode uses the label of its target, which is simply the index of the target instruction + 1.
+    // so as soon as any pass removes or moves instructions, all jumps have to be relocated, which is what this class is for
+    public static boolean isJump(@NotNull final ByteCodeInstruction instr) {
+        final ByteCode type = instr.type().orElse(null);
+        return type == ByteCode.JUMP || type == ByteCode.JUMP_IF || type == ByteCode.JUMP_IF_NOT;
+    }
+
+    public static boolean isUnconditionalJump(@NotNull final ByteCodeInstruction instr) {
+        return instr.type().orElse(null) == ByteCode.JUMP;
+    }
+
+    public static boolean isSwitch(@NotNull final ByteCodeInstruction instr) {
+        final ByteCode type = instr.type().orElse(null);
+        return type == ByteCode.TABLE_SWITCH || type == ByteCode.LOOKUP_SWITCH;
+    }
+
+    public static boolean isRangeLoop(@NotNull final ByteCodeInstruction instr) {
+        final ByteCode type = instr.type().orElse(null);
+        return type == ByteCode.RANGE_LOOP_ENTER || type == ByteCode.RANGE_LOOP_NEXT;
+    }
+
+    // anything that can transfer control to one or more labels
+    public static boolean isBranch(@NotNull final ByteCodeInstruction instr) {
+        return isJump(instr) || isSwitch(instr) || isRangeLoop(instr);
+    }
+
+    public static int[] targetIndices(@NotNull final ByteCodeInstruction instr) {
+        if (isJump(instr)) return new int[] {targetIndex(instr)};
+        if (isRangeLoop(instr)) return new int[] {operands(instr, 9).intAt(5) - 1}; // the label comes after the counter address
+        if (!isSwitch(instr)) throw new ByteCodeException("Cannot get branch targets of non-branch instruction " + instr);
+
+        final ByteCodeSwitch switchInstr = ByteCode.ofSwitch(instr);
+        return IntStream.concat(IntStream.of(switchInstr.defaultLabel()), Arrays.stream(switchInstr.labels()))
+                .map(l -> l - 1)
+                .toArray();
+    }
+
+    // maps every target index of a jump or switch using the given function
+    public static ByteCodeInstruction relocate(@NotNull final ByteCodeInstruction instr, @NotNull final IntUnaryOperator newIndex) {
+        if (isJump(instr)) return retarget(instr, newIndex.applyAsInt(targetIndex(instr)));
+        if (isRangeLoop(instr)) {
+            final int counterAddress = intOperand(instr);
+            final int target = newIndex.applyAsInt(targetIndices(instr)[0]) + 1;
+            return instr.type().orElseThrow() == ByteCode.RANGE_LOOP_ENTER ? ByteCode.rangeLoopEnter(counterAddress, target) : ByteCode.rangeLoopNext(counterAddress, target);
+        }
+        if (!isSwitch(instr)) throw new ByteCodeException("Cannot relocate non-branch instruction " + instr);
+
+        return ByteCode.switchInstruction(ByteCode.ofSwitch(instr).relabel(l -> newIndex.applyAsInt(l - 1) + 1));
+    }
+
+    public static int targetIndex(@NotNull final ByteCodeInstruction instr) {
+        if (!isJump(instr)) throw new ByteCodeException("Cannot get jump target of non-jump instruction " + instr);
+        return intOperand(instr) - 1;
+    }
+
+    public static ByteCodeInstruction retarget(@NotNull final ByteCodeInstruction instr, final int targetIndex) {
+        return switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
+            case JUMP -> ByteCode.jump(targetIndex + 1);
+            case JUMP_IF -> ByteCode.jumpIf(targetIndex + 1);
+            case JUMP_IF_NOT -> ByteCode.jumpIfNot(targetIndex + 1);
+            default -> throw new ByteCodeException("Cannot relocate non-jump instruction " + instr);
+        };
+    }
+
+    // drops every instruction that should not be kept and relocates the remaining jumps.
+    // a jump to a dropped instruction will land on the next instruction that was kept, which is what
+    // every pass wants (dropped instructions are either unreachable or do nothing at all)
+    public static List<ByteCodeInstruction> compact(@NotNull final List<ByteCodeInstruction> program, final boolean @NotNull [] keep) {
+        final int[] newIndex = new int[program.size() + 1];
+        int kept = 0;
+        for (int i = 0; i < program.size(); i++) {
+            newIndex[i] = kept;
+            if (keep[i]) kept++;
+        }
+        newIndex[program.size()] = kept;
+
+        final List<ByteCodeInstruction> result = new ArrayList<>(kept);
+        for (int i = 0; i < program.size(); i++) {
+            if (!keep[i]) continue;
+            final ByteCodeInstruction instr = program.get(i);
+            if (!isBranch(instr)) {
+                result.add(instr);
+                continue;
+            }
+            result.add(relocate(instr, target -> newIndex[Math.max(0, Math.min(target, program.size()))]));
+        }
+        return result;
+    }
+
+    // replaces each of the given instructions by a list of instructions, which may be empty or still contain the replaced instruction,
+    // and relocates every jump (including the ones in the replacements). a jump to a replaced instruction will land on the first
+    // instruction of its replacement, or on whatever comes after it if the replacement is empty
+    public static List<ByteCodeInstruction> rewrite(@NotNull final List<ByteCodeInstruction> program,
+                                                    @NotNull final Map<Integer, List<ByteCodeInstruction>> replacements) {
+        final int[] newIndex = new int[program.size() + 1];
+        int size = 0;
+        for (int i = 0; i < program.size(); i++) {
+            newIndex[i] = size;
+            final List<ByteCodeInstruction> replacement = replacements.get(i);
+            size += replacement == null ? 1 : replacement.size();
+        }
+        newIndex[program.size()] = size;
+
+        final List<ByteCodeInstruction> result = new ArrayList<>(size);
+        for (int i = 0; i < program.size(); i++) {
+            for (final ByteCodeInstruction instr : replacements.getOrDefault(i, List.of(program.get(i)))) {
+                result.add(isBranch(instr) ? relocate(instr, target -> newIndex[Math.max(0, Math.min(target, program.size()))]) : instr);
+            }
+        }
+        return result;
+    }
+
+    public static boolean[] jumpTargets(@NotNull final List<ByteCodeInstruction> program) {
+        final boolean[] targets = new boolean[program.size() + 1];
+        for (final ByteCodeInstruction instr : program) {
+            if (!isBranch(instr)) continue;
+            for (final int target : targetIndices(instr)) {
+                if (target >= 0 && target <= program.size()) targets[target] = true;
+            }
+        }
+        return targets;
+    }
+
+    public static int intOperand(@NotNull final ByteCodeInstruction instr) {
+        return operands(instr, 5).intAt(1);
+    }
+
+    public static long longOperand(@NotNull final ByteCodeInstruction instr) {
+        return operands(instr, 9).longAt(1);
+    }
+
+    public static long definitionId(@NotNull final ByteCodeInstruction instr) {
+        // function definitions (native or not) have the layout <opcode> LONG_INTEGER_VALUE <id> STRING_VALUE <length> <signature>
+        return operands(instr, 10).longAt(2);
+    }
+
+    public static String definitionSignature(@NotNull final ByteCodeInstruction instr) {
+        final int length = operands(instr, 15).intAt(11);
+        return operands(instr, 15 + length).stringAt(11);
+    }
+
+    // the full name of the defined function (for example 'testing.main'), without its parameters
+    public static String definitionName(@NotNull final ByteCodeInstruction instr) {
+        return StringUtils.substringBefore(StringUtils.removeStart(definitionSignature(instr), "!PARENT."), "[");
+    }
+
+    // the instruction, once it is known to have operands up to the given end
+    private static ByteCodeInstruction operands(@NotNull final ByteCodeInstruction instr, final int end) {
+        if (instr.length() < end) throw new ByteCodeException("Malformed bytecode instruction " + instr);
+        return instr;
+    }
+
+}
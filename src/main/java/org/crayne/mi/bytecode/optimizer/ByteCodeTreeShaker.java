@@ -0,0 +1,175 @@
+package org.crayne.mi.bytecode.optimizer;
+
+import org.crayne.mi.bytecode.common.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class ByteCodeTreeShaker {
+
+    private record FunctionBlock(long id, @NotNull String name, int begin, int end) {}
+
+    private record EnumBlock(int id, int begin, int end) {}
+
+    private final List<ByteCodeInstruction> program;
+    private final Set<String> entryPoints;
+
+    private final Map<Long, FunctionBlock> internFunctions = new HashMap<>();
+    private final Map<Long, Integer> nativeFunctions = new HashMap<>();
+    private final List<EnumBlock> enums = new ArrayList<>();
+
+    private final Deque<Long> pendingFunctions = new ArrayDeque<>();
+    private final Set<Long> reachedFunctions = new HashSet<>();
+    private final Set<Integer> usedEnums = new HashSet<>();
+    private final boolean[] keep;
+
+    // entry points are full function names, like 'testing.main'. if there are none, every intern function is kept,
+    // since any of them could be invoked by the host application (natives and enums are still dropped if unused)
+    public ByteCodeTreeShaker(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        this.program = program;
+        this.entryPoints = new LinkedHashSet<>(entryPoints);
+        this.keep = new boolean[program.size()];
+    }
+
+    public static List<ByteCodeInstruction> shake(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        return new ByteCodeTreeShaker(program, entryPoints).shake();
+    }
+
+    public List<ByteCodeInstruction> shake() {
+        if (program.isEmpty()) return program;
+        collectDefinitions();
+        collectEntryPoints();
+
+        while (!pendingFunctions.isEmpty()) {
+            final long id = pendingFunctions.poll();
+            if (!reachedFunctions.add(id)) continue;
+
+            final Integer nativeIndex = nativeFunctions.get(id);
+            if (nativeIndex != null) {
+                keep[nativeIndex] = true;
+                continue;
+            }
+            final FunctionBlock function = internFunctions.get(id);
+            if (function != null) keepReachable(function);
+        }
+        final Map<Integer, Integer> enumIds = keptEnums();
+        return renumberEnums(ByteCodeLabels.compact(program, keep), enumIds);
+    }
+
+    private static ByteCode type(@NotNull final ByteCodeInstruction instr) {
+        return instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+    }
+
+    private void collectDefinitions() {
+        int enumId = 0;
+        for (int i = 0; i < program.size(); i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            switch (type(instr)) {
+                case FUNCTION_DEFINITION_BEGIN -> {
+                    final int end = findEnd(i, ByteCode.FUNCTION_DEFINITION_END);
+                    final long id = ByteCodeLabels.definitionId(instr);
+                    internFunctions.put(id, new FunctionBlock(id, ByteCodeLabels.definitionName(instr), i, end));
+                    i = end;
+                }
+                case NATIVE_FUNCTION_DEFINITION_BEGIN -> nativeFunctions.put(ByteCodeLabels.definitionId(instr), i);
+                case ENUM_DEFINITION_BEGIN -> {
+                    final int end = findEnd(i, ByteCode.ENUM_DEFINITION_END);
+                    enums.add(new EnumBlock(enumId, i, end));
+                    enumId++;
+                    i = end;
+                }
+                default -> { // the header and global variables are always evaluated by the runtime, so these are roots too
+                    keep[i] = true;
+                    collectReferences(instr);
+                }
+            }
+        }
+    }
+
+    private int findEnd(final int begin, @NotNull final ByteCode end) {
+        for (int i = begin + 1; i < program.size(); i++) {
+            if (type(program.get(i)) == end) return i;
+        }
+        throw new ByteCodeException("Missing " + end.name().toLowerCase() + " for instruction " + program.get(begin));
+    }
+
+    private void collectEntryPoints() {
+        if (entryPoints.isEmpty()) {
+            pendingFunctions.addAll(internFunctions.keySet());
+            return;
+        }
+        for (final String entryPoint : entryPoints) {
+            // the pass manager already made sure that every entry point exists
+            internFunctions.values()
+                    .stream()
+                    .filter(f -> f.name().equals(entryPoint))
+                    .map(FunctionBlock::id)
+                    .forEach(pendingFunctions::add);
+        }
+    }
+
+    private void collectReferences(@NotNull final ByteCodeInstruction instr) {
+        switch (type(instr)) {
+            case FUNCTION_CALL -> pendingFunctions.add(ByteCodeLabels.longOperand(instr));
+            case PUSH -> {
+                if (instr.code(1) == ByteCode.ENUM_VALUE.code()) usedEnums.add(ByteCode.ofEnumMember(enumValue(instr)).enumId());
+            }
+        }
+    }
+
+    private static ByteCodeInstruction enumValue(@NotNull final ByteCodeInstruction push) {
+        return new ByteCodeInstruction(push.bytes(1, push.length() - 1));
+    }
+
+    private static boolean endsControlFlow(@NotNull final ByteCodeInstruction instr) {
+        final ByteCode type = type(instr);
+        return type == ByteCode.JUMP || type == ByteCode.RETURN_STATEMENT || type == ByteCode.FUNCTION_DEFINITION_END || ByteCodeLabels.isSwitch(instr);
+    }
+
+    // only keep instructions of the function that can actually be reached from its beginning,
+    // which gets rid of code after returns and jumps nobody ever lands behind
+    private void keepReachable(@NotNull final FunctionBlock function) {
+        keep[function.begin()] = true;
+        keep[function.end()] = true;
+
+        final Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(function.begin() + 1);
+        while (!pending.isEmpty()) {
+            final int index = pending.pop();
+            if (index <= function.begin() || index >= function.end() || keep[index]) continue;
+
+            keep[index] = true;
+            final ByteCodeInstruction instr = program.get(index);
+            collectReferences(instr);
+
+            if (ByteCodeLabels.isBranch(instr)) Arrays.stream(ByteCodeLabels.targetIndices(instr)).forEach(pending::push);
+            if (!endsControlFlow(instr)) pending.push(index + 1);
+        }
+    }
+
+    // enum ids are given out by the runtime in order of definition, so removing an enum shifts the ids of all following ones
+    private Map<Integer, Integer> keptEnums() {
+        final Map<Integer, Integer> newIds = new HashMap<>();
+        for (final EnumBlock enumBlock : enums) {
+            if (!usedEnums.contains(enumBlock.id())) continue;
+            newIds.put(enumBlock.id(), newIds.size());
+            for (int i = enumBlock.begin(); i <= enumBlock.end(); i++) keep[i] = true;
+        }
+        return newIds;
+    }
+
+    private static List<ByteCodeInstruction> renumberEnums(@NotNull final List<ByteCodeInstruction> program, @NotNull final Map<Integer, Integer> newIds) {
+        final List<ByteCodeInstruction> result = new ArrayList<>(program.size());
+        for (final ByteCodeInstruction instr : program) {
+            if (type(instr) != ByteCode.PUSH || instr.code(1) != ByteCode.ENUM_VALUE.code()) {
+                result.add(instr);
+                continue;
+            }
+            final ByteCodeEnumMember member = ByteCode.ofEnumMember(enumValue(instr));
+            final int newId = newIds.getOrDefault(member.enumId(), member.enumId());
+            result.add(newId == member.enumId() ? instr : ByteCode.push(ByteCode.enumMember(new ByteCodeEnumMember(newId, member.ordinal()))));
+        }
+        return result;
+    }
+
+}
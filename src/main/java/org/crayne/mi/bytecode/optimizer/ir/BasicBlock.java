@@ -0,0 +1,63 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BasicBlock {
+
+    private final List<ByteCodeInstruction> program;
+    private final int begin;
+    private final int end;
+    private final List<BasicBlock> successors = new ArrayList<>();
+    private final List<BasicBlock> predecessors = new ArrayList<>();
+
+    // a straight run of instructions from begin (inclusive) to end (exclusive) of the program, which can only
+    // be entered at its first instruction and only be left after its last one
+    public BasicBlock(@NotNull final List<ByteCodeInstruction> program, final int begin, final int end) {
+        this.program = program;
+        this.begin = begin;
+        this.end = end;
+    }
+
+    public int begin() {
+        return begin;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public int size() {
+        return end - begin;
+    }
+
+    public List<ByteCodeInstruction> instructions() {
+        return program.subList(begin, end);
+    }
+
+    public ByteCodeInstruction last() {
+        return program.get(end - 1);
+    }
+
+    public List<BasicBlock> successors() {
+        return successors;
+    }
+
+    public List<BasicBlock> predecessors() {
+        return predecessors;
+    }
+
+    protected void addSuccessor(@NotNull final BasicBlock block) {
+        if (successors.contains(block)) return;
+        successors.add(block);
+        block.predecessors.add(this);
+    }
+
+    public String toString() {
+        return "BasicBlock[" + begin + ".." + end + ")";
+    }
+
+}
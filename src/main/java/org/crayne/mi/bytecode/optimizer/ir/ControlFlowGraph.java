@@ -0,0 +1,124 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class ControlFlowGraph {
+
+    private final List<ByteCodeInstruction> program;
+    private final int begin;
+    private final int end;
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final Map<Integer, BasicBlock> blocksByBegin = new HashMap<>();
+
+    // the graph of a single function body, which are the instructions between its FUNCTION_DEFINITION_BEGIN (begin) and FUNCTION_DEFINITION_END (end)
+    public ControlFlowGraph(@NotNull final List<ByteCodeInstruction> program, final int begin, final int end) {
+        this.program = program;
+        this.begin = begin;
+        this.end = end;
+        buildBlocks();
+        linkBlocks();
+    }
+
+    public static List<ControlFlowGraph> ofFunctions(@NotNull final List<ByteCodeInstruction> program) {
+        final List<ControlFlowGraph> functions = new ArrayList<>();
+        for (int i = 0; i < program.size(); i++) {
+            if (type(program.get(i)) != ByteCode.FUNCTION_DEFINITION_BEGIN) continue;
+            final int functionEnd = findFunctionEnd(program, i);
+            functions.add(new ControlFlowGraph(program, i, functionEnd));
+            i = functionEnd;
+        }
+        return functions;
+    }
+
+    private static int findFunctionEnd(@NotNull final List<ByteCodeInstruction> program, final int begin) {
+        for (int i = begin + 1; i < program.size(); i++) {
+            if (type(program.get(i)) == ByteCode.FUNCTION_DEFINITION_END) return i;
+        }
+        throw new ByteCodeException("Missing function_definition_end for instruction " + program.get(begin));
+    }
+
+    private static ByteCode type(@NotNull final ByteCodeInstruction instr) {
+        return instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+    }
+
+    public static boolean endsControlFlow(@NotNull final ByteCodeInstruction instr) {
+        final ByteCode type = type(instr);
+        return type == ByteCode.JUMP || type == ByteCode.RETURN_STATEMENT || type == ByteCode.FUNCTION_DEFINITION_END || ByteCodeLabels.isSwitch(instr);
+    }
+
+    private void buildBlocks() {
+        // a new block starts at the beginning of the body, at every branch target and right after every branch or return
+        final TreeSet<Integer> leaders = new TreeSet<>();
+        leaders.add(begin + 1);
+        for (int i = begin + 1; i < end; i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            if (ByteCodeLabels.isBranch(instr)) {
+                for (final int target : ByteCodeLabels.targetIndices(instr)) {
+                    if (target > begin && target < end) leaders.add(target);
+                }
+            }
+            if (ByteCodeLabels.isBranch(instr) || type(instr) == ByteCode.RETURN_STATEMENT) leaders.add(i + 1);
+        }
+        leaders.add(end);
+
+        Integer blockBegin = leaders.first();
+        for (final int leader : leaders.tailSet(blockBegin, false)) {
+            final BasicBlock block = new BasicBlock(program, blockBegin, leader);
+            blocks.add(block);
+            blocksByBegin.put(blockBegin, block);
+            blockBegin = leader;
+        }
+    }
+
+    private void linkBlocks() {
+        for (final BasicBlock block : blocks) {
+            final ByteCodeInstruction last = block.last();
+            if (ByteCodeLabels.isBranch(last)) {
+                for (final int target : ByteCodeLabels.targetIndices(last)) blockAt(target).ifPresent(block::addSuccessor);
+            }
+            if (!endsControlFlow(last)) blockAt(block.end()).ifPresent(block::addSuccessor);
+        }
+    }
+
+    public List<ByteCodeInstruction> program() {
+        return program;
+    }
+
+    public int begin() {
+        return begin;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public List<BasicBlock> blocks() {
+        return blocks;
+    }
+
+    public Optional<BasicBlock> entry() {
+        return blocks.isEmpty() ? Optional.empty() : Optional.of(blocks.get(0));
+    }
+
+    public Optional<BasicBlock> blockAt(final int begin) {
+        return Optional.ofNullable(blocksByBegin.get(begin));
+    }
+
+    public Set<BasicBlock> reachable() {
+        final Set<BasicBlock> reached = new HashSet<>();
+        final Deque<BasicBlock> pending = new ArrayDeque<>();
+        entry().ifPresent(pending::push);
+        while (!pending.isEmpty()) {
+            final BasicBlock block = pending.pop();
+            if (reached.add(block)) block.successors().forEach(pending::push);
+        }
+        return reached;
+    }
+
+}
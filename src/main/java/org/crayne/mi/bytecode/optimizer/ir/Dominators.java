@@ -0,0 +1,109 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class Dominators {
+
+    private final List<BasicBlock> order;
+    private final Map<BasicBlock, Integer> position = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> immediate = new HashMap<>();
+
+    // a block dominates another one if every path from the entry to the other block goes through it.
+    // only the blocks that can be reached from the entry have dominators
+    public Dominators(@NotNull final ControlFlowGraph function) {
+        this.order = reversePostorder(function);
+        for (int i = 0; i < order.size(); i++) position.put(order.get(i), i);
+        build();
+    }
+
+    private static List<BasicBlock> reversePostorder(@NotNull final ControlFlowGraph function) {
+        final List<BasicBlock> postorder = new ArrayList<>();
+        final Set<BasicBlock> visited = new HashSet<>();
+        final Deque<Iterator<BasicBlock>> pending = new ArrayDeque<>();
+        final Deque<BasicBlock> path = new ArrayDeque<>();
+        function.entry().ifPresent(entry -> {
+            visited.add(entry);
+            path.push(entry);
+            pending.push(entry.successors().iterator());
+        });
+        while (!pending.isEmpty()) {
+            final Iterator<BasicBlock> successors = pending.peek();
+            if (!successors.hasNext()) {
+                pending.pop();
+                postorder.add(path.pop());
+                continue;
+            }
+            final BasicBlock successor = successors.next();
+            if (!visited.add(successor)) continue;
+            path.push(successor);
+            pending.push(successor.successors().iterator());
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    // the iterative algorithm of Cooper, Harvey and Kennedy, which settles within a few rounds for the graphs the compiler emits
+    private void build() {
+        if (order.isEmpty()) return;
+        final BasicBlock entry = order.get(0);
+        immediate.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final BasicBlock block : order.subList(1, order.size())) {
+                BasicBlock dominator = null;
+                for (final BasicBlock predecessor : block.predecessors()) {
+                    if (!immediate.containsKey(predecessor)) continue;
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+                }
+                if (dominator == null || dominator == immediate.get(block)) continue;
+                immediate.put(block, dominator);
+                changed = true;
+            }
+        }
+    }
+
+    private BasicBlock intersect(@NotNull final BasicBlock first, @NotNull final BasicBlock second) {
+        BasicBlock a = first;
+        BasicBlock b = second;
+        while (a != b) {
+            while (position.get(a) > position.get(b)) a = immediate.get(a);
+            while (position.get(b) > position.get(a)) b = immediate.get(b);
+        }
+        return a;
+    }
+
+    // the reachable blocks, each one after all of its predecessors except the ones that loop back to it
+    public List<BasicBlock> reversePostorder() {
+        return Collections.unmodifiableList(order);
+    }
+
+    public boolean reachable(@NotNull final BasicBlock block) {
+        return position.containsKey(block);
+    }
+
+    // empty for the entry and for blocks that cannot be reached
+    public Optional<BasicBlock> immediateDominator(@NotNull final BasicBlock block) {
+        final BasicBlock dominator = immediate.get(block);
+        return dominator == null || dominator == block ? Optional.empty() : Optional.of(dominator);
+    }
+
+    // every block dominates itself
+    public boolean dominates(@NotNull final BasicBlock dominator, @NotNull final BasicBlock block) {
+        if (!reachable(dominator) || !reachable(block)) return false;
+        BasicBlock current = block;
+        while (true) {
+            if (current == dominator) return true;
+            final BasicBlock next = immediate.get(current);
+            if (next == current) return false;
+            current = next;
+        }
+    }
+
+    public boolean strictlyDominates(@NotNull final BasicBlock dominator, @NotNull final BasicBlock block) {
+        return dominator != block && dominates(dominator, block);
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FunctionSignatures {
+
+    private final Map<Long, Integer> arguments = new HashMap<>();
+    private final Map<Long, Boolean> returnsValue = new HashMap<>();
+
+    private FunctionSignatures() {}
+
+    // native signatures look like 'Class.name(int|string)void', the ones of intern functions like '!PARENT.module.name[int:2, string:6]'.
+    // only native ones say what they return, intern functions are taken to return a value
+    public static FunctionSignatures of(@NotNull final List<ByteCodeInstruction> program) {
+        final FunctionSignatures signatures = new FunctionSignatures();
+        for (final ByteCodeInstruction instr : program) {
+            final ByteCode type = instr.type().orElse(null);
+            if (type != ByteCode.FUNCTION_DEFINITION_BEGIN && type != ByteCode.NATIVE_FUNCTION_DEFINITION_BEGIN) continue;
+
+            final String signature = ByteCodeLabels.definitionSignature(instr);
+            final long id = ByteCodeLabels.definitionId(instr);
+            if (type == ByteCode.NATIVE_FUNCTION_DEFINITION_BEGIN) {
+                signatures.arguments.put(id, count(StringUtils.substringBetween(signature, "(", ")"), "|"));
+                signatures.returnsValue.put(id, !StringUtils.substringAfterLast(signature, ")").equals("void"));
+                continue;
+            }
+            signatures.arguments.put(id, count(StringUtils.substringBetween(signature, "[", "]"), ", "));
+            signatures.returnsValue.put(id, true);
+        }
+        return signatures;
+    }
+
+    private static int count(final String arguments, @NotNull final String separator) {
+        return StringUtils.isEmpty(arguments) ? 0 : StringUtils.countMatches(arguments, separator) + 1;
+    }
+
+    // functions that are not defined in the program (linked in later) take no arguments as far as anyone can tell
+    public int arguments(final long id) {
+        return arguments.getOrDefault(id, 0);
+    }
+
+    public boolean returnsValue(final long id) {
+        return returnsValue.getOrDefault(id, true);
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+public class LocalSlots {
+
+    private static final int[] NONE = new int[0];
+
+    private final int begin;
+    private final int[][] reads;
+    private final int[][] writes;
+    private final int[] loads;
+
+    private LocalSlots(final int begin, final int size) {
+        this.begin = begin;
+        this.reads = new int[size][];
+        this.writes = new int[size][];
+        this.loads = new int[size];
+        Arrays.fill(reads, NONE);
+        Arrays.fill(writes, NONE);
+        Arrays.fill(loads, -1);
+    }
+
+    // which slots of its frame every instruction of the function reads and writes. the compiler only touches locals through
+    // PUSH <slot> VALUE_AT_RELATIVE_ADDRESS (a load), PUSH <slot> RELATIVE_TO_ABSOLUTE_ADDRESS followed by a mutation, DEFINE_LOCAL,
+    // DECLARE_LOCAL and the range loop instructions. functions that use addresses in any other way, or that jump into
+    // the middle of one of these sequences, cannot be analyzed
+    public static Optional<LocalSlots> of(@NotNull final ControlFlowGraph function) {
+        final List<ByteCodeInstruction> program = function.program();
+        final LocalSlots slots = new LocalSlots(function.begin(), function.end() - function.begin());
+
+        for (int i = function.begin() + 1; i < function.end(); i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            switch (type(instr)) {
+                case PUSH -> {
+                    final ByteCode next = type(program.get(i + 1));
+                    if (next != ByteCode.VALUE_AT_RELATIVE_ADDRESS && next != ByteCode.RELATIVE_TO_ABSOLUTE_ADDRESS) continue;
+                    if (instr.code(1) != ByteCode.INTEGER_VALUE.code() || function.blockAt(i + 1).isPresent()) return Optional.empty();
+
+                    final int slot = instr.intAt(2);
+                    if (next == ByteCode.VALUE_AT_RELATIVE_ADDRESS) {
+                        slots.loads[i + 1 - slots.begin] = slot;
+                        slots.reads[i + 1 - slots.begin] = new int[] {slot};
+                        i++;
+                        continue;
+                    }
+                    if (i + 2 >= function.end() || function.blockAt(i + 2).isPresent()) return Optional.empty();
+                    switch (type(program.get(i + 2))) {
+                        case MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH -> slots.writes[i + 2 - slots.begin] = new int[] {slot};
+                        case INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH -> {
+                            slots.reads[i + 2 - slots.begin] = new int[] {slot};
+                            slots.writes[i + 2 - slots.begin] = new int[] {slot};
+                        }
+                        default -> {
+                            return Optional.empty();
+                        }
+                    }
+                    i += 2;
+                }
+                case DEFINE_LOCAL, DECLARE_LOCAL -> slots.writes[i - slots.begin] = new int[] {ByteCodeLabels.intOperand(instr)};
+                case RANGE_LOOP_ENTER, RANGE_LOOP_NEXT -> {
+                    final int counter = ByteCodeLabels.intOperand(instr);
+                    slots.reads[i - slots.begin] = new int[] {counter, counter + 1, counter + 2};
+                    if (type(instr) == ByteCode.RANGE_LOOP_NEXT) slots.writes[i - slots.begin] = new int[] {counter};
+                }
+                case VALUE_AT_RELATIVE_ADDRESS, RELATIVE_TO_ABSOLUTE_ADDRESS, VALUE_AT_ADDRESS, DEFINE_VARIABLE, DECLARE_VARIABLE, POP,
+                        MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH, INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH -> {
+                    return Optional.empty();
+                }
+                default -> {}
+            }
+        }
+        return Optional.of(slots);
+    }
+
+    private static ByteCode type(@NotNull final ByteCodeInstruction instr) {
+        return instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+    }
+
+    // the indices are the ones of the whole program, like everywhere else in the graph
+    public int[] reads(final int index) {
+        return reads[index - begin];
+    }
+
+    public int[] writes(final int index) {
+        return writes[index - begin];
+    }
+
+    // the slot that the VALUE_AT_RELATIVE_ADDRESS at the given index loads, or -1 if there is no load at the index.
+    // the PUSH of the slot is always the instruction right before it
+    public int loadedSlot(final int index) {
+        return loads[index - begin];
+    }
+
+    public boolean isLoad(final int index) {
+        return loadedSlot(index) >= 0;
+    }
+
+    // PUSH <slot> VALUE_AT_RELATIVE_ADDRESS, for passes that replace code by a load
+    public static List<ByteCodeInstruction> load(final int slot) {
+        return List.of(ByteCode.push(ByteCode.integer(slot)), new ByteCodeInstruction(ByteCode.VALUE_AT_RELATIVE_ADDRESS.code()));
+    }
+
+}
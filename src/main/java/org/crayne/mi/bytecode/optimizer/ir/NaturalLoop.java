@@ -0,0 +1,53 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+// the header of a loop and every block that can get back to it without going through it again.
+// all jumps back to the same header belong to one loop, so the blocks of a continue statement are part of it too
+public record NaturalLoop(@NotNull BasicBlock header, @NotNull Set<BasicBlock> blocks) {
+
+    // outer loops come before the loops nested in them
+    public static List<NaturalLoop> of(@NotNull final ControlFlowGraph function, @NotNull final Dominators dominators) {
+        final Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (final BasicBlock block : dominators.reversePostorder()) {
+            for (final BasicBlock successor : block.successors()) {
+                if (dominators.dominates(successor, block)) collect(successor, block, loops.computeIfAbsent(successor, h -> new HashSet<>(Set.of(h))));
+            }
+        }
+        return loops.entrySet().stream()
+                .map(loop -> new NaturalLoop(loop.getKey(), Collections.unmodifiableSet(loop.getValue())))
+                .sorted(Comparator.comparingInt((NaturalLoop loop) -> loop.blocks.size()).reversed())
+                .toList();
+    }
+
+    private static void collect(@NotNull final BasicBlock header, @NotNull final BasicBlock latch, @NotNull final Set<BasicBlock> blocks) {
+        final Deque<BasicBlock> pending = new ArrayDeque<>();
+        if (blocks.add(latch)) pending.push(latch);
+        while (!pending.isEmpty()) {
+            for (final BasicBlock predecessor : pending.pop().predecessors()) {
+                if (predecessor != header && blocks.add(predecessor)) pending.push(predecessor);
+            }
+        }
+    }
+
+    public boolean contains(@NotNull final BasicBlock block) {
+        return blocks.contains(block);
+    }
+
+    // the only block outside of the loop that leads into it, if it leads nowhere else. a range loop is entered
+    // from a block that ends in RANGE_LOOP_ENTER, which skips the loop when the range is empty, and still counts as its preheader
+    public Optional<BasicBlock> preheader() {
+        final List<BasicBlock> outside = header.predecessors().stream().filter(p -> !blocks.contains(p)).toList();
+        if (outside.size() != 1) return Optional.empty();
+        final BasicBlock preheader = outside.get(0);
+        final boolean entersRange = preheader.last().type().orElse(null) == ByteCode.RANGE_LOOP_ENTER;
+        if (preheader.successors().size() != 1 && !entersRange) return Optional.empty();
+        if (ByteCodeLabels.isBranch(preheader.last()) && !entersRange && !ByteCodeLabels.isUnconditionalJump(preheader.last())) return Optional.empty();
+        return Optional.of(preheader);
+    }
+
+}
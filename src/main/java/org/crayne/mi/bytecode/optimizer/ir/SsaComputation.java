@@ -0,0 +1,18 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.jetbrains.annotations.NotNull;
+
+// an operation that a function computes in one go. the instructions from begin to end (both inclusive) only push constants,
+// load locals and apply operators to what they pushed, so they can be replaced by anything else that leaves the same value on the push stack.
+// heldIn is a local that already holds the value before begin, or -1 if there is none
+public record SsaComputation(int begin, int end, @NotNull SsaValue value, @NotNull BasicBlock block, int heldIn) {
+
+    public int size() {
+        return end - begin + 1;
+    }
+
+    public boolean contains(final int index) {
+        return index >= begin && index <= end;
+    }
+
+}
@@ -0,0 +1,351 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class SsaFunction {
+
+    private static final Set<ByteCode> BINARY_OPERATIONS = EnumSet.of(ByteCode.PLUS, ByteCode.MINUS, ByteCode.MULTIPLY, ByteCode.DIVIDE, ByteCode.MODULO,
+            ByteCode.LOGICAL_AND, ByteCode.LOGICAL_OR, ByteCode.BIT_AND, ByteCode.BIT_OR, ByteCode.BIT_XOR, ByteCode.BITSHIFT_LEFT, ByteCode.BITSHIFT_RIGHT,
+            ByteCode.EQUALS, ByteCode.LESS_THAN, ByteCode.GREATER_THAN, ByteCode.LESS_THAN_OR_EQUAL, ByteCode.GREATER_THAN_OR_EQUAL);
+    private static final Set<ByteCode> UNARY_OPERATIONS = EnumSet.of(ByteCode.NOT, ByteCode.BIT_NOT, ByteCode.CAST);
+
+    private final ControlFlowGraph graph;
+    private final LocalSlots slots;
+    private final FunctionSignatures signatures;
+    private final Dominators dominators;
+    private final List<NaturalLoop> loops;
+    private final int locals;
+    private final Map<BasicBlock, State> exits = new HashMap<>();
+    private final Map<BasicBlock, List<SsaValue>> phis = new HashMap<>();
+    private final Map<SsaValue, Integer> phiSites = new HashMap<>(); // the local of a phi, or -1 - <its position from the top of the push stack>
+    private final Map<String, SsaValue> numbered = new HashMap<>();
+    private final List<SsaComputation> computations = new ArrayList<>();
+    private final Map<Integer, SsaValue> pushed = new HashMap<>();
+    private final Map<BasicBlock, BitSet> loopWrites = new HashMap<>();
+    private final Map<SsaValue, Boolean> nonNull = new HashMap<>();
+    private boolean nonNullSettled;
+    private int nextId;
+
+    // a value on the push stack, with the computation that pushed it (from begin to end), or -1 for both if it came from anywhere else
+    private record Entry(@NotNull SsaValue value, int begin, int end) {}
+
+    private record State(SsaValue @NotNull [] locals, @NotNull List<Entry> stack) {}
+
+    private SsaFunction(@NotNull final ControlFlowGraph graph, @NotNull final LocalSlots slots, @NotNull final FunctionSignatures signatures, final int locals) {
+        this.graph = graph;
+        this.slots = slots;
+        this.signatures = signatures;
+        this.dominators = new Dominators(graph);
+        this.loops = NaturalLoop.of(graph, dominators);
+        this.locals = locals;
+    }
+
+    // the function in static single assignment form: every value is defined once, and where paths with different values of a local
+    // (or of the push stack) meet, a phi stands for whichever of them came in. the values of the push stack are followed through every block,
+    // so operators know their operands. after a call the stack is not trusted anymore, since intern functions do not tell whether they return anything.
+    // empty for the functions LocalSlots cannot analyze and for jumps into the middle of a loop
+    public static Optional<SsaFunction> of(@NotNull final ControlFlowGraph function, @NotNull final FunctionSignatures signatures) {
+        final Optional<LocalSlots> slots = LocalSlots.of(function);
+        if (slots.isEmpty() || function.begin() + 1 >= function.end()) return Optional.empty();
+        final ByteCodeInstruction frame = function.program().get(function.begin() + 1);
+        if (frame.type().orElse(null) != ByteCode.LOCAL_FRAME) return Optional.empty();
+
+        final SsaFunction ssa = new SsaFunction(function, slots.get(), signatures, frame.intAt(1));
+        return ssa.build() ? Optional.of(ssa) : Optional.empty();
+    }
+
+    public static boolean isOperation(@NotNull final ByteCode type) {
+        return BINARY_OPERATIONS.contains(type) || UNARY_OPERATIONS.contains(type);
+    }
+
+    private boolean build() {
+        for (int i = graph.begin() + 1; i < graph.end(); i++) {
+            for (final int slot : slots.reads(i)) if (slot >= locals) return false;
+            for (final int slot : slots.writes(i)) if (slot >= locals) return false;
+        }
+        for (final NaturalLoop loop : loops) {
+            final BitSet written = new BitSet();
+            for (final BasicBlock block : loop.blocks()) {
+                for (int i = block.begin(); i < block.end(); i++) for (final int slot : slots.writes(i)) written.set(slot);
+            }
+            loopWrites.put(loop.header(), written);
+        }
+
+        final List<BasicBlock> order = dominators.reversePostorder();
+        if (order.isEmpty() || !order.get(0).predecessors().isEmpty()) return false;
+        for (final BasicBlock block : order) {
+            for (final BasicBlock predecessor : block.predecessors()) {
+                if (dominators.reachable(predecessor) && !exits.containsKey(predecessor) && !dominators.dominates(block, predecessor)) return false;
+            }
+            exits.put(block, run(block, enter(block, loopWrites.get(block))));
+        }
+        addPhiOperands();
+        return true;
+    }
+
+    private State enter(@NotNull final BasicBlock block, final BitSet written) {
+        if (block.predecessors().isEmpty()) {
+            final SsaValue[] initial = new SsaValue[locals];
+            for (int slot = 0; slot < locals; slot++) initial[slot] = opaque(block);
+            return new State(initial, new ArrayList<>());
+        }
+        final List<State> incoming = block.predecessors().stream().filter(exits::containsKey).map(exits::get).toList();
+        final boolean header = written != null;
+
+        final SsaValue[] merged = new SsaValue[locals];
+        for (int slot = 0; slot < locals; slot++) {
+            final int s = slot;
+            final SsaValue first = incoming.get(0).locals[slot];
+            final boolean agree = incoming.stream().allMatch(state -> state.locals[s] == first);
+            merged[slot] = agree && !(header && written.get(slot)) ? first : phi(block, slot);
+        }
+
+        // the stacks are lined up at their top, since only values that leaked from ignored calls are ever left at the bottom
+        final int size = incoming.stream().mapToInt(state -> state.stack.size()).min().orElse(0);
+        final List<Entry> stack = new ArrayList<>(size);
+        for (int position = size - 1; position >= 0; position--) {
+            final int p = position;
+            final SsaValue first = top(incoming.get(0), p);
+            final boolean agree = incoming.stream().allMatch(state -> top(state, p) == first);
+            stack.add(new Entry(agree && !header ? first : phi(block, -1 - position), -1, -1));
+        }
+        return new State(merged, stack);
+    }
+
+    private static SsaValue top(@NotNull final State state, final int position) {
+        return state.stack.get(state.stack.size() - 1 - position).value;
+    }
+
+    private State run(@NotNull final BasicBlock block, @NotNull final State entry) {
+        final SsaValue[] values = entry.locals.clone();
+        final List<Entry> stack = new ArrayList<>(entry.stack);
+        final List<ByteCodeInstruction> program = graph.program();
+
+        for (int i = block.begin(); i < block.end(); i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            final ByteCode type = instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+            switch (type) {
+                case PUSH -> {
+                    stack.add(new Entry(constant(instr), i, i));
+                    pushed.put(i, constant(instr));
+                }
+                case VALUE_AT_RELATIVE_ADDRESS -> {
+                    pop(stack, block);
+                    if (!slots.isLoad(i)) {
+                        stack.add(new Entry(opaque(block), -1, -1));
+                        continue;
+                    }
+                    stack.add(new Entry(values[slots.loadedSlot(i)], i - 1, i));
+                    pushed.put(i, values[slots.loadedSlot(i)]);
+                }
+                case RELATIVE_TO_ABSOLUTE_ADDRESS, VALUE_AT_ADDRESS -> {
+                    pop(stack, block);
+                    stack.add(new Entry(opaque(block), -1, -1));
+                }
+                case MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH -> {
+                    pop(stack, block);
+                    final SsaValue value = pop(stack, block).value;
+                    for (final int slot : slots.writes(i)) values[slot] = value;
+                    if (type == ByteCode.MUTATE_VARIABLE_AND_PUSH) stack.add(new Entry(value, -1, -1));
+                }
+                case INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH -> {
+                    pop(stack, block);
+                    final SsaValue value = opaque(block);
+                    for (final int slot : slots.writes(i)) values[slot] = value;
+                    if (type == ByteCode.INC_VARIABLE_AND_PUSH || type == ByteCode.DEC_VARIABLE_AND_PUSH) stack.add(new Entry(value, -1, -1));
+                }
+                case DEFINE_LOCAL -> values[ByteCodeLabels.intOperand(instr)] = pop(stack, block).value;
+                case DECLARE_LOCAL, RANGE_LOOP_NEXT -> {
+                    for (final int slot : slots.writes(i)) values[slot] = opaque(block);
+                }
+                case DUP -> stack.add(new Entry(stack.isEmpty() ? opaque(block) : stack.get(stack.size() - 1).value, -1, -1));
+                case FUNCTION_CALL -> {
+                    final long id = ByteCodeLabels.longOperand(instr);
+                    for (int argument = 0; argument < signatures.arguments(id); argument++) pop(stack, block);
+                    stack.replaceAll(e -> new Entry(opaque(block), -1, -1));
+                    if (signatures.returnsValue(id)) stack.add(new Entry(opaque(block), -1, -1));
+                }
+                default -> {
+                    if (isOperation(type)) {
+                        operation(instr, type, i, block, values, stack);
+                        continue;
+                    }
+                    final int effect = StackDepth.effect(instr, id -> 0);
+                    for (int popped = 0; popped < -effect; popped++) pop(stack, block);
+                    for (int pushed = 0; pushed < effect; pushed++) stack.add(new Entry(opaque(block), -1, -1));
+                }
+            }
+        }
+        return new State(values, stack);
+    }
+
+    private void operation(@NotNull final ByteCodeInstruction instr, @NotNull final ByteCode type, final int index, @NotNull final BasicBlock block,
+                           final SsaValue @NotNull [] values, @NotNull final List<Entry> stack) {
+        final Entry right = pop(stack, block);
+        final Entry left = BINARY_OPERATIONS.contains(type) ? pop(stack, block) : null;
+        final SsaValue value = left == null ? operation(instr, List.of(right.value)) : operation(instr, List.of(left.value, right.value));
+        pushed.put(index, value);
+
+        final boolean computed = right.begin >= 0 && right.end == index - 1 && (left == null || left.begin >= 0 && left.end == right.begin - 1);
+        if (!computed) {
+            stack.add(new Entry(value, -1, -1));
+            return;
+        }
+        final int begin = left == null ? right.begin : left.begin;
+        int heldIn = -1;
+        for (int slot = 0; slot < locals && heldIn < 0; slot++) if (values[slot] == value) heldIn = slot;
+        computations.add(new SsaComputation(begin, index, value, block, heldIn));
+        stack.add(new Entry(value, begin, index));
+    }
+
+    private Entry pop(@NotNull final List<Entry> stack, @NotNull final BasicBlock block) {
+        return stack.isEmpty() ? new Entry(opaque(block), -1, -1) : stack.remove(stack.size() - 1);
+    }
+
+    private SsaValue constant(@NotNull final ByteCodeInstruction push) {
+        return numbered.computeIfAbsent(push.toString(), k -> new SsaValue(nextId++, SsaValue.Kind.CONSTANT, push, List.of(), null));
+    }
+
+    private SsaValue operation(@NotNull final ByteCodeInstruction operator, @NotNull final List<SsaValue> operands) {
+        final StringBuilder key = new StringBuilder(operator.toString());
+        for (final SsaValue operand : operands) key.append(" v").append(operand.id());
+        return numbered.computeIfAbsent(key.toString(), k -> new SsaValue(nextId++, SsaValue.Kind.OPERATION, operator, operands, null));
+    }
+
+    private SsaValue opaque(@NotNull final BasicBlock block) {
+        return new SsaValue(nextId++, SsaValue.Kind.OPAQUE, null, List.of(), block);
+    }
+
+    private SsaValue phi(@NotNull final BasicBlock block, final int site) {
+        final SsaValue phi = new SsaValue(nextId++, SsaValue.Kind.PHI, null, List.of(), block);
+        phis.computeIfAbsent(block, b -> new ArrayList<>()).add(phi);
+        phiSites.put(phi, site);
+        return phi;
+    }
+
+    private void addPhiOperands() {
+        for (final Map.Entry<BasicBlock, List<SsaValue>> block : phis.entrySet()) {
+            for (final BasicBlock predecessor : block.getKey().predecessors()) {
+                final State exit = exits.get(predecessor);
+                if (exit == null) continue;
+                for (final SsaValue phi : block.getValue()) {
+                    final int site = phiSites.get(phi);
+                    if (site >= 0) phi.addOperand(exit.locals[site]);
+                    else phi.addOperand(-1 - site < exit.stack.size() ? top(exit, -1 - site) : opaque(predecessor));
+                }
+            }
+        }
+    }
+
+    public ControlFlowGraph graph() {
+        return graph;
+    }
+
+    public LocalSlots slots() {
+        return slots;
+    }
+
+    public Dominators dominators() {
+        return dominators;
+    }
+
+    public List<NaturalLoop> loops() {
+        return loops;
+    }
+
+    // the size of the frame, new locals go after it
+    public int locals() {
+        return locals;
+    }
+
+    public int maxStack() {
+        return graph.program().get(frameIndex()).intAt(5);
+    }
+
+    public int frameIndex() {
+        return graph.begin() + 1;
+    }
+
+    // the LOCAL_FRAME of the function once the given number of locals were added after the existing ones
+    public ByteCodeInstruction frame(final int addedLocals, final int addedStack) {
+        return ByteCode.localFrame(locals + addedLocals, maxStack() + addedStack);
+    }
+
+    // in the order their operators come in, so the computations nested in another one come before it
+    public List<SsaComputation> computations() {
+        return Collections.unmodifiableList(computations);
+    }
+
+    // the value that the PUSH, load (at its VALUE_AT_RELATIVE_ADDRESS) or operator at the given index leaves on the push stack,
+    // empty for every other instruction
+    public Optional<SsaValue> valueAt(final int index) {
+        return Optional.ofNullable(pushed.get(index));
+    }
+
+    // the slots that any instruction inside of the loop writes to
+    public BitSet writtenIn(@NotNull final NaturalLoop loop) {
+        return (BitSet) loopWrites.get(loop.header()).clone();
+    }
+
+    public List<SsaValue> phis(@NotNull final BasicBlock block) {
+        return Collections.unmodifiableList(phis.getOrDefault(block, List.of()));
+    }
+
+    // whether the value can be computed again anywhere the loop is entered from, which is when no part of it changes inside the loop
+    public boolean invariant(@NotNull final SsaValue value, @NotNull final NaturalLoop loop) {
+        return switch (value.kind()) {
+            case CONSTANT -> true;
+            case OPERATION -> value.operands().stream().allMatch(operand -> invariant(operand, loop));
+            case PHI, OPAQUE -> !loop.contains(value.block());
+        };
+    }
+
+    // whether the value can never be null. operators only give null back if one of their operands was null, and the values of
+    // parameters, calls and globals are not known at all. phis are assumed to be nonnull until one of their operands turns out not to be
+    public boolean nonNull(@NotNull final SsaValue value) {
+        if (!nonNullSettled) settleNonNullPhis();
+        return nonNull(value, nonNull);
+    }
+
+    private void settleNonNullPhis() {
+        final List<SsaValue> all = phis.values().stream().flatMap(List::stream).toList();
+        for (final SsaValue phi : all) nonNull.put(phi, true);
+        nonNullSettled = true;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final SsaValue phi : all) {
+                if (!nonNull.get(phi) || phi.operands().stream().allMatch(operand -> nonNull(operand, nonNull))) continue;
+                nonNull.put(phi, false);
+                changed = true;
+            }
+        }
+    }
+
+    private static boolean nonNull(@NotNull final SsaValue value, @NotNull final Map<SsaValue, Boolean> phis) {
+        return switch (value.kind()) {
+            case CONSTANT -> !value.isNullLiteral();
+            case OPERATION -> value.operands().stream().allMatch(operand -> nonNull(operand, phis));
+            case PHI -> phis.getOrDefault(value, false);
+            case OPAQUE -> false;
+        };
+    }
+
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        for (final BasicBlock block : dominators.reversePostorder()) {
+            result.append(block).append('\n');
+            for (final SsaValue phi : phis(block)) result.append("  ").append(phi).append('\n');
+        }
+        for (final SsaComputation computation : computations) result.append("  ").append(computation.value()).append(" at ").append(computation.begin()).append('\n');
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class SsaValue {
+
+    public enum Kind {
+        CONSTANT,  // a pushed literal
+        OPERATION, // a pure operator applied to other values, see SsaFunction.isOperation
+        PHI,       // one of the values coming in from the predecessors of a block
+        OPAQUE     // anything the function cannot see into, like parameters, call results and globals
+    }
+
+    private final int id;
+    private final Kind kind;
+    private final ByteCodeInstruction instruction;
+    private final List<SsaValue> operands;
+    private final BasicBlock block;
+
+    // values are only ever created by an SsaFunction, which makes sure that equal constants and operations are the same object.
+    // two values are therefore equal exactly when they are the same object
+    SsaValue(final int id, @NotNull final Kind kind, final ByteCodeInstruction instruction, @NotNull final List<SsaValue> operands, final BasicBlock block) {
+        this.id = id;
+        this.kind = kind;
+        this.instruction = instruction;
+        this.operands = kind == Kind.PHI ? new ArrayList<>() : List.copyOf(operands);
+        this.block = block;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    // the push of a constant or the operator of an operation, null for phis and opaque values
+    public ByteCodeInstruction instruction() {
+        return instruction;
+    }
+
+    public ByteCode type() {
+        return instruction == null ? null : instruction.type().orElse(null);
+    }
+
+    // the operands of an operation, or one value per predecessor of the block of a phi that can be reached (in the order of BasicBlock.predecessors())
+    public List<SsaValue> operands() {
+        return Collections.unmodifiableList(operands);
+    }
+
+    void addOperand(@NotNull final SsaValue operand) {
+        operands.add(operand);
+    }
+
+    // the block that defines a phi or opaque value. constants and operations are not tied to any block
+    public BasicBlock block() {
+        return block;
+    }
+
+    public boolean isNullLiteral() {
+        return kind == Kind.CONSTANT && instruction.code(1) == ByteCode.NULL_VALUE.code();
+    }
+
+    public String toString() {
+        return switch (kind) {
+            case CONSTANT, OPERATION -> "v" + id + " = " + instruction.type().map(t -> t.name().toLowerCase()).orElse("?")
+                    + operands.stream().map(o -> " v" + o.id).collect(Collectors.joining());
+            case PHI -> "v" + id + " = phi" + operands.stream().map(o -> " v" + o.id).collect(Collectors.joining()) + " in " + block;
+            case OPAQUE -> "v" + id + " in " + block;
+        };
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.crayne.mi.bytecode.optimizer.ir;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.LongToIntFunction;
+
+public class StackDepth {
+
+    private StackDepth() {}
+
+    // how many values the given instruction leaves on the push stack, compared to before it ran.
+    // calls take their arguments off the stack and may leave a return value, which only the caller knows about
+    public static int effect(@NotNull final ByteCodeInstruction instr, @NotNull final LongToIntFunction callEffect) {
+        return switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
+            case PUSH, LOAD_GLOBAL, DUP -> 1;
+            case FUNCTION_CALL -> callEffect.applyAsInt(ByteCodeLabels.longOperand(instr));
+            case DEFINE_VARIABLE, DEFINE_LOCAL, STORE_GLOBAL, POP_PUSH, JUMP_IF, JUMP_IF_NOT, TABLE_SWITCH, LOOKUP_SWITCH, MUTATE_VARIABLE_AND_PUSH, INC_VARIABLE, DEC_VARIABLE,
+                    PLUS, MINUS, MULTIPLY, DIVIDE, MODULO, LOGICAL_AND, LOGICAL_OR, BIT_AND, BIT_OR, BIT_XOR, BITSHIFT_LEFT, BITSHIFT_RIGHT,
+                    EQUALS, LESS_THAN, GREATER_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN_OR_EQUAL -> -1;
+            case MUTATE_VARIABLE -> -2;
+            default -> 0;
+        };
+    }
+
+    // the deepest the push stack gets inside of the function, relative to where it stood before the arguments were pushed.
+    // every block is only walked with the depth it is first reached with, since the compiler leaves the stack the same on every path into it
+    public static int max(@NotNull final ControlFlowGraph function, final int arguments, @NotNull final LongToIntFunction callEffect) {
+        final Map<BasicBlock, Integer> entryDepths = new HashMap<>();
+        final Deque<BasicBlock> pending = new ArrayDeque<>();
+        function.entry().ifPresent(entry -> {
+            entryDepths.put(entry, arguments);
+            pending.push(entry);
+        });
+        int max = arguments;
+        while (!pending.isEmpty()) {
+            final BasicBlock block = pending.pop();
+            int depth = entryDepths.get(block);
+            for (final ByteCodeInstruction instr : block.instructions()) {
+                depth += effect(instr, callEffect);
+                max = Math.max(max, depth);
+            }
+            for (final BasicBlock successor : block.successors()) {
+                if (entryDepths.putIfAbsent(successor, depth) == null) pending.push(successor);
+            }
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.ir.BasicBlock;
+import org.crayne.mi.bytecode.optimizer.ir.ControlFlowGraph;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class BranchFoldingPass implements OptimizationPass {
+
+    public static final String NAME = "branch-folding";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // conditions that are known at compile time (while true, if false, ...) turn into plain jumps or nothing at all,
+    // afterwards every block that cannot be reached anymore is removed from the function
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        final List<ByteCodeInstruction> folded = new ArrayList<>(program); // removed instructions are null until the program is compacted
+        boolean changed = false;
+        for (final ControlFlowGraph function : ControlFlowGraph.ofFunctions(program)) {
+            for (final BasicBlock block : function.blocks()) changed |= foldBranch(block, folded);
+        }
+        if (!changed) return program;
+
+        final boolean[] keepFolded = new boolean[folded.size()];
+        for (int i = 0; i < folded.size(); i++) keepFolded[i] = folded.get(i) != null;
+        return removeUnreachable(ByteCodeLabels.compact(folded, keepFolded));
+    }
+
+    private static List<ByteCodeInstruction> removeUnreachable(@NotNull final List<ByteCodeInstruction> program) {
+        final boolean[] keep = new boolean[program.size()];
+        Arrays.fill(keep, true);
+        for (final ControlFlowGraph function : ControlFlowGraph.ofFunctions(program)) {
+            final Set<BasicBlock> reachable = function.reachable();
+            for (final BasicBlock block : function.blocks()) {
+                if (reachable.contains(block)) continue;
+                for (int i = block.begin(); i < block.end(); i++) keep[i] = false;
+            }
+        }
+        return ByteCodeLabels.compact(program, keep);
+    }
+
+    private static boolean foldBranch(@NotNull final BasicBlock block, @NotNull final List<ByteCodeInstruction> folded) {
+        final ByteCodeInstruction last = block.last();
+        final ByteCode lastType = last.type().orElse(null);
+        if (lastType != ByteCode.JUMP_IF && lastType != ByteCode.JUMP_IF_NOT) return false;
+
+        // look for PUSH <bool> NOT* JUMP_IF(_NOT), all inside of this block
+        boolean inverted = lastType == ByteCode.JUMP_IF_NOT;
+        int index = block.end() - 2;
+        while (index >= block.begin() && block.instructions().get(index - block.begin()).type().orElse(null) == ByteCode.NOT) {
+            inverted = !inverted;
+            index--;
+        }
+        if (index < block.begin()) return false;
+        final Optional<Boolean> literal = boolLiteral(block.instructions().get(index - block.begin()));
+        if (literal.isEmpty()) return false;
+
+        final boolean taken = literal.get() != inverted;
+        for (int i = index; i < block.end() - 1; i++) folded.set(i, null);
+        folded.set(block.end() - 1, taken ? ByteCode.jump(ByteCodeLabels.intOperand(last)) : null);
+        return true;
+    }
+
+    private static Optional<Boolean> boolLiteral(@NotNull final ByteCodeInstruction instr) {
+        if (instr.type().orElse(null) != ByteCode.PUSH || instr.length() < 3 || instr.code(1) != ByteCode.BOOL_VALUE.code()) return Optional.empty();
+        return Optional.of(instr.code(instr.length() - 2) != 0);
+    }
+
+}
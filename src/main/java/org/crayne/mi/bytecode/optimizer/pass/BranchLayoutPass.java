@@ -0,0 +1,98 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.profile.BranchCounts;
+import org.crayne.mi.bytecode.profile.BranchSite;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+public class BranchLayoutPass implements OptimizationPass {
+
+    public static final String NAME = "branch-layout";
+
+    private final ByteCodeProfile profile;
+
+    public BranchLayoutPass(@NotNull final ByteCodeProfile profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // if-else statements (and ternaries and short circuits, which compile the same way) whose jump was mostly taken while profiling
+    // get their two branches swapped, so that the path that was run most falls through instead:
+    //     JUMP_IF_NOT <else> ; <then> ; JUMP <end> ; else: <else> ; end:
+    //  -> JUMP_IF <then> ; <else> ; JUMP <end> ; then: <then> ; end:
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        final BranchSite[] sites = BranchSite.of(program);
+        final List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < sites.length; i++) {
+            if (sites[i] != null && mostlyTaken(program.get(i), sites[i]) && swappable(program, i)) pending.add(i);
+        }
+        List<ByteCodeInstruction> current = program;
+        for (int p = 0; p < pending.size(); p++) {
+            final int index = pending.get(p);
+            if (!swappable(current, index)) continue;
+
+            final IntUnaryOperator newIndex = swap(current, index);
+            current = relocate(current, index, newIndex);
+            for (int q = p + 1; q < pending.size(); q++) pending.set(q, newIndex.applyAsInt(pending.get(q)));
+        }
+        return current;
+    }
+
+    private boolean mostlyTaken(@NotNull final ByteCodeInstruction jump, @NotNull final BranchSite site) {
+        final Optional<BranchCounts> counts = profile.branch(site);
+        if (counts.isEmpty()) return false;
+        final boolean jumpsWhen = jump.type().orElseThrow() == ByteCode.JUMP_IF;
+        final long taken = jumpsWhen ? counts.get().whenTrue() : counts.get().whenFalse();
+        final long fallen = jumpsWhen ? counts.get().whenFalse() : counts.get().whenTrue();
+        return taken > fallen;
+    }
+
+    // nothing can fall through into the else branch, since it follows an unconditional jump, so moving it never changes what runs
+    private static boolean swappable(@NotNull final List<ByteCodeInstruction> program, final int index) {
+        final ByteCode type = program.get(index).type().orElse(null);
+        if (type != ByteCode.JUMP_IF && type != ByteCode.JUMP_IF_NOT) return false;
+        final int elseBegin = ByteCodeLabels.targetIndex(program.get(index));
+        if (elseBegin <= index + 1 || elseBegin >= program.size()) return false;
+
+        final ByteCodeInstruction skipElse = program.get(elseBegin - 1);
+        return ByteCodeLabels.isUnconditionalJump(skipElse) && ByteCodeLabels.targetIndex(skipElse) > elseBegin;
+    }
+
+    // where every instruction of the program ends up once the branches of the jump at the given index are swapped
+    private static IntUnaryOperator swap(@NotNull final List<ByteCodeInstruction> program, final int index) {
+        final int elseBegin = ByteCodeLabels.targetIndex(program.get(index));
+        final int skipElse = elseBegin - 1;
+        final int end = ByteCodeLabels.targetIndex(program.get(skipElse));
+        final int elseSize = end - elseBegin;
+        final int thenSize = skipElse - index - 1;
+        return i -> {
+            if (i <= index || i >= end) return i;
+            if (i < skipElse) return i + elseSize + 1;
+            if (i == skipElse) return index + 1 + elseSize;
+            return i - thenSize - 1;
+        };
+    }
+
+    private static List<ByteCodeInstruction> relocate(@NotNull final List<ByteCodeInstruction> program, final int index, @NotNull final IntUnaryOperator newIndex) {
+        final ByteCodeInstruction[] swapped = new ByteCodeInstruction[program.size()];
+        for (int i = 0; i < program.size(); i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            swapped[newIndex.applyAsInt(i)] = ByteCodeLabels.isBranch(instr) ? ByteCodeLabels.relocate(instr, newIndex) : instr;
+        }
+        final int thenBegin = newIndex.applyAsInt(index + 1);
+        swapped[index] = program.get(index).type().orElseThrow() == ByteCode.JUMP_IF ? ByteCode.jumpIfNot(thenBegin + 1) : ByteCode.jumpIf(thenBegin + 1);
+        return new ArrayList<>(Arrays.asList(swapped));
+    }
+
+}
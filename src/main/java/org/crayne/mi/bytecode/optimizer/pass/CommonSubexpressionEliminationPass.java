@@ -0,0 +1,79 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.ir.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class CommonSubexpressionEliminationPass implements OptimizationPass {
+
+    public static final String NAME = "common-subexpression-elimination";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // an operation whose value was already computed on every path to it is not computed again. if a local still holds the value,
+    // it is loaded from there, otherwise the first computation keeps its value in a new local of the frame (DUP DEFINE_LOCAL) for the later ones to load.
+    // only computations of three or more instructions are replaced, since loading a local takes two
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        final FunctionSignatures signatures = FunctionSignatures.of(program);
+        final Map<Integer, List<ByteCodeInstruction>> replacements = new HashMap<>();
+        for (final ControlFlowGraph function : ControlFlowGraph.ofFunctions(program)) {
+            SsaFunction.of(function, signatures).ifPresent(ssa -> eliminate(ssa, replacements));
+        }
+        return replacements.isEmpty() ? program : ByteCodeLabels.rewrite(program, replacements);
+    }
+
+    private static void eliminate(@NotNull final SsaFunction ssa, @NotNull final Map<Integer, List<ByteCodeInstruction>> replacements) {
+        final Map<BasicBlock, Integer> order = new HashMap<>();
+        for (final BasicBlock block : ssa.dominators().reversePostorder()) order.put(block, order.size());
+
+        // dominating blocks come first, and every computation before the ones nested in it
+        final List<SsaComputation> computations = ssa.computations().stream()
+                .filter(c -> c.size() >= 3)
+                .sorted(Comparator.comparingInt((SsaComputation c) -> order.get(c.block()))
+                        .thenComparingInt(SsaComputation::begin)
+                        .thenComparing(Comparator.comparingInt(SsaComputation::end).reversed()))
+                .toList();
+
+        final List<ByteCodeInstruction> program = ssa.graph().program();
+        final Map<SsaValue, List<SsaComputation>> definitions = new HashMap<>();
+        final Map<SsaComputation, Integer> temps = new HashMap<>();
+        final BitSet replaced = new BitSet();
+        for (final SsaComputation computation : computations) {
+            if (replaced.get(computation.begin())) continue;
+            if (computation.heldIn() >= 0) {
+                replace(computation, computation.heldIn(), replacements, replaced);
+                continue;
+            }
+            final Optional<SsaComputation> definition = definitions.getOrDefault(computation.value(), List.of()).stream()
+                    .filter(d -> d.block() == computation.block() ? d.end() < computation.begin() : ssa.dominators().strictlyDominates(d.block(), computation.block()))
+                    .findFirst();
+            if (definition.isEmpty()) {
+                definitions.computeIfAbsent(computation.value(), v -> new ArrayList<>()).add(computation);
+                continue;
+            }
+            final int temp = temps.computeIfAbsent(definition.get(), d -> {
+                final int slot = ssa.locals() + temps.size();
+                replacements.put(d.end(), List.of(program.get(d.end()), ByteCode.dup(), ByteCode.defineLocal(slot)));
+                return slot;
+            });
+            replace(computation, temp, replacements, replaced);
+        }
+        if (!temps.isEmpty()) replacements.put(ssa.frameIndex(), List.of(ssa.frame(temps.size(), 1)));
+    }
+
+    private static void replace(@NotNull final SsaComputation computation, final int slot, @NotNull final Map<Integer, List<ByteCodeInstruction>> replacements,
+                                @NotNull final BitSet replaced) {
+        replacements.put(computation.begin(), LocalSlots.load(slot));
+        for (int i = computation.begin() + 1; i <= computation.end(); i++) replacements.put(i, List.of());
+        replaced.set(computation.begin(), computation.end() + 1);
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class ConstantGlobalsPass implements OptimizationPass {
+
+    public static final String NAME = "constant-globals";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // global variables that are initialized with a literal and never mutated anywhere (like 'true' and 'false' of the standard library)
+    // are replaced by that literal wherever they are read, which saves an instruction and lets branch folding see the value
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        final Map<Integer, ByteCodeInstruction> constants = literalGlobals(program);
+        constants.keySet().removeAll(mutatedAddresses(program));
+        if (constants.isEmpty()) return program;
+
+        final List<ByteCodeInstruction> result = new ArrayList<>(program);
+        final boolean[] keep = new boolean[program.size()];
+        Arrays.fill(keep, true);
+        boolean changed = false;
+        for (int i = 0; i < program.size(); i++) {
+            if (type(program.get(i)) == ByteCode.LOAD_GLOBAL && constants.containsKey(ByteCodeLabels.intOperand(program.get(i)))) {
+                result.set(i, constants.get(ByteCodeLabels.intOperand(program.get(i))));
+                changed = true;
+                continue;
+            }
+            // programs of older compilers read globals by pushing their address first
+            if (i + 1 >= program.size() || type(program.get(i + 1)) != ByteCode.VALUE_AT_ADDRESS) continue;
+            final Optional<Integer> address = intLiteral(program.get(i));
+            if (address.isEmpty() || !constants.containsKey(address.get())) continue;
+
+            result.set(i, constants.get(address.get()));
+            keep[i + 1] = false;
+            changed = true;
+        }
+        return changed ? ByteCodeLabels.compact(result, keep) : program;
+    }
+
+    private static ByteCode type(@NotNull final ByteCodeInstruction instr) {
+        return instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+    }
+
+    // global addresses are given out in order of definition, starting at 1. everything outside of function bodies is global
+    private static Map<Integer, ByteCodeInstruction> literalGlobals(@NotNull final List<ByteCodeInstruction> program) {
+        final Map<Integer, ByteCodeInstruction> globals = new HashMap<>();
+        int address = 0;
+        boolean inFunction = false;
+        for (int i = 0; i < program.size(); i++) {
+            final ByteCodeInstruction instr = program.get(i);
+            switch (type(instr)) {
+                case FUNCTION_DEFINITION_BEGIN -> inFunction = true;
+                case FUNCTION_DEFINITION_END -> inFunction = false;
+                case DECLARE_VARIABLE -> {
+                    if (!inFunction) address++;
+                }
+                case DEFINE_VARIABLE -> {
+                    if (inFunction) break;
+                    address++;
+                    if (i > 0 && type(program.get(i - 1)) == ByteCode.PUSH) globals.put(address, program.get(i - 1));
+                }
+            }
+        }
+        return globals;
+    }
+
+    private static Set<Integer> mutatedAddresses(@NotNull final List<ByteCodeInstruction> program) {
+        final Set<Integer> mutated = new HashSet<>();
+        for (int i = 0; i < program.size(); i++) {
+            if (type(program.get(i)) == ByteCode.STORE_GLOBAL) mutated.add(ByteCodeLabels.intOperand(program.get(i)));
+            if (i + 1 >= program.size()) continue;
+            switch (type(program.get(i + 1))) {
+                case MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH, INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH ->
+                        intLiteral(program.get(i)).ifPresent(mutated::add);
+            }
+        }
+        return mutated;
+    }
+
+    private static Optional<Integer> intLiteral(@NotNull final ByteCodeInstruction instr) {
+        if (type(instr) != ByteCode.PUSH || instr.length() != 7 || instr.code(1) != ByteCode.INTEGER_VALUE.code()) return Optional.empty();
+        return Optional.of(instr.intAt(2));
+    }
+
+}
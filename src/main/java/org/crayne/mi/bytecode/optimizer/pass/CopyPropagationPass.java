@@ -0,0 +1,84 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.ir.BasicBlock;
+import org.crayne.mi.bytecode.optimizer.ir.ControlFlowGraph;
+import org.crayne.mi.bytecode.optimizer.ir.LocalSlots;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class CopyPropagationPass implements OptimizationPass {
+
+    public static final String NAME = "copy-propagation";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // a local that is defined as a plain copy of another one (int a = x;) is read from the original instead, for as long as
+    // neither of them is written again on any path to the read. the copy is then often never read at all, which dead store elimination picks up
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        List<ByteCodeInstruction> result = null; // rewrites keep every instruction where it is, so the graphs of the original program stay valid
+        for (final ControlFlowGraph function : ControlFlowGraph.ofFunctions(program)) {
+            final Optional<LocalSlots> slots = LocalSlots.of(function);
+            if (slots.isEmpty()) continue;
+
+            final Map<Integer, Integer> rewrites = propagate(function, slots.get());
+            if (rewrites.isEmpty()) continue;
+            if (result == null) result = new ArrayList<>(program);
+            for (final Map.Entry<Integer, Integer> rewrite : rewrites.entrySet()) result.set(rewrite.getKey(), ByteCode.push(ByteCode.integer(rewrite.getValue())));
+        }
+        return result == null ? program : result;
+    }
+
+    // the index of every PUSH <slot> that should load another slot, mapped to that slot
+    private static Map<Integer, Integer> propagate(@NotNull final ControlFlowGraph function, @NotNull final LocalSlots slots) {
+        // the copies known on entry of each block, keyed by the copy and mapped to the slot it copies.
+        // a block that was not reached yet has no entry, only the copies of every path into a block are known inside of it
+        final Map<BasicBlock, Map<Integer, Integer>> copiesIn = new HashMap<>();
+        final Deque<BasicBlock> pending = new ArrayDeque<>();
+        function.entry().ifPresent(entry -> {
+            copiesIn.put(entry, new HashMap<>());
+            pending.add(entry);
+        });
+        while (!pending.isEmpty()) {
+            final BasicBlock block = pending.poll();
+            final Map<Integer, Integer> copiesOut = transfer(block, new HashMap<>(copiesIn.get(block)), slots, null);
+            for (final BasicBlock successor : block.successors()) {
+                final Map<Integer, Integer> known = copiesIn.get(successor);
+                final Map<Integer, Integer> merged = new HashMap<>(copiesOut);
+                if (known != null) merged.entrySet().retainAll(known.entrySet());
+                if (merged.equals(known)) continue;
+                copiesIn.put(successor, merged);
+                pending.add(successor);
+            }
+        }
+
+        final Map<Integer, Integer> rewrites = new HashMap<>();
+        for (final Map.Entry<BasicBlock, Map<Integer, Integer>> block : copiesIn.entrySet()) transfer(block.getKey(), block.getValue(), slots, rewrites);
+        return rewrites;
+    }
+
+    private static Map<Integer, Integer> transfer(@NotNull final BasicBlock block, @NotNull final Map<Integer, Integer> copies,
+                                                  @NotNull final LocalSlots slots, final Map<Integer, Integer> rewrites) {
+        final List<ByteCodeInstruction> program = block.instructions();
+        for (int i = block.begin(); i < block.end(); i++) {
+            if (slots.isLoad(i) && rewrites != null && copies.containsKey(slots.loadedSlot(i))) rewrites.put(i - 1, copies.get(slots.loadedSlot(i)));
+
+            for (final int slot : slots.writes(i)) copies.entrySet().removeIf(copy -> copy.getKey() == slot || copy.getValue() == slot);
+
+            // DEFINE_LOCAL <copy> right after a load of <slot>, the load itself may already read from an earlier original
+            if (i == block.begin() || !slots.isLoad(i - 1) || program.get(i - block.begin()).type().orElse(null) != ByteCode.DEFINE_LOCAL) continue;
+            final int copy = ByteCodeLabels.intOperand(program.get(i - block.begin()));
+            final int original = copies.getOrDefault(slots.loadedSlot(i - 1), slots.loadedSlot(i - 1));
+            if (copy != original) copies.put(copy, original);
+        }
+        return copies;
+    }
+
+}
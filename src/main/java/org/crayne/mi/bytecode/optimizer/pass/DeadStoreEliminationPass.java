@@ -0,0 +1,108 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.ir.BasicBlock;
+import org.crayne.mi.bytecode.optimizer.ir.ControlFlowGraph;
+import org.crayne.mi.bytecode.optimizer.ir.LocalSlots;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class DeadStoreEliminationPass implements OptimizationPass {
+
+    public static final String NAME = "dead-store-elimination";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // stores to locals that are not read again on any path before the next store are dropped. the stored value is still computed,
+    // since it may call a function, and then popped with POP_PUSH right away, which the peephole pass removes again where the value was a plain push.
+    // stores that are only read by themselves (a counter that is incremented but never used) count as dead too
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        final List<ByteCodeInstruction> result = new ArrayList<>(program); // removed instructions are null until the program is compacted
+        boolean changed = false;
+        for (final ControlFlowGraph function : ControlFlowGraph.ofFunctions(program)) {
+            final Optional<LocalSlots> slots = LocalSlots.of(function);
+            if (slots.isPresent()) changed |= eliminate(function, slots.get(), result);
+        }
+        if (!changed) return program;
+
+        final boolean[] keep = new boolean[result.size()];
+        for (int i = 0; i < result.size(); i++) keep[i] = result.get(i) != null;
+        return ByteCodeLabels.compact(result, keep);
+    }
+
+    private static boolean eliminate(@NotNull final ControlFlowGraph function, @NotNull final LocalSlots slots, @NotNull final List<ByteCodeInstruction> result) {
+        final Map<BasicBlock, BitSet> liveIn = liveness(function, slots);
+        boolean changed = false;
+        for (final BasicBlock block : liveIn.keySet()) {
+            final BitSet live = liveOut(block, liveIn);
+            for (int i = block.end() - 1; i >= block.begin(); i--) {
+                if (!deadStore(function.program(), slots, i, live)) {
+                    transfer(slots, i, live);
+                    continue;
+                }
+                changed = true;
+                switch (function.program().get(i).type().orElseThrow()) {
+                    case DEFINE_LOCAL -> result.set(i, ByteCode.popPush());
+                    case DECLARE_LOCAL -> result.set(i, null);
+                    default -> { // PUSH <slot> RELATIVE_TO_ABSOLUTE_ADDRESS <mutation>
+                        result.set(i - 2, null);
+                        result.set(i - 1, null);
+                        result.set(i, function.program().get(i).type().orElseThrow() == ByteCode.MUTATE_VARIABLE ? ByteCode.popPush() : null);
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    // the slots that may still be read when each reachable block is entered
+    private static Map<BasicBlock, BitSet> liveness(@NotNull final ControlFlowGraph function, @NotNull final LocalSlots slots) {
+        final List<BasicBlock> reachable = function.blocks().stream().filter(function.reachable()::contains).toList();
+        final Map<BasicBlock, BitSet> liveIn = new HashMap<>();
+        for (final BasicBlock block : reachable) liveIn.put(block, new BitSet());
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = reachable.size() - 1; b >= 0; b--) {
+                final BasicBlock block = reachable.get(b);
+                final BitSet live = liveOut(block, liveIn);
+                for (int i = block.end() - 1; i >= block.begin(); i--) {
+                    if (!deadStore(function.program(), slots, i, live)) transfer(slots, i, live);
+                }
+                if (live.equals(liveIn.get(block))) continue;
+                liveIn.put(block, live);
+                changed = true;
+            }
+        }
+        return liveIn;
+    }
+
+    private static BitSet liveOut(@NotNull final BasicBlock block, @NotNull final Map<BasicBlock, BitSet> liveIn) {
+        final BitSet live = new BitSet();
+        for (final BasicBlock successor : block.successors()) live.or(liveIn.getOrDefault(successor, new BitSet()));
+        return live;
+    }
+
+    private static void transfer(@NotNull final LocalSlots slots, final int index, @NotNull final BitSet live) {
+        for (final int slot : slots.writes(index)) live.clear(slot);
+        for (final int slot : slots.reads(index)) live.set(slot);
+    }
+
+    // stores that leave a value on the push stack (MUTATE_VARIABLE_AND_PUSH, ...) and the counter of range loops are always kept
+    private static boolean deadStore(@NotNull final List<ByteCodeInstruction> program, @NotNull final LocalSlots slots, final int index, @NotNull final BitSet live) {
+        if (slots.writes(index).length != 1 || live.get(slots.writes(index)[0])) return false;
+        return switch (program.get(index).type().orElseThrow()) {
+            case DEFINE_LOCAL, DECLARE_LOCAL, MUTATE_VARIABLE, INC_VARIABLE, DEC_VARIABLE -> true;
+            default -> false;
+        };
+    }
+
+}
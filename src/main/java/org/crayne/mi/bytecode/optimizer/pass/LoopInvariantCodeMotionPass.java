@@ -0,0 +1,147 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.ir.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class LoopInvariantCodeMotionPass implements OptimizationPass {
+
+    public static final String NAME = "loop-invariant-code-motion";
+
+    private static final Set<ByteCode> MAY_FAIL = EnumSet.of(ByteCode.DIVIDE, ByteCode.MODULO, ByteCode.CAST);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    // operations whose operands do not change inside a loop are computed once before it, into a new local of the frame, and loaded inside of it.
+    // operators fail on null, and the bytecode does not say which locals can be null, so an operation is only moved if it cannot fail,
+    // or if it is part of the condition at the very start of the loop, which runs right after the code before the loop anyway
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        final FunctionSignatures signatures = FunctionSignatures.of(program);
+        final Map<Integer, List<ByteCodeInstruction>> replacements = new HashMap<>();
+        for (final ControlFlowGraph function : ControlFlowGraph.ofFunctions(program)) {
+            SsaFunction.of(function, signatures).ifPresent(ssa -> hoist(ssa, replacements));
+        }
+        return replacements.isEmpty() ? program : ByteCodeLabels.rewrite(program, replacements);
+    }
+
+    private static void hoist(@NotNull final SsaFunction ssa, @NotNull final Map<Integer, List<ByteCodeInstruction>> replacements) {
+        final List<ByteCodeInstruction> program = ssa.graph().program();
+        final BitSet computed = new BitSet(); // code cannot be put before or after an instruction that a computation is made of
+        for (final SsaComputation computation : ssa.computations()) computed.set(computation.begin(), computation.end() + 1);
+
+        final List<SsaComputation> computations = ssa.computations().stream()
+                .filter(c -> c.size() >= 3)
+                .sorted(Comparator.comparingInt(SsaComputation::begin).thenComparing(Comparator.comparingInt(SsaComputation::end).reversed()))
+                .toList();
+
+        final Map<NaturalLoop, Map<SsaValue, Integer>> temps = new LinkedHashMap<>();
+        final Map<NaturalLoop, List<ByteCodeInstruction>> hoisted = new HashMap<>();
+        final BitSet replaced = new BitSet();
+        int added = 0;
+        int depth = 0;
+        for (final SsaComputation computation : computations) {
+            if (replaced.get(computation.begin())) continue;
+            final Optional<NaturalLoop> target = ssa.loops().stream()
+                    .filter(loop -> loop.contains(computation.block()) && ssa.invariant(computation.value(), loop) && loadable(ssa, computation, loop))
+                    .filter(loop -> loop.preheader().filter(p -> !computed.get(p.end() - 1)).isPresent())
+                    .filter(loop -> temps.getOrDefault(loop, Map.of()).containsKey(computation.value()) || safe(ssa, computation, loop))
+                    .findFirst();
+            if (target.isEmpty()) continue;
+
+            final Map<SsaValue, Integer> loopTemps = temps.computeIfAbsent(target.get(), l -> new HashMap<>());
+            Integer temp = loopTemps.get(computation.value());
+            if (temp == null) {
+                temp = ssa.locals() + added++;
+                loopTemps.put(computation.value(), temp);
+                final List<ByteCodeInstruction> code = hoisted.computeIfAbsent(target.get(), l -> new ArrayList<>());
+                code.addAll(copy(ssa, computation));
+                code.add(ByteCode.defineLocal(temp));
+                depth = Math.max(depth, depth(program, computation));
+            }
+            replacements.put(computation.begin(), LocalSlots.load(temp));
+            for (int i = computation.begin() + 1; i <= computation.end(); i++) replacements.put(i, List.of());
+            replaced.set(computation.begin(), computation.end() + 1);
+        }
+        if (added == 0) return;
+
+        final ByteCodeInstruction frame = ssa.frame(added, depth);
+        replacements.put(ssa.frameIndex(), List.of(frame));
+        for (final Map.Entry<NaturalLoop, List<ByteCodeInstruction>> loop : hoisted.entrySet()) {
+            final int last = loop.getKey().preheader().orElseThrow().end() - 1;
+            final ByteCodeInstruction instr = last == ssa.frameIndex() ? frame : program.get(last);
+            final ByteCode type = instr.type().orElseThrow();
+
+            // the code goes right before the jump into the loop, or right after the last instruction if the preheader falls through into it
+            final List<ByteCodeInstruction> code = new ArrayList<>();
+            if (type != ByteCode.JUMP && type != ByteCode.RANGE_LOOP_ENTER) code.add(instr);
+            code.addAll(loop.getValue());
+            if (type == ByteCode.JUMP || type == ByteCode.RANGE_LOOP_ENTER) code.add(instr);
+            replacements.put(last, code);
+        }
+    }
+
+    // the locals that the computation loads still have to hold the same values before the loop. a local that is written inside the loop
+    // may only hold the value it has in the loop after a copy, but constants can always be pushed again instead of loaded
+    private static boolean loadable(@NotNull final SsaFunction ssa, @NotNull final SsaComputation computation, @NotNull final NaturalLoop loop) {
+        final BitSet written = ssa.writtenIn(loop);
+        for (int i = computation.begin(); i <= computation.end(); i++) {
+            if (!ssa.slots().isLoad(i) || ssa.valueAt(i).orElseThrow().kind() == SsaValue.Kind.CONSTANT) continue;
+            if (written.get(ssa.slots().loadedSlot(i))) return false;
+        }
+        return true;
+    }
+
+    private static List<ByteCodeInstruction> copy(@NotNull final SsaFunction ssa, @NotNull final SsaComputation computation) {
+        final List<ByteCodeInstruction> program = ssa.graph().program();
+        final List<ByteCodeInstruction> code = new ArrayList<>();
+        for (int i = computation.begin(); i <= computation.end(); i++) {
+            final boolean load = i < computation.end() && ssa.slots().isLoad(i + 1);
+            final SsaValue loaded = load ? ssa.valueAt(i + 1).orElseThrow() : null;
+            if (loaded == null || loaded.kind() != SsaValue.Kind.CONSTANT) {
+                code.add(program.get(i));
+                continue;
+            }
+            code.add(loaded.instruction());
+            i++;
+        }
+        return code;
+    }
+
+    // computing the value before the loop is safe if it cannot fail at all, or if the loop computes it first thing anyway.
+    // a range loop may not run its header at all, so only values that cannot fail are moved out of it
+    private static boolean safe(@NotNull final SsaFunction ssa, @NotNull final SsaComputation computation, @NotNull final NaturalLoop loop) {
+        if (ssa.nonNull(computation.value()) && !mayFail(computation.value())) return true;
+
+        final BasicBlock header = loop.header();
+        if (computation.block() != header || loop.preheader().orElseThrow().last().type().orElse(null) == ByteCode.RANGE_LOOP_ENTER) return false;
+        for (int i = header.begin(); i < computation.begin(); i++) {
+            final ByteCode type = ssa.graph().program().get(i).type().orElse(null);
+            if (type != ByteCode.PUSH && !ssa.slots().isLoad(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean mayFail(@NotNull final SsaValue value) {
+        if (value.kind() != SsaValue.Kind.OPERATION) return false;
+        return MAY_FAIL.contains(value.type()) || value.operands().stream().anyMatch(LoopInvariantCodeMotionPass::mayFail);
+    }
+
+    private static int depth(@NotNull final List<ByteCodeInstruction> program, @NotNull final SsaComputation computation) {
+        int depth = 0;
+        int max = 0;
+        for (int i = computation.begin(); i <= computation.end(); i++) {
+            depth += StackDepth.effect(program.get(i), id -> 0);
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+
+// trades compile time for the speed of the compiled program. functions marked with 'inline' are inlined on every level
+public enum OptimizationLevel {
+
+    // no passes and no automatic inlining, for hot reloading during development
+    O0(0, Set.of(), false, 1),
+
+    // only the cheap passes
+    O1(8, Set.of(TreeShakingPass.NAME, PeepholePass.NAME, BranchLayoutPass.NAME), false, 1),
+
+    // every pass once, including the ones added to the pass manager
+    O2(24, Set.of(), true, 1),
+
+    // every pass, repeated while the program keeps shrinking, and bigger functions are inlined
+    O3(64, Set.of(), true, 4);
+
+    public static final OptimizationLevel DEFAULT = O2;
+
+    private final int maxInlineNodes;
+    private final Set<String> passes;
+    private final boolean allPasses;
+    private final int maxRounds;
+
+    OptimizationLevel(final int maxInlineNodes, @NotNull final Set<String> passes, final boolean allPasses, final int maxRounds) {
+        this.maxInlineNodes = maxInlineNodes;
+        this.passes = passes;
+        this.allPasses = allPasses;
+        this.maxRounds = maxRounds;
+    }
+
+    // '0' to '3'
+    public static Optional<OptimizationLevel> of(@NotNull final String level) {
+        return Arrays.stream(values()).filter(l -> String.valueOf(l.ordinal()).equals(level.trim())).findFirst();
+    }
+
+    // functions with a body of at most this many syntax tree nodes are inlined at their call sites.
+    // functions that a profile shows to be hot may be bigger
+    public int maxInlineNodes() {
+        return maxInlineNodes;
+    }
+
+    public boolean includes(@NotNull final OptimizationPass pass) {
+        return allPasses || passes.contains(pass.name());
+    }
+
+    public int maxRounds() {
+        return maxRounds;
+    }
+
+}
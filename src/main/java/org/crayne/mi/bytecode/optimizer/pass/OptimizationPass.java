@@ -0,0 +1,16 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface OptimizationPass { // a transformation of a whole compiled program, run by the PassManager
+
+    // used to toggle the pass, so it should be unique and not change
+    String name();
+
+    List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints);
+
+}
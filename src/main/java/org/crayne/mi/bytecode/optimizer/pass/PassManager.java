@@ -0,0 +1,126 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeOptimizer;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class PassManager {
+
+    private final List<OptimizationPass> passes;
+    private final Set<String> disabled = new HashSet<>();
+    private final List<PassTiming> timings = new ArrayList<>();
+
+    public PassManager(@NotNull final Collection<OptimizationPass> passes) {
+        this.passes = new ArrayList<>(passes);
+    }
+
+    public PassManager(@NotNull final OptimizationPass... passes) {
+        this(List.of(passes));
+    }
+
+    // tree shaking goes first so that no other pass wastes time on unused functions,
+    // copies are propagated before dead stores are eliminated, since propagating a copy usually leaves its store dead.
+    // invariant code is moved out of loops before common subexpressions are eliminated, so that the computations left in a loop load the same local.
+    // the peephole pass goes last to clean up the jumps that branch folding leaves behind and the values of dead stores
+    public static List<OptimizationPass> defaultPasses(@NotNull final PeepholeOptimizer peepholeOptimizer) {
+        return List.of(
+                new TreeShakingPass(),
+                new ConstantGlobalsPass(),
+                new BranchFoldingPass(),
+                new CopyPropagationPass(),
+                new LoopInvariantCodeMotionPass(),
+                new CommonSubexpressionEliminationPass(),
+                new DeadStoreEliminationPass(),
+                new PeepholePass(peepholeOptimizer)
+        );
+    }
+
+    public static PassManager withDefaultPasses(@NotNull final PeepholeOptimizer peepholeOptimizer) {
+        return new PassManager(defaultPasses(peepholeOptimizer));
+    }
+
+    public PassManager addPass(@NotNull final OptimizationPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public List<OptimizationPass> passes() {
+        return passes;
+    }
+
+    public Optional<OptimizationPass> pass(@NotNull final String name) {
+        return passes.stream().filter(p -> p.name().equals(name)).findFirst();
+    }
+
+    public PassManager enable(@NotNull final String name) {
+        disabled.remove(name);
+        return this;
+    }
+
+    public PassManager disable(@NotNull final String name) {
+        disabled.add(name);
+        return this;
+    }
+
+    public boolean enabled(@NotNull final String name) {
+        return !disabled.contains(name);
+    }
+
+    // the timings of the last run, in the order the passes ran
+    public List<PassTiming> timings() {
+        return Collections.unmodifiableList(timings);
+    }
+
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        return run(program, entryPoints, OptimizationLevel.DEFAULT);
+    }
+
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints,
+                                         @NotNull final OptimizationLevel level) {
+        return run(program, entryPoints, level, List.of());
+    }
+
+    // passes that the level leaves out are skipped the same way disabled ones are.
+    // the program passes only apply to this one program (like the ones guided by a profile of it), they run once after all the others
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints,
+                                         @NotNull final OptimizationLevel level, @NotNull final Collection<OptimizationPass> programPasses) {
+        checkEntryPoints(program, entryPoints);
+        timings.clear();
+        List<ByteCodeInstruction> current = program;
+        for (int round = 0; round < level.maxRounds(); round++) {
+            final int sizeBefore = current.size();
+            for (final OptimizationPass pass : passes) current = run(pass, current, entryPoints, level);
+            if (current.size() >= sizeBefore) break;
+        }
+        for (final OptimizationPass pass : programPasses) current = run(pass, current, entryPoints, level);
+        return current;
+    }
+
+    // on every level, even if no pass needs the entry points
+    private static void checkEntryPoints(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        if (entryPoints.isEmpty()) return;
+        final Set<String> functions = new HashSet<>();
+        for (final ByteCodeInstruction instr : program) {
+            if (instr.type().orElse(null) == ByteCode.FUNCTION_DEFINITION_BEGIN) functions.add(ByteCodeLabels.definitionName(instr));
+        }
+        for (final String entryPoint : entryPoints) {
+            if (!functions.contains(entryPoint)) throw new ByteCodeException("Cannot find entry point function '" + entryPoint + "'");
+        }
+    }
+
+    private List<ByteCodeInstruction> run(@NotNull final OptimizationPass pass, @NotNull final List<ByteCodeInstruction> program,
+                                          @NotNull final Collection<String> entryPoints, @NotNull final OptimizationLevel level) {
+        if (!enabled(pass.name()) || !level.includes(pass)) return program;
+
+        final long start = System.nanoTime();
+        final List<ByteCodeInstruction> optimized = pass.run(program, entryPoints);
+        timings.add(new PassTiming(pass.name(), System.nanoTime() - start, program.size(), optimized.size()));
+        return optimized;
+    }
+
+}
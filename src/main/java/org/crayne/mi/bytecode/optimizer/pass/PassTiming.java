@@ -0,0 +1,11 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.jetbrains.annotations.NotNull;
+
+public record PassTiming(@NotNull String name, long nanos, int instructionsBefore, int instructionsAfter) {
+
+    public String toString() {
+        return name + ": " + String.format("%.3f", nanos / 1_000_000.0) + "ms, " + instructionsBefore + " -> " + instructionsAfter + " instructions";
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeOptimizer;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+
+public class PeepholePass implements OptimizationPass {
+
+    public static final String NAME = "peephole";
+
+    private final PeepholeOptimizer optimizer;
+
+    public PeepholePass(@NotNull final PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    public PeepholeOptimizer optimizer() {
+        return optimizer;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        return optimizer.optimize(program);
+    }
+
+}
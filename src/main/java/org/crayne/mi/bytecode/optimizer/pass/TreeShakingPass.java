@@ -0,0 +1,24 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeTreeShaker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+
+public class TreeShakingPass implements OptimizationPass {
+
+    public static final String NAME = "tree-shaking";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<ByteCodeInstruction> run(@NotNull final List<ByteCodeInstruction> program, @NotNull final Collection<String> entryPoints) {
+        return ByteCodeTreeShaker.shake(program, entryPoints);
+    }
+
+}
@@ -0,0 +1,118 @@
+package org.crayne.mi.bytecode.optimizer.peephole;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.peephole.rules.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public class PeepholeOptimizer {
+
+    private static final int MAX_PASSES = 16;
+
+    private final List<PeepholeRule> rules;
+
+    public PeepholeOptimizer(@NotNull final Collection<PeepholeRule> rules) {
+        this.rules = new ArrayList<>(rules);
+    }
+
+    public PeepholeOptimizer(@NotNull final PeepholeRule... rules) {
+        this(List.of(rules));
+    }
+
+    public static List<PeepholeRule> defaultRules() {
+        return List.of(
+                new NotJumpIfRule(),
+                new JumpThreadingRule(),
+                new UnreachableCodeRule(),
+                new RedundantCastRule(),
+                new UnusedValueRule(),
+                new DuplicateLoadRule()
+        );
+    }
+
+    public static PeepholeOptimizer withDefaultRules() {
+        return new PeepholeOptimizer(defaultRules());
+    }
+
+    public PeepholeOptimizer addRule(@NotNull final PeepholeRule rule) {
+        rules.add(rule);
+        return this;
+    }
+
+    public List<PeepholeRule> rules() {
+        return rules;
+    }
+
+    public List<ByteCodeInstruction> optimize(@NotNull final List<ByteCodeInstruction> program) {
+        List<ByteCodeInstruction> current = program;
+        // rewrites can enable other rewrites (NOT NOT JUMP_IF for example), so keep going until nothing changes anymore
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            final List<ByteCodeInstruction> optimized = optimizePass(current);
+            if (optimized == null) break;
+            current = optimized;
+        }
+        return current;
+    }
+
+    // returns null if no rule matched anywhere
+    private List<ByteCodeInstruction> optimizePass(@NotNull final List<ByteCodeInstruction> program) {
+        final boolean[] jumpTargets = ByteCodeLabels.jumpTargets(program);
+        final int[] newIndex = new int[program.size() + 1];
+        final List<ByteCodeInstruction> result = new ArrayList<>(program.size());
+        boolean changed = false;
+
+        for (int i = 0; i < program.size();) {
+            newIndex[i] = result.size();
+            final Optional<Rewrite> rewrite = findRewrite(program, jumpTargets, i);
+            if (rewrite.isEmpty()) {
+                result.add(program.get(i));
+                i++;
+                continue;
+            }
+            // jumps into the window (only possible to the first instruction of it) now land on the replacement
+            for (int j = i + 1; j < i + rewrite.get().windowSize(); j++) newIndex[j] = result.size();
+            result.addAll(rewrite.get().replacement());
+            i += rewrite.get().windowSize();
+            changed = true;
+        }
+        newIndex[program.size()] = result.size();
+        if (!changed) return null;
+
+        final List<ByteCodeInstruction> relocated = new ArrayList<>(result.size());
+        for (final ByteCodeInstruction instr : result) {
+            if (!ByteCodeLabels.isBranch(instr)) {
+                relocated.add(instr);
+                continue;
+            }
+            relocated.add(ByteCodeLabels.relocate(instr, target -> newIndex[Math.max(0, Math.min(target, program.size()))]));
+        }
+        return relocated;
+    }
+
+    private record Rewrite(int windowSize, @NotNull List<ByteCodeInstruction> replacement) {}
+
+    private Optional<Rewrite> findRewrite(@NotNull final List<ByteCodeInstruction> program, final boolean @NotNull [] jumpTargets, final int index) {
+        for (final PeepholeRule rule : rules) {
+            final int size = rule.windowSize();
+            if (size <= 0 || index + size > program.size() || landsInside(jumpTargets, index, size)) continue;
+
+            final Optional<List<ByteCodeInstruction>> replacement = rule.rewrite(new PeepholeWindow(program, index, size));
+            if (replacement.isPresent()) return Optional.of(new Rewrite(size, replacement.get()));
+        }
+        return Optional.empty();
+    }
+
+    // a window may never swallow an instruction that some jump lands on, except for its very first one
+    private static boolean landsInside(final boolean @NotNull [] jumpTargets, final int index, final int size) {
+        for (int i = index + 1; i < index + size; i++) {
+            if (jumpTargets[i]) return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.crayne.mi.bytecode.optimizer.peephole;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface PeepholeRule { // a rewrite of a short, fixed size sequence of instructions
+
+    int windowSize();
+
+    // return the instructions that should replace the window, or empty if the rule does not apply.
+    // jumps in the replacement use the labels of the program the window was taken from, they are relocated afterwards
+    Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window);
+
+}
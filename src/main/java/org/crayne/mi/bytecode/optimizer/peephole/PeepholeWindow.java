@@ -0,0 +1,62 @@
+package org.crayne.mi.bytecode.optimizer.peephole;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+
+public class PeepholeWindow {
+
+    private final List<ByteCodeInstruction> program;
+    private final int begin;
+    private final int size;
+
+    public PeepholeWindow(@NotNull final List<ByteCodeInstruction> program, final int begin, final int size) {
+        this.program = program;
+        this.begin = begin;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // the index of the first instruction of this window inside of the whole program
+    public int index() {
+        return begin;
+    }
+
+    public ByteCodeInstruction get(final int offset) {
+        if (offset < 0 || offset >= size) throw new ByteCodeException("Peephole window offset " + offset + " out of bounds for window size " + size);
+        return program.get(begin + offset);
+    }
+
+    public ByteCode type(final int offset) {
+        final ByteCodeInstruction instr = get(offset);
+        return instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr));
+    }
+
+    public boolean matches(@NotNull final ByteCode... types) {
+        if (types.length != size) return false;
+        for (int i = 0; i < size; i++) {
+            if (type(i) != types[i]) return false;
+        }
+        return true;
+    }
+
+    // rules may look outside of their window, but only to read the instruction a jump lands on
+    public Optional<ByteCodeInstruction> jumpTarget(final int offset) {
+        return jumpTarget(offset, 0);
+    }
+
+    // the instruction 'skip' instructions after the one the jump lands on
+    public Optional<ByteCodeInstruction> jumpTarget(final int offset, final int skip) {
+        final int target = ByteCodeLabels.targetIndex(get(offset)) + skip;
+        return target < 0 || target >= program.size() ? Optional.empty() : Optional.of(program.get(target));
+    }
+
+}
@@ -0,0 +1,28 @@
+package org.crayne.mi.bytecode.optimizer.peephole.rules;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeRule;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeWindow;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+public class DuplicateLoadRule implements PeepholeRule {
+
+    // the same local loaded twice in a row (x * x) is loaded once and duplicated, nothing can write to it in between
+    @Override
+    public int windowSize() {
+        return 4;
+    }
+
+    @Override
+    public Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window) {
+        if (!window.matches(ByteCode.PUSH, ByteCode.VALUE_AT_RELATIVE_ADDRESS, ByteCode.PUSH, ByteCode.VALUE_AT_RELATIVE_ADDRESS)) return Optional.empty();
+        if (!Arrays.equals(window.get(0).bytes(), window.get(2).bytes())) return Optional.empty();
+        return Optional.of(List.of(window.get(0), window.get(1), ByteCode.dup()));
+    }
+
+}
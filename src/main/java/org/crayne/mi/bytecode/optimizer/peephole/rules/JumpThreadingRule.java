@@ -0,0 +1,55 @@
+package org.crayne.mi.bytecode.optimizer.peephole.rules;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeRule;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeWindow;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+
+public class JumpThreadingRule implements PeepholeRule {
+
+    // a jump that lands on an unconditional jump can go to the final destination right away,
+    // and an unconditional jump to the instruction right after it does nothing at all.
+    // the same goes for jumps landing on PUSH <bool> ; JUMP_IF(_NOT), which short circuited && and || leave behind
+    @Override
+    public int windowSize() {
+        return 1;
+    }
+
+    @Override
+    public Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window) {
+        final ByteCodeInstruction jump = window.get(0);
+        if (!ByteCodeLabels.isJump(jump)) return Optional.empty();
+
+        final int target = ByteCodeLabels.targetIndex(jump);
+        if (ByteCodeLabels.isUnconditionalJump(jump) && target == window.index() + 1) return Optional.of(List.of());
+
+        final Optional<ByteCodeInstruction> landsOn = window.jumpTarget(0);
+        if (landsOn.isEmpty()) return Optional.empty();
+
+        final int finalTarget;
+        if (ByteCodeLabels.isUnconditionalJump(landsOn.get())) {
+            finalTarget = ByteCodeLabels.targetIndex(landsOn.get());
+        } else {
+            final Optional<Boolean> literal = boolLiteral(landsOn.get());
+            final Optional<ByteCodeInstruction> conditionalJump = window.jumpTarget(0, 1);
+            if (literal.isEmpty() || conditionalJump.isEmpty()) return Optional.empty();
+
+            final ByteCode type = conditionalJump.get().type().orElse(null);
+            if (type != ByteCode.JUMP_IF && type != ByteCode.JUMP_IF_NOT) return Optional.empty();
+            finalTarget = literal.get() == (type == ByteCode.JUMP_IF) ? ByteCodeLabels.targetIndex(conditionalJump.get()) : target + 2;
+        }
+        if (finalTarget == target || finalTarget == window.index()) return Optional.empty(); // endless loops stay as they are
+        return Optional.of(List.of(ByteCodeLabels.retarget(jump, finalTarget)));
+    }
+
+    private static Optional<Boolean> boolLiteral(@NotNull final ByteCodeInstruction instr) {
+        if (instr.type().orElse(null) != ByteCode.PUSH || instr.length() < 3 || instr.code(1) != ByteCode.BOOL_VALUE.code()) return Optional.empty();
+        return Optional.of(instr.code(instr.length() - 2) != 0);
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.crayne.mi.bytecode.optimizer.peephole.rules;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeRule;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeWindow;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+
+public class NotJumpIfRule implements PeepholeRule {
+
+    // every if statement and loop inverts its condition to jump over the scope, so instead of
+    // NOT ; JUMP_IF <label> we can directly jump if the condition was false (and the other way around)
+    @Override
+    public int windowSize() {
+        return 2;
+    }
+
+    @Override
+    public Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window) {
+        if (window.type(0) != ByteCode.NOT) return Optional.empty();
+        return switch (window.type(1)) {
+            case JUMP_IF -> Optional.of(List.of(ByteCode.jumpIfNot(ByteCodeLabels.intOperand(window.get(1)))));
+            case JUMP_IF_NOT -> Optional.of(List.of(ByteCode.jumpIf(ByteCodeLabels.intOperand(window.get(1)))));
+            default -> Optional.empty();
+        };
+    }
+
+}
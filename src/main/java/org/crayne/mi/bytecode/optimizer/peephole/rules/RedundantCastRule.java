@@ -0,0 +1,46 @@
+package org.crayne.mi.bytecode.optimizer.peephole.rules;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeRule;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeWindow;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+
+public class RedundantCastRule implements PeepholeRule {
+
+    // casting a literal to its own type, or casting the same value to the same type twice
+    @Override
+    public int windowSize() {
+        return 2;
+    }
+
+    @Override
+    public Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window) {
+        if (window.type(1) != ByteCode.CAST) return Optional.empty();
+        final byte castTo = window.get(1).code(1);
+
+        return switch (window.type(0)) {
+            case PUSH -> literalType(window.get(0)) == castTo ? Optional.of(List.of(window.get(0))) : Optional.empty();
+            case CAST -> window.get(0).code(1) == castTo ? Optional.of(List.of(window.get(0))) : Optional.empty();
+            default -> Optional.empty();
+        };
+    }
+
+    private static byte literalType(@NotNull final ByteCodeInstruction push) {
+        return ByteCode.of(push.code(1)).map(valueType -> switch (valueType) {
+            case BOOL_VALUE -> ByteDatatype.BOOL.code();
+            case CHARACTER_VALUE -> ByteDatatype.CHAR.code();
+            case INTEGER_VALUE -> ByteDatatype.INT.code();
+            case LONG_INTEGER_VALUE -> ByteDatatype.LONG.code();
+            case FLOAT_VALUE -> ByteDatatype.FLOAT.code();
+            case DOUBLE_VALUE -> ByteDatatype.DOUBLE.code();
+            case STRING_VALUE -> ByteDatatype.STRING.code();
+            default -> ByteDatatype.UNKNOWN.code();
+        }).orElse(ByteDatatype.UNKNOWN.code());
+    }
+
+}
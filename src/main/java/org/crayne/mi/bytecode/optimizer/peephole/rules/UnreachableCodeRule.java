@@ -0,0 +1,28 @@
+package org.crayne.mi.bytecode.optimizer.peephole.rules;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeRule;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeWindow;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+
+public class UnreachableCodeRule implements PeepholeRule {
+
+    // an instruction right after an unconditional jump or a return can only run if some jump lands on it.
+    // the optimizer never gives us a window where that is the case, so it can simply be dropped (unless it ends the function)
+    @Override
+    public int windowSize() {
+        return 2;
+    }
+
+    @Override
+    public Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window) {
+        if (window.type(0) != ByteCode.JUMP && window.type(0) != ByteCode.RETURN_STATEMENT) return Optional.empty();
+        if (window.type(1) == ByteCode.FUNCTION_DEFINITION_END) return Optional.empty();
+        return Optional.of(List.of(window.get(0)));
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.crayne.mi.bytecode.optimizer.peephole.rules;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeRule;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeWindow;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Optional;
+
+public class UnusedValueRule implements PeepholeRule {
+
+    // a value that is popped with POP_PUSH right after it was pushed (the value of a dead store) does not need to be pushed at all,
+    // as long as pushing it has no side effects. loading a local still needs its slot to be popped, which the next pass removes together with the PUSH
+    @Override
+    public int windowSize() {
+        return 2;
+    }
+
+    @Override
+    public Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window) {
+        if (window.type(1) != ByteCode.POP_PUSH) return Optional.empty();
+
+        return switch (window.type(0)) {
+            case PUSH, LOAD_GLOBAL, DUP -> Optional.of(List.of());
+            case VALUE_AT_RELATIVE_ADDRESS -> Optional.of(List.of(window.get(1)));
+            default -> Optional.empty();
+        };
+    }
+
+}
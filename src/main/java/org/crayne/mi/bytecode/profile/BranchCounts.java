@@ -0,0 +1,4 @@
+package org.crayne.mi.bytecode.profile;
+
+// how often the condition of a conditional jump was true and false, which does not depend on whether it is a JUMP_IF or a JUMP_IF_NOT
+public record BranchCounts(long whenTrue, long whenFalse) { }
@@ -0,0 +1,72 @@
+package org.crayne.mi.bytecode.profile;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.ir.ControlFlowGraph;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// a conditional jump, identified by the signature of its function, the shape of that function and the order the jump is first reached in.
+// unlike its index, this stays the same when other functions change. a function whose shape changed (because something else got inlined into it,
+// for example) gets new sites, so old counts are never applied to the wrong jumps
+public record BranchSite(@NotNull String function, int shape, int ordinal) {
+
+    // indexed like the program, null for everything that is not a conditional jump
+    public static BranchSite[] of(@NotNull final List<ByteCodeInstruction> program) {
+        final BranchSite[] sites = new BranchSite[program.size()];
+        for (final ControlFlowGraph function : ControlFlowGraph.ofFunctions(program)) {
+            final String signature = ByteCodeLabels.definitionSignature(program.get(function.begin()));
+            final int shape = shape(program, function.begin(), function.end());
+
+            // the path taken when the condition is true is always walked first. swapping the branches of a jump
+            // and inverting it (see BranchLayoutPass) keeps that order, so every site survives being laid out
+            final boolean[] visited = new boolean[function.end() - function.begin() + 1];
+            final Deque<Integer> pending = new ArrayDeque<>();
+            pending.push(function.begin() + 1);
+            int ordinal = 0;
+            while (!pending.isEmpty()) {
+                final int index = pending.pop();
+                if (index <= function.begin() || index > function.end() || visited[index - function.begin()]) continue;
+                visited[index - function.begin()] = true;
+
+                final ByteCodeInstruction instr = program.get(index);
+                final ByteCode type = instr.type().orElse(null);
+                if (type == ByteCode.JUMP_IF || type == ByteCode.JUMP_IF_NOT) {
+                    sites[index] = new BranchSite(signature, shape, ordinal++);
+                    final int target = ByteCodeLabels.targetIndex(instr);
+                    pending.push(type == ByteCode.JUMP_IF ? index + 1 : target);
+                    pending.push(type == ByteCode.JUMP_IF ? target : index + 1);
+                    continue;
+                }
+                if (!ControlFlowGraph.endsControlFlow(instr)) pending.push(index + 1);
+                if (ByteCodeLabels.isBranch(instr)) {
+                    final int[] targets = ByteCodeLabels.targetIndices(instr);
+                    for (int i = targets.length - 1; i >= 0; i--) pending.push(targets[i]);
+                }
+            }
+        }
+        return sites;
+    }
+
+    // which instructions the function is made of, regardless of their order and of which way its conditional jumps are inverted
+    private static int shape(@NotNull final List<ByteCodeInstruction> program, final int begin, final int end) {
+        int shape = end - begin;
+        for (int i = begin + 1; i < end; i++) {
+            final ByteCode type = program.get(i).type().orElse(null);
+            if (type != null) shape += mix((type == ByteCode.JUMP_IF_NOT ? ByteCode.JUMP_IF : type).ordinal());
+        }
+        return shape;
+    }
+
+    private static int mix(final int value) {
+        int h = value * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+}
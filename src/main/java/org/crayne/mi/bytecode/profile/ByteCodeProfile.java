@@ -0,0 +1,89 @@
+package org.crayne.mi.bytecode.profile;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+
+// what a program did while it was running: how often every function was called and which way every conditional jump went.
+// functions are identified by their signature and jumps by their site, so that the profile still fits after the program is compiled again
+public class ByteCodeProfile {
+
+    private static final int MAGIC = 0x006D6970; // 'mip'
+    private static final int FORMAT_VERSION = 1;
+
+    // a function is hot once it takes up at least this many percent of all calls, and was called often enough at all
+    private static final int HOT_CALL_PERCENT = 1;
+    private static final long MIN_HOT_CALLS = 16;
+
+    private final Map<String, Long> calls;
+    private final Map<BranchSite, BranchCounts> branches;
+    private final long totalCalls;
+
+    public ByteCodeProfile(@NotNull final Map<String, Long> calls, @NotNull final Map<BranchSite, BranchCounts> branches) {
+        this.calls = Map.copyOf(calls);
+        this.branches = Map.copyOf(branches);
+        this.totalCalls = calls.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public long calls(@NotNull final String signature) {
+        return calls.getOrDefault(signature, 0L);
+    }
+
+    // functions that were inlined while profiling were never called, so a function without calls is not necessarily cold
+    public boolean hot(@NotNull final String signature) {
+        final long count = calls(signature);
+        return count >= MIN_HOT_CALLS && count * 100 >= totalCalls * HOT_CALL_PERCENT;
+    }
+
+    public Set<String> hotFunctions() {
+        final Set<String> hot = new TreeSet<>();
+        for (final String signature : calls.keySet()) {
+            if (hot(signature)) hot.add(signature);
+        }
+        return hot;
+    }
+
+    public Optional<BranchCounts> branch(@NotNull final BranchSite site) {
+        return Optional.ofNullable(branches.get(site));
+    }
+
+    public void write(@NotNull final File file) throws IOException {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(calls.size());
+            for (final Map.Entry<String, Long> function : calls.entrySet()) {
+                out.writeUTF(function.getKey());
+                out.writeLong(function.getValue());
+            }
+            out.writeInt(branches.size());
+            for (final Map.Entry<BranchSite, BranchCounts> branch : branches.entrySet()) {
+                out.writeUTF(branch.getKey().function());
+                out.writeInt(branch.getKey().shape());
+                out.writeInt(branch.getKey().ordinal());
+                out.writeLong(branch.getValue().whenTrue());
+                out.writeLong(branch.getValue().whenFalse());
+            }
+        }
+    }
+
+    public static ByteCodeProfile read(@NotNull final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new ByteCodeException("'" + file.getName() + "' is not an mi profile");
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION) throw new ByteCodeException("Unsupported profile version " + version + " in '" + file.getName() + "'");
+
+            final int functions = in.readInt();
+            final Map<String, Long> calls = new HashMap<>();
+            for (int i = 0; i < functions; i++) calls.put(in.readUTF(), in.readLong());
+
+            final int sites = in.readInt();
+            final Map<BranchSite, BranchCounts> branches = new HashMap<>();
+            for (int i = 0; i < sites; i++) branches.put(new BranchSite(in.readUTF(), in.readInt(), in.readInt()), new BranchCounts(in.readLong(), in.readLong()));
+            return new ByteCodeProfile(calls, branches);
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.crayne.mi.bytecode.profile;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// records a profile while the interpreter runs. counting only touches arrays, the sites and signatures are looked up once the profile is taken
+public class ByteCodeProfiler {
+
+    private final BranchSite[] sites;
+    private final long[] whenTrue;
+    private final long[] whenFalse;
+    private final Map<Long, String> signatures = new HashMap<>();
+    private final Map<Long, long[]> calls = new HashMap<>();
+
+    public ByteCodeProfiler(@NotNull final List<ByteCodeInstruction> program) {
+        sites = BranchSite.of(program);
+        whenTrue = new long[program.size()];
+        whenFalse = new long[program.size()];
+        for (final ByteCodeInstruction instr : program) {
+            if (instr.type().orElse(null) != ByteCode.FUNCTION_DEFINITION_BEGIN) continue;
+            final long id = ByteCodeLabels.definitionId(instr);
+            signatures.put(id, ByteCodeLabels.definitionSignature(instr));
+            calls.put(id, new long[1]);
+        }
+    }
+
+    public void call(final long functionId) {
+        final long[] count = calls.get(functionId);
+        if (count != null) count[0]++;
+    }
+
+    public void branch(final int index, final boolean condition) {
+        if (condition) whenTrue[index]++;
+        else whenFalse[index]++;
+    }
+
+    public ByteCodeProfile profile() {
+        final Map<String, Long> functionCalls = new HashMap<>();
+        calls.forEach((id, count) -> functionCalls.merge(signatures.get(id), count[0], Long::sum));
+
+        final Map<BranchSite, BranchCounts> branches = new HashMap<>();
+        for (int i = 0; i < sites.length; i++) {
+            if (sites[i] == null || whenTrue[i] + whenFalse[i] == 0) continue;
+            branches.put(sites[i], new BranchCounts(whenTrue[i], whenFalse[i]));
+        }
+        return new ByteCodeProfile(functionCalls, branches);
+    }
+
+}
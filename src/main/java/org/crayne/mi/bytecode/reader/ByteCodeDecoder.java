@@ -0,0 +1,364 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// decodes a version 2 or 3 .mib file (see ByteCodeFileFormat) back into the instructions the interpreter runs
+public class ByteCodeDecoder {
+
+    // the length is how many bytes the section takes up in the file, the inflated length how many it has once inflated
+    private record SectionEntry(@NotNull ByteCodeFileFormat.Section section, byte storage, int offset, int length, int inflatedLength) {
+
+        private boolean deflated() {
+            return storage == ByteCodeFileFormat.DEFLATED;
+        }
+
+    }
+
+    // a section as it is stored, which is only inflated the first time it is read. from then on, it is read from the inflated copy.
+    // chunked code is left as it is, its functions are inflated one by one by ByteCodeLazyProgram
+    private static final class StoredSection {
+
+        private final SectionEntry entry;
+        private ByteBuffer contents;
+        private boolean inflated;
+
+        private StoredSection(@NotNull final SectionEntry entry, @NotNull final ByteBuffer stored) {
+            this.entry = entry;
+            this.contents = stored;
+        }
+
+        private synchronized ByteBuffer contents() {
+            if (entry.deflated() && !inflated) {
+                contents = ByteCodeCompression.inflate(contents, entry.inflatedLength());
+                inflated = true;
+            }
+            return contents;
+        }
+
+    }
+
+    // a program that was decoded right away, together with the function table of its file
+    private static final class DecodedProgram extends ArrayList<ByteCodeInstruction> implements ByteCodeFunctionTable {
+
+        private final List<ByteCodeFunctionEntry> functions;
+
+        private DecodedProgram(@NotNull final List<ByteCodeFunctionEntry> functions) {
+            this.functions = functions;
+        }
+
+        public List<ByteCodeFunctionEntry> functionTable() {
+            return functions;
+        }
+
+    }
+
+    private final Map<ByteCodeFileFormat.Section, StoredSection> sections;
+    private final boolean compressed;
+    private final ByteCodeConstantPool constants;
+    private final List<ByteCodeFunctionEntry> functions;
+    private final ByteCodeBuffer out = new ByteCodeBuffer();
+
+    public ByteCodeDecoder(@NotNull final ByteBuffer file) {
+        this(sectionsOf(file), ByteCodeFileFormat.version(file) == ByteCodeFileFormat.COMPRESSED_VERSION);
+    }
+
+    private ByteCodeDecoder(@NotNull final Map<ByteCodeFileFormat.Section, StoredSection> sections, final boolean compressed) {
+        this.sections = sections;
+        this.compressed = compressed;
+        this.constants = ByteCodeConstantPool.read(section(ByteCodeFileFormat.Section.CONSTANTS));
+        this.functions = readFunctions(section(ByteCodeFileFormat.Section.FUNCTIONS));
+    }
+
+    // reads the header at the position of the given buffer, which has to hold all of it
+    private static List<SectionEntry> readHeader(@NotNull final ByteBuffer in) {
+        final int version = ByteCodeFileFormat.version(in);
+        if (!ByteCodeFileFormat.supported(version)) throw new ByteCodeException("Unsupported bytecode file version: " + version);
+        final boolean compressed = version == ByteCodeFileFormat.COMPRESSED_VERSION;
+
+        in.position(in.position() + ByteCodeFileFormat.headerSize(version, 0) - 1);
+        final int count = in.get() & 0xFF;
+        final List<SectionEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final ByteCodeFileFormat.Section section = ByteCodeFileFormat.Section.of(in.get());
+            final byte storage = compressed ? in.get() : ByteCodeFileFormat.STORED;
+            if (storage != ByteCodeFileFormat.STORED && storage != ByteCodeFileFormat.DEFLATED && storage != ByteCodeFileFormat.CHUNKED)
+                throw new ByteCodeException("Section " + section.name().toLowerCase() + " is stored in an unknown way: " + storage);
+            // the code of a compressed file is always chunked, and nothing else ever is
+            if (compressed && (section == ByteCodeFileFormat.Section.CODE) != (storage == ByteCodeFileFormat.CHUNKED))
+                throw new ByteCodeException("Section " + section.name().toLowerCase() + " cannot be stored that way: " + storage);
+            final int offset = in.getInt();
+            final int length = in.getInt();
+            final int inflatedLength = compressed ? in.getInt() : length;
+            if (offset < ByteCodeFileFormat.headerSize(version, count) || length < 0) throw new ByteCodeException("Section " + section.name().toLowerCase() + " lies outside of the file");
+            if (inflatedLength < 0 || storage == ByteCodeFileFormat.STORED && inflatedLength != length)
+                throw new ByteCodeException("Section " + section.name().toLowerCase() + " has an invalid length");
+            entries.add(new SectionEntry(section, storage, offset, length, inflatedLength));
+        }
+        return entries;
+    }
+
+    private static Map<ByteCodeFileFormat.Section, StoredSection> sectionsOf(@NotNull final ByteBuffer file) {
+        final Map<ByteCodeFileFormat.Section, StoredSection> sections = new EnumMap<>(ByteCodeFileFormat.Section.class);
+        for (final SectionEntry entry : readHeader(file.duplicate())) {
+            if (file.position() + entry.offset() > file.limit() - entry.length())
+                throw new ByteCodeException("Section " + entry.section().name().toLowerCase() + " lies outside of the file");
+            sections.put(entry.section(), new StoredSection(entry, file.slice(file.position() + entry.offset(), entry.length())));
+        }
+        return sections;
+    }
+
+    // decodes the file as it is read, which only works as long as the code of a version 2 file comes after everything else
+    static List<ByteCodeInstruction> decode(@NotNull final ByteCodeStream input) {
+        if (!input.ensure(ByteCodeFileFormat.headerSize(ByteCodeFileFormat.VERSION, 0))) throw new ByteCodeException("Reached end of file");
+        final int version = ByteCodeFileFormat.version(input.buffer());
+        final int count = input.buffer().get(input.buffer().position() + ByteCodeFileFormat.headerSize(version, 0) - 1) & 0xFF;
+        if (!input.ensure(ByteCodeFileFormat.headerSize(version, count))) throw new ByteCodeException("Reached end of file");
+
+        final List<SectionEntry> entries = new ArrayList<>(readHeader(input.buffer()));
+        entries.sort(Comparator.comparingInt(SectionEntry::offset));
+        final boolean compressed = version == ByteCodeFileFormat.COMPRESSED_VERSION;
+        final Map<ByteCodeFileFormat.Section, StoredSection> sections = new EnumMap<>(ByteCodeFileFormat.Section.class);
+        SectionEntry code = null;
+        for (final SectionEntry entry : entries) {
+            if (code != null && !compressed) throw new ByteCodeException("Cannot stream a bytecode file whose code is not its last section");
+            if (entry.offset() < input.position()) throw new ByteCodeException("Section " + entry.section().name().toLowerCase() + " overlaps another one");
+            input.skip(entry.offset() - input.position());
+            if (entry.section() == ByteCodeFileFormat.Section.CODE) {
+                code = entry;
+                // chunked code is read as a whole, and then inflated one function after another
+                if (!compressed) continue;
+            }
+            sections.put(entry.section(), new StoredSection(entry, input.read(entry.length())));
+        }
+        if (code == null) throw new ByteCodeException("Missing section " + ByteCodeFileFormat.Section.CODE.name().toLowerCase());
+        if (compressed) return new ByteCodeDecoder(sections, true).decode();
+        return new ByteCodeDecoder(sections, false).decode(input, code.length());
+    }
+
+    public static List<ByteCodeInstruction> decode(@NotNull final ByteBuffer file) {
+        return new ByteCodeDecoder(file).decode();
+    }
+
+    public static ByteCodeLazyProgram decodeLazily(@NotNull final ByteBuffer file) {
+        return new ByteCodeDecoder(file).decodeLazily();
+    }
+
+    public List<ByteCodeFunctionEntry> functions() {
+        return functions;
+    }
+
+    public ByteCodeConstantPool constants() {
+        return constants;
+    }
+
+    private ByteBuffer section(@NotNull final ByteCodeFileFormat.Section section) {
+        final StoredSection found = sections.get(section);
+        if (found == null) throw new ByteCodeException("Missing section " + section.name().toLowerCase());
+        return found.contents().duplicate();
+    }
+
+    private List<ByteCodeFunctionEntry> readFunctions(@NotNull final ByteBuffer in) {
+        final int count = ByteCodeFileFormat.readVarInt(in);
+        if (count < 0) throw new ByteCodeException("Negative function count in function table");
+        final List<ByteCodeFunctionEntry> result = new ArrayList<>(Math.min(count, in.remaining()));
+        for (int i = 0; i < count; i++) {
+            final long id = ByteCodeFileFormat.readVarLong(in);
+            final boolean nativeFunction = in.get() != 0;
+            final String name = constants.string(ByteCodeFileFormat.readVarInt(in));
+            final List<ByteDatatype> parameters = readParameters(in);
+            final int index = ByteCodeFileFormat.readVarInt(in);
+            final int codeOffset = ByteCodeFileFormat.readVarInt(in);
+            final int codeLength = ByteCodeFileFormat.readVarInt(in);
+            final int storedOffset = compressed ? ByteCodeFileFormat.readVarInt(in) : codeOffset;
+            final int storedLength = compressed ? ByteCodeFileFormat.readVarInt(in) : codeLength;
+            final int length = ByteCodeFileFormat.readVarInt(in);
+            final int lineCount = ByteCodeFileFormat.readVarInt(in);
+            final SortedMap<Integer, Integer> lines = new TreeMap<>();
+            int at = 0;
+            for (int j = 0; j < lineCount; j++) {
+                at += ByteCodeFileFormat.readVarInt(in);
+                lines.put(at, ByteCodeFileFormat.readSignedVarInt(in));
+            }
+            result.add(new ByteCodeFunctionEntry(id, name, parameters, nativeFunction, index, codeOffset, codeLength, storedOffset, storedLength, length, Collections.unmodifiableSortedMap(lines)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private List<ByteDatatype> readParameters(@NotNull final ByteBuffer in) {
+        final int count = ByteCodeFileFormat.readVarInt(in);
+        if (count < 0 || count > in.remaining()) throw new ByteCodeException("Invalid parameter count in function table: " + count);
+        final List<ByteDatatype> parameters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte code = in.get();
+            if (code == ByteDatatype.ENUM.code()) {
+                parameters.add(new ByteDatatype(code, constants.string(ByteCodeFileFormat.readVarInt(in))));
+                continue;
+            }
+            final ByteDatatype parameter = ByteDatatype.ofId(code);
+            if (parameter == ByteDatatype.UNKNOWN) throw new ByteCodeException("Unknown parameter type in function table: " + code);
+            parameters.add(parameter);
+        }
+        return Collections.unmodifiableList(parameters);
+    }
+
+    // decodes every function right away
+    public List<ByteCodeInstruction> decode() {
+        final List<ByteCodeInstruction> program = new DecodedProgram(functions);
+        program.addAll(decodeLazily());
+        return program;
+    }
+
+    public ByteCodeLazyProgram decodeLazily() {
+        return new ByteCodeLazyProgram(this, section(ByteCodeFileFormat.Section.CODE), sections.get(ByteCodeFileFormat.Section.CODE).entry.inflatedLength());
+    }
+
+    private List<ByteCodeInstruction> decode(@NotNull final ByteCodeStream input, final int length) {
+        final Map<Integer, ByteCodeFunctionEntry> definitions = new HashMap<>();
+        for (final ByteCodeFunctionEntry function : functions) {
+            if (!function.nativeFunction()) definitions.put(function.index(), function);
+        }
+        final List<ByteCodeInstruction> program = new DecodedProgram(functions);
+        program.add(ByteCode.header());
+
+        // the tracebacks of the current function are put back where they were taken out
+        int definition = 0;
+        Iterator<Map.Entry<Integer, Integer>> lines = Collections.emptyIterator();
+        Map.Entry<Integer, Integer> line = null;
+        long left = length;
+        while (left > 0) {
+            if (line != null && definition + line.getKey() == program.size()) {
+                program.add(ByteCode.traceback(line.getValue()));
+                line = lines.hasNext() ? lines.next() : null;
+                continue;
+            }
+            final ByteCodeFunctionEntry function = definitions.get(program.size());
+            if (function != null && definition != function.index()) {
+                definition = function.index();
+                lines = function.lines().entrySet().iterator();
+                line = lines.hasNext() ? lines.next() : null;
+            }
+            // an instruction that is cut off by the end of the buffer is decoded again once the buffer is refilled
+            final ByteBuffer buffer = input.buffer();
+            final int start = buffer.position();
+            try {
+                final ByteCodeInstruction instr = instruction(buffer);
+                left -= buffer.position() - start;
+                program.add(instr);
+            } catch (final BufferUnderflowException e) {
+                buffer.position(start);
+                if (buffer.remaining() >= left || !input.ensure(buffer.remaining() + 1)) throw new ByteCodeException("Reached end of file");
+            }
+        }
+        if (left < 0) throw new ByteCodeException("The last instruction does not end with the code section");
+        return program;
+    }
+
+    ByteCodeInstruction instruction(@NotNull final ByteBuffer in) {
+        final byte opcode = in.get();
+        final ByteCode type = ByteCode.of(opcode).orElseThrow(() -> new ByteCodeException("Unrecognized bytecode instruction " + ByteCodeReader.byteToHexString(opcode)));
+        out.begin(opcode);
+
+        switch (type) {
+            case PUSH -> decodeValue(in);
+            case DEFINE_VARIABLE, DECLARE_VARIABLE, CAST -> put(in.get());
+            case JUMP, JUMP_IF, JUMP_IF_NOT, POP, STDLIB_FINISH_LINE, TRACEBACK, DEFINE_LOCAL, LOAD_GLOBAL, STORE_GLOBAL -> putInt(ByteCodeFileFormat.readVarInt(in));
+            case FUNCTION_CALL -> putLong(ByteCodeFileFormat.readVarLong(in));
+            case RANGE_LOOP_ENTER, RANGE_LOOP_NEXT, LOCAL_FRAME -> {
+                putInt(ByteCodeFileFormat.readVarInt(in));
+                putInt(ByteCodeFileFormat.readVarInt(in));
+            }
+            case DECLARE_LOCAL -> {
+                putInt(ByteCodeFileFormat.readVarInt(in));
+                put(in.get());
+            }
+            case FUNCTION_DEFINITION_BEGIN, NATIVE_FUNCTION_DEFINITION_BEGIN -> {
+                final ByteCodeFunctionEntry entry = function(ByteCodeFileFormat.readVarInt(in));
+                if (entry.nativeFunction() != (type == ByteCode.NATIVE_FUNCTION_DEFINITION_BEGIN))
+                    throw new ByteCodeException("Function table entry of '" + entry.signature() + "' does not match its definition");
+                // <opcode> LONG_INTEGER_VALUE <id> STRING_VALUE <length> <signature> INSTRUCT_FINISH, natives end their definition right away
+                put(ByteCode.LONG_INTEGER_VALUE.code());
+                putLong(entry.id());
+                put(ByteCode.STRING_VALUE.code());
+                putString(entry.nativeFunction() ? entry.name() : entry.signature());
+                put(ByteCode.INSTRUCT_FINISH.code());
+                if (entry.nativeFunction()) put(ByteCode.FUNCTION_DEFINITION_END.code());
+            }
+            case ENUM_MEMBER_DEFINITION -> {
+                put(ByteCode.STRING_VALUE.code());
+                putString(constants.string(ByteCodeFileFormat.readVarInt(in)));
+            }
+            case TABLE_SWITCH, LOOKUP_SWITCH -> {
+                final boolean table = type == ByteCode.TABLE_SWITCH;
+                if (table) putInt(ByteCodeFileFormat.readSignedVarInt(in));
+                final int count = ByteCodeFileFormat.readVarInt(in);
+                if (count < 0) throw new ByteCodeException("Negative case count in switch instruction");
+                putInt(count);
+                putInt(ByteCodeFileFormat.readVarInt(in));
+                for (int i = 0; i < count; i++) {
+                    if (!table) putInt(ByteCodeFileFormat.readSignedVarInt(in));
+                    putInt(ByteCodeFileFormat.readVarInt(in));
+                }
+            }
+            case PROGRAM_HEADER, INSTRUCT_FINISH -> throw new ByteCodeException("Unexpected " + type.name().toLowerCase() + " in code section");
+            default -> {}
+        }
+        return out.finish();
+    }
+
+    // the definition of the intern function at the given index of the function table, without looking at its code
+    ByteCodeInstruction definition(final int function) {
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        encoded.write(ByteCode.FUNCTION_DEFINITION_BEGIN.code());
+        ByteCodeFileFormat.writeVarInt(encoded, function);
+        return instruction(ByteBuffer.wrap(encoded.toByteArray()));
+    }
+
+    ByteCodeFunctionEntry function(final int index) {
+        if (index < 0 || index >= functions.size()) throw new ByteCodeException("Function table index " + index + " out of bounds for " + functions.size() + " functions");
+        return functions.get(index);
+    }
+
+    private void decodeValue(@NotNull final ByteBuffer in) {
+        final byte datatype = in.get();
+        put(datatype);
+        final ByteCode valueType = ByteCode.of(datatype).orElseThrow(() -> new ByteCodeException("Unknown value type " + ByteCodeReader.byteToHexString(datatype)));
+        switch (valueType) {
+            case BOOL_VALUE, INTEGER_VALUE, CHARACTER_VALUE -> putInt(ByteCodeFileFormat.readSignedVarInt(in));
+            case LONG_INTEGER_VALUE -> putLong(constants.longInteger(ByteCodeFileFormat.readVarInt(in)));
+            case DOUBLE_VALUE -> putLong(Double.doubleToRawLongBits(constants.doubleFloating(ByteCodeFileFormat.readVarInt(in))));
+            case FLOAT_VALUE -> putInt(in.getInt());
+            case STRING_VALUE -> putString(constants.string(ByteCodeFileFormat.readVarInt(in)));
+            case ENUM_VALUE -> {
+                putInt(ByteCodeFileFormat.readVarInt(in));
+                putInt(ByteCodeFileFormat.readVarInt(in));
+            }
+            case NULL_VALUE -> {}
+            default -> throw new ByteCodeException("Cannot push a value of type " + valueType);
+        }
+    }
+
+    private void put(final byte b) {
+        out.put(b);
+    }
+
+    private void putInt(final int i) {
+        out.putInt(i);
+    }
+
+    private void putLong(final long l) {
+        out.putLong(l);
+    }
+
+    private void putString(@NotNull final String s) {
+        final byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        out.putInt(bytes.length).put(bytes);
+    }
+
+}
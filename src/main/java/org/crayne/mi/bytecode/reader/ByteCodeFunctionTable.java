@@ -0,0 +1,12 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeFunctionEntry;
+
+import java.util.List;
+
+// a program decoded from a version 2 or 3 .mib file, which still knows the function table it was decoded with
+public interface ByteCodeFunctionTable {
+
+    List<ByteCodeFunctionEntry> functionTable();
+
+}
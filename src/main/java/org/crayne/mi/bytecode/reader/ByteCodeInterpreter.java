@@ -3,10 +3,10 @@ package org.crayne.mi.bytecode.reader;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.crayne.mi.bytecode.common.*;
 import org.crayne.mi.bytecode.communication.MiCommunicator;
 import org.crayne.mi.bytecode.communication.MiExecutionException;
+import org.crayne.mi.bytecode.profile.ByteCodeProfiler;
 import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
 import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
 import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
@@ -19,30 +19,29 @@ import javax.annotation.Nonnull;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 public class ByteCodeInterpreter {
 
+    private final ByteCodeLoadedProgram loaded;
     private final List<ByteCodeInstruction> program;
     private final MessageHandler messageHandler;
     private int label;
     private volatile boolean active;
-
-    private final Map<Integer, Long> funcDefsByNames = new ConcurrentHashMap<>();
-    private final Map<Long, ByteCodeRuntimeFunction> functionDefinitions = new ConcurrentHashMap<>();
-    private final Map<Integer, ByteCodeEnum> enumDefinitions = new ConcurrentHashMap<>();
-    private int currentEnumId = 0;
-    private final List<Integer> localAddrOffset = new ArrayList<>();
-    private final List<ByteCodeValue> variableStack = new ArrayList<>();
-    private final List<ByteCodeValue> pushStack = new ArrayList<>();
+    private boolean prepared;
+
+    // where the frame of every running function begins on the variable stack, relative addresses are relative to that
+    private final List<Integer> frameBases = new ArrayList<>();
+    private final ArrayList<ByteCodeValue> variableStack = new ArrayList<>();
+    // absolute addresses up to the amount of globals refer to a global, the ones after that continue on the variable stack
+    private final ArrayList<ByteCodeValue> globals = new ArrayList<>();
+    private final ArrayList<ByteCodeValue> pushStack = new ArrayList<>();
     private final List<Integer> returnStack = new ArrayList<>();
 
     private final Traceback traceback;
-    private int stdlibFinishLine;
+    private ByteCodeProfiler profiler;
 
     public int getStdlibFinishLine() {
-        return stdlibFinishLine;
+        return loaded.stdlibFinishLine();
     }
 
     public TracebackElement newTracebackElement(final int line) {
@@ -53,12 +52,22 @@ public class ByteCodeInterpreter {
         for (final int line : lines) traceback.add(newTracebackElement(line));
     }
 
-    public ByteCodeInterpreter(@NotNull final List<ByteCodeInstruction> program, @NotNull final MessageHandler messageHandler) {
-        this.program = new ArrayList<>(program);
+    // the program is shared, not copied, so that many interpreters of the same program only pay for it once
+    public ByteCodeInterpreter(@NotNull final ByteCodeLoadedProgram program, @NotNull final MessageHandler messageHandler) {
+        this.loaded = program;
+        this.program = program.code();
         this.messageHandler = messageHandler;
         this.traceback = new Traceback();
     }
 
+    public ByteCodeInterpreter(@NotNull final List<ByteCodeInstruction> program, @NotNull final MessageHandler messageHandler) {
+        this(ByteCodeLoadedProgram.of(program), messageHandler);
+    }
+
+    public ByteCodeLoadedProgram loadedProgram() {
+        return loaded;
+    }
+
     protected static byte[] primitiveByteArray(@NotNull final Byte[] arr, final int begin, final int end) {
         return ArrayUtils.toPrimitive(List.of(arr).subList(begin, end).toArray(new Byte[0]));
     }
@@ -76,7 +85,8 @@ public class ByteCodeInterpreter {
     }
 
     protected static int readInt(@NotNull final Byte[] arr, final int subBegin, final int subEnd) {
-        return Ints.fromByteArray(primitiveByteArray(arr, subBegin, subEnd));
+        if (subEnd - subBegin < Integer.BYTES) return Ints.fromByteArray(primitiveByteArray(arr, subBegin, subEnd));
+        return Ints.fromBytes(arr[subBegin], arr[subBegin + 1], arr[subBegin + 2], arr[subBegin + 3]);
     }
 
     protected static long readLong(@NotNull final Byte[] arr, final int subBegin, final int subEnd) {
@@ -91,11 +101,19 @@ public class ByteCodeInterpreter {
         return MiCommunicator.of(this);
     }
 
+    // starts recording a profile of everything that runs from now on, which the compiler can optimize the program for later
+    public ByteCodeProfiler profile() {
+        if (profiler == null) profiler = new ByteCodeProfiler(program);
+        return profiler;
+    }
+
     public void shutdown() {
         active = false;
     }
 
     public void prepare() {
+        if (prepared) return;
+        prepared = true;
         try {
             preRead();
         } catch (final ByteCodeException e) {
@@ -104,9 +122,25 @@ public class ByteCodeInterpreter {
         }
     }
 
+    List<ByteCodeValue> globals() {
+        return Collections.unmodifiableList(globals);
+    }
+
+    // starts out with the given globals instead of evaluating their initializers
+    void restore(@NotNull final List<ByteCodeValue> restoredGlobals) {
+        if (prepared) throw new ByteCodeException("Cannot restore the globals of an interpreter that is already prepared");
+        prepared = true;
+        globals.addAll(restoredGlobals);
+    }
+
+    // only the globals are left to evaluate, functions and enums are already known to the loaded program
     private void preRead() {
         for (label = 0; label < program.size(); label++) {
             final ByteCodeInstruction instr = program.get(label);
+            if (instr.type().orElse(null) == ByteCode.FUNCTION_DEFINITION_BEGIN) {
+                label = loaded.functionEnd(label);
+                continue;
+            }
             evalPre(instr);
         }
     }
@@ -114,19 +148,20 @@ public class ByteCodeInterpreter {
     public Optional<ByteCodeValue> execute(@NotNull final String module, @NotNull final String func, @NotNull final List<ByteCodeValue> inParams) {
         if (active) throw new MiExecutionException("Cannot run multiple Mi functions at once; Multithreading not implemented");
 
-        final Long foundFunctionId = funcDefsByNames.get(Objects.hash(module + "." + func, inParams.stream().map(ByteCodeValue::type).map(ByteDatatype::name).toList()));
-        if (foundFunctionId == null) throw new MiExecutionException("Could not find the Mi function '" + module + "." + func + "'");
+        final long foundFunctionId = loaded.functionId(module + "." + func, inParams.stream().map(ByteCodeValue::type).map(ByteDatatype::name).toList())
+                .orElseThrow(() -> new MiExecutionException("Could not find the Mi function '" + module + "." + func + "'"));
 
         execute(foundFunctionId, inParams);
         return pushTop();
     }
 
     private void execute(final long functionId, @NotNull final List<ByteCodeValue> inParams) {
-        final ByteCodeRuntimeFunction toExec = functionDefinitions.get(functionId);
+        final ByteCodeRuntimeFunction toExec = loaded.function(functionId).orElse(null);
         if (!(toExec instanceof final ByteCodeInternFunction mainInternFunc)) throw new MiExecutionException("The function to execute should be an intern function");
 
         active = true;
-        localAddrOffset.add(0);
+        if (profiler != null) profiler.call(functionId);
+        frameBases.add(variableStack.size());
         inParams.forEach(this::push);
 
         for (label = mainInternFunc.label() + 1; label < program.size() && active; label++) {
@@ -163,60 +198,85 @@ public class ByteCodeInterpreter {
 
     private void defineVar() {
         final ByteCodeValue val = pushTop().orElseThrow(() -> new ByteCodeException("Cannot define variable without any value on the push stack"));
-        variableStack.add(val);
-        if (!localAddrOffset.isEmpty()) incLocalAddrOffset();
+        (frameBases.isEmpty() ? globals : variableStack).add(val);
         popPushStack();
     }
 
     private void declareVar(@NotNull final ByteDatatype type) {
-        variableStack.add(new ByteCodeValue(type, new Byte[0], this));
-        if (!localAddrOffset.isEmpty()) incLocalAddrOffset();
+        (frameBases.isEmpty() ? globals : variableStack).add(new ByteCodeValue(type, new Byte[0], this));
+    }
+
+    private ByteCodeValue valueAt(final int addr) {
+        return addr <= globals.size() ? globals.get(addr - 1) : variableStack.get(addr - globals.size() - 1);
+    }
+
+    private void setValueAt(final int addr, @NotNull final ByteCodeValue value) {
+        if (addr <= globals.size()) globals.set(addr - 1, value);
+        else variableStack.set(addr - globals.size() - 1, value);
+    }
+
+    private void evalLoadGlobal(@NotNull final ByteCodeInstruction instr) {
+        push(globals.get(instr.intAt(1) - 1));
     }
 
-    private int localAddrOffsetIndex() {
-        return localAddrOffset.size() - 1;
+    private void evalStoreGlobal(@NotNull final ByteCodeInstruction instr) {
+        globals.set(instr.intAt(1) - 1, popPushStack());
     }
 
-    private int localAddrOffset(final int offset) {
-        return localAddrOffset.get(offset);
+    private int frameBase() {
+        return frameBases.get(frameBases.size() - 1);
     }
 
-    private void incLocalAddrOffset() {
-        localAddrOffset.set(localAddrOffsetIndex(), localAddrOffset(localAddrOffsetIndex()) + 1);
+    // the whole frame is allocated up front, with its slots being filled by DEFINE_LOCAL and DECLARE_LOCAL
+    private void evalLocalFrame(@NotNull final ByteCodeInstruction instr) {
+        final int maxLocals = instr.intAt(1);
+        final int maxStack = instr.intAt(5);
+        variableStack.ensureCapacity(variableStack.size() + maxLocals);
+        for (int i = 0; i < maxLocals; i++) variableStack.add(null);
+        pushStack.ensureCapacity(pushStack.size() + maxStack);
     }
 
-    private void decLocalAddrOffset() {
-        localAddrOffset.set(localAddrOffsetIndex(), localAddrOffset(localAddrOffsetIndex()) - 1);
+    private void evalLocalDefine(@NotNull final ByteCodeInstruction instr) {
+        final int slot = instr.intAt(1);
+        final ByteCodeValue val = pushTop().orElseThrow(() -> new ByteCodeException("Cannot define variable without any value on the push stack"));
+        variableStack.set(relativeToAbsoluteAddr(slot), val);
+        popPushStack();
+    }
+
+    private void evalLocalDeclare(@NotNull final ByteCodeInstruction instr) {
+        final int slot = instr.intAt(1);
+        variableStack.set(relativeToAbsoluteAddr(slot), new ByteCodeValue(ByteDatatype.ofId(instr.code(5)), new Byte[0], this));
     }
 
     private void evalPre(@NotNull final ByteCodeInstruction instr) {
-        if (localAddrOffset.isEmpty()) switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
+        switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
             case PUSH -> evalPush(instr);
             case DEFINE_VARIABLE -> defineVar();
             case DECLARE_VARIABLE -> evalVarDeclare(instr);
-            case NATIVE_FUNCTION_DEFINITION_BEGIN -> evalNatFunc(instr);
-            case FUNCTION_DEFINITION_BEGIN -> evalInternFunc(instr);
-            case ENUM_DEFINITION_BEGIN -> evalEnumDefBegin();
-            case ENUM_DEFINITION_END -> evalEnumDefEnd();
-            case ENUM_MEMBER_DEFINITION -> evalEnumMemberDef(instr);
             case VALUE_AT_ADDRESS -> evalValAtAddr();
+            case LOAD_GLOBAL -> evalLoadGlobal(instr);
+            case STORE_GLOBAL -> evalStoreGlobal(instr);
             case CAST -> evalCast(instr);
             case MUTATE_VARIABLE -> evalVariableMut(false);
             case MUTATE_VARIABLE_AND_PUSH -> evalVariableMut(true);
-            case STDLIB_FINISH_LINE -> evalStdlibFinishLine(instr);
             case PLUS, MINUS, MULTIPLY, DIVIDE, MODULO, BIT_AND, BIT_OR, BIT_XOR, BITSHIFT_LEFT, BITSHIFT_RIGHT, LOGICAL_AND, LOGICAL_OR,
                     EQUALS, LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL -> popPushStack(1);
-        } else if (instr.type().orElse(null) == ByteCode.FUNCTION_DEFINITION_END) evalFuncEnd();
+        }
     }
 
     private boolean eval(@NotNull final ByteCodeInstruction instr) {
         switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
             case PUSH -> evalPush(instr);
             case POP -> evalPop(instr);
+            case POP_PUSH -> popPushStack();
+            case DUP -> push(pushTop().orElseThrow(() -> new ByteCodeException("Cannot duplicate the top of an empty push stack")));
             case DEFINE_VARIABLE -> defineVar();
             case DECLARE_VARIABLE -> evalVarDeclare(instr);
-            case NATIVE_FUNCTION_DEFINITION_BEGIN -> evalNatFunc(instr);
-            case FUNCTION_DEFINITION_BEGIN -> evalInternFunc(instr);
+            case LOCAL_FRAME -> evalLocalFrame(instr);
+            case DEFINE_LOCAL -> evalLocalDefine(instr);
+            case DECLARE_LOCAL -> evalLocalDeclare(instr);
+            // calls push the frame themselves and continue right after the definition, so reaching one means the previous function never ended
+            case FUNCTION_DEFINITION_BEGIN -> throw new ByteCodeException("Reached the definition of another function at instruction " + label + " without returning");
             case FUNCTION_DEFINITION_END, RETURN_STATEMENT -> {
                 evalFuncEnd();
                 if (returnStack.isEmpty()) return true;
@@ -225,9 +285,16 @@ public class ByteCodeInterpreter {
             }
             case VALUE_AT_RELATIVE_ADDRESS -> evalValAtRelAddr();
             case VALUE_AT_ADDRESS -> evalValAtAddr();
+            case LOAD_GLOBAL -> evalLoadGlobal(instr);
+            case STORE_GLOBAL -> evalStoreGlobal(instr);
             case FUNCTION_CALL -> evalFuncCall(instr);
             case JUMP -> evalJump(instr);
-            case JUMP_IF -> evalJumpIf(instr);
+            case JUMP_IF -> evalJumpIf(instr, true);
+            case JUMP_IF_NOT -> evalJumpIf(instr, false);
+            case TABLE_SWITCH -> evalTableSwitch(instr);
+            case LOOKUP_SWITCH -> evalLookupSwitch(instr);
+            case RANGE_LOOP_ENTER -> evalRangeLoop(instr, false);
+            case RANGE_LOOP_NEXT -> evalRangeLoop(instr, true);
             case CAST -> evalCast(instr);
             case RELATIVE_TO_ABSOLUTE_ADDRESS -> evalRelToAbsAddr();
             case MUTATE_VARIABLE -> evalVariableMut(false);
@@ -244,14 +311,8 @@ public class ByteCodeInterpreter {
         return false;
     }
 
-    private void evalStdlibFinishLine(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        stdlibFinishLine = readInt(values, 1, values.length - 1);
-    }
-
     private void evalTraceback(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        traceback(readInt(values, 1, values.length - 1));
+        traceback(instr.intAt(1));
     }
 
     private ByteCodeValue popPushStack() {
@@ -265,7 +326,6 @@ public class ByteCodeInterpreter {
 
     private void popVarStack() {
         if (variableStack.isEmpty()) throw new ByteCodeException("Cannot perform pop, variable stack is empty");
-        if (!localAddrOffset.isEmpty()) decLocalAddrOffset();
         variableStack.remove(variableStack.size() - 1);
     }
 
@@ -273,42 +333,24 @@ public class ByteCodeInterpreter {
         for (int i = 0; i < amount; i++) popVarStack();
     }
 
-    private void evalEnumDefBegin() {
-        enumDefinitions.put(currentEnumId, new ByteCodeEnum(currentEnumId));
-        currentEnumId++;
-    }
-
-    private void evalEnumDefEnd() {
-        currentEnumId = -1;
-    }
-
-    private void evalEnumMemberDef(@NotNull final ByteCodeInstruction instr) {
-        if (currentEnumId == -1) throw new ByteCodeException("Enum member definition outside of enum");
-        final ByteCodeEnum currentEnum = enumDefinitions.get(currentEnumId - 1);
-        final String name = readString(instr.codes(), 6, instr.codes().length - 1);
-        currentEnum.addMember(name);
-    }
-
     protected String nameOfEnumMember(@NotNull final ByteCodeValue val) {
-        final int enumId = val.type().id();
-        final ByteCodeEnum foundEnum = enumDefinitions.get(enumId);
-        return foundEnum.nameof(readInt(val.value(), 4, 8));
+        return loaded.enumMemberName(val.type().id(), readInt(val.value(), 4, 8));
     }
 
     protected int ordinalOfEnumMember(@NotNull final ByteCodeValue val) {
-        final int enumId = val.type().id();
-        enumDefinitions.get(enumId); // make sure the enum exists
         return readInt(val.value(), 4, 8);
     }
 
+    // drops every local of the frame at once
     private void evalFuncEnd() {
-        if (!localAddrOffset.isEmpty()) localAddrOffset.remove(localAddrOffsetIndex());
+        if (frameBases.isEmpty()) return;
+        final int base = frameBases.remove(frameBases.size() - 1);
+        variableStack.subList(base, variableStack.size()).clear();
     }
 
     private void evalPush(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final ByteCode valueType = ByteCode.of(values[1]).orElseThrow(() -> new ByteCodeException("Cannot find bytecode corresponding to " + ByteCodeReader.byteToHexString(values[1])));
-        final Byte[] pushValue = List.of(instr.codes()).subList(2, instr.codes().length - 1).toArray(new Byte[0]);
+        final ByteCode valueType = ByteCode.of(instr.code(1)).orElseThrow(() -> new ByteCodeException("Cannot find bytecode corresponding to " + ByteCodeReader.byteToHexString(instr.code(1))));
+        final Byte[] pushValue = ArrayUtils.toObject(instr.bytes(2, instr.length() - 1));
 
         switch (valueType) {
             case STRING_VALUE -> push(ByteDatatype.STRING, pushValue);
@@ -324,8 +366,7 @@ public class ByteCodeInterpreter {
     }
 
     private void evalCast(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final ByteDatatype type = ByteDatatype.ofId(values[1]);
+        final ByteDatatype type = ByteDatatype.ofId(instr.code(1));
         final ByteCodeValue top = pushTop().orElseThrow(() -> new ByteCodeException("Cannot cast value; no value on push stack"));
         final ByteCodeValue cast = top.cast(type);
         popPushStack();
@@ -373,12 +414,12 @@ public class ByteCodeInterpreter {
     }
 
     private void evalFuncCall(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final long functionId = readLong(values, 1, values.length - 1);
-        final ByteCodeRuntimeFunction func = functionDefinitions.get(functionId);
+        final long functionId = instr.longAt(1);
+        final ByteCodeRuntimeFunction func = loaded.function(functionId).orElse(null);
 
         if (func instanceof final ByteCodeInternFunction internFunc) {
-            localAddrOffset.add(0);
+            if (profiler != null) profiler.call(functionId);
+            frameBases.add(variableStack.size());
             //System.out.println("RETURN TO " + (label + 1) + " AFTER FINISHING FUNC EXEC");
             returnStack.add(label + 1);
             //System.out.println("JUMP TO " + internFunc.label());
@@ -417,7 +458,7 @@ public class ByteCodeInterpreter {
                     case 0x03 -> ArrayUtils.toObject(ByteCode.longToBytes((long) res));
                     case 0x04 -> ArrayUtils.toObject(ByteCode.floatToBytes((float) res));
                     case 0x05 -> ArrayUtils.toObject(ByteCode.doubleToBytes((double) res));
-                    case 0x06 -> ByteCode.stringToBytes(String.valueOf(res));
+                    case 0x06 -> ArrayUtils.toObject(ByteCode.stringToBytes(String.valueOf(res)));
                     case 0x08 -> new Byte[0];
                     default -> throw new ByteCodeException("Cannot use " + retType + " as a native function return datatype");
                 };
@@ -429,38 +470,88 @@ public class ByteCodeInterpreter {
     }
 
     private void evalJump(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final int jumpTo = readInt(values, 1, values.length - 1);
+        final int jumpTo = instr.intAt(1);
         label = jumpTo - 2;
     }
 
-    private void evalJumpIf(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final int jumpTo = readInt(values, 1, values.length - 1);
+    private void evalJumpIf(@NotNull final ByteCodeInstruction instr, final boolean jumpWhen) {
+        final int jumpTo = instr.intAt(1);
         final ByteCodeValue condition = pushTop().orElseThrow(() -> new ByteCodeException("No condition at top of stack for jump-if to work"));
         if (condition.type().id() != ByteDatatype.BOOL.id()) throw new ByteCodeException("Expected boolean value as condition for jump-if opcode");
 
         final int condInt = Ints.fromByteArray(ArrayUtils.toPrimitive(condition.value()));
-        if (condInt != 0) label = jumpTo - 2;
+        if (profiler != null) profiler.branch(label, condInt != 0);
+        if ((condInt != 0) == jumpWhen) label = jumpTo - 2;
         popPushStack(); // pop condition since we dont need it anymore
     }
 
+    private int popSwitchKey() {
+        final ByteCodeValue value = pushTop().orElseThrow(() -> new ByteCodeException("No value at top of stack for switch to work"));
+        popPushStack();
+        final byte type = value.type().code();
+        if (type == ByteDatatype.ENUM.code()) return readInt(value.value(), 4, 8); // enum values are <enum id> <ordinal>
+        if (type == ByteDatatype.INT.code() || type == ByteDatatype.CHAR.code()) return readInt(value.value());
+        throw new ByteCodeException("Expected int, char or enum value for switch opcode, got " + value.type());
+    }
+
+    // both switches read only what they need straight from the instruction, the table in constant time and the lookup in logarithmic time
+    private void evalTableSwitch(@NotNull final ByteCodeInstruction instr) {
+        final long index = (long) popSwitchKey() - instr.intAt(1);
+        final int count = instr.intAt(5);
+        final int jumpTo = index < 0 || index >= count ? instr.intAt(9) : instr.intAt(13 + (int) index * 4);
+        label = jumpTo - 2;
+    }
+
+    private void evalLookupSwitch(@NotNull final ByteCodeInstruction instr) {
+        final int key = popSwitchKey();
+        int low = 0;
+        int high = instr.intAt(1) - 1;
+        int jumpTo = instr.intAt(5);
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midKey = instr.intAt(9 + mid * 8);
+            if (midKey < key) low = mid + 1;
+            else if (midKey > key) high = mid - 1;
+            else {
+                jumpTo = instr.intAt(13 + mid * 8);
+                break;
+            }
+        }
+        label = jumpTo - 2;
+    }
+
+    // the counter lives at the given relative address, directly followed by the bound and the step
+    private void evalRangeLoop(@NotNull final ByteCodeInstruction instr, final boolean next) {
+        final int counterAddr = relativeToAbsoluteAddr(instr.intAt(1));
+        final int jumpTo = instr.intAt(5);
+        final int bound = readInt(variableStack.get(counterAddr + 1).value());
+        final int step = readInt(variableStack.get(counterAddr + 2).value());
+        if (step == 0) throw new ByteCodeException("Range loop step cannot be zero");
+
+        long counter = readInt(variableStack.get(counterAddr).value());
+        if (next) {
+            counter += step;
+            if (counter != (int) counter) return; // overflowing the counter means it went past the bound
+            variableStack.set(counterAddr, ByteCodeValue.intValue((int) counter, this));
+        }
+        final boolean inRange = step > 0 ? counter < bound : counter > bound;
+        if (inRange == next) label = jumpTo - 2;
+    }
+
     private void evalPop(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final int amount = readInt(values, 1, values.length - 1);
+        final int amount = instr.intAt(1);
         popVarStack(amount);
     }
 
     private void evalVarDeclare(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-        final ByteDatatype type = ByteDatatype.ofId(values[1]);
+        final ByteDatatype type = ByteDatatype.ofId(instr.code(1));
         declareVar(type);
     }
 
     private void evalValAtAddr() {
         final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for value at address opcode"));
         final int addr = readInt(addrBytes.value());
-        final ByteCodeValue value = variableStack.get(addr - 1);
+        final ByteCodeValue value = valueAt(addr);
         popPushStack();
         push(value);
     }
@@ -470,7 +561,7 @@ public class ByteCodeInterpreter {
         final int addr = readInt(addrBytes.value());
         //popPushStack();
         final ByteCodeValue newValue = pushTop(1).orElseThrow(() -> new ByteCodeException("No new value specified for mutate variable opcode"));
-        variableStack.set(addr - 1, newValue);
+        setValueAt(addr, newValue);
         popPushStack(2);
         if (push) push(newValue);
     }
@@ -479,23 +570,17 @@ public class ByteCodeInterpreter {
         final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for " + (inc ? "inc" : "dec") + " variable opcode"));
         final int addr = readInt(addrBytes.value());
         //popPushStack();
-        final Byte[] intValueRaw = ByteCode.integer(inc ? 1 : -1).codes();
-        final Byte[] intVal = Arrays.stream(intValueRaw)
-                .toList()
-                .subList(1, intValueRaw.length - 1)
-                .stream()
-                .toList()
-                .toArray(new Byte[0]);
-
-        final ByteCodeValue newValue = variableStack.get(addr - 1).plus(new ByteCodeValue(ByteDatatype.INT, intVal, this));
-        variableStack.set(addr - 1, newValue);
+        final Byte[] intVal = ArrayUtils.toObject(ByteCode.intToBytes(inc ? 1 : -1));
+
+        final ByteCodeValue newValue = valueAt(addr).plus(new ByteCodeValue(ByteDatatype.INT, intVal, this));
+        setValueAt(addr, newValue);
         popPushStack(1);
         if (push) push(newValue);
     }
 
     private void evalValAtRelAddr() {
         final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for relative addr to absolut addr opcode"));
-        if (localAddrOffset.isEmpty()) throw new ByteCodeException("Relative address evaluation outside of function");
+        if (frameBases.isEmpty()) throw new ByteCodeException("Relative address evaluation outside of function");
         final int addr = readInt(addrBytes.value());
         final ByteCodeValue val = atRelativeAddress(addr);
 
@@ -505,52 +590,23 @@ public class ByteCodeInterpreter {
 
     private void evalRelToAbsAddr() {
         final ByteCodeValue addrBytes = pushTop().orElseThrow(() -> new ByteCodeException("No address specified for relative addr to absolut addr opcode"));
-        if (localAddrOffset.isEmpty()) throw new ByteCodeException("Relative address evaluation outside of function");
+        if (frameBases.isEmpty()) throw new ByteCodeException("Relative address evaluation outside of function");
         final int addr = readInt(addrBytes.value());
         final int abs = relativeToAbsoluteAddr(addr);
         popPushStack();
-        push(ByteDatatype.INT, ArrayUtils.toObject(ByteCode.intToBytes(abs + 1)));
+        push(ByteDatatype.INT, ArrayUtils.toObject(ByteCode.intToBytes(globals.size() + abs + 1)));
     }
 
     private int relativeToAbsoluteAddr(final int addr) {
-        final int currentRelAddr = localAddrOffset(localAddrOffsetIndex());
-        if (currentRelAddr == 0) throw new ByteCodeException("Cannot get variable at relative address, no variables have been defined in this function");
-        final int currentAbs = variableStack.size();
-        return currentAbs - currentRelAddr + addr;
+        final int abs = frameBase() + addr;
+        if (addr < 0 || abs >= variableStack.size()) throw new ByteCodeException("Cannot get variable at relative address " + addr + ", it is outside of the current stack frame");
+        return abs;
     }
 
     private ByteCodeValue atRelativeAddress(final int addr) {
         return variableStack.get(relativeToAbsoluteAddr(addr));
     }
 
-    private void evalInternFunc(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-
-        final long id = readLong(values, 2, 10);
-        final String sig = readString(values, 15, values.length - 2).substring("!PARENT.".length());
-
-        final String[] signature = StringUtils.substringBetween(sig, "[", "]").split(", ");
-        final String name = StringUtils.substringBefore(sig, "[");
-        final List<ByteDatatype> params = Arrays.stream(signature).filter(s -> !s.isEmpty()).map(ByteDatatype::fromString).collect(Collectors.toList());
-
-        localAddrOffset.add(0);
-        functionDefinitions.put(id, new ByteCodeInternFunction(label));
-        funcDefsByNames.put(Objects.hash(name, params.stream().map(ByteDatatype::name).collect(Collectors.toList())), id);
-    }
-
-    private static Class<?> argStringToArgClass(@NotNull final String argType) {
-        return switch (argType) {
-            case "int" -> Integer.class;
-            case "char" -> Character.class;
-            case "bool" -> Boolean.class;
-            case "long" -> Long.class;
-            case "float" -> Float.class;
-            case "double" -> Double.class;
-            case "string" -> String.class;
-            default -> throw new ByteCodeException("Cannot use '" + argType + "' as a native function variable type");
-        };
-    }
-
     private static String argClassToArgString(@NotNull final Class<?> argType) {
         return switch (argType.getName()) {
             case "java.lang.Integer" -> "int";
@@ -565,33 +621,4 @@ public class ByteCodeInterpreter {
         };
     }
 
-    private static Class<?>[] argStringToArgClasses(@NotNull final String[] argTypes) {
-        if (argTypes.length == 0 || argTypes[0].isEmpty()) return new Class<?>[0];
-        return Arrays.stream(argTypes).map(ByteCodeInterpreter::argStringToArgClass).toList().toArray(new Class<?>[0]);
-    }
-
-    private void evalNatFunc(@NotNull final ByteCodeInstruction instr) {
-        final Byte[] values = instr.codes();
-
-        final long id = readLong(values, 2, 10);
-        final String signature = readString(values, 15, values.length - 3);
-
-        final String clazzWithMethod = StringUtils.substringBefore(signature, "(");
-        final String returnType = StringUtils.substringAfterLast(signature, ")");
-        final String[] argTypes = signature.substring(clazzWithMethod.length() + 1, signature.length() - returnType.length() - 1).split("\\|");
-
-        final String clazzStr = StringUtils.substringBeforeLast(clazzWithMethod, ".");
-        final String methodStr = StringUtils.substringAfterLast(clazzWithMethod, ".");
-
-        try {
-            final Class<?> clazz = Class.forName(clazzStr);
-            final Method method = clazz.getMethod(methodStr, argStringToArgClasses(argTypes));
-            functionDefinitions.put(id, new ByteCodeNativeFunction(method));
-        } catch (final ClassNotFoundException e) {
-            throw new ByteCodeException("Cannot find class '" + clazzStr + "'");
-        } catch (NoSuchMethodException e) {
-            throw new ByteCodeException("Cannot find method '" + methodStr + "' in class '" + clazzStr + "'");
-        }
-    }
-
 }
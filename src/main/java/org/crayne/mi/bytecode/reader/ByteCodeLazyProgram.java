@@ -0,0 +1,139 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeFunctionEntry;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// the program of a version 2 or 3 .mib file. everything outside of functions (global variables, enums and native functions) is decoded right away,
+// the body of a function only once one of its instructions is asked for, which the interpreter does when the function is first called.
+// in version 3 files, that is also when the function is inflated
+public class ByteCodeLazyProgram extends AbstractList<ByteCodeInstruction> implements RandomAccess, ByteCodeFunctionTable {
+
+    // interpreters on other threads read decoded instructions without taking the lock, so they are published with release and read with acquire
+    private static final VarHandle INSTRUCTIONS = MethodHandles.arrayElementVarHandle(ByteCodeInstruction[].class);
+
+    private final ByteCodeDecoder decoder;
+    private final ByteBuffer code;
+    private final ByteCodeInstruction[] instructions;
+    // intern functions, ordered by where they are defined
+    private final List<ByteCodeFunctionEntry> bodies = new ArrayList<>();
+    private int decodedBodies;
+
+    // the code is the code section as it is stored, which for version 3 files is a chunk for every function and for the code in between them
+    ByteCodeLazyProgram(@NotNull final ByteCodeDecoder decoder, @NotNull final ByteBuffer code, final int inflatedLength) {
+        this.decoder = decoder;
+        this.code = code;
+
+        final List<ByteCodeInstruction> outside = new ArrayList<>();
+        outside.add(ByteCode.header());
+        int stored = 0;
+        int inflated = 0;
+        for (int i = 0; i < decoder.functions().size(); i++) {
+            final ByteCodeFunctionEntry function = decoder.functions().get(i);
+            if (function.nativeFunction()) continue;
+            decodeOutside(chunk(stored, function.storedOffset() - stored, function.codeOffset() - inflated), outside);
+            if (function.index() != outside.size() || function.length() < 2 || function.storedOffset() < stored || function.storedLength() > function.codeLength()
+                    || function.storedOffset() > code.limit() - function.storedLength())
+                throw new ByteCodeException("Function '" + function.signature() + "' is not where the function table says it is");
+
+            // the definition itself is needed to register the function, the rest is left for later
+            outside.add(decoder.definition(i));
+            outside.addAll(Collections.nCopies(function.length() - 1, null));
+            stored = function.storedOffset() + function.storedLength();
+            inflated = function.codeOffset() + function.codeLength();
+            bodies.add(function);
+        }
+        decodeOutside(chunk(stored, code.limit() - stored, inflatedLength - inflated), outside);
+        this.instructions = outside.toArray(new ByteCodeInstruction[0]);
+    }
+
+    // the code in between two functions, which is decoded right away
+    private void decodeOutside(@NotNull final ByteBuffer in, @NotNull final List<ByteCodeInstruction> outside) {
+        while (in.hasRemaining()) {
+            if (in.get(in.position()) == ByteCode.FUNCTION_DEFINITION_BEGIN.code())
+                throw new ByteCodeException("Function defined at instruction " + outside.size() + " is missing from the function table");
+            outside.add(decoder.instruction(in));
+        }
+    }
+
+    // the inflated contents of the chunk stored at the given offset, chunks that are just as long as their contents are stored as they are
+    private ByteBuffer chunk(final int offset, final int storedLength, final int inflatedLength) {
+        if (offset < 0 || storedLength < 0 || offset > code.limit() - storedLength || storedLength > inflatedLength)
+            throw new ByteCodeException("Chunk of " + storedLength + " bytes at " + offset + " lies outside of the code section");
+        final ByteBuffer stored = code.slice(offset, storedLength);
+        return storedLength == inflatedLength ? stored : ByteCodeCompression.inflate(stored, inflatedLength);
+    }
+
+    public ByteCodeInstruction get(final int index) {
+        Objects.checkIndex(index, instructions.length);
+        final ByteCodeInstruction instr = (ByteCodeInstruction) INSTRUCTIONS.getAcquire(instructions, index);
+        return instr != null ? instr : decodeBodyOf(index);
+    }
+
+    public int size() {
+        return instructions.length;
+    }
+
+    public List<ByteCodeFunctionEntry> functionTable() {
+        return decoder.functions();
+    }
+
+    // the index of the end of the function defined at the given index
+    public int functionEnd(final int definition) {
+        final ByteCodeFunctionEntry function = bodyOf(definition);
+        if (function.index() != definition) throw new ByteCodeException("No function is defined at instruction " + definition);
+        return function.index() + function.length() - 1;
+    }
+
+    public synchronized int decodedBodies() {
+        return decodedBodies;
+    }
+
+    private ByteCodeFunctionEntry bodyOf(final int index) {
+        int low = 0;
+        int high = bodies.size() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final ByteCodeFunctionEntry function = bodies.get(mid);
+            if (index < function.index()) high = mid - 1;
+            else if (index >= function.index() + function.length()) low = mid + 1;
+            else return function;
+        }
+        throw new ByteCodeException("Instruction " + index + " is not part of any function");
+    }
+
+    private synchronized ByteCodeInstruction decodeBodyOf(final int index) {
+        if (instructions[index] != null) return instructions[index];
+        final ByteCodeFunctionEntry function = bodyOf(index);
+
+        final ByteBuffer in = chunk(function.storedOffset(), function.storedLength(), function.codeLength());
+        if (!Arrays.equals(decoder.instruction(in).bytes(), instructions[function.index()].bytes())) // the definition, which is already there
+            throw new ByteCodeException("Function '" + function.signature() + "' is not where the function table says it is");
+        final Iterator<Map.Entry<Integer, Integer>> lines = function.lines().entrySet().iterator();
+        Map.Entry<Integer, Integer> line = lines.hasNext() ? lines.next() : null;
+        final ByteCodeInstruction[] body = new ByteCodeInstruction[function.length() - 1];
+        int at = 0;
+        while (in.hasRemaining() && at < body.length) {
+            // tracebacks are put back where they were taken out
+            if (line != null && line.getKey() == at + 1) {
+                body[at++] = ByteCode.traceback(line.getValue());
+                line = lines.hasNext() ? lines.next() : null;
+                continue;
+            }
+            body[at++] = decoder.instruction(in);
+        }
+        if (at != body.length || in.hasRemaining()) throw new ByteCodeException("Function '" + function.signature() + "' does not have as many instructions as the function table says");
+        for (int i = 0; i < body.length; i++) INSTRUCTIONS.setRelease(instructions, function.index() + 1 + i, body[i]);
+        decodedBodies++;
+        return instructions[index];
+    }
+
+}
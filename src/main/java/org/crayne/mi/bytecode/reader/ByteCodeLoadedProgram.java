@@ -0,0 +1,153 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeEnum;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeFunctionEntry;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+// everything about a program that stays the same while it runs: its code, the functions it defines (with native functions already bound
+// to their java methods), its enums and where the standard library ends. it is built once and never changes afterwards,
+// so any number of interpreters can share it, on any number of threads. what each interpreter keeps for itself are its globals and stacks
+public final class ByteCodeLoadedProgram {
+
+    private final List<ByteCodeInstruction> code;
+    private final Map<Long, ByteCodeRuntimeFunction> functions;
+    private final Map<Integer, Long> functionsByNames;
+    // the index of the end of every intern function, by the index of its definition
+    private final Map<Integer, Integer> functionEnds;
+    private final Map<Integer, ByteCodeEnum> enums;
+    private final int stdlibFinishLine;
+
+    ByteCodeLoadedProgram(@NotNull final List<ByteCodeInstruction> code, @NotNull final Map<Long, ByteCodeRuntimeFunction> functions,
+                                  @NotNull final Map<Integer, Long> functionsByNames, @NotNull final Map<Integer, Integer> functionEnds,
+                                  @NotNull final Map<Integer, ByteCodeEnum> enums, final int stdlibFinishLine) {
+        this.code = code;
+        this.functions = Map.copyOf(functions);
+        this.functionsByNames = Map.copyOf(functionsByNames);
+        this.functionEnds = Map.copyOf(functionEnds);
+        this.enums = Map.copyOf(enums);
+        this.stdlibFinishLine = stdlibFinishLine;
+    }
+
+    // only the definitions are looked at, so function bodies of a lazily decoded program stay undecoded
+    public static ByteCodeLoadedProgram of(@NotNull final List<ByteCodeInstruction> program) {
+        final List<ByteCodeInstruction> code = program instanceof ByteCodeLazyProgram ? program : List.copyOf(program);
+        final Map<Long, ByteCodeRuntimeFunction> functions = new HashMap<>();
+        final Map<Integer, Long> functionsByNames = new HashMap<>();
+        final Map<Integer, Integer> functionEnds = new HashMap<>();
+        final Map<Integer, ByteCodeEnum> enums = new HashMap<>();
+        int currentEnumId = 0;
+        int stdlibFinishLine = 0;
+
+        // programs decoded from a version 2 or 3 file already have the name and parameter types of every function in their table
+        if (program instanceof final ByteCodeFunctionTable table) {
+            for (final ByteCodeFunctionEntry function : table.functionTable()) {
+                if (function.nativeFunction()) continue;
+                functionsByNames.put(nameHash(StringUtils.removeStart(function.name(), "!PARENT."), function.parameters()), function.id());
+            }
+        }
+
+        for (int label = 0; label < code.size(); label++) {
+            final ByteCodeInstruction instr = code.get(label);
+            switch (instr.type().orElseThrow(() -> new ByteCodeException("Cannot read bytecode instruction " + instr))) {
+                case FUNCTION_DEFINITION_BEGIN -> {
+                    final long id = instr.longAt(2);
+                    functions.put(id, new ByteCodeInternFunction(label));
+                    if (!(program instanceof ByteCodeFunctionTable)) {
+                        final String sig = instr.stringAt(11).substring("!PARENT.".length());
+                        functionsByNames.put(nameHash(ByteCodeFunctionEntry.name(sig), ByteCodeFunctionEntry.parameters(sig)), id);
+                    }
+                    final int end = functionEnd(code, label);
+                    functionEnds.put(label, end);
+                    label = end;
+                }
+                case NATIVE_FUNCTION_DEFINITION_BEGIN -> {
+                    final String signature = instr.stringAt(11);
+                    functions.put(instr.longAt(2), new ByteCodeNativeFunction(signature, ByteCodeNativeFunction.bind(signature)));
+                }
+                case ENUM_DEFINITION_BEGIN -> {
+                    enums.put(currentEnumId, new ByteCodeEnum(currentEnumId));
+                    currentEnumId++;
+                }
+                case ENUM_DEFINITION_END -> currentEnumId = -1;
+                case ENUM_MEMBER_DEFINITION -> {
+                    if (currentEnumId == -1) throw new ByteCodeException("Enum member definition outside of enum");
+                    enums.get(currentEnumId - 1).addMember(instr.stringAt(2));
+                }
+                case STDLIB_FINISH_LINE -> stdlibFinishLine = instr.intAt(1);
+            }
+        }
+        return new ByteCodeLoadedProgram(code, functions, functionsByNames, functionEnds, enums, stdlibFinishLine);
+    }
+
+    private static int nameHash(@NotNull final String name, @NotNull final List<ByteDatatype> parameters) {
+        return Objects.hash(name, parameters.stream().map(ByteDatatype::name).toList());
+    }
+
+    private static int functionEnd(@NotNull final List<ByteCodeInstruction> code, final int definition) {
+        if (code instanceof final ByteCodeLazyProgram lazy) return lazy.functionEnd(definition);
+        for (int i = definition + 1; i < code.size(); i++) {
+            if (code.get(i).type().orElse(null) == ByteCode.FUNCTION_DEFINITION_END) return i;
+        }
+        throw new ByteCodeException("Function defined at instruction " + definition + " never ends");
+    }
+
+    public List<ByteCodeInstruction> code() {
+        return code;
+    }
+
+    Map<Long, ByteCodeRuntimeFunction> functions() {
+        return functions;
+    }
+
+    Map<Integer, Long> functionsByNames() {
+        return functionsByNames;
+    }
+
+    Map<Integer, Integer> functionEnds() {
+        return functionEnds;
+    }
+
+    Map<Integer, ByteCodeEnum> enums() {
+        return enums;
+    }
+
+    public Optional<ByteCodeRuntimeFunction> function(final long id) {
+        return Optional.ofNullable(functions.get(id));
+    }
+
+    public Optional<Long> functionId(@NotNull final String name, @NotNull final List<String> parameterTypes) {
+        return Optional.ofNullable(functionsByNames.get(Objects.hash(name, parameterTypes)));
+    }
+
+    // the index of the end of the intern function defined at the given index
+    public int functionEnd(final int definition) {
+        final Integer end = functionEnds.get(definition);
+        if (end == null) throw new ByteCodeException("No function is defined at instruction " + definition);
+        return end;
+    }
+
+    public String enumMemberName(final int enumId, final int ordinal) {
+        return enumOf(enumId).nameof(ordinal);
+    }
+
+    private ByteCodeEnum enumOf(final int enumId) {
+        final ByteCodeEnum found = enums.get(enumId);
+        if (found == null) throw new ByteCodeException("Cannot find enum with id " + enumId);
+        return found;
+    }
+
+    public int stdlibFinishLine() {
+        return stdlibFinishLine;
+    }
+
+}
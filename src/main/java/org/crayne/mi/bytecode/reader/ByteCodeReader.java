@@ -3,62 +3,114 @@ package org.crayne.mi.bytecode.reader;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang3.ArrayUtils;
 import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeBuffer;
 import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeFileFormat;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
 import org.crayne.mi.log.MessageHandler;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ByteCodeReader {
 
+    static final int STREAM_BUFFER_SIZE = 1 << 13;
+
     private int currentBytePos = -1;
     private byte currentByte = 0;
-    private final List<Byte> bytecodeProgram;
+    private boolean end;
+    private final ByteBuffer bytecodeFile; // null if the file is streamed
+    private final ByteCodeStream input;
     private final List<ByteCodeInstruction> instructionSet;
+    private final ByteCodeBuffer program = new ByteCodeBuffer();
     private final MessageHandler messageHandler;
 
-    private static List<Byte> bytes(@NotNull final String s) {
-        return List.of(ArrayUtils.toObject(s.getBytes(StandardCharsets.ISO_8859_1)));
+    public ByteCodeReader(@NotNull final ByteBuffer bytecodeFile, @NotNull final MessageHandler messageHandler) {
+        this.bytecodeFile = bytecodeFile.slice();
+        this.input = new ByteCodeStream(this.bytecodeFile);
+        instructionSet = new ArrayList<>();
+        this.messageHandler = messageHandler;
+    }
+
+    public ByteCodeReader(final byte @NotNull [] bytecodeFile, @NotNull final MessageHandler messageHandler) {
+        this(ByteBuffer.wrap(bytecodeFile), messageHandler);
     }
 
     public ByteCodeReader(@NotNull final String bytecodeProgram, @NotNull final MessageHandler messageHandler) {
-        this.bytecodeProgram = bytes(bytecodeProgram);
-        instructionSet = new ArrayList<>();
-        this.messageHandler = messageHandler;
+        this(bytecodeProgram.getBytes(StandardCharsets.ISO_8859_1), messageHandler);
     }
 
+    // the file is mapped instead of read, instructions are decoded straight out of the page cache
     public ByteCodeReader(@NotNull final File bytecodeFile, @NotNull final MessageHandler messageHandler) throws IOException {
-        this.bytecodeProgram = bytes(Files.readString(bytecodeFile.toPath(), StandardCharsets.ISO_8859_1));
+        this(map(bytecodeFile), messageHandler);
+    }
+
+    // the file is decoded while it is read, through a small buffer. the channel is not closed afterwards
+    public ByteCodeReader(@NotNull final ReadableByteChannel bytecodeFile, @NotNull final MessageHandler messageHandler) {
+        this.bytecodeFile = null;
+        this.input = new ByteCodeStream(bytecodeFile, STREAM_BUFFER_SIZE);
         instructionSet = new ArrayList<>();
         this.messageHandler = messageHandler;
     }
 
+    public ByteCodeReader(@NotNull final InputStream bytecodeFile, @NotNull final MessageHandler messageHandler) {
+        this(Channels.newChannel(bytecodeFile), messageHandler);
+    }
+
+    public static MappedByteBuffer map(@NotNull final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private boolean compact() {
+        if (!input.ensure(ByteCodeFileFormat.headerSize(ByteCodeFileFormat.VERSION, 0))) return false;
+        try {
+            return ByteCodeFileFormat.supported(ByteCodeFileFormat.version(input.buffer()));
+        } catch (final ByteCodeException e) {
+            return false;
+        }
+    }
+
     public List<ByteCodeInstruction> read() {
         try {
+            // files that are all in memory are decoded lazily, streams have to be decoded as they come
+            if (compact()) return bytecodeFile != null ? ByteCodeDecoder.decodeLazily(bytecodeFile) : ByteCodeDecoder.decode(input);
+
             next();
             readHeader();
-            while (currentBytePos < bytecodeProgram.size()) {
+            while (!end) {
                 final ByteCode code = byteCodeOfByte(currentByte);
                 next();
                 switch (code) {
                     case PUSH -> readPushInstruction(code);
                     case DEFINE_VARIABLE, DECLARE_VARIABLE, CAST -> readVariablar(code);
-                    case JUMP, JUMP_IF, POP, FUNCTION_CALL, STDLIB_FINISH_LINE, TRACEBACK -> readWithInteger(code);
+                    case JUMP, JUMP_IF, JUMP_IF_NOT, POP, FUNCTION_CALL, STDLIB_FINISH_LINE, TRACEBACK -> readWithInteger(code);
                     case NATIVE_FUNCTION_DEFINITION_BEGIN -> readNativeFunctionBegin(code);
                     case FUNCTION_DEFINITION_BEGIN -> readFunctionBegin(code);
                     case ENUM_MEMBER_DEFINITION -> readEnumMemberDefinition(code);
+                    case TABLE_SWITCH, LOOKUP_SWITCH -> readSwitch(code);
+                    case RANGE_LOOP_ENTER, RANGE_LOOP_NEXT, LOCAL_FRAME -> readWithIntegers(code, 2);
+                    case DEFINE_LOCAL, LOAD_GLOBAL, STORE_GLOBAL -> readWithIntegers(code, 1);
+                    case DECLARE_LOCAL -> readLocalDeclaration(code);
                     case FUNCTION_DEFINITION_END, VALUE_AT_ADDRESS, EQUALS, NOT, PLUS, MINUS, MULTIPLY, DIVIDE, MODULO,
                             BIT_AND, BIT_OR, BIT_XOR, BIT_NOT, LOGICAL_AND, LOGICAL_OR, LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL, RELATIVE_TO_ABSOLUTE_ADDRESS,
                             MUTATE_VARIABLE, MUTATE_VARIABLE_AND_PUSH, INC_VARIABLE, INC_VARIABLE_AND_PUSH, DEC_VARIABLE, DEC_VARIABLE_AND_PUSH, BITSHIFT_LEFT,
-                            BITSHIFT_RIGHT, VALUE_AT_RELATIVE_ADDRESS, RETURN_STATEMENT, ENUM_DEFINITION_END, ENUM_DEFINITION_BEGIN
+                            BITSHIFT_RIGHT, VALUE_AT_RELATIVE_ADDRESS, RETURN_STATEMENT, ENUM_DEFINITION_END, ENUM_DEFINITION_BEGIN, POP_PUSH, DUP
                         // any of the instructions that dont pass any arguments in should just be added to instruction set
                             -> instruction(code, (l) -> {});
                     default -> throw new ByteCodeException("Unhandled bytecode instruction " + code);
@@ -72,79 +124,90 @@ public class ByteCodeReader {
         return instructionSet;
     }
 
-    private void instruction(@NotNull final ByteCode code, final Consumer<ArrayList<Byte>> consumer) {
-        instructionSet.add(new ByteCodeInstruction(new ArrayList<>() {{
-            this.add(code.code());
-            consumer.accept(this);
-        }}));
+    private void instruction(@NotNull final ByteCode code, final Consumer<ByteCodeBuffer> consumer) {
+        consumer.accept(program.begin(code.code()));
+        instructionSet.add(program.finish());
     }
 
     private void readPushInstruction(@NotNull final ByteCode code) throws Throwable {
         final byte datatype = currentByte;
-        final Byte[] val = readValue();
-        instruction(code, (l) -> {
-            l.add(datatype);
-            l.addAll(listOfByteArray(val));
-        });
+        final byte[] val = readValue();
+        instruction(code, (l) -> l.put(datatype).put(val));
     }
 
     private void readVariablar(@NotNull final ByteCode code) {
         final byte datatype = currentByte;
         next();
-        instruction(code, (l) -> l.add(datatype));
+        instruction(code, (l) -> l.put(datatype));
+    }
+
+    private void readLocalDeclaration(@NotNull final ByteCode code) {
+        final byte[] slot = readBytes(Integer.BYTES);
+        final byte datatype = currentByte;
+        next();
+        instruction(code, (l) -> l.put(slot).put(datatype));
     }
 
-    private static final Set<ByteCode> normalIntegerNeeded = new HashSet<>(Arrays.asList(ByteCode.POP, ByteCode.JUMP, ByteCode.JUMP_IF, ByteCode.TRACEBACK, ByteCode.STDLIB_FINISH_LINE));
+    private static final Set<ByteCode> normalIntegerNeeded = new HashSet<>(Arrays.asList(ByteCode.POP, ByteCode.JUMP, ByteCode.JUMP_IF, ByteCode.JUMP_IF_NOT, ByteCode.TRACEBACK, ByteCode.STDLIB_FINISH_LINE));
 
     private void readWithInteger(@NotNull final ByteCode code) {
-        final Byte[] num = normalIntegerNeeded.contains(code) ? readIntegerValue() : readLongIntegerValue();
-        instruction(code, (l) -> l.addAll(listOfByteArray(num)));
+        final byte[] num = normalIntegerNeeded.contains(code) ? readIntegerValue() : readLongIntegerValue();
+        instruction(code, (l) -> l.put(num));
+    }
+
+    private void readWithIntegers(@NotNull final ByteCode code, final int amount) {
+        final byte[] nums = readBytes(amount * Integer.BYTES);
+        instruction(code, (l) -> l.put(nums));
     }
 
     private void readNativeFunctionBegin(@NotNull final ByteCode code) {
         expect(ByteCode.LONG_INTEGER_VALUE);
-        final Byte[] functionId = readLongIntegerValue();
+        final byte[] functionId = readLongIntegerValue();
         expect(ByteCode.STRING_VALUE);
-        final Byte[] nativeFunction = readStringValue();
+        final byte[] nativeFunction = readStringValue();
 
         instruction(code, (l) -> {
-            l.add(ByteCode.LONG_INTEGER_VALUE.code());
-            l.addAll(listOfByteArray(functionId));
-            l.add(ByteCode.STRING_VALUE.code());
-            l.addAll(listOfByteArray(nativeFunction));
+            l.put(ByteCode.LONG_INTEGER_VALUE.code()).put(functionId);
+            l.put(ByteCode.STRING_VALUE.code()).put(nativeFunction);
             expect(ByteCode.INSTRUCT_FINISH, ByteCode.FUNCTION_DEFINITION_END);
-            l.add(ByteCode.INSTRUCT_FINISH.code());
-            l.add(ByteCode.FUNCTION_DEFINITION_END.code());
+            l.put(ByteCode.INSTRUCT_FINISH.code()).put(ByteCode.FUNCTION_DEFINITION_END.code());
         });
     }
 
     private void readFunctionBegin(@NotNull final ByteCode code) {
         expect(ByteCode.LONG_INTEGER_VALUE);
-        final Byte[] functionId = readLongIntegerValue();
+        final byte[] functionId = readLongIntegerValue();
         expect(ByteCode.STRING_VALUE);
-        final Byte[] functionSignature = readStringValue();
+        final byte[] functionSignature = readStringValue();
 
         instruction(code, (l) -> {
-            l.add(ByteCode.LONG_INTEGER_VALUE.code());
-            l.addAll(listOfByteArray(functionId));
-            l.add(ByteCode.STRING_VALUE.code());
-            l.addAll(listOfByteArray(functionSignature));
+            l.put(ByteCode.LONG_INTEGER_VALUE.code()).put(functionId);
+            l.put(ByteCode.STRING_VALUE.code()).put(functionSignature);
             expect(ByteCode.INSTRUCT_FINISH);
-            l.add(ByteCode.INSTRUCT_FINISH.code());
+            l.put(ByteCode.INSTRUCT_FINISH.code());
         });
     }
 
     private void readEnumMemberDefinition(@NotNull final ByteCode code) {
         expect(ByteCode.STRING_VALUE);
-        final Byte[] memberName = readStringValue();
-        instruction(code, (l) -> {
-            l.add(ByteCode.STRING_VALUE.code());
-            l.addAll(listOfByteArray(memberName));
-        });
+        final byte[] memberName = readStringValue();
+        instruction(code, (l) -> l.put(ByteCode.STRING_VALUE.code()).put(memberName));
+    }
+
+    private void readSwitch(@NotNull final ByteCode code) {
+        final boolean table = code == ByteCode.TABLE_SWITCH;
+        final byte[] low = table ? readIntegerValue() : new byte[0];
+        final byte[] countBytes = readIntegerValue();
+        final int count = ByteCode.bytesToInt(countBytes);
+        if (count < 0) throw new ByteCodeException("Negative case count in switch instruction");
+        // every table entry is a label, every lookup entry a key and a label
+        final byte[] cases = readBytes(Integer.BYTES + count * (table ? 1 : 2) * Integer.BYTES);
+
+        instruction(code, (l) -> l.put(low).put(countBytes).put(cases));
     }
 
     private static ByteCode byteCodeOfByte(final byte b) throws Throwable {
-        return Arrays.stream(ByteCode.values()).filter(c -> c.code() == b).findFirst().orElseThrow((Supplier<Throwable>) () ->
+        return ByteCode.of(b).orElseThrow((Supplier<Throwable>) () ->
                 new ByteCodeException("Unrecognized bytecode instruction " + byteToHexString(b)));
     }
 
@@ -155,18 +218,10 @@ public class ByteCodeReader {
         if (bytecodeVersion > ByteCode.BYTECODE_VERSION) throw new ByteCodeException("Unsupported bytecode version: " + bytecodeVersion);
         next();
         expect(ByteCode.INSTRUCT_FINISH);
-        instructionSet.add(new ByteCodeInstruction(ByteCode.PROGRAM_HEADER.code(), (byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75, bytecodeVersion));
-    }
-
-    public static List<Byte> listOfByteArray(final byte... arr) {
-        return listOfByteArray(ArrayUtils.toObject(arr));
-    }
-
-    public static List<Byte> listOfByteArray(final Byte... arr) {
-        return List.of(arr);
+        instruction(ByteCode.PROGRAM_HEADER, (l) -> l.put(new byte[] {(byte) 0x00, (byte) 0x6D, (byte) 0x00, (byte) 0x75, bytecodeVersion}));
     }
 
-    private Byte[] readValue() throws Throwable {
+    private byte[] readValue() throws Throwable {
         final ByteCode valueType = byteCodeOfByte(currentByte);
         expectAny(valueType, ByteCode.ENUM_VALUE, ByteCode.FLOAT_VALUE, ByteCode.INTEGER_VALUE, ByteCode.LONG_INTEGER_VALUE, ByteCode.CHARACTER_VALUE,
                 ByteCode.STRING_VALUE, ByteCode.DOUBLE_VALUE, ByteCode.BOOL_VALUE, ByteCode.NULL_VALUE);
@@ -178,52 +233,48 @@ public class ByteCodeReader {
             case FLOAT_VALUE -> readFloatValue();
             case DOUBLE_VALUE -> readDoubleValue();
             case STRING_VALUE -> readStringValue();
-            default -> new Byte[0];
+            default -> new byte[0];
         };
     }
 
-    private Byte[] readLongIntegerValue() {
+    private byte[] readLongIntegerValue() {
         return readBytes(8);
     }
 
-    private Byte[] readIntegerValue() {
+    private byte[] readIntegerValue() {
         return readBytes(4);
     }
 
-    private Byte[] readEnumValue() {
+    private byte[] readEnumValue() {
         return readBytes(8);
     }
 
-    private Byte[] readDoubleValue() {
+    private byte[] readDoubleValue() {
         return readBytes(8);
     }
 
-    private Byte[] readFloatValue() {
+    private byte[] readFloatValue() {
         return readBytes(4);
     }
 
-    private Byte[] readByteValue() {
+    private byte[] readByteValue() {
         return readBytes(1);
     }
 
-    private Byte[] readStringValue() {
-        final List<Byte> result = new ArrayList<>();
-        final Byte[] lengthBytes = readBytes(4);
-        final int length = ByteCode.bytesToInt(ArrayUtils.toPrimitive(lengthBytes));
-        final Byte[] stringBytes = readBytes(length);
-
-        result.addAll(List.of(lengthBytes));
-        result.addAll(List.of(stringBytes));
-        return result.toArray(new Byte[0]);
+    private byte[] readStringValue() {
+        final byte[] lengthBytes = readBytes(4);
+        final int length = ByteCode.bytesToInt(lengthBytes);
+        return ArrayUtils.addAll(lengthBytes, readBytes(length));
     }
 
-    private Byte[] readBytes(final int amount) {
-        final List<Byte> result = new ArrayList<>();
+    private byte[] readBytes(final int amount) {
+        if (amount < 0 || input.bounded() && amount > input.buffer().remaining() + 1) throw new ByteCodeException("Reached end of file");
+        final byte[] result = new byte[amount];
         for (int i = 0; i < amount; i++) {
-            result.add(currentByte);
+            result[i] = currentByte;
             next();
         }
-        return result.toArray(new Byte[0]);
+        return result;
     }
 
     private void expectAny(@NotNull final ByteCode code, @NotNull final ByteCode... possible) {
@@ -255,9 +306,10 @@ public class ByteCodeReader {
     }
 
     private void next() {
-        if (currentBytePos >= bytecodeProgram.size()) throw new ByteCodeException("Reached end of file");
+        if (end) throw new ByteCodeException("Reached end of file");
         currentBytePos++;
-        currentByte = currentBytePos >= bytecodeProgram.size() ? 0 : bytecodeProgram.get(currentBytePos);
+        end = !input.ensure(1);
+        currentByte = end ? 0 : input.buffer().get();
     }
 
     public static List<ByteCodeInstruction> read(@NotNull final String bytecode, @NotNull final MessageHandler messageHandler) {
@@ -268,13 +320,22 @@ public class ByteCodeReader {
         return new ByteCodeReader(bytecodeFile, messageHandler).read();
     }
 
+    public static List<ByteCodeInstruction> read(@NotNull final InputStream bytecodeFile, @NotNull final MessageHandler messageHandler) {
+        return new ByteCodeReader(bytecodeFile, messageHandler).read();
+    }
+
+    public static List<ByteCodeInstruction> read(@NotNull final ReadableByteChannel bytecodeFile, @NotNull final MessageHandler messageHandler) {
+        return new ByteCodeReader(bytecodeFile, messageHandler).read();
+    }
+
     public static String byteToHexString(final byte b) {
         return String.format("%02x", b);
     }
 
     public String toString() {
-        return "|-" + "-".repeat(32 * 3) + "|\n" + Lists.partition(bytecodeProgram
-                .stream()
+        if (bytecodeFile == null) return "|- streamed, " + (currentBytePos + 1) + " bytes read -|";
+        return "|-" + "-".repeat(32 * 3) + "|\n" + Lists.partition(IntStream.range(0, bytecodeFile.limit())
+                .mapToObj(bytecodeFile::get)
                 .map(ByteCodeReader::byteToHexString)
                 .toList(), 32)
                 .stream()
@@ -0,0 +1,210 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.crayne.mi.bytecode.common.ByteCodeEnum;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.reader.function.ByteCodeInternFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeNativeFunction;
+import org.crayne.mi.bytecode.reader.function.ByteCodeRuntimeFunction;
+import org.crayne.mi.bytecode.writer.ByteCodeEncoder;
+import org.crayne.mi.bytecode.writer.ByteCodeFileWriter;
+import org.crayne.mi.log.MessageHandler;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// the state of an interpreter right after prepare(), so that a new process can start serving invocations without evaluating the global
+// initializers or scanning the program again. native functions are only bound to their java methods once they are first called.
+// the image holds the evaluated globals, the function table, the enums and the program itself as a version 2 .mib file, which is decoded lazily.
+//
+// <magic> <version> <stdlib finish line>
+// <function count> (<id> 0 <label> <end> | <id> 1 <native signature>)*
+// <function name count> (<name hash> <id>)*
+// <enum count> (<id> <member count> <member>*)*
+// <global count> (<type code> <type id> <type name> <value length> <value>)*
+// <program length> <program>
+public class ByteCodeSnapshot {
+
+    public static final String EXTENSION = ".mis";
+    private static final int MAGIC = 0x006D6973; // 'mis'
+    private static final int FORMAT_VERSION = 1;
+
+    private record Global(@NotNull ByteDatatype type, byte @NotNull [] value) {}
+
+    private final ByteCodeLoadedProgram program;
+    private final List<Global> globals;
+
+    private ByteCodeSnapshot(@NotNull final ByteCodeLoadedProgram program, @NotNull final List<Global> globals) {
+        this.program = program;
+        this.globals = globals;
+    }
+
+    public ByteCodeLoadedProgram program() {
+        return program;
+    }
+
+    // a new interpreter that is already prepared, sharing the program with every other interpreter of this snapshot
+    public ByteCodeInterpreter newInterpreter(@NotNull final MessageHandler messageHandler) {
+        final ByteCodeInterpreter interpreter = new ByteCodeInterpreter(program, messageHandler);
+        interpreter.restore(globals.stream().map(g -> new ByteCodeValue(g.type(), ArrayUtils.toObject(g.value()), interpreter)).toList());
+        return interpreter;
+    }
+
+    // prepares the interpreter first, if that did not happen yet
+    public static void write(@NotNull final ByteCodeInterpreter interpreter, @NotNull final File file) throws IOException {
+        interpreter.prepare();
+        final ByteCodeLoadedProgram program = interpreter.loadedProgram();
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(program.stdlibFinishLine());
+
+            out.writeInt(program.functions().size());
+            for (final Map.Entry<Long, ByteCodeRuntimeFunction> function : new TreeMap<>(program.functions()).entrySet()) {
+                out.writeLong(function.getKey());
+                if (function.getValue() instanceof final ByteCodeNativeFunction nativeFunction) {
+                    out.writeByte(1);
+                    writeString(out, nativeFunction.signature());
+                    continue;
+                }
+                final int label = ((ByteCodeInternFunction) function.getValue()).label();
+                out.writeByte(0);
+                out.writeInt(label);
+                out.writeInt(program.functionEnd(label));
+            }
+
+            out.writeInt(program.functionsByNames().size());
+            for (final Map.Entry<Integer, Long> name : new TreeMap<>(program.functionsByNames()).entrySet()) {
+                out.writeInt(name.getKey());
+                out.writeLong(name.getValue());
+            }
+
+            out.writeInt(program.enums().size());
+            for (final Map.Entry<Integer, ByteCodeEnum> enumDef : new TreeMap<>(program.enums()).entrySet()) {
+                out.writeInt(enumDef.getKey());
+                out.writeInt(enumDef.getValue().members().size());
+                for (final String member : enumDef.getValue().members()) writeString(out, member);
+            }
+
+            final List<ByteCodeValue> globals = interpreter.globals();
+            out.writeInt(globals.size());
+            for (final ByteCodeValue global : globals) {
+                out.writeByte(global.type().code());
+                out.writeInt(global.type().id());
+                writeString(out, global.type().name());
+                out.writeInt(global.value().length);
+                out.write(ArrayUtils.toPrimitive(global.value()));
+            }
+
+            // the length of the program is only known once it is written
+            out.writeInt(0);
+            out.flush();
+            final long programOffset = channel.position();
+            final ByteCodeFileWriter writer = new ByteCodeFileWriter(channel);
+            new ByteCodeEncoder(program.code()).encode(writer);
+            writer.flush();
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, Math.toIntExact(writer.position())), programOffset - Integer.BYTES);
+        }
+    }
+
+    public static ByteCodeSnapshot read(@NotNull final File file) throws IOException {
+        return read(ByteCodeReader.map(file), file.getName());
+    }
+
+    public static ByteCodeSnapshot read(@NotNull final ByteBuffer image) {
+        return read(image, "snapshot");
+    }
+
+    public static boolean isSnapshot(@NotNull final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (final EOFException e) {
+            return false;
+        }
+    }
+
+    private static ByteCodeSnapshot read(@NotNull final ByteBuffer image, @NotNull final String name) {
+        final ByteBuffer in = image.slice();
+        try {
+            if (in.getInt() != MAGIC) throw new ByteCodeException("'" + name + "' is not an mi snapshot");
+            final int version = in.getInt();
+            if (version != FORMAT_VERSION) throw new ByteCodeException("Unsupported snapshot version " + version + " in '" + name + "'");
+            final int stdlibFinishLine = in.getInt();
+
+            final Map<Long, ByteCodeRuntimeFunction> functions = new HashMap<>();
+            final Map<Integer, Integer> functionEnds = new HashMap<>();
+            final int functionCount = count(in);
+            for (int i = 0; i < functionCount; i++) {
+                final long id = in.getLong();
+                if (in.get() == 1) {
+                    functions.put(id, new ByteCodeNativeFunction(readString(in)));
+                    continue;
+                }
+                final int label = in.getInt();
+                functions.put(id, new ByteCodeInternFunction(label));
+                functionEnds.put(label, in.getInt());
+            }
+
+            final Map<Integer, Long> functionsByNames = new HashMap<>();
+            final int nameCount = count(in);
+            for (int i = 0; i < nameCount; i++) functionsByNames.put(in.getInt(), in.getLong());
+
+            final Map<Integer, ByteCodeEnum> enums = new HashMap<>();
+            final int enumCount = count(in);
+            for (int i = 0; i < enumCount; i++) {
+                final ByteCodeEnum enumDef = new ByteCodeEnum(in.getInt());
+                final int memberCount = count(in);
+                for (int m = 0; m < memberCount; m++) enumDef.addMember(readString(in));
+                enums.put(enumDef.id(), enumDef);
+            }
+
+            final int globalCount = count(in);
+            final List<Global> globals = new ArrayList<>(globalCount);
+            for (int i = 0; i < globalCount; i++) {
+                final ByteDatatype type = new ByteDatatype(in.get(), in.getInt(), readString(in));
+                final byte[] value = new byte[count(in)];
+                in.get(value);
+                globals.add(new Global(type, value));
+            }
+
+            final int programLength = count(in);
+            if (programLength > in.remaining()) throw new ByteCodeException("Reached end of file");
+            final ByteCodeLazyProgram code = ByteCodeDecoder.decodeLazily(in.slice(in.position(), programLength));
+            for (final Map.Entry<Integer, Integer> function : functionEnds.entrySet()) {
+                if (code.functionEnd(function.getKey()) != function.getValue()) throw new ByteCodeException("Snapshot '" + name + "' does not match its program");
+            }
+            return new ByteCodeSnapshot(new ByteCodeLoadedProgram(code, functions, functionsByNames, functionEnds, enums, stdlibFinishLine), globals);
+        } catch (final BufferUnderflowException e) {
+            throw new ByteCodeException("Reached end of file");
+        }
+    }
+
+    private static int count(@NotNull final ByteBuffer in) {
+        final int count = in.getInt();
+        if (count < 0 || count > in.remaining()) throw new ByteCodeException("Reached end of file");
+        return count;
+    }
+
+    private static void writeString(@NotNull final DataOutputStream out, @NotNull final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(@NotNull final ByteBuffer in) {
+        final byte[] bytes = new byte[count(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+// bytes of a bytecode file, either all of them in one buffer or read from a channel through a small buffer, which is refilled whenever
+// more bytes are needed than it holds. it only ever grows when a single instruction does not fit into it
+class ByteCodeStream {
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private long read;
+
+    ByteCodeStream(@NotNull final ReadableByteChannel channel, final int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize).flip();
+    }
+
+    ByteCodeStream(@NotNull final ByteBuffer contents) {
+        this.channel = null;
+        this.buffer = contents.slice();
+        this.read = buffer.remaining();
+    }
+
+    // the buffer to read from, only valid until the next call to ensure
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // whether the whole file is in the buffer
+    boolean bounded() {
+        return channel == null;
+    }
+
+    // how many bytes were read from the buffer so far
+    long position() {
+        return read - buffer.remaining();
+    }
+
+    // makes sure that at least the given amount of bytes can be read from the buffer, false if the file ends before that
+    boolean ensure(final int amount) {
+        if (buffer.remaining() >= amount) return true;
+        if (channel == null) return false;
+        if (buffer.capacity() < amount) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, amount));
+            grown.put(buffer);
+            buffer = grown;
+        } else buffer.compact();
+        try {
+            while (buffer.position() < amount) {
+                final int bytes = channel.read(buffer);
+                if (bytes < 0) return false;
+                read += bytes;
+            }
+            return true;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    void skip(final long amount) {
+        long left = amount;
+        while (left > 0) {
+            if (!ensure(1)) throw new ByteCodeException("Reached end of file");
+            final int skipped = (int) Math.min(left, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            left -= skipped;
+        }
+    }
+
+    // the next bytes, copied out of the stream
+    ByteBuffer read(final int amount) {
+        final byte[] bytes = new byte[amount];
+        int at = 0;
+        while (at < amount) {
+            if (!ensure(1)) throw new ByteCodeException("Reached end of file");
+            final int copied = Math.min(amount - at, buffer.remaining());
+            buffer.get(bytes, at, copied);
+            at += copied;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+}
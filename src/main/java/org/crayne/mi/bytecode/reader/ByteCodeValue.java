@@ -62,8 +62,7 @@ public record ByteCodeValue(ByteDatatype type, Byte[] value, ByteCodeInterpreter
     }
 
     public static ByteCodeValue stringValue(@NotNull final String s, @NotNull final ByteCodeInterpreter runtime) {
-        final Byte[] codes = ByteCode.string(s).codes();
-        return new ByteCodeValue(ByteDatatype.STRING, Arrays.stream(codes).toList().subList(1, codes.length - 1).toArray(new Byte[0]), runtime);
+        return new ByteCodeValue(ByteDatatype.STRING, ArrayUtils.toObject(ByteCode.stringToBytes(s)), runtime);
     }
 
     private static String stringValue(final Byte[] val) {
@@ -1,22 +1,86 @@
 package org.crayne.mi.bytecode.reader.function;
 
+import org.apache.commons.lang3.StringUtils;
+import org.crayne.mi.bytecode.common.ByteCodeException;
 import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
+// a native function is described by its signature, which looks like some.java.Class.method(int|string)void.
+// functions restored from a snapshot are only bound to their java method once they are first called
 public class ByteCodeNativeFunction extends ByteCodeRuntimeFunction {
 
+    private final String signature;
+    private volatile Method bound;
+
     protected ByteCodeNativeFunction(@NotNull final Integer jumpLabel) {
         super(jumpLabel);
         throw new IllegalArgumentException("Cannot use jump labels for native functions");
     }
 
-    public ByteCodeNativeFunction(@NotNull final Method nativeMethod) {
+    public ByteCodeNativeFunction(@NotNull final String signature, @NotNull final Method nativeMethod) {
         super(nativeMethod);
+        this.signature = signature;
+        this.bound = nativeMethod;
+    }
+
+    public ByteCodeNativeFunction(@NotNull final String signature) {
+        super();
+        this.signature = signature;
+    }
+
+    public String signature() {
+        return signature;
     }
 
     public Method method() {
-        return nativeMethod;
+        final Method method = bound;
+        if (method != null) return method;
+        return bound = bind(signature);
+    }
+
+    public static Method bind(@NotNull final String signature) {
+        final String clazzWithMethod = StringUtils.substringBefore(signature, "(");
+        final String returnType = StringUtils.substringAfterLast(signature, ")");
+        final String[] argTypes = signature.substring(clazzWithMethod.length() + 1, signature.length() - returnType.length() - 1).split("\\|");
+
+        final String clazzStr = StringUtils.substringBeforeLast(clazzWithMethod, ".");
+        final String methodStr = StringUtils.substringAfterLast(clazzWithMethod, ".");
+
+        try {
+            final Class<?> clazz = Class.forName(clazzStr);
+            return clazz.getMethod(methodStr, argStringToArgClasses(argTypes));
+        } catch (final ClassNotFoundException e) {
+            throw new ByteCodeException("Cannot find class '" + clazzStr + "'");
+        } catch (final NoSuchMethodException e) {
+            throw new ByteCodeException("Cannot find method '" + methodStr + "' in class '" + clazzStr + "'");
+        }
+    }
+
+    private static Class<?> argStringToArgClass(@NotNull final String argType) {
+        return switch (argType) {
+            case "int" -> Integer.class;
+            case "char" -> Character.class;
+            case "bool" -> Boolean.class;
+            case "long" -> Long.class;
+            case "float" -> Float.class;
+            case "double" -> Double.class;
+            case "string" -> String.class;
+            default -> throw new ByteCodeException("Cannot use '" + argType + "' as a native function variable type");
+        };
+    }
+
+    private static Class<?>[] argStringToArgClasses(@NotNull final String[] argTypes) {
+        if (argTypes.length == 0 || argTypes[0].isEmpty()) return new Class<?>[0];
+        return Arrays.stream(argTypes).map(ByteCodeNativeFunction::argStringToArgClass).toList().toArray(new Class<?>[0]);
+    }
+
+    @Override
+    public String toString() {
+        return "ByteCodeRuntimeFunction{" +
+                "nativeMethod=" + (bound == null ? signature : bound) +
+                '}';
     }
 
 }
@@ -19,6 +19,12 @@ public class ByteCodeRuntimeFunction {
         this.nativeMethod = nativeMethod;
     }
 
+    // a native function that is not bound to its method yet
+    protected ByteCodeRuntimeFunction() {
+        this.jumpLabel = null;
+        this.nativeMethod = null;
+    }
+
     @Override
     public String toString() {
         if (jumpLabel == null) {
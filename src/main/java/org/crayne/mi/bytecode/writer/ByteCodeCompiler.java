@@ -1,44 +1,90 @@
 package org.crayne.mi.bytecode.writer;
 
+import org.apache.commons.lang3.StringUtils;
 import org.crayne.mi.bytecode.common.*;
+import org.crayne.mi.bytecode.linker.ByteCodeObject;
+import org.crayne.mi.bytecode.linker.ByteCodeSymbol;
+import org.crayne.mi.bytecode.linker.ByteCodeUnit;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.ir.ControlFlowGraph;
+import org.crayne.mi.bytecode.optimizer.ir.StackDepth;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationLevel;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.crayne.mi.cache.MiIncrementalBuild;
 import org.crayne.mi.lang.MiEqualOperator;
 import org.crayne.mi.parsing.ast.Node;
 import org.crayne.mi.parsing.ast.NodeType;
 import org.crayne.mi.parsing.lexer.Token;
+import org.crayne.mi.parsing.lexer.Tokenizer;
+import org.crayne.mi.util.CompileTimings;
 import org.crayne.mi.util.SyntaxTree;
+import org.crayne.mi.util.errorhandler.Traceback;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 import static org.crayne.mi.bytecode.common.ByteCode.*;
 
 public class ByteCodeCompiler {
-    private final List<ByteCodeInstruction> result;
-    private final List<ByteCodeInstruction> globalVariables;
-    private final List<ByteCodeInstruction> functionDefinitions;
-    private final List<ByteCodeInstruction> enumDefinitions;
+    private final ByteCodeEmitter result;
+    private final ByteCodeEmitter globalVariables;
+    private final ByteCodeEmitter functionDefinitions;
+    private final ByteCodeEmitter enumDefinitions;
+    private final List<ByteCodeEmitter> functionScopes;
     private final SyntaxTree tree;
+    private final Traceback traceback;
 
     private final Map<String, Integer> globalVariableStorage;
     private final LinkedHashMap<String, Integer> localVariableStorage;
     private final Map<String, ByteCodeEnum> enumStorage;
     private final Set<ByteCodeFunctionDefinition> functionStorage;
+    private final Map<Long, ByteCodeFunctionDefinition> functionsById;
     private final List<ByteLoopBound> loopBounds;
+    private final Map<Long, ByteInlineFunction> inlineFunctions;
+    private final Map<Long, Boolean> recursiveFunctions;
+    private final List<Long> functionsBeingCompiled;
+    private final List<ByteInlinedCall> inlinedCalls;
+    private final MiIncrementalBuild incrementalBuild;
+
+    // functions with a body of at most this many syntax tree nodes are inlined at their call sites, unless marked with 'inline' anyway
+    private final int maxInlineNodes;
+    // functions that were hot while profiling are inlined up to this many times the usual size
+    private static final int HOT_INLINE_FACTOR = 4;
+    private final ByteCodeProfile profile;
+    private CompileTimings timings = new CompileTimings();
 
     private final List<String> currentModuleName = new ArrayList<>() {{this.add("!PARENT");}};
 
     private int absoluteAddress = 1;
-    private int relativeAddress = -1;
     private long functionId = 0;
-    private int label = 2;
     private int enumId = 0;
-    private final List<Integer> localScopeVariables;
+
+    // locals live in slots of their function's frame. a slot is given back as soon as its variable is dead,
+    // which is after the last statement of its scope that mentions it, so that the next local can reuse it
+    private record LocalVariable(@NotNull String name, int slot) {}
+
+    private final List<List<LocalVariable>> localScopes;
+    private final BitSet usedSlots = new BitSet();
+    private int maxLocals = 0;
     private int scope = -1;
+    private String compilingModule = "";
+
+    // where every section stood once the whole standard library was compiled, which is where objects split it off their own code
+    private record StdlibEnd(int globalInstructions, int enumInstructions, int nativeInstructions, int scopes, int resultInstructions,
+                             long functions, int globals, int enums) {}
+
+    private StdlibEnd stdlibEnd;
+
+    // when compiling an object, everything declared from this line on was generated from the exports of other objects.
+    // those declarations only get ids, so that they can be referenced, and are resolved by the linker later
+    private int importsBeginLine = -1;
+    private final List<ByteCodeSymbol> symbols = new ArrayList<>();
 
     private static abstract class QueuedFunctionDefinition {
 
@@ -52,20 +98,69 @@ public class ByteCodeCompiler {
 
     }
 
-    private final List<Map.Entry<String, QueuedFunctionDefinition>> defineFunctionScopesLater = new ArrayList<>();
+    private final List<Map.Entry<String, QueuedFunctionDefinition>> defineFunctionScopesLater;
 
     public ByteCodeCompiler(@NotNull final SyntaxTree tree) {
+        this(tree, OptimizationLevel.DEFAULT);
+    }
+
+    public ByteCodeCompiler(@NotNull final SyntaxTree tree, @NotNull final OptimizationLevel level) {
+        this(tree, level, null);
+    }
+
+    public ByteCodeCompiler(@NotNull final SyntaxTree tree, @NotNull final OptimizationLevel level, final ByteCodeProfile profile) {
         this.tree = tree;
+        maxInlineNodes = level.maxInlineNodes();
+        this.profile = profile;
+        traceback = tree.getTraceback();
+        defineFunctionScopesLater = new ArrayList<>();
+        functionScopes = new ArrayList<>();
         globalVariableStorage = new HashMap<>();
-        localScopeVariables = new ArrayList<>();
+        localScopes = new ArrayList<>();
         localVariableStorage = new LinkedHashMap<>();
         enumStorage = new HashMap<>();
         functionStorage = new HashSet<>();
-        enumDefinitions = new ArrayList<>();
-        globalVariables = new ArrayList<>();
-        functionDefinitions = new ArrayList<>();
+        functionsById = new HashMap<>();
+        enumDefinitions = new ByteCodeEmitter();
+        globalVariables = new ByteCodeEmitter();
+        functionDefinitions = new ByteCodeEmitter();
         loopBounds = new ArrayList<>();
-        result = new ArrayList<>();
+        inlineFunctions = new HashMap<>();
+        recursiveFunctions = new ConcurrentHashMap<>();
+        functionsBeingCompiled = new ArrayList<>();
+        inlinedCalls = new ArrayList<>();
+        incrementalBuild = tree.getIncrementalBuild().orElse(null);
+        result = new ByteCodeEmitter();
+    }
+
+    // a compiler for a single function scope, which shares every symbol collected by the parent compiler (those are only read from now on),
+    // but has its own locals, its own traceback and its own section to put the function into
+    private ByteCodeCompiler(@NotNull final ByteCodeCompiler parent) {
+        tree = parent.tree;
+        maxInlineNodes = parent.maxInlineNodes;
+        profile = parent.profile;
+        traceback = new Traceback();
+        defineFunctionScopesLater = parent.defineFunctionScopesLater;
+        functionScopes = new ArrayList<>();
+        globalVariableStorage = parent.globalVariableStorage;
+        localScopes = new ArrayList<>();
+        localVariableStorage = new LinkedHashMap<>();
+        enumStorage = parent.enumStorage;
+        functionStorage = parent.functionStorage;
+        functionsById = parent.functionsById;
+        enumDefinitions = new ByteCodeEmitter();
+        globalVariables = new ByteCodeEmitter();
+        functionDefinitions = new ByteCodeEmitter();
+        loopBounds = new ArrayList<>();
+        inlineFunctions = parent.inlineFunctions;
+        recursiveFunctions = parent.recursiveFunctions;
+        functionsBeingCompiled = new ArrayList<>();
+        inlinedCalls = new ArrayList<>();
+        incrementalBuild = parent.incrementalBuild;
+        result = new ByteCodeEmitter();
+        currentModuleName.clear();
+        currentModuleName.addAll(parent.currentModuleName);
+        absoluteAddress = parent.absoluteAddress;
     }
 
     public int getStdlibFinishLine() {
@@ -77,17 +172,22 @@ public class ByteCodeCompiler {
     }
 
     private void panic(@NotNull final String message) {
-        tree.error(message);
+        tree.error(traceback, message);
     }
 
     private boolean compilingFunction() {
-        return relativeAddress >= 0;
+        return !localScopes.isEmpty();
     }
 
     private String currentModuleName() {
         return String.join(".", currentModuleName);
     }
 
+    // the function scopes compiled on the pool add their allocation to these
+    public void timings(@NotNull final CompileTimings timings) {
+        this.timings = timings;
+    }
+
     public List<ByteCodeInstruction> compile() {
         final Node ast = tree.getAST();
         if (ast.type() == NodeType.PARENT) {
@@ -96,43 +196,216 @@ public class ByteCodeCompiler {
             panic("Expected 'PARENT' node at the beginning of syntax tree");
             return new ArrayList<>();
         }
-        result.addAll(0, functionDefinitions);
-        result.addAll(0, enumDefinitions);
-        result.addAll(0, globalVariables);
-        result.add(0, ByteCode.stdlibFinishLine(tree.getStdlibFinishLine()));
-        result.add(0, header());
-        return result;
+        final List<ByteCodeInstruction> program = new ArrayList<>(2 + globalVariables.size() + enumDefinitions.size() + functionDefinitions.size() + result.size());
+        program.add(header());
+        program.add(ByteCode.stdlibFinishLine(tree.getStdlibFinishLine()));
+        globalVariables.appendTo(program);
+        enumDefinitions.appendTo(program);
+        functionDefinitions.appendTo(program);
+        functionScopes.forEach(s -> s.appendTo(program));
+        result.appendTo(program);
+        return program;
+    }
+
+    public Optional<ByteCodeObject> compileObject(final int importsBeginLine) {
+        this.importsBeginLine = importsBeginLine;
+        final List<ByteCodeInstruction> program = compile();
+        if (program.isEmpty() || tree.error()) return Optional.empty();
+        if (stdlibEnd == null) {
+            panic("Cannot find the end of the standard library");
+            return Optional.empty();
+        }
+        final ByteCodeUnit stdlib = new ByteCodeUnit(
+                section(globalVariables, 0, stdlibEnd.globalInstructions()),
+                section(enumDefinitions, 0, stdlibEnd.enumInstructions()),
+                section(functionDefinitions, 0, stdlibEnd.nativeInstructions()),
+                sections(functionScopes.subList(0, stdlibEnd.scopes())),
+                section(result, 0, stdlibEnd.resultInstructions()));
+
+        final ByteCodeUnit unit = new ByteCodeUnit(
+                section(globalVariables, stdlibEnd.globalInstructions(), globalVariables.size()),
+                section(enumDefinitions, stdlibEnd.enumInstructions(), enumDefinitions.size()),
+                section(functionDefinitions, stdlibEnd.nativeInstructions(), functionDefinitions.size()),
+                sections(functionScopes.subList(stdlibEnd.scopes(), functionScopes.size())),
+                section(result, stdlibEnd.resultInstructions(), result.size()));
+
+        final String stdlibHash = ByteCodeObject.stdlibHash(tree.getCode().subList(0, Math.min(tree.getCode().size(), tree.getStdlibFinishLine())));
+        return Optional.of(new ByteCodeObject(stdlibHash, tree.getStdlibFinishLine(), stdlibEnd.functions(), stdlibEnd.globals(), stdlibEnd.enums(),
+                stdlib, unit, new ArrayList<>(symbols)));
+    }
+
+    // part of a section, with its branch targets made relative to where that part begins
+    private static List<ByteCodeInstruction> section(@NotNull final ByteCodeEmitter emitter, final int begin, final int end) {
+        return emitter.resolve(0)
+                .subList(begin, end)
+                .stream()
+                .map(instr -> ByteCodeLabels.isBranch(instr) ? ByteCodeLabels.relocate(instr, t -> t - begin) : instr)
+                .toList();
+    }
+
+    private static List<ByteCodeInstruction> sections(@NotNull final List<ByteCodeEmitter> emitters) {
+        final List<ByteCodeInstruction> joined = new ArrayList<>();
+        emitters.forEach(e -> e.appendTo(joined));
+        return joined;
+    }
+
+    private void markStdlibEnd() {
+        stdlibEnd = new StdlibEnd(globalVariables.size(), enumDefinitions.size(), functionDefinitions.size(), defineFunctionScopesLater.size(),
+                result.size(), functionId, absoluteAddress - 1, enumId);
+    }
+
+    private boolean imported(@NotNull final Node definition) {
+        return importsBeginLine != -1 && definition.lineDebugging() >= importsBeginLine;
+    }
+
+    private void symbol(@NotNull final ByteCodeSymbol.Kind kind, final long id, @NotNull final String name, @NotNull final String declaration, final boolean imported) {
+        if (importsBeginLine == -1 || stdlibEnd == null) return; // the standard library is part of every object, so it never needs to be linked against
+        symbols.add(new ByteCodeSymbol(kind, id, name, declaration, imported));
+    }
+
+    private static String modifiers(@NotNull final Node modifiers) {
+        return modifiers.children()
+                .stream()
+                .filter(m -> m.type() != NodeType.LITERAL_NAT && m.type() != NodeType.LITERAL_INLINE)
+                .map(m -> m.value().token() + " ")
+                .collect(Collectors.joining());
+    }
+
+    private static String simpleName(@NotNull final String name) {
+        return StringUtils.substringAfterLast("." + name, ".");
+    }
+
+    // enum types are already resolved to their full name, which has to be written as a path going from the root module
+    private static String typeName(@NotNull final String type) {
+        return type.startsWith("!PARENT.") ? StringUtils.removeStart(type, "!PARENT") : type;
+    }
+
+    // the declarations other objects are compiled against. imported functions never have a body, natives are declared like any other function
+    private static String functionDeclaration(@NotNull final Node instr) {
+        final String params = instr.child(3)
+                .children()
+                .stream()
+                .map(p -> typeName(p.child(0).value().token()) + " " + p.child(1).value().token())
+                .collect(Collectors.joining(", "));
+
+        return modifiers(instr.child(2)) + "fn " + instr.child(0).value().token() + " :: " + typeName(instr.child(1).value().token()) + " (" + params + ") { }";
+    }
+
+    // immutable globals need an initial value to be declared at all. imported globals are never initialized by the importing object, so any value of the right type will do
+    private String variableDeclaration(@NotNull final Node var) {
+        final String type = var.child(2).value().token();
+        final String placeholder = switch (type) {
+            case "bool" -> "false";
+            case "char" -> "' '";
+            case "int" -> "0";
+            case "long" -> "0L";
+            case "float" -> "0f";
+            case "double" -> "0d";
+            case "string" -> "\"\"";
+            default -> {
+                final ByteCodeEnum enumDef = findEnum(type);
+                yield enumDef == null || enumDef.members().isEmpty() ? null : typeName(type) + "::" + enumDef.members().get(0);
+            }
+        };
+        return modifiers(var.child(0)) + typeName(type) + " " + simpleName(var.child(1).value().token()) + (placeholder == null ? "" : " = " + placeholder) + ";";
+    }
+
+    private static String enumDeclaration(@NotNull final Node instr, @NotNull final List<String> members) {
+        return modifiers(instr.child(1)) + "enum " + instr.child(0).value().token() + " { " + String.join(", ", members) + " }";
     }
 
     public static void compileToFile(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file) throws IOException {
+        compileToFile(bytecode, file, ByteCodeCompression.NONE);
+    }
+
+    public static void compileToFile(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file, @NotNull final ByteCodeCompression compression) throws IOException {
         if (bytecode.isEmpty()) return;
-        Files.writeString(file.toPath(), String.join("", bytecode.stream().map(b -> b.write()).toList()), StandardCharsets.ISO_8859_1);
+        ByteCodeFileWriter.write(bytecode, file, compression);
     }
 
-    private void compileParent(@NotNull final Node parent, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileParent(@NotNull final Node parent, @NotNull final ByteCodeEmitter result) {
         compileParent(parent, result, true);
     }
 
-    private void compileParent(@NotNull final Node parent, @NotNull final List<ByteCodeInstruction> result, final boolean ignoreFuncScopes) {
+    private void compileParent(@NotNull final Node parent, @NotNull final ByteCodeEmitter result, final boolean ignoreFuncScopes) {
         for (final Node instr : parent.children()) {
             compileInstruction(instr, result);
         }
-        if (!ignoreFuncScopes) for (final Map.Entry<String, QueuedFunctionDefinition> run : defineFunctionScopesLater) {
-            run.getValue().define(run.getKey(), run.getValue().functionId, this);
+        if (!ignoreFuncScopes) compileFunctionScopes();
+    }
+
+    // the body of a scope that was just entered, which frees the slot of every local of that scope once no later statement mentions it anymore
+    private void compileScopeBody(@NotNull final Node parent, @NotNull final ByteCodeEmitter result) {
+        final List<Node> statements = parent.children();
+        final Map<String, Integer> lastMentions = new HashMap<>();
+        for (int i = 0; i < statements.size(); i++) mentions(statements.get(i), i, lastMentions);
+
+        freeDeadLocals(-1, lastMentions);
+        for (int i = 0; i < statements.size(); i++) {
+            compileInstruction(statements.get(i), result);
+            freeDeadLocals(i, lastMentions);
         }
     }
 
+    private static void mentions(@NotNull final Node node, final int statement, @NotNull final Map<String, Integer> lastMentions) {
+        if (node.value() != null) lastMentions.put(node.value().token(), statement);
+        node.children().forEach(n -> mentions(n, statement, lastMentions));
+    }
+
+    private void freeDeadLocals(final int statement, @NotNull final Map<String, Integer> lastMentions) {
+        localScopes.get(scope).removeIf(local -> {
+            if (lastMentions.getOrDefault(local.name(), -1) > statement) return false;
+            freeLocal(local);
+            return true;
+        });
+    }
+
+    // once all symbols are known, every function scope can be compiled on its own, so they are compiled in parallel.
+    // the sections are still appended in the order the functions were defined in, so the output does not depend on scheduling
+    private void compileFunctionScopes() {
+        functionStorage.forEach(f -> functionsById.put(f.id(), f));
+        final List<ForkJoinTask<ByteCodeEmitter>> tasks = defineFunctionScopesLater
+                .stream()
+                .map(run -> ForkJoinPool.commonPool().submit(() -> timings.measurePooled(() -> compileFunctionScope(run.getKey(), run.getValue()))))
+                .toList();
+
+        tasks.forEach(task -> functionScopes.add(task.join()));
+    }
+
+    // the scopes of modules that were taken from the module cache have no body anymore, so their cached section is used instead
+    private ByteCodeEmitter compileFunctionScope(@NotNull final String moduleString, @NotNull final QueuedFunctionDefinition definition) {
+        final String module = topLevelModule(moduleString);
+        if (incrementalBuild != null && incrementalBuild.reused(module)) {
+            final Optional<List<ByteCodeInstruction>> cached = incrementalBuild.cachedScope(module, definition.functionId);
+            if (cached.isEmpty()) {
+                panic("Cannot find function " + definition.functionId + " in the cached module '" + module + "'");
+                return new ByteCodeEmitter();
+            }
+            return ByteCodeEmitter.of(cached.get());
+        }
+        final ByteCodeCompiler compiler = new ByteCodeCompiler(this);
+        definition.define(moduleString, definition.functionId, compiler);
+        if (incrementalBuild != null) incrementalBuild.compiledScope(module, definition.functionId, compiler.functionDefinitions.resolve(0));
+        return compiler.functionDefinitions;
+    }
+
+    // '!PARENT.some.module' is part of the top-level module 'some', functions outside of any module belong to ''
+    private static String topLevelModule(@NotNull final String moduleString) {
+        final String[] modules = moduleString.split("\\.");
+        return modules.length > 1 ? modules[1] : "";
+    }
+
     private int prevTraceback = -1;
 
-    private void traceback(final int line, @NotNull final List<ByteCodeInstruction> result) {
-        tree.traceback(line);
-        if (line != -1 && currentModuleName.size() > 1 && relativeAddress != -1) {
+    private void traceback(final int line, @NotNull final ByteCodeEmitter result) {
+        traceback.add(tree.newTracebackElement(line));
+        if (line != -1 && currentModuleName.size() > 1 && compilingFunction()) {
             if (prevTraceback != line) rawInstruction(ByteCode.traceback(line), result);
             prevTraceback = line;
         }
     }
 
-    private void compileInstruction(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileInstruction(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
         traceback(instr.lineDebugging(), result);
         switch (instr.type()) {
             case DEFINE_VARIABLE -> compileVariableDefinition(instr, result);
@@ -155,9 +428,14 @@ public class ByteCodeCompiler {
             case IF_STATEMENT -> compileIfStatement(instr, result);
             case WHILE_STATEMENT -> compileWhileStatement(instr, result);
             case DO_STATEMENT -> compileDoWhileStatement(instr, result);
-            case FOR_FAKE_SCOPE -> compileForStatement(instr, result);
+            case FOR_FAKE_SCOPE -> {
+                if (instr.child(0).type() == NodeType.FOR_RANGE_STATEMENT) compileRangeForStatement(instr, result);
+                else compileForStatement(instr, result);
+            }
+            case MATCH_STATEMENT -> compileMatchStatement(instr, result);
             case BREAK_STATEMENT -> compileBreakStatement(result);
             case CONTINUE_STATEMENT -> compileContinueStatement(result);
+            case STANDARDLIB_MI_FINISH_CODE -> markStdlibEnd();
         }
     }
 
@@ -174,144 +452,225 @@ public class ByteCodeCompiler {
         final String name = instr.child(0).value().token();
         final List<String> members = instr.child(2).children().isEmpty() ? new ArrayList<>() : instr.child(2).child(0).children().stream().map(n -> n.value().token()).toList();
         final ByteCodeEnum enumDef = new ByteCodeEnum(name, enumId, members);
+        final String fullName = currentModuleName() + "." + name;
+        symbol(ByteCodeSymbol.Kind.ENUM, enumId, fullName, enumDeclaration(instr, members), imported(instr));
         enumId++;
+        enumStorage.put(fullName, enumDef);
+        if (imported(instr)) return;
+
         final List<ByteCodeInstruction> bytes = defineEnum(enumDef);
         enumDefinitions.addAll(bytes);
-        label += bytes.size();
-        enumStorage.put(currentModuleName() + "." + name, enumDef);
     }
 
-    private void compileLocalScope(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileLocalScope(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
         initLocalScopeVars();
-        compileParent(instr, result);
-        deleteLocalScopeVars(result);
+        compileScopeBody(instr, result);
+        forgetLocalScopeVars();
     }
 
     private void initLocalScopeVars() {
         scope++;
-        localScopeVariables.add(0);
+        localScopes.add(new ArrayList<>());
     }
 
-    private void deleteAllLocalScopeVars(@NotNull final List<ByteCodeInstruction> result) {
-        final int vars = !localScopeVariables.isEmpty() ? localScopeVariables.get(scope) : 0;
-        if (vars > 0) rawInstruction(ByteCode.pop(vars), result);
+    // leaving a scope only gives its slots back, nothing has to be popped since the whole frame is dropped when the function ends
+    private void forgetLocalScopeVars() {
+        localScopes.remove(scope).forEach(this::freeLocal);
+        scope--;
     }
 
-    private void deleteLocalScopeVars(@NotNull final List<ByteCodeInstruction> result) {
-        final int vars = !localScopeVariables.isEmpty() ? localScopeVariables.get(scope) : 0;
-        if (vars > 0) rawInstruction(ByteCode.pop(vars), result);
+    private int allocateLocal(@NotNull final String name) {
+        return allocateLocals(List.of(name));
+    }
 
-        final List<String> l = Arrays.asList(localVariableStorage.keySet().toArray(new String[0]));
-        if (!l.isEmpty()) l.subList(l.size() - vars, l.size()).forEach(localVariableStorage.keySet()::remove);
+    // the lowest free run of consecutive slots, one for each name
+    private int allocateLocals(@NotNull final List<String> names) {
+        int slot = usedSlots.nextClearBit(0);
+        while (usedSlots.nextSetBit(slot) != -1 && usedSlots.nextSetBit(slot) < slot + names.size()) slot = usedSlots.nextClearBit(usedSlots.nextSetBit(slot));
 
-        localScopeVariables.remove(localScopeVariables.size() - 1);
-        scope--;
+        for (int i = 0; i < names.size(); i++) {
+            final LocalVariable local = new LocalVariable(names.get(i), slot + i);
+            usedSlots.set(local.slot());
+            localScopes.get(scope).add(local);
+            localVariableStorage.put(local.name(), local.slot());
+        }
+        maxLocals = Math.max(maxLocals, slot + names.size());
+        return slot;
+    }
+
+    private void freeLocal(@NotNull final LocalVariable local) {
+        usedSlots.clear(local.slot());
+        localVariableStorage.remove(local.name(), local.slot());
     }
 
-    private void compileIfStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileIfStatement(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
         final Node condition = instr.child(0).child(0);
         final Node ifScope = instr.child(1);
         final boolean hasElse = instr.children().size() > 2;
 
-        compileExpression(condition.child(0), result);
-        rawInstruction(new ByteCodeInstruction(NOT.code()), result); // push the condition and invert it
-        // the plan is to jump to the else scope if the condition was false, otherwise just keep going (execute if scope)
+        // jump to the else scope if the condition was false, otherwise just keep going (execute if scope)
         // then, after the if scope, jump to whenever the else scope ends
+        final ByteLabel elseLabel = result.newLabel();
+        compileExpression(condition.child(0), result);
+        result.jumpIfNot(elseLabel);
+        compileLocalScope(ifScope, result);
+        if (!hasElse) {
+            result.bind(elseLabel);
+            return;
+        }
+        final ByteLabel endLabel = result.newLabel();
+        result.jump(endLabel);
+        result.bind(elseLabel);
+        compileLocalScope(instr.child(2), result);
+        result.bind(endLabel);
+    }
 
-        final int elseJumpIndex = result.size(); // save the index in the result, to add the label later
-        label++;
-        compileLocalScope(ifScope, result); // normally parse the if scope
-        final int afterElseJumpIndex = result.size() + 1; // save the index in the result, to add the other label later
-        final int elseJumpLabel = label + 2; // then get the label of where the else scope starts (+ 2, because 2 jumps have to be added)
-        if (hasElse) { // check if there even is an else scope
-            final Node elseScope = instr.child(2);
-            label++;
-            compileLocalScope(elseScope, result); // parse the else scope like normal here
+    private void compileMatchStatement(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
+        compileExpression(instr.child(0).child(0), result);
+        // the whole dispatch is one switch instruction, which jumps straight to the right case scope (or to the default scope, or after the match).
+        // every case scope but the last then jumps to the end, since there is no fallthrough
+        final SortedMap<Integer, ByteLabel> cases = new TreeMap<>();
+        final List<Node> branches = instr.child(1).children();
+        final List<ByteLabel> branchLabels = branches.stream().map(b -> result.newLabel()).toList();
+        final ByteLabel endLabel = result.newLabel();
+        ByteLabel defaultLabel = endLabel;
+
+        for (int i = 0; i < branches.size(); i++) {
+            final Node branch = branches.get(i);
+            if (branch.type() == NodeType.DEFAULT_STATEMENT) {
+                defaultLabel = branchLabels.get(i);
+                continue;
+            }
+            final List<Node> caseValues = branch.children().subList(0, branch.children().size() - 1);
+            for (final Node caseValue : caseValues) cases.put(matchKey(caseValue.child(0).child(0)), branchLabels.get(i));
         }
-        result.add(elseJumpIndex, jumpIf(elseJumpLabel - (hasElse ? 0 : 1))); // add the jump statements using the saved labels, at their right positions
-        if (hasElse) { // to avoid unnecessary jumping, just check if theres an else at all
-            result.add(afterElseJumpIndex, jump(label + 1));
+        result.switchInstruction(cases, defaultLabel);
+
+        for (int i = 0; i < branches.size(); i++) {
+            final Node branch = branches.get(i);
+            result.bind(branchLabels.get(i));
+            compileLocalScope(branch.child(branch.children().size() - 1), result);
+            if (i != branches.size() - 1) result.jump(endLabel);
         }
+        result.bind(endLabel);
     }
 
-    private void compileTernaryOperator(@NotNull final Node condition, @NotNull final Node ifExpr, @NotNull final Node elseExpr, @NotNull final List<ByteCodeInstruction> result) {
+    // case values were already folded into int literals, char literals or enum members by the refiner
+    private int matchKey(@NotNull final Node key) {
+        final String value = key.type() == NodeType.GET_ENUM_MEMBER ? null : key.value().token();
+        return switch (key.type()) {
+            case GET_ENUM_MEMBER -> {
+                final ByteCodeEnum enumDef = findEnum(key.child(0).value().token());
+                if (enumDef == null) {
+                    panic("Cannot find enum '" + key.child(0).value().token() + "'");
+                    yield 0;
+                }
+                yield enumDef.ordinalMember(key.child(1).value().token());
+            }
+            case CHAR_LITERAL -> value.startsWith("'") ? value.charAt(1) : Integer.parseInt(value);
+            default -> {
+                final Integer literal = Tokenizer.isInt(value);
+                if (literal == null) {
+                    panic("Cannot use '" + value + "' as a case value");
+                    yield 0;
+                }
+                yield literal;
+            }
+        };
+    }
+
+    private void compileTernaryOperator(@NotNull final Node condition, @NotNull final Node ifExpr, @NotNull final Node elseExpr, @NotNull final ByteCodeEmitter result) {
+        final ByteLabel elseLabel = result.newLabel();
+        final ByteLabel endLabel = result.newLabel();
         compileExpression(condition, result);
-        rawInstruction(new ByteCodeInstruction(NOT.code()), result);
-        final int elseJumpIndex = result.size();
-        label++;
+        result.jumpIfNot(elseLabel);
         compileExpression(ifExpr, result);
-        final int afterElseJumpIndex = result.size() + 1; // save the index in the result, to add the other label later
-        final int elseJumpLabel = label + 2;
-        label++;
+        result.jump(endLabel);
+        result.bind(elseLabel);
         compileExpression(elseExpr, result);
-        result.add(elseJumpIndex, jumpIf(elseJumpLabel)); // add the jump statements using the saved labels, at their right positions
-        result.add(afterElseJumpIndex, jump(label + 1));
+        result.bind(endLabel);
+    }
+
+    private void compileShortCircuit(final Node x, final Node y, final boolean and, @NotNull final ByteCodeEmitter result) {
+        // the right side is only evaluated if the left side did not already decide the result:
+        // x && y  ->  x ; JUMP_IF_NOT <push false> ; y ; JUMP <end> ; PUSH false
+        // x || y  ->  x ; JUMP_IF <push true> ; y ; JUMP <end> ; PUSH true
+        final ByteLabel shortCircuitLabel = result.newLabel();
+        final ByteLabel endLabel = result.newLabel();
+        compileExpression(x, result);
+        if (and) result.jumpIfNot(shortCircuitLabel);
+        else result.jumpIf(shortCircuitLabel);
+        compileExpression(y, result);
+        result.jump(endLabel);
+        result.bind(shortCircuitLabel);
+        push(result, boolValue(!and));
+        result.bind(endLabel);
     }
 
-    private void compileBreakStatement(@NotNull final List<ByteCodeInstruction> result) {
+    private void compileBreakStatement(@NotNull final ByteCodeEmitter result) {
         if (loopBounds.isEmpty()) {
             panic("Unexpected 'break' statement outside of loop");
             return;
         }
-        push(result, ByteCode.integer(1).codes());
-        // the way to implement break, is to push a literal "true" value, then jump to the condition check, right to the jump_if of the loop
-        // this way, no crazy code is required and it still works as expected -> it jumps to after the loop end, always
-        final int beforeJumpIf = loopBounds.get(loopBounds.size() - 1).beforeJumpIfLabel() - 1;
-        rawInstruction(ByteCode.jump(beforeJumpIf), result);
+        final ByteLoopBound bound = loopBounds.get(loopBounds.size() - 1);
+        result.jump(bound.breakLabel());
     }
 
-    private void compileContinueStatement(@NotNull final List<ByteCodeInstruction> result) {
+    private void compileContinueStatement(@NotNull final ByteCodeEmitter result) {
         if (loopBounds.isEmpty()) {
             panic("Unexpected 'continue' statement outside of loop");
             return;
         }
         final ByteLoopBound bound = loopBounds.get(loopBounds.size() - 1);
-        final Node forLoopInstr = bound.forloopInstr();
-        // continue works similarly like break, however here we simply execute the for loop instruction (if it is not null) and jump back to the condition check of the loop
-        if (forLoopInstr != null) compileInstruction(forLoopInstr, result);
-        rawInstruction(ByteCode.jump(bound.beginLabel()), result);
+        result.jump(bound.continueLabel());
     }
 
-    private int compileLoopStatement(@NotNull final Node condition, @NotNull final Node scope, final Node forLoopInstr, @NotNull final List<ByteCodeInstruction> result) {
-        final int loopBeginLabel = label + 1;
+    private void compileLoopBody(@NotNull final Node body, @NotNull final ByteLabel continueLabel, @NotNull final ByteLabel breakLabel, @NotNull final ByteCodeEmitter result) {
+        loopBounds.add(new ByteLoopBound(continueLabel, breakLabel));
+        compileLocalScope(body, result);
+        loopBounds.remove(loopBounds.size() - 1);
+    }
+
+    // while and for loops check their condition at the beginning, and jump back to it after the loop scope (and the for instruction, if there is one)
+    private void compileLoopStatement(@NotNull final Node condition, @NotNull final Node scope, final Node forLoopInstr, @NotNull final ByteCodeEmitter result) {
+        final ByteLabel conditionLabel = result.bindNew();
+        final ByteLabel continueLabel = forLoopInstr == null ? conditionLabel : result.newLabel();
+        final ByteLabel endLabel = result.newLabel();
 
         compileExpression(condition.child(0), result);
-        rawInstruction(new ByteCodeInstruction(NOT.code()), result); // while loops will work similarly like if statements
-        // the plan is to jump out of the loop once the condition is false (once the inverted condition is true)
-        // but if the condition is false, there will be an unconditional jump back to the condition check (after the entire loop "scope")
-        final int afterLoopJumpIndex = result.size(); // save the current index for later, so we can add back the jump statement with the label (which we do not have yet)
-        label++;
-        final int labelBeforeJumpIf = label + 1;
-
-        loopBounds.add(new ByteLoopBound(loopBeginLabel, labelBeforeJumpIf, forLoopInstr));
-        compileLocalScope(scope, result);
-        loopBounds.remove(loopBounds.size() - 1);
+        result.jumpIfNot(endLabel);
+        compileLoopBody(scope, continueLabel, endLabel, result);
 
-        if (forLoopInstr != null) compileInstruction(forLoopInstr, result); // for loops -- one difference between them and while loops is obviously the instruction executed at every iteration
-        rawInstruction(ByteCode.jump(loopBeginLabel), result); // the unconditional jump mentioned earlier (this goes back to the condition check)
-        result.add(afterLoopJumpIndex, ByteCode.jumpIf(label + 1)); // add the condition jump, which exits the loop once the condition is false
-        return labelBeforeJumpIf; // this is only useful for do {} while cond;
+        if (forLoopInstr != null) {
+            result.bind(continueLabel);
+            compileInstruction(forLoopInstr, result);
+        }
+        result.jump(conditionLabel);
+        result.bind(endLabel);
     }
 
-    private void compileWhileStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileWhileStatement(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
         final Node condition = instr.child(0).child(0);
         final Node scope = instr.child(1);
         compileLoopStatement(condition, scope, null, result);
     }
 
-    private void compileDoWhileStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileDoWhileStatement(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
         final Node condition = instr.child(1).child(0);
         final Node scope = instr.child(0);
-        final int beforeLoopJumpIndex = result.size();
-        // the plan for bytecode generation in do while is simple:
-        // simply compile a while loop as usual BUT add a jump, that completely ignores the condition checking the first time.
-        // this way, the loop scope will always be executed atleast once. after that, it jumps to the condition checking and loops like a normal while loop would
-        label++;
-        final int loopLabel = compileLoopStatement(condition, scope, null, result);
-        result.add(beforeLoopJumpIndex, ByteCode.jump(loopLabel + 1));
+        // the condition is only checked after the loop scope, so the scope is always executed atleast once
+        final ByteLabel bodyLabel = result.bindNew();
+        final ByteLabel continueLabel = result.newLabel();
+        final ByteLabel endLabel = result.newLabel();
+
+        compileLoopBody(scope, continueLabel, endLabel, result);
+        result.bind(continueLabel);
+        compileExpression(condition.child(0), result);
+        result.jumpIf(bodyLabel);
+        result.bind(endLabel);
     }
 
-    private void compileForStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileForStatement(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
         initLocalScopeVars(); // the entire for statement is inside of a hidden scope, so that the temporary variable (for example 'i') gets deleted afterwards to be reused
 
         final Node vardef = instr.child(0).child(0);
@@ -322,24 +681,60 @@ public class ByteCodeCompiler {
         final Node scope = instr.child(1);
         compileLoopStatement(condition, scope, forLoopInstr, result);
 
-        deleteLocalScopeVars(result);
+        forgetLocalScopeVars();
     }
 
-    private void compileReturnStatement(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
-        if (instr.children().isEmpty()) {
-            rawInstruction(new ByteCodeInstruction(RETURN_STATEMENT.code()), result);
+    private void compileRangeForStatement(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
+        initLocalScopeVars();
+        final Node statement = instr.child(0);
+        final Node vardef = statement.child(0);
+
+        // the counter, the bound and the step live in three consecutive slots, so the loop instructions only need the address of the counter.
+        // the names are only added once all three values are compiled, since the bound and step may not see the new index variable
+        compileExpression(vardef.child(3).child(0), result);
+        compileExpression(statement.child(1).child(0), result);
+        compileExpression(statement.child(2).child(0), result);
+        final int counterAddress = allocateLocals(List.of(vardef.child(1).value().token(), " bound " + scope, " step " + scope)); // not valid identifiers, so user code can never refer to these
+        rawInstruction(defineLocal(counterAddress + 2), result);
+        rawInstruction(defineLocal(counterAddress + 1), result);
+        rawInstruction(defineLocal(counterAddress), result);
+
+        final ByteLabel nextLabel = result.newLabel();
+        final ByteLabel endLabel = result.newLabel();
+        result.rangeLoopEnter(counterAddress, endLabel); // skips the loop if the range is empty
+        final ByteLabel bodyLabel = result.bindNew();
+        compileLoopBody(instr.child(1), nextLabel, endLabel, result);
+
+        result.bind(nextLabel);
+        result.rangeLoopNext(counterAddress, bodyLabel);
+        result.bind(endLabel);
+
+        forgetLocalScopeVars();
+    }
+
+    private void compileReturnStatement(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
+        if (!instr.children().isEmpty()) compileExpression(instr.child(0).child(0), result);
+        if (!inlinedCalls.isEmpty()) {
+            compileInlinedReturn(instr, result);
             return;
         }
-        compileExpression(instr.child(0).child(0), result);
-        deleteAllLocalScopeVars(result);
         rawInstruction(new ByteCodeInstruction(RETURN_STATEMENT.code()), result);
     }
 
-    private void singleInstruction(@NotNull final ByteCode byteCode, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileInlinedReturn(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
+        // returning from an inlined function means jumping behind its body,
+        // the return value simply stays on the push stack just like after a normal call
+        final ByteInlinedCall call = inlinedCalls.get(inlinedCalls.size() - 1);
+        if (instr == call.lastStatement()) return; // nothing to jump over, the body ends right here
+
+        result.jump(call.endLabel());
+    }
+
+    private void singleInstruction(@NotNull final ByteCode byteCode, @NotNull final ByteCodeEmitter result) {
         rawInstruction(new ByteCodeInstruction(byteCode.code()), result);
     }
 
-    private void compileVariableMutation(@NotNull final Node instr, final boolean pushMutated, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileVariableMutation(@NotNull final Node instr, final boolean pushMutated, @NotNull final ByteCodeEmitter result) {
         final String identifier = instr.child(0).value().token();
         final String operator = instr.child(1).value().token();
         final Node value = instr.children().size() > 2 ? instr.child(2) : null;
@@ -362,13 +757,12 @@ public class ByteCodeCompiler {
             case RSHIFT -> singleInstruction(BITSHIFT_RIGHT, result);
         }
         if (identifier.startsWith("!PARENT.")) {
-            final int absoluteAddress = globalVariableStorage.get(identifier);
-            push(result, ByteCode.integer(absoluteAddress));
-        } else {
-            final int relativeAddress = localVariableStorage.get(identifier);
-            push(result, ByteCode.integer(relativeAddress));
-            rawInstruction(new ByteCodeInstruction(RELATIVE_TO_ABSOLUTE_ADDRESS.code()), result);
+            compileGlobalMutation(globalVariableStorage.get(identifier), operator, value == null, pushMutated, result);
+            return;
         }
+        final int relativeAddress = localVariableStorage.get(identifier);
+        push(result, ByteCode.integer(relativeAddress));
+        rawInstruction(new ByteCodeInstruction(RELATIVE_TO_ABSOLUTE_ADDRESS.code()), result);
         if (value == null) {
             final ByteCode incOrDec = operator.equals("++") ? (pushMutated ? INC_VARIABLE_AND_PUSH : INC_VARIABLE) : (pushMutated ? DEC_VARIABLE_AND_PUSH : DEC_VARIABLE);
             rawInstruction(new ByteCodeInstruction(incOrDec.code()), result);
@@ -377,16 +771,94 @@ public class ByteCodeCompiler {
         rawInstruction(new ByteCodeInstruction((pushMutated ? MUTATE_VARIABLE_AND_PUSH : MUTATE_VARIABLE).code()), result);
     }
 
-    private void compileFunctionCall(@NotNull final Node instr, @NotNull final List<ByteCodeInstruction> result) {
+    // the new value is already on the push stack, unless this is an increment or decrement
+    private void compileGlobalMutation(final int address, @NotNull final String operator, final boolean incOrDec, final boolean pushMutated, @NotNull final ByteCodeEmitter result) {
+        if (incOrDec) {
+            rawInstruction(loadGlobal(address), result);
+            push(result, ByteCode.integer(operator.equals("++") ? 1 : -1));
+            singleInstruction(PLUS, result);
+        }
+        rawInstruction(storeGlobal(address), result);
+        if (pushMutated) rawInstruction(loadGlobal(address), result);
+    }
+
+    private void compileFunctionCall(@NotNull final Node instr, @NotNull final ByteCodeEmitter result) {
         compileFunctionCall(instr.child(0).value().token(), instr.child(1).children(), result);
     }
 
-    private void compileFunctionCall(@NotNull final String identifier, @NotNull final List<Node> inputArgs, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileFunctionCall(@NotNull final String identifier, @NotNull final List<Node> inputArgs, @NotNull final ByteCodeEmitter result) {
         final long id = findFunctionId(identifier, inputArgs);
         inputArgs.stream().toList().forEach(n -> compileExpression(n.child(0).child(0), result));
+
+        final Optional<ByteInlineFunction> inlineFunction = inlineFunction(identifier, id);
+        if (inlineFunction.isPresent()) {
+            compileInlinedCall(id, inlineFunction.get(), result);
+            return;
+        }
         rawInstruction(ByteCode.call(id), result);
     }
 
+    private Optional<ByteInlineFunction> inlineFunction(@NotNull final String identifier, final long id) {
+        // there is no stack frame to put the locals of an inlined function in when initializing global variables
+        if (!compilingFunction() || functionsBeingCompiled.contains(id)) return Optional.empty();
+
+        final ByteInlineFunction function = inlineFunctions.get(id);
+        if (function == null) return Optional.empty();
+
+        // a cached module must not contain code of any other user module, otherwise changing that module would not invalidate it
+        if (incrementalBuild != null && !function.stdlib() && !function.module().equals(compilingModule)) return Optional.empty();
+
+        final boolean recursive = recursiveFunctions.computeIfAbsent(id, i -> callsFunction(function.scope(), i));
+        if (recursive) {
+            if (function.forced()) panic("Cannot inline recursive function '" + identifier + "'");
+            return Optional.empty();
+        }
+        return function.forced() || nodeCount(function.scope()) <= maxInlineNodes(id) ? Optional.of(function) : Optional.empty();
+    }
+
+    private int maxInlineNodes(final long id) {
+        final ByteCodeFunctionDefinition definition = functionsById.get(id);
+        if (profile == null || definition == null) return maxInlineNodes;
+        return profile.hot(definition.name() + definition.args()) ? maxInlineNodes * HOT_INLINE_FACTOR : maxInlineNodes;
+    }
+
+    private boolean callsFunction(@NotNull final Node node, final long id) {
+        if (node.type() == NodeType.FUNCTION_CALL && findFunctionId(node.child(0).value().token(), node.child(1).children()) == id) return true;
+        return node.children().stream().anyMatch(n -> callsFunction(n, id));
+    }
+
+    private static int nodeCount(@NotNull final Node node) {
+        return 1 + node.children().stream().mapToInt(ByteCodeCompiler::nodeCount).sum();
+    }
+
+    private void compileInlinedCall(final long id, @NotNull final ByteInlineFunction function, @NotNull final ByteCodeEmitter result) {
+        // the arguments are already pushed, so define them as locals of a new scope in the current stack frame,
+        // the same way a function defines its parameters. the callers locals are hidden, so that they cannot clash with the ones of the callee
+        final Map<String, Integer> callerVariables = new LinkedHashMap<>(localVariableStorage);
+        localVariableStorage.clear();
+        initLocalScopeVars();
+
+        final List<String> storageArgs = new ArrayList<>(function.args().keySet().stream().toList());
+        Collections.reverse(storageArgs);
+        storageArgs.forEach(a -> rawInstruction(defineLocal(allocateLocal(a)), result));
+
+        final List<Node> body = function.scope().children();
+        final Node lastStatement = body.isEmpty() ? null : body.get(body.size() - 1);
+        final ByteInlinedCall call = new ByteInlinedCall(lastStatement, result.newLabel());
+
+        functionsBeingCompiled.add(id);
+        inlinedCalls.add(call);
+        compileScopeBody(function.scope(), result);
+        inlinedCalls.remove(inlinedCalls.size() - 1);
+        functionsBeingCompiled.remove(functionsBeingCompiled.size() - 1);
+        forgetLocalScopeVars();
+
+        localVariableStorage.clear();
+        localVariableStorage.putAll(callerVariables);
+
+        result.bind(call.endLabel());
+    }
+
     private long findFunctionId(@NotNull final String fullName, @NotNull final List<Node> inputArgs) {
         final List<ByteDatatype> args = inputArgs
                 .stream()
@@ -444,28 +916,41 @@ public class ByteCodeCompiler {
         final String name = instr.child(0).value().token();
         final String returnType = instr.child(1).value().token();
         final Map<String, ByteDatatype> args = functionDefinitionParams(instr);
+        symbol(ByteCodeSymbol.Kind.FUNCTION, functionId, currentModuleName() + "." + name + args.values(), functionDeclaration(instr), imported(instr));
+
+        if (imported(instr)) {
+            functionStorage.add(new ByteCodeFunctionDefinition(currentModuleName() + "." + name, ByteDatatype.of(returnType, findEnumId(returnType)), args.values(), functionId));
+            functionId++;
+            return;
+        }
+        if (javaMethod == null && scope != null) {
+            final boolean forceInline = instr.child(2).children().stream().anyMatch(n -> n.type() == NodeType.LITERAL_INLINE);
+            final boolean stdlib = scope.value().actualLine() <= tree.getStdlibFinishLine();
+            inlineFunctions.put(functionId, new ByteInlineFunction(args, scope, forceInline, topLevelModule(currentModuleName()), stdlib));
+        }
 
         defineFunction(name, returnType, args, javaMethod, scope);
     }
 
+    // imported globals only get their address, the defining object initializes them
+    private boolean importGlobal(@NotNull final Node var) {
+        if (compilingFunction()) return false;
+        final boolean imported = imported(var);
+        symbol(ByteCodeSymbol.Kind.GLOBAL, absoluteAddress, var.child(1).value().token(), variableDeclaration(var), imported);
+        if (imported) variableDeclarationCommon(var);
+        return imported;
+    }
+
     private ByteDatatype variableDeclarationCommon(@NotNull final Node var) {
-        final Token name = var.child(1).value();
         final String typeStr = var.child(2).value().token();
-        final ByteDatatype type = ByteDatatype.of(typeStr, findEnumId(typeStr));
-
-        if (compilingFunction()) {
-            addLocalVariableToStorage(name.token());
-        } else {
-            globalVariableStorage.put(name.token(), absoluteAddress);
-        }
+        globalVariableStorage.put(var.child(1).value().token(), absoluteAddress);
         absoluteAddress++;
-        return type;
+        return ByteDatatype.of(typeStr, findEnumId(typeStr));
     }
 
-    private void addLocalVariableToStorage(@NotNull final String name) {
-        localVariableStorage.put(name, relativeAddress);
-        localScopeVariables.set(scope, localScopeVariables.get(scope) + 1);
-        relativeAddress++;
+    private ByteDatatype localType(@NotNull final Node var) {
+        final String typeStr = var.child(2).value().token();
+        return ByteDatatype.of(typeStr, findEnumId(typeStr));
     }
 
     private void defineFunction(@NotNull final String name, @NotNull final String returnType, @NotNull final Map<String, ByteDatatype> args, final String javaMethod, final Node scope) {
@@ -474,35 +959,7 @@ public class ByteCodeCompiler {
             defineFunctionScopesLater.add(Map.entry(currentModuleName(), new QueuedFunctionDefinition(functionId) {
                 @Override
                 public void define(@NotNull String moduleString, final long functionId, @NotNull ByteCodeCompiler compiler) {
-                    compiler.scope = 0;
-                    localScopeVariables.add(0);
-                    relativeAddress = 0;
-
-                    final List<String> storageArgs = new ArrayList<>(args.keySet().stream().toList());
-                    Collections.reverse(storageArgs);
-                    storageArgs.forEach(compiler::addLocalVariableToStorage);
-
-                    final ByteCodeInstruction internFunc = function(moduleString + "." + name + args.values(), functionId);
-                    functionDefinitions.add(internFunc);
-
-                    final List<ByteDatatype> defineArgs = new ArrayList<>(args.values().stream().toList());
-                    Collections.reverse(defineArgs);
-                    defineArgs.forEach(d -> rawInstruction(ByteCode.defineVariable(d), functionDefinitions));
-
-                    relativeAddress = defineArgs.size();
-
-                    label++;
-                    if (scope == null) {
-                        panic("The function scope of '" + name + "' is null");
-                        return;
-                    }
-                    compileParent(scope, functionDefinitions);
-                    final int vars = !localScopeVariables.isEmpty() ? localScopeVariables.get(compiler.scope) : 0;
-                    if (vars > 0) rawInstruction(ByteCode.pop(vars), functionDefinitions);
-                    localVariableStorage.clear();
-                    localScopeVariables.clear();
-                    relativeAddress = -1;
-                    rawInstruction(new ByteCodeInstruction(FUNCTION_DEFINITION_END.code()), functionDefinitions);
+                    compiler.compileFunctionScope(moduleString, functionId, name, args, scope);
                 }
             }));
 
@@ -510,27 +967,70 @@ public class ByteCodeCompiler {
             return;
         }
         functionDefinitions.add(nativeFunction(javaMethod, functionId));
-        label++;
         functionId++;
     }
 
-    private void compileVariableDeclaration(@NotNull final Node definition, @NotNull final List<ByteCodeInstruction> result) {
-        final ByteDatatype type = variableDeclarationCommon(definition);
-        rawInstruction(declareVariable(type), !compilingFunction() ? globalVariables : result);
+    private void compileFunctionScope(@NotNull final String moduleString, final long functionId, @NotNull final String name, @NotNull final Map<String, ByteDatatype> args, final Node scope) {
+        compilingModule = topLevelModule(moduleString);
+        initLocalScopeVars();
+        functionsBeingCompiled.add(functionId);
+
+        final ByteCodeInstruction internFunc = function(moduleString + "." + name + args.values(), functionId);
+        functionDefinitions.add(internFunc);
+        final int frame = functionDefinitions.size();
+        functionDefinitions.add(localFrame(0, 0)); // the frame size is only known once the body is compiled
+
+        final List<String> storageArgs = new ArrayList<>(args.keySet().stream().toList());
+        Collections.reverse(storageArgs);
+        storageArgs.forEach(a -> rawInstruction(defineLocal(allocateLocal(a)), functionDefinitions));
+
+        if (scope == null) {
+            panic("The function scope of '" + name + "' is null");
+            return;
+        }
+        compileScopeBody(scope, functionDefinitions);
+        forgetLocalScopeVars();
+        functionsBeingCompiled.clear();
+        rawInstruction(new ByteCodeInstruction(FUNCTION_DEFINITION_END.code()), functionDefinitions);
+
+        final List<ByteCodeInstruction> function = functionDefinitions.resolve(0);
+        final int maxStack = StackDepth.max(new ControlFlowGraph(function, 0, function.size() - 1), args.size(), this::callEffect);
+        functionDefinitions.patch(frame, localFrame(maxLocals, maxStack));
+        maxLocals = 0;
+    }
+
+    private int callEffect(final long id) {
+        final ByteCodeFunctionDefinition function = functionsById.get(id);
+        if (function == null) return 0;
+        return (function.returnType() == ByteDatatype.VOID ? 0 : 1) - function.args().size();
+    }
+
+    private void compileVariableDeclaration(@NotNull final Node definition, @NotNull final ByteCodeEmitter result) {
+        if (compilingFunction()) {
+            final ByteDatatype type = localType(definition);
+            rawInstruction(declareLocal(allocateLocal(definition.child(1).value().token()), type), result);
+            return;
+        }
+        if (importGlobal(definition)) return;
+        rawInstruction(declareVariable(variableDeclarationCommon(definition)), globalVariables);
     }
 
-    private void compileVariableDefinition(@NotNull final Node definition, @NotNull final List<ByteCodeInstruction> result) {
-        compileExpression(definition.child(3).child(0), !compilingFunction() ? globalVariables : result);
-        final ByteDatatype type = variableDeclarationCommon(definition);
-        rawInstruction(defineVariable(type), !compilingFunction() ? globalVariables : result);
+    private void compileVariableDefinition(@NotNull final Node definition, @NotNull final ByteCodeEmitter result) {
+        if (compilingFunction()) {
+            compileExpression(definition.child(3).child(0), result);
+            rawInstruction(defineLocal(allocateLocal(definition.child(1).value().token())), result);
+            return;
+        }
+        if (importGlobal(definition)) return;
+        compileExpression(definition.child(3).child(0), globalVariables);
+        rawInstruction(defineVariable(variableDeclarationCommon(definition)), globalVariables);
     }
 
-    private void rawInstruction(@NotNull final ByteCodeInstruction instr, @NotNull final List<ByteCodeInstruction> result) {
+    private void rawInstruction(@NotNull final ByteCodeInstruction instr, @NotNull final ByteCodeEmitter result) {
         result.add(instr);
-        label++;
     }
 
-    private void compileExpression(final Node node, @NotNull final List<ByteCodeInstruction> result) {
+    private void compileExpression(final Node node, @NotNull final ByteCodeEmitter result) {
         if (node == null) return;
         traceback(node.lineDebugging(), result);
         if (node.children().size() == 1 && node.type() == NodeType.VALUE && node.child(0).type().getAsDataType() != null) {
@@ -543,15 +1043,15 @@ public class ByteCodeCompiler {
         operator(node.type(), node.children(), node.value(), result);
     }
 
-    private void push(@NotNull final List<ByteCodeInstruction> result, @NotNull final Byte... bytes) {
+    private void push(@NotNull final ByteCodeEmitter result, final byte @NotNull ... bytes) {
         rawInstruction(ByteCode.push(bytes), result);
     }
 
-    private void push(@NotNull final List<ByteCodeInstruction> result, @NotNull final ByteCodeInstruction instr) {
-        push(result, instr.codes());
+    private void push(@NotNull final ByteCodeEmitter result, @NotNull final ByteCodeInstruction instr) {
+        rawInstruction(ByteCode.push(instr), result);
     }
 
-    private void ofLiteral(@NotNull final Node node, @NotNull final List<ByteCodeInstruction> result) {
+    private void ofLiteral(@NotNull final Node node, @NotNull final ByteCodeEmitter result) {
         final String value = node.value().token();
         final String type = node.type().getAsDataType().name();
         switch (ByteDatatype.of(type, findEnumId(type)).name()) {
@@ -567,7 +1067,7 @@ public class ByteCodeCompiler {
         }
     }
 
-    private void operator(@NotNull final NodeType op, @NotNull final List<Node> values, final Token nodeVal, @NotNull final List<ByteCodeInstruction> result) {
+    private void operator(@NotNull final NodeType op, @NotNull final List<Node> values, final Token nodeVal, @NotNull final ByteCodeEmitter result) {
         final Node x = values.size() > 0 ? values.get(0) : null;
         final Node y = values.size() > 1 ? values.get(1) : null;
 
@@ -577,8 +1077,8 @@ public class ByteCodeCompiler {
             case ADD -> operator(x, y, PLUS, result);
             case SUBTRACT -> operator(x, y, MINUS, result);
             case MODULUS -> operator(x, y, MODULO, result);
-            case LOGICAL_AND -> operator(x, y, LOGICAL_AND, result);
-            case LOGICAL_OR -> operator(x, y, LOGICAL_OR, result);
+            case LOGICAL_AND -> compileShortCircuit(x, y, true, result);
+            case LOGICAL_OR -> compileShortCircuit(x, y, false, result);
             case XOR ->  operator(x, y, BIT_XOR, result);
             case BIT_AND -> operator(x, y, BIT_AND, result);
             case BIT_OR -> operator(x, y, BIT_OR, result);
@@ -621,9 +1121,7 @@ public class ByteCodeCompiler {
             case IDENTIFIER -> {
                 final String identifier = nodeVal.token();
                 if (identifier.startsWith("!PARENT.")) {
-                    final int absoluteAddress = globalVariableStorage.get(identifier);
-                    push(result, ByteCode.integer(absoluteAddress));
-                    rawInstruction(new ByteCodeInstruction(VALUE_AT_ADDRESS.code()), result);
+                    rawInstruction(loadGlobal(globalVariableStorage.get(identifier)), result);
                     return;
                 }
                 final int relativeAddress = localVariableStorage.get(identifier);
@@ -645,14 +1143,14 @@ public class ByteCodeCompiler {
         }
     }
 
-    private void operator(final Node v1, final Node v2, final ByteCode op, @NotNull final List<ByteCodeInstruction> result) {
+    private void operator(final Node v1, final Node v2, final ByteCode op, @NotNull final ByteCodeEmitter result) {
         compileExpression(v1, result);
         compileExpression(v2, result);
         rawInstruction(new ByteCodeInstruction(op.code()), result);
     }
 
     public String toString() {
-        return String.join("\n", result.stream().map(ByteCodeInstruction::toString).toList());
+        return String.join("\n", result.instructions().stream().map(ByteCodeInstruction::toString).toList());
     }
 
 }
@@ -0,0 +1,129 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteCodeSwitch;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class ByteCodeEmitter {
+
+    private final List<ByteCodeInstruction> instructions = new ArrayList<>();
+    private final List<Integer> labelPositions = new ArrayList<>();
+    private final List<Integer> branches = new ArrayList<>();
+
+    // instructions are only ever appended. branches point to symbolic labels, which get bound to a position whenever the compiler reaches them,
+    // and are resolved to real labels in a single pass once the position of this section in the whole program is known
+    public void add(@NotNull final ByteCodeInstruction instr) {
+        instructions.add(instr);
+    }
+
+    public void addAll(@NotNull final List<ByteCodeInstruction> instrs) {
+        instructions.addAll(instrs);
+    }
+
+    // fills in an instruction that had to be added before its operands were known, like the frame size at the beginning of a function.
+    // branches cannot be patched, since their labels were already recorded
+    public void patch(final int index, @NotNull final ByteCodeInstruction instr) {
+        if (ByteCodeLabels.isBranch(instructions.get(index)) || ByteCodeLabels.isBranch(instr)) throw new ByteCodeException("Cannot patch branch instruction at " + index);
+        instructions.set(index, instr);
+    }
+
+    public int size() {
+        return instructions.size();
+    }
+
+    public boolean isEmpty() {
+        return instructions.isEmpty();
+    }
+
+    public ByteLabel newLabel() {
+        labelPositions.add(-1);
+        return new ByteLabel(labelPositions.size() - 1);
+    }
+
+    // binds the label to whatever instruction is added next
+    public void bind(@NotNull final ByteLabel label) {
+        if (labelPositions.get(label.id()) != -1) throw new ByteCodeException("Label " + label.id() + " is already bound");
+        labelPositions.set(label.id(), instructions.size());
+    }
+
+    public ByteLabel bindNew() {
+        final ByteLabel label = newLabel();
+        bind(label);
+        return label;
+    }
+
+    public void jump(@NotNull final ByteLabel label) {
+        branch(ByteCode.jump(label.symbol()));
+    }
+
+    public void jumpIf(@NotNull final ByteLabel label) {
+        branch(ByteCode.jumpIf(label.symbol()));
+    }
+
+    public void jumpIfNot(@NotNull final ByteLabel label) {
+        branch(ByteCode.jumpIfNot(label.symbol()));
+    }
+
+    public void switchInstruction(@NotNull final SortedMap<Integer, ByteLabel> cases, @NotNull final ByteLabel defaultLabel) {
+        final SortedMap<Integer, Integer> symbols = new TreeMap<>();
+        cases.forEach((key, label) -> symbols.put(key, label.symbol()));
+        branch(ByteCode.switchInstruction(ByteCodeSwitch.of(symbols, defaultLabel.symbol())));
+    }
+
+    public void rangeLoopEnter(final int counterAddress, @NotNull final ByteLabel label) {
+        branch(ByteCode.rangeLoopEnter(counterAddress, label.symbol()));
+    }
+
+    public void rangeLoopNext(final int counterAddress, @NotNull final ByteLabel label) {
+        branch(ByteCode.rangeLoopNext(counterAddress, label.symbol()));
+    }
+
+    private void branch(@NotNull final ByteCodeInstruction instr) {
+        branches.add(instructions.size());
+        instructions.add(instr);
+    }
+
+    // a section that was already resolved as if it started at the beginning of the program, for example one loaded from a cache.
+    // every target index simply becomes a label bound to that same index, so that appending it relocates it like any other section
+    public static ByteCodeEmitter of(@NotNull final List<ByteCodeInstruction> resolved) {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        for (int i = 0; i <= resolved.size(); i++) emitter.labelPositions.add(i);
+        for (final ByteCodeInstruction instr : resolved) {
+            if (ByteCodeLabels.isBranch(instr)) emitter.branches.add(emitter.instructions.size());
+            emitter.instructions.add(instr);
+        }
+        return emitter;
+    }
+
+    // appends this section to the program, resolving every symbolic label relative to where the section begins
+    public void appendTo(@NotNull final List<ByteCodeInstruction> program) {
+        program.addAll(resolve(program.size()));
+    }
+
+    public List<ByteCodeInstruction> resolve(final int offset) {
+        final List<ByteCodeInstruction> resolved = new ArrayList<>(instructions);
+        for (final int index : branches) {
+            resolved.set(index, ByteCodeLabels.relocate(instructions.get(index), id -> offset + position(id)));
+        }
+        return resolved;
+    }
+
+    private int position(final int id) {
+        final int position = id < 0 || id >= labelPositions.size() ? -1 : labelPositions.get(id);
+        if (position == -1) throw new ByteCodeException("Label " + id + " was never bound");
+        return position;
+    }
+
+    public List<ByteCodeInstruction> instructions() {
+        return instructions;
+    }
+
+}
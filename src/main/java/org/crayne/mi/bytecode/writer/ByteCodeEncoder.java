@@ -0,0 +1,288 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.*;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// encodes a program into a version 2 .mib file, or a version 3 one when compressing, see ByteCodeFileFormat.
+// the program is gone through twice: once to lay out the code, which fills the constant pool and the function table,
+// and once more to write the code straight through the writer. only the constant pool and the function table are kept in memory,
+// and when compressing the function that is being deflated
+public class ByteCodeEncoder {
+
+    private record OpenFunction(long id, @NotNull String signature, int index, int table, int codeOffset, @NotNull SortedMap<Integer, Integer> lines) {}
+
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private final List<ByteCodeInstruction> program;
+    private final ByteCodeCompression compression;
+    private final boolean compressed;
+    private final ByteCodeConstantPool constants = new ByteCodeConstantPool();
+    private final List<ByteCodeFunctionEntry> functions = new ArrayList<>();
+    // the code that is not written yet, which comes after the first flushed bytes of the code
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private int flushed;
+    // how many bytes the code takes up in the file so far
+    private int stored;
+    // the number of functions defined so far, which is the index of the next one in the function table
+    private int definitions;
+    private OpenFunction function;
+    // null while the code is only laid out
+    private ByteCodeFileWriter out;
+
+    public ByteCodeEncoder(@NotNull final List<ByteCodeInstruction> program) {
+        this(program, ByteCodeCompression.DEFAULT);
+    }
+
+    // anything but ByteCodeCompression.NONE makes a version 3 file
+    public ByteCodeEncoder(@NotNull final List<ByteCodeInstruction> program, @NotNull final ByteCodeCompression compression) {
+        this.program = program;
+        this.compression = compression;
+        this.compressed = compression != ByteCodeCompression.NONE;
+    }
+
+    // writes the whole file from the current position of the writer. the header is reserved first and filled in once every section is written
+    public void encode(@NotNull final ByteCodeFileWriter writer) throws IOException {
+        pass(null);
+
+        // the function table adds the names of the functions to the constant pool, so it is laid out first
+        final ByteArrayOutputStream functionSection = new ByteArrayOutputStream();
+        writeFunctions(functionSection);
+        final ByteArrayOutputStream constantSection = new ByteArrayOutputStream();
+        constants.write(constantSection);
+
+        final byte version = compressed ? ByteCodeFileFormat.COMPRESSED_VERSION : ByteCodeFileFormat.VERSION;
+        final int sections = ByteCodeFileFormat.Section.values().length;
+        final ByteBuffer header = ByteBuffer.allocate(ByteCodeFileFormat.headerSize(version, sections));
+        ByteCodeFileFormat.writeMagic(header, version);
+        header.put((byte) sections);
+
+        final long begin = writer.position();
+        writer.write(new byte[header.capacity()]);
+        writeSection(writer, header, ByteCodeFileFormat.Section.CONSTANTS, constantSection.toByteArray(), begin);
+        if (!compressed) {
+            writeSection(writer, header, ByteCodeFileFormat.Section.FUNCTIONS, functionSection.toByteArray(), begin);
+            writeCode(writer, header, begin);
+        } else {
+            // the stored offsets of the functions are only known once they are deflated, so the function table comes last
+            writeCode(writer, header, begin);
+            functionSection.reset();
+            writeFunctions(functionSection);
+            writeSection(writer, header, ByteCodeFileFormat.Section.FUNCTIONS, functionSection.toByteArray(), begin);
+        }
+        writer.write(header.array(), begin);
+    }
+
+    // sections that do not get any smaller when deflated, like tiny constant pools, are stored as they are
+    private void writeSection(@NotNull final ByteCodeFileWriter writer, @NotNull final ByteBuffer header, @NotNull final ByteCodeFileFormat.Section section,
+                              final byte @NotNull [] contents, final long begin) throws IOException {
+        final byte[] deflated = compressed ? compression.deflate(contents) : contents;
+        final byte[] stored = deflated.length < contents.length ? deflated : contents;
+        sectionEntry(header, section, stored == contents ? ByteCodeFileFormat.STORED : ByteCodeFileFormat.DEFLATED, writer.position() - begin, stored.length, contents.length);
+        writer.write(stored);
+    }
+
+    private void writeCode(@NotNull final ByteCodeFileWriter writer, @NotNull final ByteBuffer header, final long begin) throws IOException {
+        final long offset = writer.position() - begin;
+        pass(writer);
+        sectionEntry(header, ByteCodeFileFormat.Section.CODE, compressed ? ByteCodeFileFormat.CHUNKED : ByteCodeFileFormat.STORED, offset, stored, flushed);
+    }
+
+    private void sectionEntry(@NotNull final ByteBuffer header, @NotNull final ByteCodeFileFormat.Section section, final byte storage,
+                              final long offset, final int length, final int inflatedLength) {
+        header.put(section.id());
+        if (compressed) header.put(storage);
+        header.putInt(Math.toIntExact(offset));
+        header.putInt(length);
+        if (compressed) header.putInt(inflatedLength);
+    }
+
+    // encodes every instruction, writing the code to the given writer, or only laying it out when there is none
+    private void pass(final ByteCodeFileWriter writer) throws IOException {
+        out = writer;
+        code.reset();
+        flushed = 0;
+        stored = 0;
+        definitions = 0;
+        for (int i = 0; i < program.size(); i++) {
+            encode(program.get(i), i);
+            if (out == null) {
+                flushed += code.size();
+                code.reset();
+            } else if (!compressed && code.size() >= FLUSH_SIZE) flush();
+        }
+        if (function != null) throw new ByteCodeException("Function '" + function.signature() + "' is never ended");
+        if (out != null) flush();
+        out = null;
+    }
+
+    private int codeSize() {
+        return flushed + code.size();
+    }
+
+    // writes the code that was encoded since the last flush. when compressing, that is a single chunk, which is
+    // either a whole function or all of the code in between two functions. chunks that do not get any smaller
+    // are stored as they are, which the reader knows by their stored length being the same
+    private void flush() throws IOException {
+        if (code.size() == 0) return;
+        final byte[] chunk = code.toByteArray();
+        final byte[] deflated = compressed ? compression.deflate(chunk) : chunk;
+        final byte[] written = deflated.length < chunk.length ? deflated : chunk;
+        out.write(written);
+        flushed += chunk.length;
+        stored += written.length;
+        code.reset();
+    }
+
+    private void writeFunctions(@NotNull final ByteArrayOutputStream out) {
+        ByteCodeFileFormat.writeVarInt(out, functions.size());
+        for (final ByteCodeFunctionEntry entry : functions) {
+            ByteCodeFileFormat.writeVarLong(out, entry.id());
+            out.write(entry.nativeFunction() ? 1 : 0);
+            ByteCodeFileFormat.writeVarInt(out, constants.string(entry.name()));
+            writeParameters(out, entry.parameters());
+            ByteCodeFileFormat.writeVarInt(out, entry.index());
+            ByteCodeFileFormat.writeVarInt(out, entry.codeOffset());
+            ByteCodeFileFormat.writeVarInt(out, entry.codeLength());
+            if (compressed) {
+                ByteCodeFileFormat.writeVarInt(out, entry.storedOffset());
+                ByteCodeFileFormat.writeVarInt(out, entry.storedLength());
+            }
+            ByteCodeFileFormat.writeVarInt(out, entry.length());
+            ByteCodeFileFormat.writeVarInt(out, entry.lines().size());
+            int previous = 0;
+            for (final var line : entry.lines().entrySet()) {
+                ByteCodeFileFormat.writeVarInt(out, line.getKey() - previous);
+                ByteCodeFileFormat.writeSignedVarInt(out, line.getValue());
+                previous = line.getKey();
+            }
+        }
+    }
+
+    // the number of parameters followed by the code of each of their types, enums are followed by the name of the enum
+    private void writeParameters(@NotNull final ByteArrayOutputStream out, @NotNull final List<ByteDatatype> parameters) {
+        ByteCodeFileFormat.writeVarInt(out, parameters.size());
+        for (final ByteDatatype parameter : parameters) {
+            out.write(parameter.code());
+            if (parameter.code() == ByteDatatype.ENUM.code()) ByteCodeFileFormat.writeVarInt(out, constants.string(parameter.name()));
+        }
+    }
+
+    private void encode(@NotNull final ByteCodeInstruction instr, final int index) throws IOException {
+        final ByteBuffer in = instr.buffer().position(1).limit(instr.length() - 1); // without the opcode and the instruction finish code
+        final ByteCode type = instr.type().orElseThrow(() -> new ByteCodeException("Cannot encode bytecode instruction " + instr));
+
+        switch (type) {
+            case PROGRAM_HEADER -> {
+                // the file begins with a header of its own
+                if (index != 0) throw new ByteCodeException("Unexpected program header at instruction " + index);
+                return;
+            }
+            case TRACEBACK -> {
+                // tracebacks inside of functions go into the line table, so they do not take up any space in the code
+                if (function != null) {
+                    function.lines().put(index - function.index(), in.getInt());
+                    return;
+                }
+            }
+            case FUNCTION_DEFINITION_BEGIN -> {
+                if (function != null) throw new ByteCodeException("Function '" + function.signature() + "' is never ended");
+                if (out != null && compressed) flush(); // the code before the function
+                function = new OpenFunction(ByteCodeLabels.definitionId(instr), ByteCodeLabels.definitionSignature(instr), index, definitions, codeSize(), new TreeMap<>());
+            }
+            default -> {}
+        }
+        final int offset = codeSize();
+        code.write(type.code());
+        switch (type) {
+            case PUSH -> encodeValue(in);
+            case DEFINE_VARIABLE, DECLARE_VARIABLE, CAST -> code.write(in.get());
+            case JUMP, JUMP_IF, JUMP_IF_NOT, POP, STDLIB_FINISH_LINE, TRACEBACK, DEFINE_LOCAL, LOAD_GLOBAL, STORE_GLOBAL -> ByteCodeFileFormat.writeVarInt(code, in.getInt());
+            case FUNCTION_CALL -> ByteCodeFileFormat.writeVarLong(code, in.getLong());
+            case RANGE_LOOP_ENTER, RANGE_LOOP_NEXT, LOCAL_FRAME -> {
+                ByteCodeFileFormat.writeVarInt(code, in.getInt());
+                ByteCodeFileFormat.writeVarInt(code, in.getInt());
+            }
+            case DECLARE_LOCAL -> {
+                ByteCodeFileFormat.writeVarInt(code, in.getInt());
+                code.write(in.get());
+            }
+            case FUNCTION_DEFINITION_BEGIN -> {
+                // the id and signature are in the function table
+                ByteCodeFileFormat.writeVarInt(code, definitions++);
+                in.position(in.limit());
+            }
+            case NATIVE_FUNCTION_DEFINITION_BEGIN -> {
+                ByteCodeFileFormat.writeVarInt(code, definitions++);
+                if (out == null) functions.add(new ByteCodeFunctionEntry(ByteCodeLabels.definitionId(instr), ByteCodeLabels.definitionSignature(instr), List.of(), true,
+                        index, offset, codeSize() - offset, offset, codeSize() - offset, 1, new TreeMap<>()));
+                in.position(in.limit());
+            }
+            case FUNCTION_DEFINITION_END -> {
+                if (function == null) throw new ByteCodeException("Unexpected end of function at instruction " + index);
+                final String signature = function.signature();
+                final int length = codeSize() - function.codeOffset();
+                if (out == null) functions.add(new ByteCodeFunctionEntry(function.id(), ByteCodeFunctionEntry.name(signature), ByteCodeFunctionEntry.parameters(signature),
+                        false, function.index(), function.codeOffset(), length, function.codeOffset(), length, index - function.index() + 1, function.lines()));
+                if (out != null && compressed) {
+                    final int storedOffset = stored;
+                    flush(); // the function itself
+                    functions.set(function.table(), functions.get(function.table()).stored(storedOffset, stored - storedOffset));
+                }
+                function = null;
+            }
+            case ENUM_MEMBER_DEFINITION -> {
+                in.get(); // STRING_VALUE
+                ByteCodeFileFormat.writeVarInt(code, constants.string(string(in)));
+            }
+            case TABLE_SWITCH, LOOKUP_SWITCH -> {
+                final boolean table = type == ByteCode.TABLE_SWITCH;
+                if (table) ByteCodeFileFormat.writeSignedVarInt(code, in.getInt());
+                final int count = in.getInt();
+                ByteCodeFileFormat.writeVarInt(code, count);
+                ByteCodeFileFormat.writeVarInt(code, in.getInt());
+                for (int i = 0; i < count; i++) {
+                    if (!table) ByteCodeFileFormat.writeSignedVarInt(code, in.getInt());
+                    ByteCodeFileFormat.writeVarInt(code, in.getInt());
+                }
+            }
+            default -> {}
+        }
+        if (in.hasRemaining()) throw new ByteCodeException("Cannot encode bytecode instruction " + instr);
+    }
+
+    private void encodeValue(@NotNull final ByteBuffer in) {
+        final byte datatype = in.get();
+        code.write(datatype);
+        final ByteCode valueType = ByteCode.of(datatype).orElseThrow(() -> new ByteCodeException("Unknown value type " + String.format("%02x", datatype)));
+        switch (valueType) {
+            case BOOL_VALUE, INTEGER_VALUE, CHARACTER_VALUE -> ByteCodeFileFormat.writeSignedVarInt(code, in.getInt());
+            case LONG_INTEGER_VALUE -> ByteCodeFileFormat.writeVarInt(code, constants.longInteger(in.getLong()));
+            case DOUBLE_VALUE -> ByteCodeFileFormat.writeVarInt(code, constants.doubleFloating(in.getDouble()));
+            case FLOAT_VALUE -> code.writeBytes(ByteCode.floatToBytes(in.getFloat()));
+            case STRING_VALUE -> ByteCodeFileFormat.writeVarInt(code, constants.string(string(in)));
+            case ENUM_VALUE -> {
+                ByteCodeFileFormat.writeVarInt(code, in.getInt());
+                ByteCodeFileFormat.writeVarInt(code, in.getInt());
+            }
+            case NULL_VALUE -> {}
+            default -> throw new ByteCodeException("Cannot push a value of type " + valueType);
+        }
+    }
+
+    private static String string(@NotNull final ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+}
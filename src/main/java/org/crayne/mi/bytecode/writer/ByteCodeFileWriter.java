@@ -0,0 +1,88 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class ByteCodeFileWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long begin;
+
+    // everything is written through one reusable buffer, which is flushed to the file whenever it is full
+    public ByteCodeFileWriter(@NotNull final File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    // writes from the current position of the channel on, which is closed together with the writer
+    public ByteCodeFileWriter(@NotNull final FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.begin = channel.position();
+    }
+
+    // writes a version 2 file, see ByteCodeFileFormat
+    public static void write(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file) throws IOException {
+        write(bytecode, file, ByteCodeCompression.NONE);
+    }
+
+    // writes a version 3 file with compressed sections, unless the compression is ByteCodeCompression.NONE
+    public static void write(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file, @NotNull final ByteCodeCompression compression) throws IOException {
+        try (final ByteCodeFileWriter writer = new ByteCodeFileWriter(file)) {
+            new ByteCodeEncoder(bytecode, compression).encode(writer);
+        }
+    }
+
+    public void write(@NotNull final ByteCodeInstruction instr) throws IOException {
+        write(instr.bytes());
+    }
+
+    public void write(final byte @NotNull [] bytes) throws IOException {
+        int written = 0;
+        while (written < bytes.length) {
+            if (!buffer.hasRemaining()) flush();
+            final int amount = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, amount);
+            written += amount;
+        }
+    }
+
+    // writes over what was already written at the given position, which has to be before the current one
+    public void write(final byte @NotNull [] bytes, final long position) throws IOException {
+        if (position < 0 || position + bytes.length > position()) throw new IOException("Cannot write " + bytes.length + " bytes at " + position + " without writing past the end");
+        flush();
+        final ByteBuffer written = ByteBuffer.wrap(bytes);
+        while (written.hasRemaining()) channel.write(written, begin + position + written.position());
+    }
+
+    // how many bytes were written so far, including those that are still buffered
+    public long position() throws IOException {
+        return channel.position() - begin + buffer.position();
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,8 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.parsing.ast.Node;
+
+import java.util.Map;
+
+public record ByteInlineFunction(Map<String, ByteDatatype> args, Node scope, boolean forced, String module, boolean stdlib) { }
@@ -0,0 +1,6 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.parsing.ast.Node;
+import org.jetbrains.annotations.NotNull;
+
+public record ByteInlinedCall(Node lastStatement, @NotNull ByteLabel endLabel) { }
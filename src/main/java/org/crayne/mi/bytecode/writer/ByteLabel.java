@@ -0,0 +1,11 @@
+package org.crayne.mi.bytecode.writer;
+
+public record ByteLabel(int id) {
+
+    // while compiling, branches use the id of their symbolic label instead of a real one,
+    // encoded just like a real label (target index + 1), so that they can be relocated like any other branch
+    public int symbol() {
+        return id + 1;
+    }
+
+}
@@ -1,5 +1,5 @@
 package org.crayne.mi.bytecode.writer;
 
-import org.crayne.mi.parsing.ast.Node;
+import org.jetbrains.annotations.NotNull;
 
-public record ByteLoopBound(int beginLabel, int beforeJumpIfLabel, Node forloopInstr) { }
+public record ByteLoopBound(@NotNull ByteLabel continueLabel, @NotNull ByteLabel breakLabel) { }
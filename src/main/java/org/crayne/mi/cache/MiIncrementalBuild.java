@@ -0,0 +1,70 @@
+package org.crayne.mi.cache;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.parsing.lexer.Token;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MiIncrementalBuild {
+
+    private final MiModuleCache cache;
+    private final List<Token> tokens;
+    private final Set<Token> elidedScopes;
+    private final Map<String, String> keys;
+    private final Map<String, MiModuleFragment> reused;
+    private final Map<String, Map<Long, List<ByteCodeInstruction>>> compiled = new ConcurrentHashMap<>();
+
+    public MiIncrementalBuild(@NotNull final MiModuleCache cache, @NotNull final List<Token> tokens, @NotNull final Set<Token> elidedScopes,
+                              @NotNull final Map<String, String> keys, @NotNull final Map<String, MiModuleFragment> reused) {
+        this.cache = cache;
+        this.tokens = tokens;
+        this.elidedScopes = elidedScopes;
+        this.keys = keys;
+        this.reused = reused;
+    }
+
+    // the program tokens, without the function bodies of every reused module
+    public List<Token> tokens() {
+        return tokens;
+    }
+
+    // the opening braces of every function scope that was removed
+    public Set<Token> elidedScopes() {
+        return elidedScopes;
+    }
+
+    public boolean reused(@NotNull final String module) {
+        return reused.containsKey(module);
+    }
+
+    public Optional<List<ByteCodeInstruction>> cachedScope(@NotNull final String module, final long functionId) {
+        return Optional.ofNullable(reused.get(module)).map(f -> f.scopes().get(functionId));
+    }
+
+    // function scopes are compiled in parallel, so this may be called from any thread
+    public void compiledScope(@NotNull final String module, final long functionId, @NotNull final List<ByteCodeInstruction> scope) {
+        if (!keys.containsKey(module) || reused(module)) return;
+        compiled.computeIfAbsent(module, m -> new ConcurrentHashMap<>()).put(functionId, scope);
+    }
+
+    public int modules() {
+        return keys.size();
+    }
+
+    public int reusedModules() {
+        return reused.size();
+    }
+
+    // only call this once the whole program compiled without errors
+    public void save() throws IOException {
+        for (final Map.Entry<String, String> module : keys.entrySet()) {
+            if (reused(module.getKey())) continue;
+            final Map<Long, List<ByteCodeInstruction>> scopes = compiled.getOrDefault(module.getKey(), Collections.emptyMap());
+            cache.store(new MiModuleFragment(module.getKey(), module.getValue(), scopes));
+        }
+    }
+
+}
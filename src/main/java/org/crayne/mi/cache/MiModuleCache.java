@@ -0,0 +1,253 @@
+package org.crayne.mi.cache;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationLevel;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.crayne.mi.parsing.ast.NodeType;
+import org.crayne.mi.parsing.lexer.Token;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+public class MiModuleCache {
+
+    // has to be increased whenever the compiler output for the same source code changes, so that old fragments are never reused
+    private static final int FORMAT_VERSION = 1;
+    private static final String EXTENSION = ".mic";
+
+    private record Range(int begin, int end) {}
+
+    private record ModuleSource(@NotNull String name, @NotNull Range range, @NotNull List<Range> bodies) {}
+
+    private final File directory;
+
+    public MiModuleCache(@NotNull final File directory) {
+        this.directory = directory;
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    // the compiled scopes of a top-level module only depend on the module itself and on the declarations of everything else
+    // (function ids, global addresses and enum ids are given out in order of declaration, and the types are needed to check the module).
+    // so the key of every module is the hash of its own tokens together with the hash of the whole program without any module function bodies.
+    // modules whose fragment is still in the cache get their function bodies removed, so they are neither parsed, nor checked, nor compiled again
+    public MiIncrementalBuild prepare(@NotNull final List<Token> tokens) {
+        return prepare(tokens, OptimizationLevel.DEFAULT);
+    }
+
+    public MiIncrementalBuild prepare(@NotNull final List<Token> tokens, @NotNull final OptimizationLevel level) {
+        return prepare(tokens, level, null);
+    }
+
+    // the optimization level and the hot functions of the profile decide what gets inlined,
+    // so fragments are only reused by compiles on the same level with the same hot functions
+    public MiIncrementalBuild prepare(@NotNull final List<Token> tokens, @NotNull final OptimizationLevel level, final ByteCodeProfile profile) {
+        final int userCodeBegin = userCodeBegin(tokens);
+        final Set<String> stdlibModules = new HashSet<>();
+        topLevelModules(tokens, 0, userCodeBegin).forEach(m -> stdlibModules.add(m.name()));
+
+        final Map<String, List<ModuleSource>> modules = new LinkedHashMap<>();
+        for (final ModuleSource module : topLevelModules(tokens, userCodeBegin, tokens.size())) {
+            if (stdlibModules.contains(module.name())) continue; // extending a standard library module, which is always compiled
+            modules.computeIfAbsent(module.name(), n -> new ArrayList<>()).add(module);
+        }
+        final List<Range> allBodies = modules.values().stream().flatMap(Collection::stream).flatMap(m -> m.bodies().stream()).toList();
+        final byte[] dependencySignature = dependencySignature(tokens, allBodies, level, profile);
+
+        final Map<String, String> keys = new LinkedHashMap<>();
+        final Map<String, MiModuleFragment> reused = new HashMap<>();
+        final List<Range> elidedBodies = new ArrayList<>();
+        for (final Map.Entry<String, List<ModuleSource>> module : modules.entrySet()) {
+            final String key = moduleKey(tokens, dependencySignature, module.getKey(), module.getValue());
+            keys.put(module.getKey(), key);
+
+            final Optional<MiModuleFragment> fragment = load(module.getKey(), key);
+            if (fragment.isEmpty()) continue;
+            reused.put(module.getKey(), fragment.get());
+            module.getValue().forEach(m -> elidedBodies.addAll(m.bodies()));
+        }
+        return elide(tokens, elidedBodies, keys, reused);
+    }
+
+    private MiIncrementalBuild elide(@NotNull final List<Token> tokens, @NotNull final List<Range> bodies, @NotNull final Map<String, String> keys,
+                                     @NotNull final Map<String, MiModuleFragment> reused) {
+        final Set<Token> elidedScopes = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<Range> sorted = bodies.stream().sorted(Comparator.comparingInt(Range::begin)).toList();
+        final List<Token> result = new ArrayList<>(tokens.size());
+
+        int next = 0;
+        for (final Range body : sorted) {
+            result.addAll(tokens.subList(next, body.begin() + 1)); // keep the braces, so that the function still has an (empty) scope
+            elidedScopes.add(tokens.get(body.begin()));
+            next = body.end();
+        }
+        result.addAll(tokens.subList(next, tokens.size()));
+        return new MiIncrementalBuild(this, result, elidedScopes, keys, reused);
+    }
+
+    // the scan only looks for keywords and brackets, so there is no need to fully classify each token
+    private static boolean is(@NotNull final Token token, @NotNull final NodeType type) {
+        return token.token().equals(type.toString());
+    }
+
+    private static int userCodeBegin(@NotNull final List<Token> tokens) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (is(tokens.get(i), NodeType.STANDARDLIB_MI_FINISH_CODE)) return i + 1;
+        }
+        return 0;
+    }
+
+    private static int matchingBrace(@NotNull final List<Token> tokens, final int open) {
+        int depth = 0;
+        for (int i = open; i < tokens.size(); i++) {
+            if (is(tokens.get(i), NodeType.LBRACE)) depth++;
+            if (is(tokens.get(i), NodeType.RBRACE) && --depth == 0) return i;
+        }
+        return tokens.size() - 1;
+    }
+
+    private static List<ModuleSource> topLevelModules(@NotNull final List<Token> tokens, final int begin, final int end) {
+        final List<ModuleSource> modules = new ArrayList<>();
+        int depth = 0;
+        for (int i = begin; i < end; i++) {
+            final Token token = tokens.get(i);
+            if (is(token, NodeType.LBRACE)) depth++;
+            if (is(token, NodeType.RBRACE)) depth--;
+            if (depth != 0 || !is(token, NodeType.LITERAL_MODULE) || i + 2 >= end || !is(tokens.get(i + 2), NodeType.LBRACE)) continue;
+
+            final int close = matchingBrace(tokens, i + 2);
+            modules.add(new ModuleSource(tokens.get(i + 1).token(), new Range(i, close), functionBodies(tokens, i + 2, close)));
+            i = close;
+        }
+        return modules;
+    }
+
+    // the bodies of all intern functions in the module (and its submodules), not including their braces
+    private static List<Range> functionBodies(@NotNull final List<Token> tokens, final int begin, final int end) {
+        final List<Range> bodies = new ArrayList<>();
+        for (int i = begin; i < end; i++) {
+            if (!is(tokens.get(i), NodeType.LITERAL_FN)) continue;
+            int paren = 0;
+            int open = i + 1;
+            for (; open < end; open++) {
+                final Token token = tokens.get(open);
+                if (is(token, NodeType.LPAREN)) paren++;
+                if (is(token, NodeType.RPAREN)) paren--;
+                if (paren == 0 && (is(token, NodeType.LBRACE) || is(token, NodeType.SEMI))) break;
+            }
+            if (open >= end || is(tokens.get(open), NodeType.SEMI)) { // native functions have no body
+                i = open;
+                continue;
+            }
+            final int close = matchingBrace(tokens, open);
+            bodies.add(new Range(open, close));
+            i = close;
+        }
+        return bodies;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void digest(@NotNull final MessageDigest digest, @NotNull final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(new byte[] {(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 8), (byte) bytes.length});
+        digest.update(bytes);
+    }
+
+    private static byte[] dependencySignature(@NotNull final List<Token> tokens, @NotNull final List<Range> bodies, @NotNull final OptimizationLevel level,
+                                              final ByteCodeProfile profile) {
+        final MessageDigest digest = sha256();
+        digest(digest, String.valueOf(FORMAT_VERSION));
+        digest(digest, level.name());
+        if (profile != null) profile.hotFunctions().forEach(f -> digest(digest, f));
+        final List<Range> sorted = bodies.stream().sorted(Comparator.comparingInt(Range::begin)).toList();
+        int next = 0;
+        for (final Range body : sorted) {
+            for (int i = next; i <= body.begin(); i++) digest(digest, tokens.get(i).token());
+            next = body.end();
+        }
+        for (int i = next; i < tokens.size(); i++) digest(digest, tokens.get(i).token());
+        return digest.digest();
+    }
+
+    private static String moduleKey(@NotNull final List<Token> tokens, final byte @NotNull [] dependencySignature, @NotNull final String name, @NotNull final List<ModuleSource> sources) {
+        final MessageDigest digest = sha256();
+        digest.update(dependencySignature);
+        digest(digest, name);
+        for (final ModuleSource source : sources) {
+            for (int i = source.range().begin(); i <= source.range().end(); i++) digest(digest, tokens.get(i).token());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private File fragmentFile(@NotNull final String module) {
+        return new File(directory, module + EXTENSION);
+    }
+
+    // any fragment that cannot be read is simply compiled again
+    private Optional<MiModuleFragment> load(@NotNull final String module, @NotNull final String key) {
+        final File file = fragmentFile(module);
+        if (!file.isFile()) return Optional.empty();
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key)) return Optional.empty();
+
+            final Map<Long, List<ByteCodeInstruction>> scopes = new HashMap<>();
+            final int scopeCount = in.readInt();
+            for (int s = 0; s < scopeCount; s++) {
+                final long functionId = in.readLong();
+                final int instrCount = in.readInt();
+                final List<ByteCodeInstruction> instrs = new ArrayList<>(instrCount);
+                for (int i = 0; i < instrCount; i++) {
+                    final byte[] codes = new byte[in.readInt()];
+                    in.readFully(codes);
+                    instrs.add(new ByteCodeInstruction(codes));
+                }
+                scopes.put(functionId, instrs);
+            }
+            return Optional.of(new MiModuleFragment(module, key, scopes));
+        } catch (final IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    // fragments are written to a temporary file first, so that concurrent builds never see a half written fragment
+    public void store(@NotNull final MiModuleFragment fragment) throws IOException {
+        Files.createDirectories(directory.toPath());
+        final File file = fragmentFile(fragment.module());
+        final File temp = File.createTempFile(fragment.module(), EXTENSION, directory);
+
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(fragment.key());
+            out.writeInt(fragment.scopes().size());
+            for (final Map.Entry<Long, List<ByteCodeInstruction>> scope : new TreeMap<>(fragment.scopes()).entrySet()) {
+                out.writeLong(scope.getKey());
+                out.writeInt(scope.getValue().size());
+                for (final ByteCodeInstruction instr : scope.getValue()) {
+                    out.writeInt(instr.length() - 1); // without the instruction finish code, which is added back when reading
+                    out.write(instr.bytes(0, instr.length() - 1));
+                }
+            }
+        } catch (final IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,10 @@
+package org.crayne.mi.cache;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+// the compiled function scopes of one top-level module, each resolved as if it started at the beginning of the program
+public record MiModuleFragment(@NotNull String module, @NotNull String key, @NotNull Map<Long, List<ByteCodeInstruction>> scopes) { }
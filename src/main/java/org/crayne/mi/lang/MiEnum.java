@@ -47,6 +47,10 @@ public class MiEnum {
         this.members.addAll(members);
     }
 
+    public MiEnum copy(@NotNull final MiModule module) {
+        return new MiEnum(name, module, modifiers, members);
+    }
+
     public Token identifier() {
         return Token.of(module.identifier().token() + "." + name);
     }
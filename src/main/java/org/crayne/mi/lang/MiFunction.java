@@ -1,6 +1,7 @@
 package org.crayne.mi.lang;
 
 import org.crayne.mi.parsing.lexer.Token;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
 import java.util.Set;
@@ -19,4 +20,7 @@ public interface MiFunction {
     List<MiDatatype> parameterTypes();
     Token identifier();
 
+    // the same function, declared in the given module instead
+    MiFunction copy(@NotNull final MiModule module);
+
 }
@@ -59,6 +59,11 @@ public class MiInternFunction extends MiFunctionScope implements MiFunction {
         return parameters.stream().map(MiVariable::type).toList();
     }
 
+    // parameters belong to the function scope they are declared in, so the copy gets its own
+    public MiInternFunction copy(@NotNull final MiModule module) {
+        return new MiInternFunction(modifiers, name, returnType, module, parameters.stream().map(p -> new MiVariable(p.name(), p.type(), p.modifiers())).toList());
+    }
+
     public Token identifier() {
         return Token.of(module.identifier().token() + "." + name);
     }
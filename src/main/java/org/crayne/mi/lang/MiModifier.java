@@ -23,7 +23,8 @@ public enum MiModifier {
     NULLABLE("nullable"),
     OWN("own"),
     NAT("native"),
-    INTERN("internal");
+    INTERN("internal"),
+    INLINE("inline");
 
     private final String name;
 
@@ -47,6 +48,7 @@ public enum MiModifier {
             case LITERAL_NONNULL -> NONNULL;
             case LITERAL_NAT -> NAT;
             case LITERAL_INTERN -> INTERN;
+            case LITERAL_INLINE -> INLINE;
             default -> null;
         });
     }
@@ -75,8 +77,9 @@ public enum MiModifier {
             case NONNULL -> other == NULLABLE;
             case NULLABLE -> other == NONNULL;
             case OWN -> other == MUT || other == CONST;
-            case NAT -> other == INTERN;
+            case NAT -> other == INTERN || other == INLINE;
             case INTERN -> other == NAT;
+            case INLINE -> other == NAT;
         };
     }
 
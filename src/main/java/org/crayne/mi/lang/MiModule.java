@@ -109,6 +109,20 @@ public class MiModule implements MiContainer {
         }).findFirst();
     }
 
+    // a deep copy of this module tree, which can be extended without changing this one
+    public MiModule copy() {
+        return copy(parent);
+    }
+
+    private MiModule copy(final MiModule parent) {
+        final MiModule copy = parent == null ? new MiModule(name) : new MiModule(name, parent);
+        variables.forEach(v -> copy.variables.add(v.copy(copy)));
+        functions.forEach(f -> copy.functions.add(f.copy(copy)));
+        enums.forEach(e -> copy.enums.add(e.copy(copy)));
+        submodules.forEach(m -> copy.submodules.add(m.copy(copy)));
+        return copy;
+    }
+
     public Token identifier() {
         final StringBuilder result = new StringBuilder(name);
         MiModule currentParent = parent;
@@ -61,6 +61,10 @@ public class MiNativeFunction implements MiFunction {
         return nativeMethod;
     }
 
+    public MiNativeFunction copy(@NotNull final MiModule module) {
+        return new MiNativeFunction(nativeMethod, modifiers, name, returnType, module, parameters);
+    }
+
     public Token identifier() {
         return Token.of(module.identifier().token() + "." + name);
     }
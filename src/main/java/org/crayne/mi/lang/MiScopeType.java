@@ -8,7 +8,8 @@ public enum MiScopeType {
     ELSE(false, false),
     WHILE(true, true),
     FOR(true, true),
-    DO(true, true);
+    DO(true, true),
+    CASE(true, false);
 
     private final boolean conditional;
     private final boolean looping;
@@ -66,6 +66,10 @@ public class MiVariable {
         this.initialized = true;
     }
 
+    public MiVariable copy(@NotNull final MiContainer container) {
+        return new MiVariable(container, name, type, modifiers, initialized);
+    }
+
     public Token identifier() {
         return Token.of((container instanceof MiModule ? container.identifier().token() + "." : "") + name);
     }
@@ -3,9 +3,7 @@ package org.crayne.mi.parsing.ast;
 import org.crayne.mi.parsing.lexer.Token;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 public class Node {
 
@@ -109,6 +107,26 @@ public class Node {
         this.children.addAll(children);
     }
 
+    // a deep copy of this node and everything below it. scopes inside of the copy have their parents copied as well
+    public Node copy() {
+        return copy(new IdentityHashMap<>());
+    }
+
+    private Node copy(@NotNull final Map<Node, Node> copies) {
+        final Node copy = new Node(copies.getOrDefault(parent, parent), type, value, lineDebugging);
+        copies.put(this, copy);
+        for (final Node child : children) copy.children.add(child.copy(copies));
+        return copy;
+    }
+
+    private Node(final Node parent, @NotNull final NodeType type, final Token value, final int lineDebugging) {
+        this.type = type;
+        this.value = value;
+        this.parent = parent;
+        this.lineDebugging = lineDebugging;
+        this.children = new ArrayList<>();
+    }
+
     public Node parent() {
         return parent;
     }
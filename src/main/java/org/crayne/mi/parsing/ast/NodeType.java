@@ -42,9 +42,13 @@ public enum NodeType {
     LITERAL_ELSE("else"),
     LITERAL_WHILE("while"),
     LITERAL_FOR("for"),
+    LITERAL_IN("in"),
     LITERAL_DO("do"),
     LITERAL_BREAK("break"),
     LITERAL_CONTINUE("continue"),
+    LITERAL_MATCH("match"),
+    LITERAL_CASE("case"),
+    LITERAL_DEFAULT("default"),
     LITERAL_MUT("mut"),
     LITERAL_CONST("const"),
     LITERAL_RETURN("return"),
@@ -52,6 +56,7 @@ public enum NodeType {
     LITERAL_USE("use"),
     LITERAL_NAT("nat"),
     LITERAL_INTERN("intern"),
+    LITERAL_INLINE("inline"),
     LITERAL_STRUCT("struct"),
     LITERAL_NEW("new"),
     TRY_UNUSED("try"),
@@ -86,6 +91,7 @@ public enum NodeType {
     ELSE_STATEMENT(null),
     DO_STATEMENT(null),
     FOR_STATEMENT(null),
+    FOR_RANGE_STATEMENT(null),
     FOR_FAKE_SCOPE(null),
     CONDITION(null),
     FOR_INSTRUCT(null),
@@ -94,6 +100,9 @@ public enum NodeType {
     TERNARY_OPERATOR_ELSE(null),
     WHILE_STATEMENT(null),
     WHILE_STATEMENT_UNSCOPED(null),
+    MATCH_STATEMENT(null),
+    CASE_STATEMENT(null),
+    DEFAULT_STATEMENT(null),
     BREAK_STATEMENT(null),
     CONTINUE_STATEMENT(null),
     USE_STATEMENT(null),
@@ -214,7 +223,7 @@ public enum NodeType {
                     LITERAL_IF, LITERAL_DOUBLE, LITERAL_FLOAT, LITERAL_FOR,
                     LITERAL_INT, LITERAL_NAT, LITERAL_LONG, LITERAL_MODULE,
                     LITERAL_MUT, LITERAL_NULL, LITERAL_PRIV, LITERAL_PROT, LITERAL_USE, LITERAL_OWN,
-                    LITERAL_STRING, LITERAL_VOID, LITERAL_WHILE -> true;
+                    LITERAL_STRING, LITERAL_VOID, LITERAL_WHILE, LITERAL_IN, LITERAL_MATCH, LITERAL_CASE, LITERAL_DEFAULT -> true;
             default -> false;
         };
     }
@@ -228,7 +237,7 @@ public enum NodeType {
 
     public boolean isModifier() {
         return switch (this) {
-            case LITERAL_PUB, LITERAL_PRIV, LITERAL_OWN, LITERAL_MUT, LITERAL_CONST, LITERAL_PROT, LITERAL_NAT, LITERAL_INTERN, LITERAL_NULLABLE, LITERAL_NONNULL -> true;
+            case LITERAL_PUB, LITERAL_PRIV, LITERAL_OWN, LITERAL_MUT, LITERAL_CONST, LITERAL_PROT, LITERAL_NAT, LITERAL_INTERN, LITERAL_INLINE, LITERAL_NULLABLE, LITERAL_NONNULL -> true;
             default -> false;
         };
     }
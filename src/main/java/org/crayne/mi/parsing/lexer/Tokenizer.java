@@ -32,6 +32,29 @@ public class Tokenizer {
         return stdlibFinishLine;
     }
 
+    public int line() {
+        return line;
+    }
+
+    public int actualLine() {
+        return actualLine;
+    }
+
+    // whether everything tokenized so far is complete, so that tokenizing can continue right here with another tokenizer
+    public boolean atTokenBoundary() {
+        return currentToken.isEmpty() && currentQuotes == 0 && !singleLineCommented && !multilineCommented;
+    }
+
+    // continues after an already tokenized standard library, whose tokens are taken as they are
+    public void resume(@NotNull final List<Token> stdlibTokens, final int line, final int actualLine, final int stdlibFinishLine) {
+        result.addAll(stdlibTokens);
+        this.line = line;
+        this.actualLine = actualLine;
+        this.stdlibFinishLine = stdlibFinishLine;
+        this.countIndices = stdlibFinishLine != -1;
+        this.previous = stdlibTokens.isEmpty() ? null : stdlibTokens.get(stdlibTokens.size() - 1).token();
+    }
+
     private int column = 0;
     private char atPos = 0;
     private boolean countIndices = false;
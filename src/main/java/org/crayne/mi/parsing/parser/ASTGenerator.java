@@ -229,6 +229,9 @@ public class ASTGenerator {
             case LITERAL_ENUM -> evalEnumDefinition(withoutModifiers, modifiers);
             case LITERAL_MODULE -> evalModuleDefinition(withoutModifiers, modifiers);
             case LITERAL_DO -> evalDoStatement(withoutModifiers, modifiers);
+            case LITERAL_MATCH -> evalMatchStatement(withoutModifiers, modifiers);
+            case LITERAL_CASE -> evalCaseStatement(withoutModifiers, modifiers);
+            case LITERAL_DEFAULT -> evalDefaultStatement(withoutModifiers, modifiers);
             case LBRACE -> evalLocalScope(withoutModifiers, modifiers);
             default -> null;
         };
@@ -529,8 +532,53 @@ public class ASTGenerator {
         return new Node(parser.currentNode(), NodeType.DO_STATEMENT, doToken.actualLine(), doToken);
     }
 
+    // match c {
+    public Node evalMatchStatement(@NotNull final List<Token> tokens, @NotNull final List<Node> modifiers) {
+        if (unexpectedModifiers(modifiers)) return null;
+        final Token matchToken = parser.getAndExpect(tokens, 0, NodeType.LITERAL_MATCH);
+        if (Parser.anyNull(matchToken)) return null;
+        if (tokens.size() == 2) {
+            parser.parserError("Expected value after 'match'.", matchToken, "Add an int, char or enum value to match against.");
+            return null;
+        }
+        return new Node(parser.currentNode(), NodeType.MATCH_STATEMENT, matchToken.actualLine(), matchToken,
+                parseExpression(matchToken, tokens.subList(1, tokens.size() - 1))
+        );
+    }
+
+    // case Color::RED, Color::GREEN {
+    public Node evalCaseStatement(@NotNull final List<Token> tokens, @NotNull final List<Node> modifiers) {
+        if (unexpectedModifiers(modifiers)) return null;
+        final Token caseToken = parser.getAndExpect(tokens, 0, NodeType.LITERAL_CASE);
+        if (Parser.anyNull(caseToken)) return null;
+
+        final List<List<Token>> exprs = splitByComma(tokens.subList(1, tokens.size() - 1));
+        final List<Node> values = new ArrayList<>();
+        for (final List<Token> expr : exprs) {
+            // splitByComma() puts a semicolon after every value but the last one
+            final List<Token> value = NodeType.of(expr.get(expr.size() - 1)) == NodeType.SEMI ? expr.subList(0, expr.size() - 1) : expr;
+            if (value.isEmpty()) break;
+            values.add(parseExpression(value.get(0), value));
+        }
+        if (values.isEmpty() || values.size() != exprs.size()) {
+            parser.parserError("Expected value after 'case'.", caseToken, "Add one or more constant values, separated by commas.");
+            return null;
+        }
+        return new Node(parser.currentNode(), NodeType.CASE_STATEMENT, caseToken.actualLine(), caseToken, values.toArray(new Node[0]));
+    }
+
+    public Node evalDefaultStatement(@NotNull final List<Token> tokens, @NotNull final List<Node> modifiers) {
+        if (unexpectedModifiers(modifiers)) return null;
+        final Token defaultToken = parser.getAndExpect(tokens, 0, NodeType.LITERAL_DEFAULT);
+        final Token scopeToken = parser.getAndExpect(tokens, 1, NodeType.LBRACE);
+        if (Parser.anyNull(defaultToken, scopeToken)) return null;
+
+        return new Node(parser.currentNode(), NodeType.DEFAULT_STATEMENT, defaultToken.actualLine(), defaultToken);
+    }
+
     public Node evalForStatement(@NotNull final List<Token> tokens, @NotNull final List<Node> modifiers) {
         if (unexpectedModifiers(modifiers)) return null;
+        if (parser.getAndExpect(tokens, 2, NodeType.LITERAL_IN) != null) return evalRangeForStatement(tokens);
         final List<List<Token>> exprs = splitByComma(tokens.subList(1, tokens.size() - 1));
         if (exprs.isEmpty()) {
             parser.parserError("Expected expression after 'for' statement", tokens.get(0));
@@ -593,6 +641,57 @@ public class ASTGenerator {
         ));
     }
 
+    // for i in 0 .. 10, 2 // i goes from 0 (inclusive) to 10 (exclusive) in steps of 2, the step is optional and defaults to 1
+    public Node evalRangeForStatement(@NotNull final List<Token> tokens) {
+        final Token forToken = tokens.get(0);
+        final Token identifier = parser.getAndExpect(tokens, 1, NodeType.IDENTIFIER);
+        if (identifier == null) {
+            parser.parserError("Expected identifier after 'for'", forToken);
+            return null;
+        }
+        final List<List<Token>> exprs = splitByComma(splitRanges(tokens.subList(3, tokens.size() - 1)));
+        // splitByComma() puts a semicolon after the range if there is a step
+        final List<Token> range = exprs.isEmpty() ? new ArrayList<>() : exprs.get(0).subList(0, exprs.get(0).size() - (exprs.size() > 1 ? 1 : 0));
+        final int dots = range.stream().map(NodeType::of).toList().indexOf(NodeType.DOUBLE_DOT);
+        if (exprs.size() > 2 || dots <= 0 || dots >= range.size() - 1) {
+            parser.parserError("Expected range after 'in'", tokens.get(2), "The scheme for range for loops is: for <identifier> in <from> .. <to>, <step> (the step is optional)");
+            return null;
+        }
+        final List<Token> step = exprs.size() == 2 ? exprs.get(1) : List.of(Token.of("1"));
+
+        final List<Token> createVariable = new ArrayList<>(Arrays.asList(Token.of("int"), identifier, Token.of("=")));
+        createVariable.addAll(range.subList(0, dots));
+        createVariable.add(Token.of(";"));
+
+        final Node variableDefinition = evalUnscoped(createVariable);
+        if (variableDefinition == null) return null;
+
+        return new Node(parser.currentNode(), NodeType.FOR_FAKE_SCOPE, forToken.actualLine(),
+                new Node(NodeType.FOR_RANGE_STATEMENT, forToken, forToken.actualLine(),
+                        variableDefinition,
+                        parseExpression(forToken, range.subList(dots + 1, range.size())),
+                        parseExpression(forToken, step)
+                )
+        );
+    }
+
+    // the tokenizer keeps '..' inside of tokens like '0..10', since dots are also used for module access
+    private static List<Token> splitRanges(@NotNull final List<Token> tokens) {
+        final List<Token> result = new ArrayList<>();
+        for (@NotNull final Token token : tokens) {
+            final String str = token.token();
+            final int dots = str.indexOf("..");
+            if (dots == -1 || str.equals("..") || str.contains("...")) {
+                result.add(token);
+                continue;
+            }
+            if (dots > 0) result.add(new Token(str.substring(0, dots), token.actualLine(), token.line(), token.column()));
+            result.add(new Token("..", token.actualLine(), token.line(), token.column() + dots));
+            if (dots + 2 < str.length()) result.add(new Token(str.substring(dots + 2), token.actualLine(), token.line(), token.column() + dots + 2));
+        }
+        return result;
+    }
+
     private List<List<Token>> splitByComma(@NotNull final List<Token> tokens) {
         final List<List<Token>> result = new ArrayList<>();
         List<Token> current = new ArrayList<>();
@@ -4,6 +4,7 @@ import org.crayne.mi.lang.*;
 import org.crayne.mi.parsing.ast.Node;
 import org.crayne.mi.parsing.ast.NodeType;
 import org.crayne.mi.parsing.lexer.Token;
+import org.crayne.mi.parsing.lexer.Tokenizer;
 import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.Method;
@@ -13,17 +14,27 @@ public class ASTRefiner {
 
     private final Parser parser;
     private Node AST;
-    private MiModule currentModule = new MiModule("!PARENT");
-    private final MiModule rootModule = currentModule;
+    private MiModule currentModule;
+    private final MiModule rootModule;
+    private final int seededChildren;
 
     public ASTRefiner(@NotNull final Parser parser) {
+        this(parser, new MiModule("!PARENT"), 0);
+    }
+
+    // the first children of the AST may already be checked (the standard library), with everything they define being in the given root module
+    public ASTRefiner(@NotNull final Parser parser, @NotNull final MiModule rootModule, final int seededChildren) {
         this.parser = parser;
+        this.rootModule = rootModule;
+        this.currentModule = rootModule;
+        this.seededChildren = seededChildren;
     }
 
     public Node checkAST(@NotNull final Node AST) {
+        if (parser.encounteredError()) return null;
         this.AST = AST;
-        parser.reachedStdlibFinish(false);
-        final Set<Map.Entry<Node, MiInternFunction>> functionScopes = defineAllGlobal(this.AST);
+        parser.reachedStdlibFinish(seededChildren > 0);
+        final Set<Map.Entry<Node, MiInternFunction>> functionScopes = defineAllGlobal(this.AST, seededChildren);
         parser.reachedStdlibFinish(false);
         checkAllFunctions(functionScopes);
         parser.reachedStdlibFinish(true);
@@ -36,8 +47,12 @@ public class ASTRefiner {
     }
 
     private Set<Map.Entry<Node, MiInternFunction>> defineAllGlobal(@NotNull final Node node) {
+        return defineAllGlobal(node, 0);
+    }
+
+    private Set<Map.Entry<Node, MiInternFunction>> defineAllGlobal(@NotNull final Node node, final int from) {
         final Set<Map.Entry<Node, MiInternFunction>> functionScopes = new HashSet<>();
-        for (@NotNull final Node child : node.children()) {
+        for (@NotNull final Node child : node.children().subList(from, node.children().size())) {
             if (parser.encounteredError()) return new HashSet<>();
             switch (child.type()) {
                 case CREATE_MODULE -> functionScopes.addAll(defineModule(child));
@@ -69,6 +84,7 @@ public class ASTRefiner {
     private void checkLocal(@NotNull final Map.Entry<Node, MiInternFunction> functionScope) {
         final Node parentFunctionScope = functionScope.getKey();
         final MiInternFunction function = functionScope.getValue();
+        if (parser.elided(parentFunctionScope.value())) return;
 
         parser.reachedStdlibFinish(parentFunctionScope.value().actualLine() > parser.stdlibFinishLine());
         checkLocal(parentFunctionScope, function, false);
@@ -172,7 +188,11 @@ public class ASTRefiner {
                 case IF_STATEMENT -> checkConditionalStatement(child, function, functionScope, MiScopeType.IF);
                 case WHILE_STATEMENT -> checkConditionalStatement(child, function, functionScope, MiScopeType.WHILE);
                 case DO_STATEMENT -> checkDoWhileStatement(child, function, functionScope);
-                case FOR_FAKE_SCOPE -> checkForStatement(child, function, functionScope);
+                case FOR_FAKE_SCOPE -> {
+                    if (child.child(0).type() == NodeType.FOR_RANGE_STATEMENT) checkRangeForStatement(child, function, functionScope);
+                    else checkForStatement(child, function, functionScope);
+                }
+                case MATCH_STATEMENT -> checkMatchStatement(child, function, functionScope);
                 case BREAK_STATEMENT, CONTINUE_STATEMENT -> checkLoopStop(child, functionScope);
                 case DECLARE_VARIABLE -> defineVariable(child, functionScope, false, false);
                 case DEFINE_VARIABLE -> defineVariable(child, functionScope, true, false);
@@ -288,6 +308,116 @@ public class ASTRefiner {
         fakeScope.pop();
     }
 
+    private void checkRangeForStatement(@NotNull final Node child, @NotNull final MiInternFunction function, @NotNull final MiFunctionScope scope) {
+        final Node statement = child.child(0);
+        final Token forToken = statement.value();
+        final MiFunctionScope fakeScope = new MiFunctionScope(MiScopeType.FUNCTION_LOCAL, function, scope);
+        scope.childScope(fakeScope);
+
+        // the bound and the step are only evaluated once before the loop, so they are parsed in the enclosing scope and cannot see the index variable
+        defineVariable(statement.child(0), fakeScope, true, false);
+        for (@NotNull final Node rangeValue : statement.children().subList(1, 3)) {
+            if (parser.encounteredError()) return;
+            final ASTExpressionParser.TypedNode value = parseExpression(rangeValue, forToken, scope);
+            if (value == null || value.type() == null) return;
+            if (!MiDatatype.match(value.type(), MiDatatype.INT)) {
+                parser.parserError("Expected a nonnull int bound and step for range for statement, but got a " + value.type() + ".", forToken,
+                        "Cast the value to int.");
+                return;
+            }
+        }
+        final MiFunctionScope forScope = new MiFunctionScope(MiScopeType.FOR, function, fakeScope);
+        fakeScope.childScope(forScope);
+        checkLocal(child.child(1), forScope, false);
+        forScope.pop();
+
+        fakeScope.pop();
+    }
+
+    private void checkMatchStatement(@NotNull final Node child, @NotNull final MiInternFunction function, @NotNull final MiFunctionScope scope) {
+        final Token matchToken = child.value();
+        final ASTExpressionParser.TypedNode value = parseExpression(child.child(0), matchToken, scope);
+        if (value == null || value.type() == null) return;
+
+        final MiDatatype type = value.type();
+        final boolean enumMatch = !type.primitive() && !type.name().equals(MiDatatype.NULL.name());
+        if (type.nullable() || (!enumMatch && !type.equals(MiDatatype.INT) && !type.equals(MiDatatype.CHAR))) {
+            parser.parserError("Expected a nonnull int, char or enum value for match statement, but got a " + type + ".", matchToken,
+                    "Match on a different value or cast the current value to int.");
+            return;
+        }
+        final Set<String> matchedKeys = new HashSet<>();
+        boolean hasDefault = false;
+
+        for (@NotNull final Node branch : child.child(1).children()) {
+            if (parser.encounteredError()) return;
+            final Token branchToken = branch.value() == null ? child.value() : branch.value();
+            switch (branch.type()) {
+                case CASE_STATEMENT -> {
+                    final List<Node> caseValues = branch.children().subList(0, branch.children().size() - 1);
+                    for (@NotNull final Node caseValueNode : caseValues) {
+                        final ASTExpressionParser.TypedNode caseValue = parseExpression(caseValueNode, branchToken, scope);
+                        if (caseValue == null || caseValue.type() == null) return;
+                        if (!caseValue.type().equals(type, true)) {
+                            parser.parserError("Expected case value of type " + type + ", but got a " + caseValue.type() + ".", branchToken,
+                                    "Every case value has to be of the same type as the value that is being matched.");
+                            return;
+                        }
+                        final Optional<Node> constant = constantCaseValue(caseValue.node(), enumMatch);
+                        if (constant.isEmpty()) {
+                            parser.parserError("Expected a constant case value", branchToken,
+                                    "Case values have to be " + (enumMatch ? "enum members, like 'Color::RED'." : "int or char literals."));
+                            return;
+                        }
+                        if (!matchedKeys.add(constant.get().type() == NodeType.GET_ENUM_MEMBER ? constant.get().child(1).value().token() : constant.get().value().token())) {
+                            parser.parserError("Duplicate case value in match statement", branchToken, "Remove the duplicate case value.");
+                            return;
+                        }
+                        caseValueNode.child(0).children().clear();
+                        caseValueNode.child(0).addChildren(constant.get());
+                    }
+                    checkCaseScope(branch.child(branch.children().size() - 1), function, scope);
+                }
+                case DEFAULT_STATEMENT -> {
+                    if (hasDefault) {
+                        parser.parserError("Duplicate default case in match statement", branchToken, "Remove one of the default cases.");
+                        return;
+                    }
+                    hasDefault = true;
+                    checkCaseScope(branch.child(0), function, scope);
+                }
+                default -> {
+                    parser.parserError("Expected 'case' or 'default' inside of match statement", branchToken,
+                            "Put the statement inside of a case scope.");
+                    return;
+                }
+            }
+        }
+    }
+
+    // int literals (negated ones are folded into a single literal here) and char literals are constant, just like enum members
+    private static Optional<Node> constantCaseValue(@NotNull final Node node, final boolean enumMatch) {
+        if (node.type() == NodeType.VALUE && node.children().size() == 1) return constantCaseValue(node.child(0), enumMatch);
+        if (enumMatch) return node.type() == NodeType.GET_ENUM_MEMBER ? Optional.of(node) : Optional.empty();
+
+        return switch (node.type()) {
+            case CHAR_LITERAL -> Optional.of(node);
+            case INTEGER_NUM_LITERAL -> Optional.ofNullable(Tokenizer.isInt(node.value().token()))
+                    .map(i -> new Node(NodeType.INTEGER_NUM_LITERAL, Token.of(String.valueOf(i)), node.lineDebugging()));
+            case NEGATE -> node.children().size() != 1 ? Optional.empty() : constantCaseValue(node.child(0), false)
+                    .filter(n -> n.type() == NodeType.INTEGER_NUM_LITERAL)
+                    .map(n -> new Node(NodeType.INTEGER_NUM_LITERAL, Token.of(String.valueOf(-Integer.parseInt(n.value().token()))), node.lineDebugging()));
+            default -> Optional.empty();
+        };
+    }
+
+    private void checkCaseScope(@NotNull final Node caseScopeNode, @NotNull final MiInternFunction function, @NotNull final MiFunctionScope scope) {
+        final MiFunctionScope caseScope = new MiFunctionScope(MiScopeType.CASE, function, scope);
+        scope.childScope(caseScope);
+        checkLocal(caseScopeNode, caseScope, false);
+        caseScope.pop();
+    }
+
     private void checkInnerScope(@NotNull final Node child, @NotNull final MiInternFunction function,
                                  @NotNull final MiFunctionScope scope, final boolean elseScope, final boolean ifReachedEnd) {
         if (child.children().isEmpty()) return; // normal noop, no scope here
@@ -357,8 +487,14 @@ public class ASTRefiner {
             parser.parserError("Cannot use operator '" + operator.token() + "' for " + globalVariable.get().type() + " values.", operator);
             return;
         }
+        // without this, the compiler would only see the first token of the new value
+        final boolean incDec = NodeType.of(operator).incrementDecrement();
+        final ASTExpressionParser.TypedNode value = incDec ? null : parseExpression(child.child(2), operator, scope == null ? module : scope);
+        if (value == null && !incDec) return;
+
         checkInvalidGlobalVariableAccess(globalVariable.get(), module, ident);
         checkInvalidGlobalVariableMutation(globalVariable.get(), module, ident);
+        if (!incDec && value.type() != null) checkAssignedType(value.type(), globalVariable.get().type(), operator);
         globalVariable.get().initialize();
     }
 
@@ -408,14 +544,18 @@ public class ASTRefiner {
         final MiDatatype varType = variable.get().type();
         if (valueType == null) return false;
 
+        checkAssignedType(valueType, varType, operator);
+        variable.get().initialize();
+        return true;
+    }
+
+    private void checkAssignedType(@NotNull final MiDatatype valueType, @NotNull final MiDatatype varType, @NotNull final Token operator) {
         if (!MiDatatype.match(valueType, varType)) {
             parser.parserError("Invalid value type; Cannot assign " + valueType + " values to " + varType + " variables", operator,
                     (valueType != MiDatatype.NULL
                             ? "Cast the value to " + varType.name() + " or change the variable datatype to " + valueType + "."
                             : "Mark your variable as nullable or use std.to_nonnull() to safely convert a null-value to a nonnull-value."));
         }
-        variable.get().initialize();
-        return true;
     }
 
     private void checkInvalidGlobalVariableMutation(@NotNull final MiVariable globalVariable, @NotNull final MiModule ownModule, @NotNull final Token ident) {
@@ -841,7 +981,7 @@ public class ASTRefiner {
             }
             switch (modifier.get()) {
                 case MUT, OWN -> constVar = false;
-                case NAT, INTERN -> {
+                case NAT, INTERN, INLINE -> {
                     parser.parserError("Invalid variable modifier; only allowed modifiers for global variables are mut, const, own, nullable, nonnull, pub, priv and prot", modifNodes.get(i).value());
                     return true;
                 }
@@ -865,7 +1005,7 @@ public class ASTRefiner {
                 return true;
             }
             switch (modifier.get()) {
-                case NAT, INTERN, PUB, PRIV, PROT, OWN -> {
+                case NAT, INTERN, INLINE, PUB, PRIV, PROT, OWN -> {
                     parser.parserError("Invalid variable modifier; only allowed modifiers for local variables are mut, const, nullable and nonnull", modifNodes.get(i).value());
                     return true;
                 }
@@ -884,7 +1024,7 @@ public class ASTRefiner {
                 return true;
             }
             switch (modifier.get()) {
-                case MUT, NAT, OWN, CONST, INTERN, NULLABLE, NONNULL -> {
+                case MUT, NAT, OWN, CONST, INTERN, INLINE, NULLABLE, NONNULL -> {
                     parser.parserError("Invalid enum modifier; only allowed modifiers for enums are pub, priv and prot", modifNodes.get(i).value(),
                             "Remove the invalid modifier(s)");
                     return true;
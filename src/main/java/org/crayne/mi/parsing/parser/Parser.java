@@ -1,9 +1,11 @@
 package org.crayne.mi.parsing.parser;
 
+import org.crayne.mi.lang.MiModule;
 import org.crayne.mi.log.MessageHandler;
 import org.crayne.mi.parsing.ast.Node;
 import org.crayne.mi.parsing.ast.NodeType;
 import org.crayne.mi.parsing.lexer.Token;
+import org.crayne.mi.util.CompileTimings;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -15,6 +17,11 @@ public class Parser {
     private final int stdlibFinishLine;
     private boolean stdlib = true;
     private final MessageHandler output;
+    private Set<Token> elidedScopes = Collections.emptySet();
+    private MiModule rootModule = new MiModule("!PARENT");
+    private int seededTokens = 0;
+    private int seededChildren = 0;
+    private CompileTimings timings = new CompileTimings();
 
     private Node currentNode = new Node(NodeType.PARENT, -1);
 
@@ -32,6 +39,36 @@ public class Parser {
         return stdlibFinishLine;
     }
 
+    // function scopes (identified by their opening brace) whose body was taken out of the program, because its bytecode is already cached.
+    // these only need to be declared, not checked
+    public void elideScopes(@NotNull final Set<Token> elidedScopes) {
+        this.elidedScopes = elidedScopes;
+    }
+
+    public boolean elided(@NotNull final Token scope) {
+        return elidedScopes.contains(scope);
+    }
+
+    // starts from an already parsed and checked standard library: the given syntax tree and module tree belong to this parser from now on,
+    // and the first tokens (the ones of the standard library) are skipped
+    public void seed(@NotNull final Node stdlibAST, @NotNull final MiModule stdlibModule, final int stdlibTokens) {
+        this.currentNode = stdlibAST;
+        this.rootModule = stdlibModule;
+        this.seededTokens = stdlibTokens;
+        this.seededChildren = stdlibAST.children().size();
+        reachedStdlibFinish(true);
+    }
+
+    // the parse and check phases are recorded into these
+    public void timings(@NotNull final CompileTimings timings) {
+        this.timings = timings;
+    }
+
+    // the modules of everything parsed, once the program was checked
+    public MiModule rootModule() {
+        return rootModule;
+    }
+
     public void parserError(@NotNull final String message, @NotNull final Token token, @NotNull final String... quickFixes) {
         parserError(message, token, false, quickFixes);
     }
@@ -114,6 +151,13 @@ public class Parser {
     private Node lastScopedNode;
 
     public Node parse(@NotNull final List<Token> tokenList, @NotNull final String code) {
+        final Node ast = timings.measure("Parser.parse", () -> buildAST(tokenList, code));
+        if (ast == null) return null;
+        final ASTRefiner checkErrs = new ASTRefiner(this, rootModule, seededChildren);
+        return timings.measure("ASTRefiner.checkAST", () -> checkErrs.checkAST(ast));
+    }
+
+    private Node buildAST(@NotNull final List<Token> tokenList, @NotNull final String code) {
         int openedBrace = 0;
         output.setProgram(code);
         if (stdlibFinishLine == -1) {
@@ -121,7 +165,7 @@ public class Parser {
                     "Add a STANDARDLIB_MI_FINISH_CODE instruction after the standard library");
             return null;
         }
-        final List<List<Token>> statements = extractStatements(tokenList).stream().filter(l -> !l.isEmpty()).toList();
+        final List<List<Token>> statements = extractStatements(tokenList.subList(seededTokens, tokenList.size())).stream().filter(l -> !l.isEmpty()).toList();
         int i = 0;
 
         for (@NotNull final List<Token> statement : statements) {
@@ -205,8 +249,7 @@ public class Parser {
             final Token lastToken = lastStatement.get(lastStatement.size() - 1);
             parserError("Missing '}'", lastToken, "Add the missing '}' where it belongs. Every scope {} must be complete in order to compile the program.");
         }
-        final ASTRefiner checkErrs = new ASTRefiner(this);
-        return checkErrs.checkAST(currentNode);
+        return currentNode;
     }
 
     public Node currentNode() {
@@ -0,0 +1,75 @@
+package org.crayne.mi.stdlib;
+
+import org.crayne.mi.lang.MiModule;
+import org.crayne.mi.log.MessageHandler;
+import org.crayne.mi.parsing.ast.Node;
+import org.crayne.mi.parsing.lexer.Token;
+import org.crayne.mi.parsing.lexer.Tokenizer;
+import org.crayne.mi.parsing.parser.Parser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// a standard library that was tokenized, parsed and checked once. every compile against it only tokenizes, parses and checks its own code,
+// starting from a copy of the syntax tree and module tree in here, which are never handed out themselves so that compiles can run concurrently
+public class MiStandardLibSnapshot {
+
+    private static final Map<String, Optional<MiStandardLibSnapshot>> snapshots = new ConcurrentHashMap<>();
+
+    private final List<Token> tokens;
+    private final int line;
+    private final int actualLine;
+    private final int stdlibFinishLine;
+    private final Node ast;
+    private final MiModule rootModule;
+
+    private MiStandardLibSnapshot(@NotNull final List<Token> tokens, final int line, final int actualLine, final int stdlibFinishLine,
+                                  @NotNull final Node ast, @NotNull final MiModule rootModule) {
+        this.tokens = tokens;
+        this.line = line;
+        this.actualLine = actualLine;
+        this.stdlibFinishLine = stdlibFinishLine;
+        this.ast = ast;
+        this.rootModule = rootModule;
+    }
+
+    // empty if the standard library cannot be checked on its own, in which case it has to be compiled together with the code as a whole
+    public static Optional<MiStandardLibSnapshot> of(@NotNull final String stdlib, @NotNull final Collection<String> multiTokens) {
+        return snapshots.computeIfAbsent(stdlib, s -> create(s, multiTokens));
+    }
+
+    private static Optional<MiStandardLibSnapshot> create(@NotNull final String stdlib, @NotNull final Collection<String> multiTokens) {
+        // any errors are reported by the compile that falls back to the whole program
+        final MessageHandler silent = new MessageHandler(new PrintStream(OutputStream.nullOutputStream()), false);
+
+        final Tokenizer tokenizer = new Tokenizer(silent, multiTokens);
+        final List<Token> tokens = tokenizer.tokenize(stdlib);
+        if (tokenizer.encounteredError() || tokenizer.stdlibFinishLine() == -1 || !tokenizer.atTokenBoundary()) return Optional.empty();
+
+        final Parser parser = new Parser(silent, tokenizer.stdlibFinishLine());
+        final Node ast = parser.parse(tokens, stdlib);
+        if (ast == null) return Optional.empty();
+
+        return Optional.of(new MiStandardLibSnapshot(List.copyOf(tokens), tokenizer.line(), tokenizer.actualLine(), tokenizer.stdlibFinishLine(), ast, parser.rootModule()));
+    }
+
+    public int stdlibFinishLine() {
+        return stdlibFinishLine;
+    }
+
+    // the tokenizer then only needs the code after the standard library
+    public void resume(@NotNull final Tokenizer tokenizer) {
+        tokenizer.resume(tokens, line, actualLine, stdlibFinishLine);
+    }
+
+    public void seed(@NotNull final Parser parser) {
+        parser.seed(ast.copy(), rootModule.copy(), tokens.size());
+    }
+
+}
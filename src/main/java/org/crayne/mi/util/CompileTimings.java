@@ -0,0 +1,91 @@
+package org.crayne.mi.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// wall time and allocation of every phase of one compilation, in the order the phases ran
+public class CompileTimings {
+
+    private final List<PhaseTiming> phases = Collections.synchronizedList(new ArrayList<>());
+    private final boolean measureAllocations;
+    private final Thread owner;
+    private final AtomicLong pooledAllocations = new AtomicLong();
+
+    // allocations are only measured when asked for, phases then report -1 as their allocation
+    public CompileTimings() {
+        this(false);
+    }
+
+    public CompileTimings(final boolean measureAllocations) {
+        this.measureAllocations = measureAllocations;
+        this.owner = Thread.currentThread();
+    }
+
+    public List<PhaseTiming> phases() {
+        return List.copyOf(phases);
+    }
+
+    public class Phase {
+
+        private final String name;
+        private final long start;
+        private final long allocatedBefore;
+        private final long pooledBefore;
+
+        // has to be ended on the thread it began on
+        private Phase(@NotNull final String name) {
+            this.name = name;
+            this.allocatedBefore = allocatedBytes();
+            this.pooledBefore = pooledAllocations.get();
+            this.start = System.nanoTime();
+        }
+
+        public void end() {
+            final long nanos = System.nanoTime() - start;
+            final long allocatedAfter = allocatedBytes();
+            final long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : Math.max(0, allocatedAfter - allocatedBefore) + pooledAllocations.get() - pooledBefore;
+            phases.add(new PhaseTiming(name, nanos, allocated));
+        }
+
+    }
+
+    // a phase that is never ended (because it failed, for example) does not show up
+    public Phase begin(@NotNull final String phase) {
+        return new Phase(phase);
+    }
+
+    public <T> T measure(@NotNull final String phase, @NotNull final Supplier<T> action) {
+        final Phase measured = begin(phase);
+        final T result = action.get();
+        measured.end();
+        return result;
+    }
+
+    // work that is handed to a thread pool counts what it allocated on its pool thread towards every phase that is open meanwhile.
+    // tasks that a join runs right on the compiling thread are already part of its own allocation
+    public <T> T measurePooled(@NotNull final Supplier<T> task) {
+        if (!measureAllocations || Thread.currentThread() == owner) return task.get();
+        final long before = allocatedBytes();
+        try {
+            return task.get();
+        } finally {
+            final long after = allocatedBytes();
+            if (before >= 0 && after >= 0) pooledAllocations.addAndGet(Math.max(0, after - before));
+        }
+    }
+
+    // of the calling thread only. -1 if not asked for, or if the jvm does not measure thread allocation (which is only read, never switched on here)
+    private long allocatedBytes() {
+        if (!measureAllocations) return -1;
+        if (!(ManagementFactory.getThreadMXBean() instanceof final com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+}
@@ -0,0 +1,13 @@
+package org.crayne.mi.util;
+
+import org.jetbrains.annotations.NotNull;
+
+public record PhaseTiming(@NotNull String name, long nanos, long allocatedBytes) {
+
+    public String toString() {
+        // allocation is -1 when the jvm cannot measure it
+        return name + ": " + String.format("%.3f", nanos / 1_000_000.0) + "ms"
+                + (allocatedBytes < 0 ? "" : ", " + String.format("%.1f", allocatedBytes / 1024.0) + "KiB allocated");
+    }
+
+}
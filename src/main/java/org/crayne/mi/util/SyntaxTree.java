@@ -1,6 +1,15 @@
 package org.crayne.mi.util;
 
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeException;
 import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.linker.ByteCodeObject;
+import org.crayne.mi.bytecode.optimizer.pass.BranchLayoutPass;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationLevel;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationPass;
+import org.crayne.mi.bytecode.optimizer.pass.PassManager;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.crayne.mi.cache.MiIncrementalBuild;
 import org.crayne.mi.util.errorhandler.Traceback;
 import org.crayne.mi.util.errorhandler.TracebackElement;
 import org.crayne.mi.bytecode.writer.ByteCodeCompiler;
@@ -11,8 +20,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public class SyntaxTree {
     private final Node parentNode;
@@ -21,10 +33,17 @@ public class SyntaxTree {
     private final List<String> code;
     private final Traceback traceback;
     private final int stdlibFinishLine;
-    private boolean error;
+    private final MiIncrementalBuild incrementalBuild;
+    private volatile boolean error;
 
     public SyntaxTree(@NotNull final Node parentNode, @NotNull final MessageHandler out, @NotNull final String code, final int stdlibFinishLine, final File inputFile) {
+        this(parentNode, out, code, stdlibFinishLine, inputFile, null);
+    }
+
+    public SyntaxTree(@NotNull final Node parentNode, @NotNull final MessageHandler out, @NotNull final String code, final int stdlibFinishLine, final File inputFile,
+                      final MiIncrementalBuild incrementalBuild) {
         this.parentNode = parentNode;
+        this.incrementalBuild = incrementalBuild;
         this.out = out;
         this.code = Arrays.stream(code.split("\n")).toList();
         this.traceback = new Traceback();
@@ -40,6 +59,10 @@ public class SyntaxTree {
         for (final int line : lines) traceback.add(newTracebackElement(line));
     }
 
+    public Traceback getTraceback() {
+        return traceback;
+    }
+
     public int getStdlibFinishLine() {
         return stdlibFinishLine;
     }
@@ -60,11 +83,83 @@ public class SyntaxTree {
         return parentNode;
     }
 
-    public void compile(@NotNull final File file) throws IOException {
-        final ByteCodeCompiler compiler = new ByteCodeCompiler(this);
+    public Optional<MiIncrementalBuild> getIncrementalBuild() {
+        return Optional.ofNullable(incrementalBuild);
+    }
+
+    public List<ByteCodeInstruction> compile(@NotNull final Collection<String> entryPoints, @NotNull final PassManager passManager) {
+        return compile(entryPoints, passManager, OptimizationLevel.DEFAULT, new CompileTimings());
+    }
+
+    public List<ByteCodeInstruction> compile(@NotNull final Collection<String> entryPoints, @NotNull final PassManager passManager,
+                                             @NotNull final OptimizationLevel level, @NotNull final CompileTimings timings) {
+        return compile(entryPoints, passManager, level, null, timings);
+    }
+
+    // the profile is optional, with one the functions that were hot are inlined more eagerly and the branches that were taken most fall through
+    public List<ByteCodeInstruction> compile(@NotNull final Collection<String> entryPoints, @NotNull final PassManager passManager,
+                                             @NotNull final OptimizationLevel level, final ByteCodeProfile profile, @NotNull final CompileTimings timings) {
+        final ByteCodeCompiler compiler = new ByteCodeCompiler(this, level, profile);
+        compiler.timings(timings);
+        final List<OptimizationPass> programPasses = profile == null ? List.of() : List.of(new BranchLayoutPass(profile));
+        final List<ByteCodeInstruction> compiled = timings.measure("ByteCodeCompiler.compile", compiler::compile);
+        if (error) return new ArrayList<>(); // like compileObject, a program that panicked the compiler is never handed out
+        if (compiled.isEmpty()) return compiled;
+        saveModules();
+        try {
+            return timings.measure("optimization passes", () -> passManager.run(compiled, entryPoints, level, programPasses));
+        } catch (final ByteCodeException e) {
+            error(e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public Optional<ByteCodeObject> compileObject(final int importsBeginLine) {
+        return compileObject(importsBeginLine, OptimizationLevel.DEFAULT, new CompileTimings());
+    }
+
+    // objects are only optimized once linked, the level only decides what gets inlined
+    public Optional<ByteCodeObject> compileObject(final int importsBeginLine, @NotNull final OptimizationLevel level, @NotNull final CompileTimings timings) {
+        final ByteCodeCompiler compiler = new ByteCodeCompiler(this, level);
+        compiler.timings(timings);
+        final Optional<ByteCodeObject> object = timings.measure("ByteCodeCompiler.compile", () -> compiler.compileObject(importsBeginLine));
+        return error ? Optional.empty() : object;
+    }
+
+    // the cache only ever gets fragments of programs that compiled without errors. failing to write it is not fatal, it just won't be used next time
+    private void saveModules() {
+        if (incrementalBuild == null) return;
+        try {
+            incrementalBuild.save();
+        } catch (final IOException e) {
+            out.warnMsg("Could not write module cache: " + e.getClass().getSimpleName() + " " + e.getMessage());
+        }
+    }
+
+    public void compile(@NotNull final File file, @NotNull final Collection<String> entryPoints, @NotNull final PassManager passManager) throws IOException {
+        compile(file, entryPoints, passManager, OptimizationLevel.DEFAULT, new CompileTimings());
+    }
+
+    public void compile(@NotNull final File file, @NotNull final Collection<String> entryPoints, @NotNull final PassManager passManager,
+                        @NotNull final OptimizationLevel level, @NotNull final CompileTimings timings) throws IOException {
+        compile(file, entryPoints, passManager, level, null, timings);
+    }
+
+    public void compile(@NotNull final File file, @NotNull final Collection<String> entryPoints, @NotNull final PassManager passManager,
+                        @NotNull final OptimizationLevel level, final ByteCodeProfile profile, @NotNull final CompileTimings timings) throws IOException {
+        compile(file, entryPoints, passManager, level, profile, ByteCodeCompression.DEFAULT, timings);
+    }
+
+    public void compile(@NotNull final File file, @NotNull final Collection<String> entryPoints, @NotNull final PassManager passManager,
+                        @NotNull final OptimizationLevel level, final ByteCodeProfile profile, @NotNull final ByteCodeCompression compression,
+                        @NotNull final CompileTimings timings) throws IOException {
         out.infoMsg("Compiling " + inputFile.getName() + "...");
-        final List<ByteCodeInstruction> compiled = compiler.compile();
-        ByteCodeCompiler.compileToFile(compiled, file);
+        if (incrementalBuild != null && incrementalBuild.reusedModules() != 0)
+            out.infoMsg("Reusing " + incrementalBuild.reusedModules() + " of " + incrementalBuild.modules() + " cached modules");
+        final List<ByteCodeInstruction> compiled = compile(entryPoints, passManager, level, profile, timings);
+        final CompileTimings.Phase write = timings.begin("file write");
+        ByteCodeCompiler.compileToFile(compiled, file, compression);
+        write.end();
         if (compiled.isEmpty()) {
             out.errorMsg("Could not compile " + inputFile.getName() + ". See error output above.");
             return;
@@ -73,6 +168,11 @@ public class SyntaxTree {
     }
 
     public void error(@NotNull final String msg, @NotNull final String... quickFixes) {
+        error(traceback, msg, quickFixes);
+    }
+
+    // function scopes are compiled in parallel, each with its own traceback
+    public synchronized void error(@NotNull final Traceback traceback, @NotNull final String msg, @NotNull final String... quickFixes) {
         out
                 .log("Unexpected compiler error: " + msg, LogHandler.Level.FATAL)
                 .possibleSolutions(quickFixes)
@@ -0,0 +1,60 @@
+package org.crayne.mi;
+
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.communication.Value;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.cache.MiModuleCache;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// compiles mi programs against the standard library and runs their functions, for tests that go through the whole compiler
+public class MiTestPrograms {
+
+    private MiTestPrograms() {}
+
+    // the program, or an empty one if it did not compile, together with everything the compiler logged
+    public record Compiled(@NotNull List<ByteCodeInstruction> program, @NotNull String log) {}
+
+    public static Compiled compile(@NotNull final String code, @NotNull final String... entryPoints) {
+        return compile(code, null, entryPoints);
+    }
+
+    public static Compiled compile(@NotNull final String code, final MiModuleCache cache, @NotNull final String... entryPoints) {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final Mi mi = new Mi(new PrintStream(log, true, StandardCharsets.UTF_8), false);
+        final List<ByteCodeInstruction> program = mi.compile(MiStandardLib.standardLib(), code, MiCompileOptions.DEFAULT.withCache(cache), entryPoints);
+        return new Compiled(program, log.toString(StandardCharsets.UTF_8));
+    }
+
+    // fails the test if the program does not compile
+    public static List<ByteCodeInstruction> compileOrFail(@NotNull final String code, @NotNull final String... entryPoints) {
+        final Compiled compiled = compile(code, entryPoints);
+        assertFalse(compiled.program().isEmpty(), () -> "The program does not compile:\n" + compiled.log());
+        return compiled.program();
+    }
+
+    public static ByteCodeInterpreter interpreter(@NotNull final List<ByteCodeInstruction> program) {
+        return new ByteCodeInterpreter(program, new Mi(System.out, false).messageHandler());
+    }
+
+    // what the function returns, null for functions that do not return anything
+    public static Object invoke(@NotNull final ByteCodeInterpreter interpreter, @NotNull final String function, @NotNull final Object... parameters) {
+        return interpreter.newCommunicator().invoke(function, parameters).map(Value::value).orElse(null);
+    }
+
+    public static Object invoke(@NotNull final List<ByteCodeInstruction> program, @NotNull final String function, @NotNull final Object... parameters) {
+        return invoke(interpreter(program), function, parameters);
+    }
+
+    public static List<String> bytes(@NotNull final List<ByteCodeInstruction> program) {
+        return program.stream().map(ByteCodeInstruction::toString).toList();
+    }
+
+}
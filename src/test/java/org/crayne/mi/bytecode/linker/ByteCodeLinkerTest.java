@@ -0,0 +1,126 @@
+package org.crayne.mi.bytecode.linker;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// objects are compiled against the exports of the objects they import, and only refer to those by name until they are linked
+class ByteCodeLinkerTest {
+
+    private static final String MATH = """
+            mod mathx {
+            \tpub mut int calls = 0;
+            \tpub int LIMIT = 3;
+
+            \tpub fn sq :: int (int x) {
+            \t\tcalls++;
+            \t\treturn x * x;
+            \t}
+
+            \tpub fn sum :: int (int n) {
+            \t\tmut int s = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\ts += sq(i);
+            \t\t}
+            \t\treturn s;
+            \t}
+            }
+            """;
+
+    private static final String APP = """
+            mod testing {
+            \tmut int offset = 5;
+
+            \tpub fn result :: int () {
+            \t\treturn mathx.sq(7) + mathx.sum(4) + offset + mathx.LIMIT;
+            \t}
+
+            \tpub fn calls :: int () {
+            \t\treturn mathx.calls;
+            \t}
+            }
+            """;
+
+    private static ByteCodeObject object(@NotNull final String code, @NotNull final ByteCodeObject... imports) {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final Mi mi = new Mi(new PrintStream(log, true, StandardCharsets.UTF_8), false);
+        final Optional<ByteCodeObject> object = mi.compileObject(MiStandardLib.standardLib(), code, null, List.of(imports));
+        assertTrue(object.isPresent(), () -> "The object does not compile:\n" + log.toString(StandardCharsets.UTF_8));
+        return object.get();
+    }
+
+    private static void assertRunsLikeOneProgram(@NotNull final List<ByteCodeInstruction> linked) {
+        final ByteCodeInterpreter whole = interpreter(compileOrFail(MATH + APP));
+        final ByteCodeInterpreter interpreter = interpreter(linked);
+        assertEquals(invoke(whole, "testing.result"), invoke(interpreter, "testing.result"));
+        assertEquals(invoke(whole, "testing.calls"), invoke(interpreter, "testing.calls"));
+        assertEquals(49 + 14 + 5 + 3, invoke(interpreter, "testing.result"));
+        assertEquals(10, invoke(interpreter, "testing.calls"));
+    }
+
+    @Test
+    void importsAreResolvedToTheirExports() {
+        final ByteCodeObject math = object(MATH);
+        final ByteCodeObject app = object(APP, math);
+        assertTrue(app.imports().stream().anyMatch(s -> s.kind() == ByteCodeSymbol.Kind.FUNCTION && s.name().contains("mathx.sq")));
+        assertTrue(app.imports().stream().anyMatch(s -> s.kind() == ByteCodeSymbol.Kind.GLOBAL && s.name().contains("mathx.calls")));
+
+        assertRunsLikeOneProgram(ByteCodeLinker.link(List.of(math, app)));
+    }
+
+    @Test
+    void objectFilesLinkLikeTheObjectsTheyWereWrittenFrom(@TempDir final Path directory) throws IOException {
+        final ByteCodeObject math = object(MATH);
+        final ByteCodeObject app = object(APP, math);
+        final File mathFile = directory.resolve("math.mio").toFile();
+        final File appFile = directory.resolve("app.mio").toFile();
+        math.write(mathFile);
+        app.write(appFile);
+
+        final List<ByteCodeInstruction> linked = ByteCodeLinker.link(List.of(ByteCodeObject.read(mathFile), ByteCodeObject.read(appFile)));
+        assertEquals(bytes(ByteCodeLinker.link(List.of(math, app))), bytes(linked));
+        assertRunsLikeOneProgram(linked);
+    }
+
+    @Test
+    void importsNoObjectExportsAreUnresolved() {
+        final ByteCodeObject app = object(APP, object(MATH));
+        final ByteCodeException e = assertThrows(ByteCodeException.class, () -> ByteCodeLinker.link(List.of(app)));
+        assertTrue(e.getMessage().startsWith("Unresolved "), e.getMessage());
+        assertTrue(e.getMessage().contains("mathx."), e.getMessage());
+
+        // the compiler reports the same error instead of throwing it
+        assertTrue(new Mi(new PrintStream(new ByteArrayOutputStream()), false).link(List.of(app), "testing.result").isEmpty());
+    }
+
+    @Test
+    void symbolsExportedTwiceAreRejected() {
+        final ByteCodeObject math = object(MATH);
+        final ByteCodeException e = assertThrows(ByteCodeException.class, () -> ByteCodeLinker.link(List.of(math, object(MATH))));
+        assertTrue(e.getMessage().contains("is defined by more than one object"), e.getMessage());
+        assertTrue(e.getMessage().contains("mathx."), e.getMessage());
+    }
+
+    @Test
+    void nothingIsLinkedFromNoObjects() {
+        assertThrows(ByteCodeException.class, () -> ByteCodeLinker.link(List.of()));
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.MiCompileOptions;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.profile.BranchCounts;
+import org.crayne.mi.bytecode.profile.BranchSite;
+import org.crayne.mi.bytecode.profile.ByteCodeProfile;
+import org.crayne.mi.bytecode.profile.ByteCodeProfiler;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// a program is run once with a profiler attached, then compiled again with that profile. every if-else whose jump was mostly taken
+// gets its branches swapped, so the path that ran most falls through. jump labels are the index of their target + 1
+class BranchLayoutPassTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tpub fn ifElse :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\tif i % 10 == 0 {
+            \t\t\t\tacc += 1;
+            \t\t\t} else {
+            \t\t\t\tacc += 2;
+            \t\t\t}
+            \t\t}
+            \t\treturn acc;
+            \t}
+
+            \tpub fn ternary :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\tacc += i % 10 == 0 ? 1 : 2;
+            \t\t}
+            \t\treturn acc;
+            \t}
+
+            \tpub fn shortCircuit :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\tif i % 10 == 0 && i > 0 || i == 3 {
+            \t\t\t\tacc += 1;
+            \t\t\t} else {
+            \t\t\t\tacc += 2;
+            \t\t\t}
+            \t\t}
+            \t\treturn acc;
+            \t}
+
+            \tpub fn guarded :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tmut int i = 0;
+            \t\twhile true {
+            \t\t\ti++;
+            \t\t\tif i > n {
+            \t\t\t\tbreak;
+            \t\t\t}
+            \t\t\tif i % 10 == 0 {
+            \t\t\t\tcontinue;
+            \t\t\t}
+            \t\t\tacc += i;
+            \t\t}
+            \t\treturn acc;
+            \t}
+            }
+            """;
+
+    private static final List<String> FUNCTIONS = List.of("testing.ifElse", "testing.ternary", "testing.shortCircuit", "testing.guarded");
+
+    private static ByteCodeInstruction pushInt(final int value) {
+        return ByteCode.push(ByteCode.integer(value));
+    }
+
+    private static ByteCodeInstruction op(@NotNull final ByteCode code) {
+        return new ByteCodeInstruction(code.code());
+    }
+
+    // returns one if its parameter is true, two otherwise
+    private static List<ByteCodeInstruction> ifElse(@NotNull final ByteCodeInstruction condition, @NotNull final ByteCodeInstruction then, @NotNull final ByteCodeInstruction otherwise) {
+        return List.of(ByteCode.function("f", 0L), ByteCode.localFrame(4, 4), ByteCode.defineLocal(0),
+                pushInt(0), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS),
+                condition, then, ByteCode.jump(10), otherwise,
+                op(ByteCode.RETURN_STATEMENT), op(ByteCode.FUNCTION_DEFINITION_END));
+    }
+
+    private static ByteCodeProfile profile(@NotNull final List<ByteCodeInstruction> program, final long whenTrue, final long whenFalse) {
+        final BranchSite site = Arrays.stream(BranchSite.of(program)).filter(Objects::nonNull).findFirst().orElseThrow();
+        return new ByteCodeProfile(Map.of(), Map.of(site, new BranchCounts(whenTrue, whenFalse)));
+    }
+
+    private static List<Object> runAll(@NotNull final ByteCodeInterpreter interpreter) {
+        final List<Object> results = new ArrayList<>();
+        for (final String function : FUNCTIONS) results.add(invoke(interpreter, function, 100));
+        return results;
+    }
+
+    // runs every function once and takes the profile of that
+    private static ByteCodeProfile profileOf(@NotNull final List<ByteCodeInstruction> program, @NotNull final List<Object> results) {
+        final ByteCodeInterpreter interpreter = interpreter(program);
+        final ByteCodeProfiler profiler = interpreter.profile();
+        results.addAll(runAll(interpreter));
+        return profiler.profile();
+    }
+
+    // the sites of all conditional jumps that jumped more often than they fell through, as 'function#ordinal'
+    private static List<String> mostlyTaken(@NotNull final List<ByteCodeInstruction> program, @NotNull final ByteCodeProfile profile) {
+        final BranchSite[] sites = BranchSite.of(program);
+        final List<String> taken = new ArrayList<>();
+        for (int i = 0; i < sites.length; i++) {
+            if (sites[i] == null) continue;
+            final BranchCounts counts = profile.branch(sites[i]).orElseThrow();
+            final boolean jumpsWhen = program.get(i).type().orElseThrow() == ByteCode.JUMP_IF;
+            if ((jumpsWhen ? counts.whenTrue() : counts.whenFalse()) > (jumpsWhen ? counts.whenFalse() : counts.whenTrue())) {
+                final String function = sites[i].function();
+                taken.add(function.substring(function.indexOf("testing."), function.indexOf('[')) + "#" + sites[i].ordinal());
+            }
+        }
+        Collections.sort(taken);
+        return taken;
+    }
+
+    @Test
+    void mostlyTakenJumpsSwapTheirBranches() {
+        final List<ByteCodeInstruction> program = ifElse(ByteCode.jumpIfNot(9), pushInt(1), pushInt(2));
+        assertEquals(bytes(ifElse(ByteCode.jumpIf(9), pushInt(2), pushInt(1))), bytes(new BranchLayoutPass(profile(program, 1, 9)).run(program, List.of())));
+        assertEquals(bytes(ifElse(ByteCode.jumpIfNot(9), pushInt(1), pushInt(2))), bytes(new BranchLayoutPass(profile(program, 9, 1)).run(ifElse(ByteCode.jumpIf(9), pushInt(2), pushInt(1)), List.of())));
+    }
+
+    @Test
+    void mostlyFallenJumpsStay() {
+        final List<ByteCodeInstruction> program = ifElse(ByteCode.jumpIfNot(9), pushInt(1), pushInt(2));
+        assertEquals(bytes(program), bytes(new BranchLayoutPass(profile(program, 9, 1)).run(program, List.of())));
+        assertEquals(bytes(program), bytes(new BranchLayoutPass(new ByteCodeProfile(Map.of(), Map.of())).run(program, List.of())));
+    }
+
+    @Test
+    void profiledProgramsFallThroughTheirHotPaths(@TempDir final Path dir) throws IOException {
+        final List<ByteCodeInstruction> program = compileOrFail(CODE);
+        final List<Object> results = new ArrayList<>();
+        final ByteCodeProfile recorded = profileOf(program, results);
+        assertEquals(List.of(190, 190, 190, 4500), results);
+
+        final File file = dir.resolve("program.mip").toFile();
+        recorded.write(file);
+        final ByteCodeProfile profile = ByteCodeProfile.read(file);
+        for (final BranchSite site : BranchSite.of(program)) {
+            if (site != null) assertEquals(recorded.branch(site), profile.branch(site));
+        }
+        assertEquals(recorded.hotFunctions(), profile.hotFunctions());
+
+        // the jumps inside of a short circuit condition and the backwards jump of the continue statement have no else branch to swap with
+        assertEquals(List.of("testing.guarded#0", "testing.guarded#1", "testing.ifElse#1",
+                "testing.shortCircuit#1", "testing.shortCircuit#2", "testing.shortCircuit#3", "testing.ternary#1"), mostlyTaken(program, recorded));
+
+        final List<ByteCodeInstruction> laidOut = new Mi(System.out, false).compile(MiStandardLib.standardLib(), CODE, MiCompileOptions.DEFAULT.withProfile(profile));
+        assertNotEquals(bytes(program), bytes(laidOut));
+
+        final List<Object> laidOutResults = new ArrayList<>();
+        final ByteCodeProfile again = profileOf(laidOut, laidOutResults);
+        assertEquals(results, laidOutResults);
+        assertEquals(List.of("testing.guarded#1", "testing.shortCircuit#1", "testing.shortCircuit#2"), mostlyTaken(laidOut, again));
+    }
+
+}
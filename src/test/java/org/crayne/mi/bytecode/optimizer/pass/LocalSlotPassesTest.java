@@ -0,0 +1,175 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.peephole.PeepholeOptimizer;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// copy propagation and dead store elimination on single functions. the slot of a local is pushed as an int before it is
+// loaded (VALUE_AT_RELATIVE_ADDRESS) or converted to an address for a mutation (RELATIVE_TO_ABSOLUTE_ADDRESS), jump labels are the index of their target + 1
+class LocalSlotPassesTest {
+
+    private static ByteCodeInstruction pushInt(final int value) {
+        return ByteCode.push(ByteCode.integer(value));
+    }
+
+    private static ByteCodeInstruction op(@NotNull final ByteCode code) {
+        return new ByteCodeInstruction(code.code());
+    }
+
+    private static List<ByteCodeInstruction> load(final int slot) {
+        return List.of(pushInt(slot), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS));
+    }
+
+    private static List<ByteCodeInstruction> store(final int slot) {
+        return List.of(pushInt(slot), op(ByteCode.RELATIVE_TO_ABSOLUTE_ADDRESS), op(ByteCode.MUTATE_VARIABLE));
+    }
+
+    private static List<ByteCodeInstruction> increment(final int slot) {
+        return List.of(pushInt(slot), op(ByteCode.RELATIVE_TO_ABSOLUTE_ADDRESS), op(ByteCode.INC_VARIABLE));
+    }
+
+    // a function with the given body, taking one parameter in slot 0
+    private static List<ByteCodeInstruction> function(@NotNull final Object... body) {
+        final List<ByteCodeInstruction> program = new ArrayList<>();
+        program.add(ByteCode.function("f", 0L));
+        program.add(ByteCode.localFrame(4, 4));
+        program.add(ByteCode.defineLocal(0));
+        for (final Object instr : body) {
+            if (instr instanceof final ByteCodeInstruction single) program.add(single);
+            else for (final Object each : (List<?>) instr) program.add((ByteCodeInstruction) each);
+        }
+        program.add(op(ByteCode.FUNCTION_DEFINITION_END));
+        return program;
+    }
+
+    private static void assertRewrites(@NotNull final OptimizationPass pass, @NotNull final List<ByteCodeInstruction> before, @NotNull final List<ByteCodeInstruction> after) {
+        final List<ByteCodeInstruction> optimized = pass.run(before, List.of());
+        assertEquals(after.stream().map(ByteCodeInstruction::toString).toList(), optimized.stream().map(ByteCodeInstruction::toString).toList());
+    }
+
+    private static void assertUnchanged(@NotNull final OptimizationPass pass, @NotNull final List<ByteCodeInstruction> program) {
+        assertRewrites(pass, program, program);
+    }
+
+    @Test
+    void copiesAreReadFromTheOriginal() {
+        assertRewrites(new CopyPropagationPass(),
+                function(load(0), ByteCode.defineLocal(1), load(1), op(ByteCode.RETURN_STATEMENT)),
+                function(load(0), ByteCode.defineLocal(1), load(0), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void copiesOfCopiesAreReadFromTheFirstOriginal() {
+        assertRewrites(new CopyPropagationPass(),
+                function(load(0), ByteCode.defineLocal(1), load(1), ByteCode.defineLocal(2), load(2), op(ByteCode.RETURN_STATEMENT)),
+                function(load(0), ByteCode.defineLocal(1), load(0), ByteCode.defineLocal(2), load(0), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void copiesAreForgottenOnceEitherSideIsWritten() {
+        assertUnchanged(new CopyPropagationPass(),
+                function(load(0), ByteCode.defineLocal(1), pushInt(5), store(0), load(1), op(ByteCode.RETURN_STATEMENT)));
+        assertUnchanged(new CopyPropagationPass(),
+                function(load(0), ByteCode.defineLocal(1), increment(1), load(1), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void copiesMustBeKnownOnEveryPath() {
+        // slot 3 is a copy of slot 0, unless the branch (11..13) makes it a copy of slot 1 instead
+        final List<ByteCodeInstruction> branch = function(
+                pushInt(7), ByteCode.defineLocal(1),          // 3, 4
+                load(0), ByteCode.defineLocal(3),             // 5, 6, 7
+                load(0), ByteCode.jumpIfNot(15),              // 8, 9, 10
+                load(1), ByteCode.defineLocal(3),             // 11, 12, 13
+                load(3), op(ByteCode.RETURN_STATEMENT));      // 14, 15, 16
+        assertUnchanged(new CopyPropagationPass(), branch);
+    }
+
+    @Test
+    void copiesSurviveLoopsThatLeaveThemAlone() {
+        final List<ByteCodeInstruction> loop = function(
+                load(0), ByteCode.defineLocal(1),                    // 3, 4, 5
+                pushInt(0), ByteCode.defineLocal(2),                 // 6, 7
+                load(2), pushInt(3), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(18), // 8, 9, 10, 11, 12
+                increment(2), ByteCode.jump(9),                      // 13, 14, 15, 16
+                load(1), op(ByteCode.RETURN_STATEMENT));             // 17, 18, 19
+        final List<ByteCodeInstruction> propagated = new ArrayList<>(loop);
+        propagated.set(17, pushInt(0));
+        assertRewrites(new CopyPropagationPass(), loop, propagated);
+    }
+
+    @Test
+    void deadDefinitionsOnlyPopTheirValue() {
+        assertRewrites(new DeadStoreEliminationPass(),
+                function(pushInt(5), ByteCode.defineLocal(1), load(0), store(1), load(1), op(ByteCode.RETURN_STATEMENT)),
+                function(pushInt(5), ByteCode.popPush(), load(0), store(1), load(1), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void deadMutationsOnlyPopTheirValue() {
+        assertRewrites(new DeadStoreEliminationPass(),
+                function(load(0), ByteCode.defineLocal(1), load(1), pushInt(7), store(1), op(ByteCode.RETURN_STATEMENT)),
+                function(load(0), ByteCode.defineLocal(1), load(1), pushInt(7), ByteCode.popPush(), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void unusedParametersArePopped() {
+        final List<ByteCodeInstruction> program = function(pushInt(1), op(ByteCode.RETURN_STATEMENT));
+        final List<ByteCodeInstruction> popped = new ArrayList<>(program);
+        popped.set(2, ByteCode.popPush());
+        assertRewrites(new DeadStoreEliminationPass(), program, popped);
+    }
+
+    @Test
+    void storesReadInLaterIterationsAreKept() {
+        assertUnchanged(new DeadStoreEliminationPass(), function(
+                pushInt(0), ByteCode.defineLocal(1),                                   // 3, 4
+                load(1), load(0), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(16),      // 5, 6, 7, 8, 9, 10
+                increment(1), ByteCode.jump(6),                                        // 11, 12, 13, 14
+                load(1), op(ByteCode.RETURN_STATEMENT)));                              // 15, 16, 17
+    }
+
+    @Test
+    void countersThatOnlyReadThemselvesAreDropped() {
+        // slot 1 is only ever read by its own increment
+        final List<ByteCodeInstruction> loop = function(
+                pushInt(0), ByteCode.defineLocal(1),                                   // 3, 4
+                pushInt(0), ByteCode.defineLocal(2),                                   // 5, 6
+                load(2), load(0), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(21),      // 7, 8, 9, 10, 11, 12
+                increment(1), increment(2), ByteCode.jump(8),                          // 13, 14, 15, 16, 17, 18, 19
+                load(2), op(ByteCode.RETURN_STATEMENT));                               // 20, 21, 22
+        final List<ByteCodeInstruction> dropped = function(
+                pushInt(0), ByteCode.popPush(),                                        // 3, 4
+                pushInt(0), ByteCode.defineLocal(2),                                   // 5, 6
+                load(2), load(0), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(18),      // 7, 8, 9, 10, 11, 12
+                increment(2), ByteCode.jump(8),                                        // 13, 14, 15, 16
+                load(2), op(ByteCode.RETURN_STATEMENT));                               // 17, 18, 19
+        assertRewrites(new DeadStoreEliminationPass(), loop, dropped);
+    }
+
+    @Test
+    void functionsUsingOtherAddressesAreLeftAlone() {
+        assertUnchanged(new DeadStoreEliminationPass(),
+                function(pushInt(5), ByteCode.defineLocal(1), pushInt(1), op(ByteCode.VALUE_AT_ADDRESS), op(ByteCode.RETURN_STATEMENT)));
+        assertUnchanged(new CopyPropagationPass(),
+                function(load(0), ByteCode.defineLocal(1), load(1), pushInt(1), op(ByteCode.VALUE_AT_ADDRESS), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void deadCopiesDisappearWithThePeepholePass() {
+        final PassManager passes = new PassManager(new CopyPropagationPass(), new DeadStoreEliminationPass(), new PeepholePass(PeepholeOptimizer.withDefaultRules()));
+        final List<ByteCodeInstruction> optimized = passes.run(
+                function(load(0), ByteCode.defineLocal(1), load(1), load(1), op(ByteCode.MULTIPLY), op(ByteCode.RETURN_STATEMENT)),
+                List.of());
+        assertEquals(function(load(0), ByteCode.dup(), op(ByteCode.MULTIPLY), op(ByteCode.RETURN_STATEMENT)).stream().map(ByteCodeInstruction::toString).toList(),
+                optimized.stream().map(ByteCodeInstruction::toString).toList());
+    }
+
+}
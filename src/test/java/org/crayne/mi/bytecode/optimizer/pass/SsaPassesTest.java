@@ -0,0 +1,182 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.MiCompileOptions;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.bytes;
+import static org.crayne.mi.MiTestPrograms.invoke;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+// common subexpression elimination and loop invariant code motion, which both run on the ssa form of a function (see SsaFunction).
+// the functions are laid out like in LocalSlotPassesTest, new locals of the passes go after the 4 locals of the frame
+class SsaPassesTest {
+
+    private static ByteCodeInstruction pushInt(final int value) {
+        return ByteCode.push(ByteCode.integer(value));
+    }
+
+    private static ByteCodeInstruction op(@NotNull final ByteCode code) {
+        return new ByteCodeInstruction(code.code());
+    }
+
+    private static List<ByteCodeInstruction> load(final int slot) {
+        return List.of(pushInt(slot), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS));
+    }
+
+    private static List<ByteCodeInstruction> store(final int slot) {
+        return List.of(pushInt(slot), op(ByteCode.RELATIVE_TO_ABSOLUTE_ADDRESS), op(ByteCode.MUTATE_VARIABLE));
+    }
+
+    private static List<ByteCodeInstruction> increment(final int slot) {
+        return List.of(pushInt(slot), op(ByteCode.RELATIVE_TO_ABSOLUTE_ADDRESS), op(ByteCode.INC_VARIABLE));
+    }
+
+    // a function with the given body, taking one parameter in slot 0
+    private static List<ByteCodeInstruction> function(@NotNull final Object... body) {
+        return framed(ByteCode.localFrame(4, 4), body);
+    }
+
+    // the same function, once the passes added locals to its frame
+    private static List<ByteCodeInstruction> framed(@NotNull final ByteCodeInstruction frame, @NotNull final Object... body) {
+        final List<ByteCodeInstruction> program = new ArrayList<>();
+        program.add(ByteCode.function("f", 0L));
+        program.add(frame);
+        program.add(ByteCode.defineLocal(0));
+        for (final Object instr : body) {
+            if (instr instanceof final ByteCodeInstruction single) program.add(single);
+            else for (final Object each : (List<?>) instr) program.add((ByteCodeInstruction) each);
+        }
+        program.add(op(ByteCode.FUNCTION_DEFINITION_END));
+        return program;
+    }
+
+    private static void assertRewrites(@NotNull final OptimizationPass pass, @NotNull final List<ByteCodeInstruction> before, @NotNull final List<ByteCodeInstruction> after) {
+        assertEquals(bytes(after), bytes(pass.run(before, List.of())));
+    }
+
+    private static void assertUnchanged(@NotNull final OptimizationPass pass, @NotNull final List<ByteCodeInstruction> program) {
+        assertRewrites(pass, program, program);
+    }
+
+    @Test
+    void valuesStillHeldByALocalAreLoaded() {
+        assertRewrites(new CommonSubexpressionEliminationPass(),
+                function(load(0), pushInt(3), op(ByteCode.PLUS), ByteCode.defineLocal(1), load(0), pushInt(3), op(ByteCode.PLUS), op(ByteCode.RETURN_STATEMENT)),
+                function(load(0), pushInt(3), op(ByteCode.PLUS), ByteCode.defineLocal(1), load(1), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void valuesComputedTwiceAreKeptInANewLocal() {
+        assertRewrites(new CommonSubexpressionEliminationPass(),
+                function(load(0), pushInt(3), op(ByteCode.PLUS), load(0), pushInt(3), op(ByteCode.PLUS), op(ByteCode.MULTIPLY), op(ByteCode.RETURN_STATEMENT)),
+                framed(ByteCode.localFrame(5, 5),
+                        load(0), pushInt(3), op(ByteCode.PLUS), ByteCode.dup(), ByteCode.defineLocal(4), load(4), op(ByteCode.MULTIPLY), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void valuesAreOnlyReusedWhereEveryPathComputedThem() {
+        assertUnchanged(new CommonSubexpressionEliminationPass(), function(
+                load(0), ByteCode.jumpIfNot(12),                          // 3, 4, 5
+                load(0), pushInt(3), op(ByteCode.PLUS), ByteCode.defineLocal(1), // 6, 7, 8, 9, 10
+                load(0), pushInt(3), op(ByteCode.PLUS), op(ByteCode.RETURN_STATEMENT))); // 11, 12, 13, 14, 15
+    }
+
+    @Test
+    void writtenLocalsEndTheirValues() {
+        assertUnchanged(new CommonSubexpressionEliminationPass(), function(
+                load(0), pushInt(3), op(ByteCode.PLUS), ByteCode.defineLocal(1),
+                increment(0),
+                load(0), pushInt(3), op(ByteCode.PLUS), op(ByteCode.RETURN_STATEMENT)));
+    }
+
+    @Test
+    void constantValuesAreComputedBeforeTheLoop() {
+        final List<ByteCodeInstruction> loop = function(
+                pushInt(3), ByteCode.defineLocal(1),                                      // 3, 4
+                pushInt(0), ByteCode.defineLocal(2),                                      // 5, 6
+                load(2), load(0), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(25),         // 7, 8, 9, 10, 11, 12
+                load(2), load(1), pushInt(2), op(ByteCode.MULTIPLY), op(ByteCode.PLUS),   // 13, 14, 15, 16, 17, 18, 19
+                store(2), ByteCode.jump(8),                                               // 20, 21, 22, 23
+                load(2), op(ByteCode.RETURN_STATEMENT));                                  // 24, 25, 26
+        final List<ByteCodeInstruction> hoisted = framed(ByteCode.localFrame(5, 6),
+                pushInt(3), ByteCode.defineLocal(1),                                      // 3, 4
+                pushInt(0), ByteCode.defineLocal(2),                                      // 5, 6
+                pushInt(3), pushInt(2), op(ByteCode.MULTIPLY), ByteCode.defineLocal(4),   // 7, 8, 9, 10
+                load(2), load(0), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(27),         // 11, 12, 13, 14, 15, 16
+                load(2), load(4), op(ByteCode.PLUS),                                      // 17, 18, 19, 20, 21
+                store(2), ByteCode.jump(12),                                              // 22, 23, 24, 25
+                load(2), op(ByteCode.RETURN_STATEMENT));                                  // 26, 27, 28
+        assertRewrites(new LoopInvariantCodeMotionPass(), loop, hoisted);
+    }
+
+    @Test
+    void loopConditionsAreComputedBeforeTheLoop() {
+        final List<ByteCodeInstruction> loop = function(
+                pushInt(0), ByteCode.defineLocal(1),                                                          // 3, 4
+                load(1), load(0), pushInt(2), op(ByteCode.MULTIPLY), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(18), // 5, 6, 7, 8, 9, 10, 11, 12
+                increment(1), ByteCode.jump(6),                                                               // 13, 14, 15, 16
+                load(1), op(ByteCode.RETURN_STATEMENT));                                                      // 17, 18, 19
+        final List<ByteCodeInstruction> hoisted = framed(ByteCode.localFrame(5, 6),
+                pushInt(0), ByteCode.defineLocal(1),                                                          // 3, 4
+                load(0), pushInt(2), op(ByteCode.MULTIPLY), ByteCode.defineLocal(4),                          // 5, 6, 7, 8, 9
+                load(1), load(4), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(21),                             // 10, 11, 12, 13, 14, 15
+                increment(1), ByteCode.jump(11),                                                              // 16, 17, 18, 19
+                load(1), op(ByteCode.RETURN_STATEMENT));                                                      // 20, 21, 22
+        assertRewrites(new LoopInvariantCodeMotionPass(), loop, hoisted);
+    }
+
+    @Test
+    void valuesThatMayFailStayInTheLoopBody() {
+        // the parameter may be null, which only fails if the loop is actually entered
+        assertUnchanged(new LoopInvariantCodeMotionPass(), function(
+                pushInt(0), ByteCode.defineLocal(1),                                         // 3, 4
+                load(1), pushInt(10), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(20),        // 5, 6, 7, 8, 9
+                load(0), pushInt(2), op(ByteCode.MULTIPLY), ByteCode.defineLocal(2),         // 10, 11, 12, 13, 14
+                increment(1), ByteCode.jump(6),                                              // 15, 16, 17, 18
+                load(1), op(ByteCode.RETURN_STATEMENT)));                                    // 19, 20, 21
+    }
+
+    @Test
+    void valuesWrittenInTheLoopStayInIt() {
+        assertUnchanged(new LoopInvariantCodeMotionPass(), function(
+                pushInt(0), ByteCode.defineLocal(1),                                         // 3, 4
+                load(1), load(0), pushInt(2), op(ByteCode.MULTIPLY), op(ByteCode.LESS_THAN), ByteCode.jumpIfNot(18), // 5 .. 12
+                increment(0), ByteCode.jump(6),                                              // 13, 14, 15, 16
+                load(1), op(ByteCode.RETURN_STATEMENT)));                                    // 17, 18, 19
+    }
+
+    @Test
+    void optimizedProgramsComputeTheSame() {
+        final String code = """
+                mod testing {
+
+                \tpub fn sum :: int (int n) {
+                \t\tmut int total = 0;
+                \t\tint step = 3;
+                \t\tfor mut int i = 0, i < n * 2, i++ {
+                \t\t\ttotal += i * (step + 4) + (n + 1) * (n + 1);
+                \t\t\tif i % 2 == 0 {
+                \t\t\t\ttotal -= (n + 1) * (n + 1);
+                \t\t\t}
+                \t\t}
+                \t\treturn total;
+                \t}
+
+                }
+                """;
+        final List<ByteCodeInstruction> program = new Mi(System.out, false).compile(MiStandardLib.standardLib(), code, MiCompileOptions.DEFAULT.withLevel(OptimizationLevel.O1));
+        final List<ByteCodeInstruction> optimized = new PassManager(new LoopInvariantCodeMotionPass(), new CommonSubexpressionEliminationPass()).run(program, List.of());
+        assertNotEquals(bytes(program), bytes(optimized));
+        for (final int n : new int[] {0, 1, 5, 12}) assertEquals(invoke(program, "testing.sum", n), invoke(optimized, "testing.sum", n));
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.crayne.mi.bytecode.optimizer.pass;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// everything the entry points cannot reach is left out of the program, without entry points every intern function is kept.
+// the functions here are recursive so that none of them is inlined into its caller
+class TreeShakingPassTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tenum Unused { A, B, C }
+            \tenum Shape { CIRCLE, SQUARE }
+
+            \tfn count :: int (int n) {
+            \t\treturn n <= 0 ? 0 : 1 + count(n - 1);
+            \t}
+
+            \tint g = count(4);
+
+            \tfn depth :: int (int n) {
+            \t\treturn n <= 0 ? 0 : 2 + depth(n - 1);
+            \t}
+
+            \tfn shaped :: int (int n) {
+            \t\tmut? s = Shape::SQUARE;
+            \t\tif n <= 0 {
+            \t\t\treturn s == Shape::SQUARE ? 100 : 0;
+            \t\t}
+            \t\treturn depth(n) + shaped(n - 1);
+            \t}
+
+            \tfn unused :: int (int n) {
+            \t\tstd.println(n);
+            \t\treturn n <= 0 ? 0 : unused(n - 1);
+            \t}
+
+            \tpub fn main :: int () {
+            \t\treturn shaped(2) + g;
+            \t}
+
+            \tpub fn other :: int () {
+            \t\tstd.println("other");
+            \t\treturn unused(1);
+            \t}
+            }
+            """;
+
+    private static final String PRINTLN_INT = "org.crayne.mi.stdlib.MiStandardLib.println(int)void";
+    private static final String PRINTLN_STRING = "org.crayne.mi.stdlib.MiStandardLib.println(string)void";
+
+    private static List<ByteCodeInstruction> everything;
+    private static List<ByteCodeInstruction> shaken;
+
+    @BeforeAll
+    static void compilePrograms() {
+        everything = compileOrFail(CODE);
+        shaken = compileOrFail(CODE, "testing.main");
+    }
+
+    private static List<String> definitions(@NotNull final List<ByteCodeInstruction> program, @NotNull final ByteCode type) {
+        return program.stream().filter(instr -> instr.type().orElseThrow() == type).map(ByteCodeLabels::definitionName).sorted().toList();
+    }
+
+    private static List<String> functions(@NotNull final List<ByteCodeInstruction> program) {
+        return definitions(program, ByteCode.FUNCTION_DEFINITION_BEGIN);
+    }
+
+    private static List<String> natives(@NotNull final List<ByteCodeInstruction> program) {
+        return definitions(program, ByteCode.NATIVE_FUNCTION_DEFINITION_BEGIN);
+    }
+
+    private static long count(@NotNull final List<ByteCodeInstruction> program, @NotNull final ByteCode type) {
+        return program.stream().filter(instr -> instr.type().orElseThrow() == type).count();
+    }
+
+    @Test
+    void unreachableFunctionsAndNativesAreRemoved() {
+        assertFalse(functions(shaken).contains("testing.unused"));
+        assertFalse(functions(shaken).contains("testing.other"));
+        assertEquals(List.of(), natives(shaken));
+    }
+
+    @Test
+    void functionsReachedThroughFunctionsAndGlobalsAreKept() {
+        // depth is only called by shaped, count only by the initializer of g
+        assertEquals(List.of("testing.count", "testing.depth", "testing.main", "testing.shaped"), functions(shaken));
+    }
+
+    @Test
+    void onlyEnumsUsedByReachableFunctionsAreKept() {
+        assertEquals(1, count(shaken, ByteCode.ENUM_DEFINITION_BEGIN));
+        assertEquals(2, count(shaken, ByteCode.ENUM_MEMBER_DEFINITION));
+    }
+
+    @Test
+    void withoutEntryPointsEveryInternFunctionIsKept() {
+        assertEquals(List.of("testing.count", "testing.depth", "testing.main", "testing.other", "testing.shaped", "testing.unused"), functions(everything));
+        assertEquals(List.of(PRINTLN_INT, PRINTLN_STRING), natives(everything));
+        assertEquals(1, count(everything, ByteCode.ENUM_DEFINITION_BEGIN));
+    }
+
+    @Test
+    void entryPointsKeepWhatTheyCall() {
+        final List<ByteCodeInstruction> program = new TreeShakingPass().run(everything, List.of("testing.other"));
+        assertEquals(List.of("testing.count", "testing.other", "testing.unused"), functions(program));
+        assertEquals(List.of(PRINTLN_INT, PRINTLN_STRING), natives(program));
+        assertEquals(0, count(program, ByteCode.ENUM_DEFINITION_BEGIN));
+    }
+
+    @Test
+    void shakenProgramsStillRun() {
+        // Shape is the first enum left, so its id changes once Unused is gone
+        assertEquals(4 + 2 + 100 + 4, invoke(shaken, "testing.main"));
+        assertEquals(invoke(everything, "testing.main"), invoke(shaken, "testing.main"));
+        assertEquals(0, invoke(new TreeShakingPass().run(everything, List.of("testing.other")), "testing.other"));
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.crayne.mi.bytecode.optimizer.peephole;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.common.ByteDatatype;
+import org.crayne.mi.bytecode.optimizer.peephole.rules.*;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// every rule on its own, before and after. jumps use labels, which are the index of their target + 1
+class PeepholeRulesTest {
+
+    private static ByteCodeInstruction pushInt(final int value) {
+        return ByteCode.push(ByteCode.integer(value));
+    }
+
+    private static ByteCodeInstruction pushBool(final boolean value) {
+        return ByteCode.push(ByteCode.boolValue(value));
+    }
+
+    private static ByteCodeInstruction op(@NotNull final ByteCode code) {
+        return new ByteCodeInstruction(code.code());
+    }
+
+    private static void assertRewrites(@NotNull final PeepholeRule rule, @NotNull final List<ByteCodeInstruction> before, @NotNull final List<ByteCodeInstruction> after) {
+        final List<ByteCodeInstruction> optimized = new PeepholeOptimizer(rule).optimize(before);
+        assertEquals(after.stream().map(ByteCodeInstruction::toString).toList(), optimized.stream().map(ByteCodeInstruction::toString).toList());
+    }
+
+    private static void assertUnchanged(@NotNull final PeepholeRule rule, @NotNull final List<ByteCodeInstruction> program) {
+        assertRewrites(rule, program, program);
+    }
+
+    @Test
+    void notJumpIfInvertsTheJump() {
+        assertRewrites(new NotJumpIfRule(),
+                List.of(op(ByteCode.NOT), ByteCode.jumpIf(4), pushInt(1), pushInt(2)),
+                List.of(ByteCode.jumpIfNot(3), pushInt(1), pushInt(2)));
+        assertRewrites(new NotJumpIfRule(),
+                List.of(op(ByteCode.NOT), ByteCode.jumpIfNot(4), pushInt(1), pushInt(2)),
+                List.of(ByteCode.jumpIf(3), pushInt(1), pushInt(2)));
+        assertUnchanged(new NotJumpIfRule(), List.of(op(ByteCode.NOT), pushInt(1)));
+    }
+
+    @Test
+    void jumpThreadingSkipsJumpsToJumps() {
+        assertRewrites(new JumpThreadingRule(),
+                List.of(ByteCode.jump(3), pushInt(1), ByteCode.jump(5), pushInt(2), pushInt(3)),
+                List.of(ByteCode.jump(5), pushInt(1), ByteCode.jump(5), pushInt(2), pushInt(3)));
+    }
+
+    @Test
+    void jumpThreadingDropsJumpsToTheNextInstruction() {
+        assertRewrites(new JumpThreadingRule(), List.of(ByteCode.jump(2), pushInt(1)), List.of(pushInt(1)));
+    }
+
+    @Test
+    void jumpThreadingFollowsConstantConditions() {
+        // the jump lands on PUSH true ; JUMP_IF, which always jumps, or PUSH false ; JUMP_IF, which never does
+        assertRewrites(new JumpThreadingRule(),
+                List.of(ByteCode.jump(3), pushInt(0), pushBool(true), ByteCode.jumpIf(6), pushInt(1), pushInt(2)),
+                List.of(ByteCode.jump(6), pushInt(0), pushBool(true), ByteCode.jumpIf(6), pushInt(1), pushInt(2)));
+        assertRewrites(new JumpThreadingRule(),
+                List.of(ByteCode.jump(3), pushInt(0), pushBool(false), ByteCode.jumpIf(6), pushInt(1), pushInt(2)),
+                List.of(ByteCode.jump(5), pushInt(0), pushBool(false), ByteCode.jumpIf(6), pushInt(1), pushInt(2)));
+    }
+
+    @Test
+    void jumpThreadingLeavesEndlessLoops() {
+        assertUnchanged(new JumpThreadingRule(), List.of(ByteCode.jump(1)));
+        assertUnchanged(new JumpThreadingRule(), List.of(ByteCode.jump(3), pushInt(0), ByteCode.jump(1)));
+    }
+
+    @Test
+    void unreachableCodeIsDropped() {
+        assertRewrites(new UnreachableCodeRule(),
+                List.of(ByteCode.jump(4), pushInt(1), pushInt(2), pushInt(3)),
+                List.of(ByteCode.jump(2), pushInt(3)));
+        assertRewrites(new UnreachableCodeRule(),
+                List.of(op(ByteCode.RETURN_STATEMENT), pushInt(1), op(ByteCode.FUNCTION_DEFINITION_END)),
+                List.of(op(ByteCode.RETURN_STATEMENT), op(ByteCode.FUNCTION_DEFINITION_END)));
+    }
+
+    @Test
+    void jumpTargetsAreNeverRemoved() {
+        // PUSH 1 follows an unconditional jump, but the JUMP_IF lands on it, so it is reachable after all
+        assertUnchanged(new UnreachableCodeRule(), List.of(pushBool(true), ByteCode.jumpIf(4), ByteCode.jump(5), pushInt(1), pushInt(2)));
+    }
+
+    @Test
+    void redundantCastsAreDropped() {
+        assertRewrites(new RedundantCastRule(), List.of(pushInt(1), ByteCode.cast(ByteDatatype.INT)), List.of(pushInt(1)));
+        assertRewrites(new RedundantCastRule(), List.of(ByteCode.cast(ByteDatatype.LONG), ByteCode.cast(ByteDatatype.LONG)), List.of(ByteCode.cast(ByteDatatype.LONG)));
+        assertUnchanged(new RedundantCastRule(), List.of(pushInt(1), ByteCode.cast(ByteDatatype.LONG)));
+    }
+
+    @Test
+    void unusedValuesAreNotPushed() {
+        assertRewrites(new UnusedValueRule(), List.of(pushInt(1), ByteCode.popPush()), List.of());
+        assertRewrites(new UnusedValueRule(), List.of(ByteCode.loadGlobal(3), ByteCode.popPush()), List.of());
+        assertRewrites(new UnusedValueRule(), List.of(pushInt(0), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS), ByteCode.popPush()), List.of());
+        assertUnchanged(new UnusedValueRule(), List.of(ByteCode.call(4L), ByteCode.popPush()));
+    }
+
+    @Test
+    void repeatedLoadsAreDuplicated() {
+        assertRewrites(new DuplicateLoadRule(),
+                List.of(pushInt(2), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS), pushInt(2), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS), op(ByteCode.MULTIPLY)),
+                List.of(pushInt(2), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS), ByteCode.dup(), op(ByteCode.MULTIPLY)));
+        assertUnchanged(new DuplicateLoadRule(),
+                List.of(pushInt(2), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS), pushInt(3), op(ByteCode.VALUE_AT_RELATIVE_ADDRESS)));
+    }
+
+    // rules of a project are added just like the built-in ones, this one folds the sum of two int literals
+    private static final class FoldIntSumRule implements PeepholeRule {
+
+        public int windowSize() {
+            return 3;
+        }
+
+        public Optional<List<ByteCodeInstruction>> rewrite(@NotNull final PeepholeWindow window) {
+            if (!window.matches(ByteCode.PUSH, ByteCode.PUSH, ByteCode.PLUS)) return Optional.empty();
+            if (window.get(0).code(1) != ByteCode.INTEGER_VALUE.code() || window.get(1).code(1) != ByteCode.INTEGER_VALUE.code()) return Optional.empty();
+            return Optional.of(List.of(pushInt(window.get(0).intAt(2) + window.get(1).intAt(2))));
+        }
+
+    }
+
+    @Test
+    void addedRulesRunAndJumpsAreRelocated() {
+        final PeepholeOptimizer optimizer = new PeepholeOptimizer().addRule(new FoldIntSumRule());
+        final List<ByteCodeInstruction> optimized = optimizer.optimize(List.of(ByteCode.jump(5), pushInt(2), pushInt(3), op(ByteCode.PLUS), pushInt(4)));
+        assertEquals(List.of(ByteCode.jump(3), pushInt(5), pushInt(4)).stream().map(ByteCodeInstruction::toString).toList(),
+                optimized.stream().map(ByteCodeInstruction::toString).toList());
+    }
+
+}
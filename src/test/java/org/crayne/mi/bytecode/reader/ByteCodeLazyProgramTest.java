@@ -0,0 +1,103 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeFileFormat;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.writer.ByteCodeFileWriter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// functions of version 2 and 3 files are only decoded, and in version 3 files only inflated, once they are called
+class ByteCodeLazyProgramTest {
+
+    // twice is recursive, so that it is not inlined into calls
+    private static final String CODE = """
+            mod testing {
+            \tfn twice :: int (int n) {
+            \t\treturn n <= 0 ? 0 : 2 + twice(n - 1);
+            \t}
+
+            \tpub fn unused :: int (int n) {
+            \t\treturn n - 1;
+            \t}
+
+            \tpub fn calls :: int (int n) {
+            \t\treturn twice(n) + 1;
+            \t}
+            }
+            """;
+
+    private static List<ByteCodeInstruction> program;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+    }
+
+    private static byte[] write(@NotNull final Path directory, @NotNull final ByteCodeCompression compression) throws IOException {
+        final File file = directory.resolve(compression.name().toLowerCase() + ".mib").toFile();
+        ByteCodeFileWriter.write(program, file, compression);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static void assertDecodesLazily(final byte @NotNull [] file) {
+        final ByteCodeLazyProgram lazy = ByteCodeDecoder.decodeLazily(ByteBuffer.wrap(file));
+        final ByteCodeInterpreter interpreter = interpreter(lazy);
+        assertEquals(0, lazy.decodedBodies());
+
+        assertEquals(11, invoke(interpreter, "testing.calls", 5));
+        assertEquals(2, lazy.decodedBodies());
+        assertEquals(13, invoke(interpreter, "testing.calls", 6));
+        assertEquals(2, lazy.decodedBodies());
+
+        // decoding every instruction gives the same program as decoding the file at once
+        assertEquals(bytes(program), bytes(lazy));
+        assertTrue(lazy.decodedBodies() > 2);
+    }
+
+    @Test
+    void functionsAreDecodedWhenFirstCalled(@TempDir final Path directory) throws IOException {
+        assertDecodesLazily(write(directory, ByteCodeCompression.NONE));
+    }
+
+    @Test
+    void functionsAreInflatedWhenFirstCalled(@TempDir final Path directory) throws IOException {
+        assertDecodesLazily(write(directory, ByteCodeCompression.SPEED));
+        assertDecodesLazily(write(directory, ByteCodeCompression.RATIO));
+    }
+
+    @Test
+    void lengthsNoDeflatedDataCouldHaveAreRejected(@TempDir final Path directory) throws IOException {
+        final byte[] deflated = ByteCodeCompression.RATIO.deflate(new byte[4096]);
+        assertEquals(4096, ByteCodeCompression.inflate(ByteBuffer.wrap(deflated), 4096).remaining());
+        assertThrows(ByteCodeException.class, () -> ByteCodeCompression.inflate(ByteBuffer.wrap(deflated), Integer.MAX_VALUE));
+        assertThrows(ByteCodeException.class, () -> ByteCodeCompression.inflate(ByteBuffer.wrap(deflated), -1));
+        assertThrows(ByteCodeException.class, () -> ByteCodeCompression.inflate(ByteBuffer.wrap(deflated), 4097));
+
+        // the code section claims to inflate to far more than it could
+        final byte[] file = write(directory, ByteCodeCompression.RATIO);
+        final ByteBuffer header = ByteBuffer.wrap(file);
+        final int entrySize = ByteCodeFileFormat.sectionEntrySize(ByteCodeFileFormat.COMPRESSED_VERSION);
+        for (int entry = ByteCodeFileFormat.headerSize(ByteCodeFileFormat.COMPRESSED_VERSION, 0); entry < header.limit(); entry += entrySize) {
+            if (header.get(entry) != ByteCodeFileFormat.Section.CODE.id()) continue;
+            header.putInt(entry + entrySize - Integer.BYTES, Integer.MAX_VALUE);
+            break;
+        }
+        assertThrows(ByteCodeException.class, () -> ByteCodeDecoder.decodeLazily(ByteBuffer.wrap(file)));
+        assertThrows(ByteCodeException.class, () -> ByteCodeDecoder.decode(ByteBuffer.wrap(file)));
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.writer.ByteCodeFileWriter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// a loaded program only holds what never changes while running, so any number of interpreters can share it.
+// each of them has its own globals and stacks
+class ByteCodeLoadedProgramTest {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 20;
+
+    // sum is recursive, so that it is not inlined into calls
+    private static final String CODE = """
+            mod testing {
+            \tmut int counter = 0;
+
+            \tpub fn bump :: int (int by) {
+            \t\tcounter += by;
+            \t\treturn counter;
+            \t}
+
+            \tfn sum :: int (int n) {
+            \t\treturn n <= 0 ? 0 : n + sum(n - 1);
+            \t}
+
+            \tpub fn work :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\tacc += sum(i % 20);
+            \t\t}
+            \t\treturn acc;
+            \t}
+            }
+            """;
+
+    private static List<ByteCodeInstruction> program;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+    }
+
+    private static int work(final int n) {
+        int acc = 0;
+        for (int i = 0; i < n; i++) acc += (i % 20) * (i % 20 + 1) / 2;
+        return acc;
+    }
+
+    private static ByteCodeInterpreter interpreter(@NotNull final ByteCodeLoadedProgram loaded) {
+        return new ByteCodeInterpreter(loaded, new Mi(System.out, false).messageHandler());
+    }
+
+    // every thread gets its own interpreter, they all start at once and check what they got after every call
+    private static void runConcurrently(@NotNull final ByteCodeLoadedProgram loaded) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CyclicBarrier start = new CyclicBarrier(THREADS);
+            final List<Future<?>> runs = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int by = t + 1;
+                runs.add(executor.submit(() -> {
+                    final ByteCodeInterpreter interpreter = interpreter(loaded);
+                    start.await();
+                    for (int round = 1; round <= ROUNDS; round++) {
+                        assertEquals(work(round * 7), invoke(interpreter, "testing.work", round * 7));
+                        assertEquals(round * by, invoke(interpreter, "testing.bump", by));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> run : runs) run.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void interpretersHaveTheirOwnGlobals() {
+        final ByteCodeLoadedProgram loaded = ByteCodeLoadedProgram.of(program);
+        final ByteCodeInterpreter first = interpreter(loaded);
+        final ByteCodeInterpreter second = interpreter(loaded);
+
+        assertEquals(5, invoke(first, "testing.bump", 5));
+        assertEquals(1, invoke(second, "testing.bump", 1));
+        assertEquals(10, invoke(first, "testing.bump", 5));
+        assertEquals(work(30), invoke(second, "testing.work", 30));
+        assertEquals(2, invoke(second, "testing.bump", 1));
+        assertEquals(11, invoke(first, "testing.bump", 1));
+    }
+
+    @Test
+    void interpretersRunConcurrently() throws Exception {
+        runConcurrently(ByteCodeLoadedProgram.of(program));
+    }
+
+    @Test
+    void interpretersRunConcurrentlyOverALazyProgram(@TempDir final Path directory) throws Exception {
+        for (final ByteCodeCompression compression : List.of(ByteCodeCompression.NONE, ByteCodeCompression.SPEED)) {
+            final File file = directory.resolve(compression.name().toLowerCase() + ".mib").toFile();
+            ByteCodeFileWriter.write(program, file, compression);
+            final ByteCodeLazyProgram lazy = ByteCodeDecoder.decodeLazily(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            assertEquals(0, lazy.decodedBodies());
+
+            // every body is decoded by whichever thread calls it first, and only once
+            runConcurrently(ByteCodeLoadedProgram.of(lazy));
+            assertEquals(3, lazy.decodedBodies());
+            assertEquals(bytes(program), bytes(lazy));
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.writer.ByteCodeFileWriter;
+import org.crayne.mi.log.MessageHandler;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// files are mapped instead of read into memory, version 1 files are decoded straight out of the mapping
+// and newer ones lazily, one function body at a time. either way they have to give what reading the bytes or streaming the file gives
+class ByteCodeMappedFileTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tpub fn sum :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\tacc += i % 3 == 0 ? i : 1;
+            \t\t}
+            \t\treturn acc;
+            \t}
+
+            \tpub fn greet :: string (string name) {
+            \t\treturn "hello " + name;
+            \t}
+            }
+            """;
+
+    private static List<ByteCodeInstruction> program;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+    }
+
+    private static MessageHandler messageHandler() {
+        return new Mi(System.out, false).messageHandler();
+    }
+
+    private static File writeVersion1(@NotNull final Path dir) throws IOException {
+        final File file = dir.resolve("v1.mib").toFile();
+        try (final ByteCodeFileWriter writer = new ByteCodeFileWriter(file)) {
+            for (final ByteCodeInstruction instr : program) writer.write(instr);
+        }
+        return file;
+    }
+
+    private static File write(@NotNull final Path dir, @NotNull final ByteCodeCompression compression) throws IOException {
+        final File file = dir.resolve(compression.name().toLowerCase() + ".mib").toFile();
+        ByteCodeFileWriter.write(program, file, compression);
+        return file;
+    }
+
+    private static void assertReadsLikeTheOthers(@NotNull final File file) throws Throwable {
+        final List<ByteCodeInstruction> mapped = ByteCodeReader.read(file, messageHandler());
+        assertEquals(bytes(program), bytes(mapped));
+        assertEquals(bytes(new ByteCodeReader(Files.readAllBytes(file.toPath()), messageHandler()).read()), bytes(mapped));
+        try (final InputStream stream = new FileInputStream(file)) {
+            assertEquals(bytes(ByteCodeReader.read(stream, messageHandler())), bytes(mapped));
+        }
+
+        final ByteCodeInterpreter interpreter = interpreter(new ByteCodeReader(file, messageHandler()).read());
+        // the multiples of three below ten, plus one for each of the other six numbers
+        assertEquals(3 + 6 + 9 + 6, invoke(interpreter, "testing.sum", 10));
+        assertEquals("hello mi", invoke(interpreter, "testing.greet", "mi"));
+    }
+
+    @Test
+    void mappingsHoldTheWholeFile(@TempDir final Path dir) throws IOException {
+        final File file = write(dir, ByteCodeCompression.NONE);
+        final MappedByteBuffer mapped = ByteCodeReader.map(file);
+        assertTrue(mapped.isReadOnly());
+        assertEquals(0, mapped.position());
+
+        final byte[] bytes = new byte[mapped.remaining()];
+        mapped.get(bytes);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), bytes);
+    }
+
+    @Test
+    void mappedVersion1FilesAreReadLikeTheirBytes(@TempDir final Path dir) throws Throwable {
+        assertReadsLikeTheOthers(writeVersion1(dir));
+    }
+
+    @Test
+    void mappedVersion2FilesAreReadLikeTheirBytes(@TempDir final Path dir) throws Throwable {
+        assertReadsLikeTheOthers(write(dir, ByteCodeCompression.NONE));
+    }
+
+    @Test
+    void mappedVersion3FilesAreReadLikeTheirBytes(@TempDir final Path dir) throws Throwable {
+        assertReadsLikeTheOthers(write(dir, ByteCodeCompression.RATIO));
+    }
+
+    @Test
+    void mappedVersion2FilesAreDecodedLazily(@TempDir final Path dir) throws Throwable {
+        final List<ByteCodeInstruction> read = ByteCodeReader.read(write(dir, ByteCodeCompression.NONE), messageHandler());
+        final ByteCodeLazyProgram lazy = assertInstanceOf(ByteCodeLazyProgram.class, read);
+        assertEquals(0, lazy.decodedBodies());
+        assertEquals("hello mi", invoke(lazy, "testing.greet", "mi"));
+        assertEquals(1, lazy.decodedBodies());
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.writer.ByteCodeFileWriter;
+import org.crayne.mi.log.MessageHandler;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// a snapshot starts new interpreters with the globals as they were evaluated by the interpreter it was written from
+class ByteCodeSnapshotTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tmut int base = 55;
+            \tstring greeting = "hi";
+
+            \tpub fn bump :: int () {
+            \t\tbase++;
+            \t\treturn base;
+            \t}
+
+            \tpub fn greet :: string (string name) {
+            \t\treturn greeting + " " + name;
+            \t}
+            }
+            """;
+
+    private static final MessageHandler MESSAGES = new Mi(System.out, false).messageHandler();
+
+    private static List<ByteCodeInstruction> program;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+    }
+
+    private static File write(final Path directory) throws IOException {
+        final File file = directory.resolve("program" + ByteCodeSnapshot.EXTENSION).toFile();
+        ByteCodeSnapshot.write(interpreter(program), file);
+        return file;
+    }
+
+    @Test
+    void snapshotsRunLikeTheProgram(@TempDir final Path directory) throws IOException {
+        final ByteCodeSnapshot snapshot = ByteCodeSnapshot.read(write(directory));
+        final ByteCodeInterpreter interpreter = snapshot.newInterpreter(MESSAGES);
+        assertEquals(56, invoke(interpreter, "testing.bump"));
+        assertEquals(57, invoke(interpreter, "testing.bump"));
+        assertEquals("hi mi", invoke(interpreter, "testing.greet", "mi"));
+
+        // every interpreter starts from the globals of the snapshot, no matter what the others did to theirs
+        assertEquals(56, invoke(snapshot.newInterpreter(MESSAGES), "testing.bump"));
+        assertEquals(58, invoke(interpreter, "testing.bump"));
+    }
+
+    @Test
+    void snapshotsHoldTheWholeProgram(@TempDir final Path directory) throws IOException {
+        final ByteCodeSnapshot snapshot = ByteCodeSnapshot.read(write(directory));
+        assertEquals(bytes(program), bytes(snapshot.program().code()));
+        assertEquals(bytes(program), bytes(ByteCodeSnapshot.read(ByteBuffer.wrap(Files.readAllBytes(write(directory).toPath()))).program().code()));
+    }
+
+    @Test
+    void onlySnapshotsAreReadAsSnapshots(@TempDir final Path directory) throws IOException {
+        final File snapshot = write(directory);
+        final File file = directory.resolve("program.mib").toFile();
+        ByteCodeFileWriter.write(program, file);
+        assertTrue(ByteCodeSnapshot.isSnapshot(snapshot));
+        assertFalse(ByteCodeSnapshot.isSnapshot(file));
+        assertThrows(ByteCodeException.class, () -> ByteCodeSnapshot.read(file));
+
+        final byte[] image = Files.readAllBytes(snapshot.toPath());
+        assertThrows(ByteCodeException.class, () -> ByteCodeSnapshot.read(ByteBuffer.wrap(Arrays.copyOf(image, image.length / 2))));
+        assertThrows(ByteCodeException.class, () -> ByteCodeSnapshot.read(ByteBuffer.wrap(Arrays.copyOf(image, 20))));
+    }
+
+}
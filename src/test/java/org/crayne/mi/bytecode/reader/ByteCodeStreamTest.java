@@ -0,0 +1,114 @@
+package org.crayne.mi.bytecode.reader;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.writer.ByteCodeFileWriter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// files that are read from a stream arrive a few bytes at a time, so instructions are cut off by the end of the buffer all the time.
+// the switches have so many cases that they do not even fit into the buffer of the stream
+class ByteCodeStreamTest {
+
+    private static final int CASES = 3000;
+
+    private static List<ByteCodeInstruction> program;
+
+    // returns between 1 and 5 bytes from every read
+    private static final class TricklingInputStream extends InputStream {
+
+        private final byte[] bytes;
+        private final Random random = new Random(46);
+        private int at;
+
+        private TricklingInputStream(final byte @NotNull [] bytes) {
+            this.bytes = bytes;
+        }
+
+        public int read() {
+            return at < bytes.length ? bytes[at++] & 0xFF : -1;
+        }
+
+        public int read(final byte @NotNull [] buffer, final int offset, final int length) {
+            if (length == 0) return 0;
+            if (at == bytes.length) return -1;
+            final int amount = Math.min(Math.min(length, 1 + random.nextInt(5)), bytes.length - at);
+            System.arraycopy(bytes, at, buffer, offset, amount);
+            at += amount;
+            return amount;
+        }
+
+    }
+
+    @BeforeAll
+    static void compileSwitches() {
+        final StringBuilder code = new StringBuilder("mod testing {\n\tfn dense :: int (int i) {\n\t\tmatch i {\n");
+        for (int i = 0; i < CASES; i++) code.append("\t\t\tcase ").append(i).append(" {\n\t\t\t\treturn ").append(i * 7).append(";\n\t\t\t}\n");
+        code.append("\t\t}\n\t\treturn -1;\n\t}\n\tfn sparse :: int (int i) {\n\t\tmatch i {\n");
+        for (int i = 0; i < CASES; i++) code.append("\t\t\tcase ").append(i * 1000).append(" {\n\t\t\t\treturn ").append(i).append(";\n\t\t\t}\n");
+        code.append("\t\t}\n\t\treturn -1;\n\t}\n}\n");
+        program = compileOrFail(code.toString());
+        for (final ByteCode type : List.of(ByteCode.TABLE_SWITCH, ByteCode.LOOKUP_SWITCH))
+            assertTrue(program.stream().anyMatch(instr -> instr.type().orElse(null) == type && instr.length() > ByteCodeReader.STREAM_BUFFER_SIZE), "Missing a large " + type);
+    }
+
+    private static List<ByteCodeInstruction> readTrickling(final byte @NotNull [] file) {
+        return ByteCodeReader.read(new TricklingInputStream(file), new Mi(System.out, false).messageHandler());
+    }
+
+    private static byte[] write(@NotNull final Path directory, @NotNull final ByteCodeCompression compression) throws IOException {
+        final File file = directory.resolve(compression.name().toLowerCase() + ".mib").toFile();
+        ByteCodeFileWriter.write(program, file, compression);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static void assertRuns(@NotNull final List<ByteCodeInstruction> read) {
+        final ByteCodeInterpreter interpreter = interpreter(read);
+        assertEquals(0, invoke(interpreter, "testing.dense", 0));
+        assertEquals((CASES - 1) * 7, invoke(interpreter, "testing.dense", CASES - 1));
+        assertEquals(-1, invoke(interpreter, "testing.dense", CASES));
+        assertEquals(CASES - 1, invoke(interpreter, "testing.sparse", (CASES - 1) * 1000));
+        assertEquals(-1, invoke(interpreter, "testing.sparse", 1));
+    }
+
+    @Test
+    void version1FilesAreReadAFewBytesAtATime() {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (final ByteCodeInstruction instr : program) file.writeBytes(instr.bytes());
+        final List<ByteCodeInstruction> read = readTrickling(file.toByteArray());
+        assertEquals(bytes(program), bytes(read));
+        assertRuns(read);
+    }
+
+    @Test
+    void version2FilesAreReadAFewBytesAtATime(@TempDir final Path directory) throws IOException {
+        final List<ByteCodeInstruction> read = readTrickling(write(directory, ByteCodeCompression.NONE));
+        assertEquals(bytes(program), bytes(read));
+        assertRuns(read);
+    }
+
+    @Test
+    void version3FilesAreReadAFewBytesAtATime(@TempDir final Path directory) throws IOException {
+        final List<ByteCodeInstruction> read = readTrickling(write(directory, ByteCodeCompression.RATIO));
+        assertEquals(bytes(program), bytes(read));
+        assertRuns(read);
+    }
+
+}
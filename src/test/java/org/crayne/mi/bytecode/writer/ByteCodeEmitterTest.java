@@ -0,0 +1,108 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeException;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.crayne.mi.MiTestPrograms.bytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+// branches point to symbolic labels until the section is resolved, which turns them into the index of the instruction the label was bound to
+class ByteCodeEmitterTest {
+
+    private static ByteCodeInstruction pushInt(final int value) {
+        return ByteCode.push(ByteCode.integer(value));
+    }
+
+    @Test
+    void forwardLabelsPointAtTheInstructionAfterBinding() {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        final ByteLabel end = emitter.newLabel();
+        emitter.add(pushInt(0));
+        emitter.jumpIfNot(end);
+        emitter.add(pushInt(1));
+        emitter.bind(end);
+        emitter.add(pushInt(2));
+
+        assertEquals(3, ByteCodeLabels.targetIndex(emitter.resolve(0).get(1)));
+        assertEquals(13, ByteCodeLabels.targetIndex(emitter.resolve(10).get(1)));
+    }
+
+    @Test
+    void backwardLabelsPointAtTheInstructionAfterBinding() {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        emitter.add(pushInt(0));
+        final ByteLabel loop = emitter.bindNew();
+        emitter.add(pushInt(1));
+        emitter.jump(loop);
+
+        assertEquals(1, ByteCodeLabels.targetIndex(emitter.resolve(0).get(2)));
+        assertEquals(8, ByteCodeLabels.targetIndex(emitter.resolve(7).get(2)));
+    }
+
+    @Test
+    void switchesResolveEveryCase() {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        final ByteLabel before = emitter.bindNew();
+        emitter.add(pushInt(0));
+        final ByteLabel after = emitter.newLabel();
+        final ByteLabel otherwise = emitter.newLabel();
+        final SortedMap<Integer, ByteLabel> cases = new TreeMap<>();
+        cases.put(1, before);
+        cases.put(2, after);
+        emitter.switchInstruction(cases, otherwise);
+        emitter.bind(after);
+        emitter.add(pushInt(1));
+        emitter.bind(otherwise);
+        emitter.add(pushInt(2));
+
+        // the default target comes first
+        assertArrayEquals(new int[] {8, 5, 7}, ByteCodeLabels.targetIndices(emitter.resolve(5).get(1)));
+    }
+
+    @Test
+    void unboundLabelsCannotBeResolved() {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        emitter.jump(emitter.newLabel());
+        final ByteCodeException e = assertThrows(ByteCodeException.class, () -> emitter.resolve(0));
+        assertEquals("Label 0 was never bound", e.getMessage());
+    }
+
+    @Test
+    void labelsAreOnlyBoundOnce() {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        final ByteLabel label = emitter.bindNew();
+        emitter.add(pushInt(0));
+        assertThrows(ByteCodeException.class, () -> emitter.bind(label));
+    }
+
+    @Test
+    void branchesCannotBePatched() {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        emitter.jump(emitter.bindNew());
+        emitter.add(pushInt(0));
+        assertThrows(ByteCodeException.class, () -> emitter.patch(0, pushInt(1)));
+        assertThrows(ByteCodeException.class, () -> emitter.patch(1, ByteCode.jump(1)));
+    }
+
+    @Test
+    void resolvedSectionsRelocateAgain() {
+        final ByteCodeEmitter emitter = new ByteCodeEmitter();
+        final ByteLabel end = emitter.newLabel();
+        final ByteLabel loop = emitter.bindNew();
+        emitter.jumpIf(end);
+        emitter.jump(loop);
+        emitter.bind(end);
+        emitter.add(pushInt(0));
+
+        final List<ByteCodeInstruction> resolved = emitter.resolve(0);
+        assertEquals(bytes(emitter.resolve(4)), bytes(ByteCodeEmitter.of(resolved).resolve(4)));
+    }
+
+}
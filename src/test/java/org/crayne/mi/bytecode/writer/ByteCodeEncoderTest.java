@@ -0,0 +1,140 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCodeCompression;
+import org.crayne.mi.bytecode.common.ByteCodeFileFormat;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.reader.ByteCodeDecoder;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.bytecode.reader.ByteCodeReader;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// every version of the file format has to give back exactly the instructions it was written from,
+// and writing those again has to give exactly the same file
+class ByteCodeEncoderTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tmut int calls = 0;
+            \tstring greeting = "hi";
+
+            \tfn name :: string (int c) {
+            \t\tmatch c {
+            \t\t\tcase 0 {
+            \t\t\t\treturn "zero";
+            \t\t\t}
+            \t\t\tdefault {
+            \t\t\t\treturn "other";
+            \t\t\t}
+            \t\t}
+            \t\treturn "";
+            \t}
+
+            \tpub fn sum :: int (int to) {
+            \t\tmut int s = 0;
+            \t\tfor mut? i = 0, i .. to {
+            \t\t\ts += i;
+            \t\t\tcalls++;
+            \t\t}
+            \t\treturn s;
+            \t}
+
+            \tpub fn calls :: int () {
+            \t\treturn calls;
+            \t}
+
+            \tpub fn triple :: long (long x) {
+            \t\treturn x * 3L;
+            \t}
+
+            \tpub fn scale :: double (float f) {
+            \t\treturn double f * 0.5;
+            \t}
+
+            \tpub fn describe :: string () {
+            \t\treturn greeting + " " + name(0) + " " + name(2);
+            \t}
+            }
+            """;
+
+    private static List<ByteCodeInstruction> program;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+        assertRuns(program);
+    }
+
+    private static void assertRuns(@NotNull final List<ByteCodeInstruction> read) {
+        final ByteCodeInterpreter interpreter = interpreter(read);
+        assertEquals("hi zero other", invoke(interpreter, "testing.describe"));
+        assertEquals(45, invoke(interpreter, "testing.sum", 10));
+        assertEquals(15L, invoke(interpreter, "testing.triple", 5L));
+        assertEquals(10, invoke(interpreter, "testing.calls"));
+        assertEquals(1.25, invoke(interpreter, "testing.scale", 2.5f));
+    }
+
+    private static byte[] write(@NotNull final List<ByteCodeInstruction> instructions, @NotNull final File file, @NotNull final ByteCodeCompression compression) throws IOException {
+        ByteCodeFileWriter.write(instructions, file, compression);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static void assertRoundTrips(@NotNull final Path directory, @NotNull final ByteCodeCompression compression, final int version) throws IOException {
+        final byte[] file = write(program, directory.resolve("first.mib").toFile(), compression);
+        assertEquals(version, ByteCodeFileFormat.version(file));
+
+        final List<ByteCodeInstruction> decoded = ByteCodeDecoder.decode(ByteBuffer.wrap(file));
+        assertEquals(bytes(program), bytes(decoded));
+        assertArrayEquals(file, write(decoded, directory.resolve("second.mib").toFile(), compression));
+        assertRuns(decoded);
+    }
+
+    @Test
+    void version1FilesRoundTrip() {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (final ByteCodeInstruction instr : program) file.writeBytes(instr.bytes());
+
+        final List<ByteCodeInstruction> read = new ByteCodeReader(file.toByteArray(), new Mi(System.out, false).messageHandler()).read();
+        assertEquals(bytes(program), bytes(read));
+        final ByteArrayOutputStream again = new ByteArrayOutputStream();
+        for (final ByteCodeInstruction instr : read) again.writeBytes(instr.bytes());
+        assertArrayEquals(file.toByteArray(), again.toByteArray());
+        assertRuns(read);
+    }
+
+    @Test
+    void version2FilesRoundTrip(@TempDir final Path directory) throws IOException {
+        assertRoundTrips(directory, ByteCodeCompression.NONE, ByteCodeFileFormat.VERSION);
+    }
+
+    @Test
+    void version3FilesRoundTrip(@TempDir final Path directory) throws IOException {
+        assertRoundTrips(directory, ByteCodeCompression.SPEED, ByteCodeFileFormat.COMPRESSED_VERSION);
+        assertRoundTrips(directory, ByteCodeCompression.RATIO, ByteCodeFileFormat.COMPRESSED_VERSION);
+    }
+
+    @Test
+    void mappedFilesAreDecodedLikeAnyOther(@TempDir final Path directory) throws Throwable {
+        for (final ByteCodeCompression compression : ByteCodeCompression.values()) {
+            final File file = directory.resolve(compression.name().toLowerCase() + ".mib").toFile();
+            ByteCodeFileWriter.write(program, file, compression);
+            assertEquals(bytes(program), bytes(ByteCodeReader.read(file, new Mi(System.out, false).messageHandler())));
+        }
+    }
+
+}
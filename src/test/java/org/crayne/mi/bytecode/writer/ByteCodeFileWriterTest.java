@@ -0,0 +1,102 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.reader.ByteCodeReader;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// version 1 files are the raw instructions one after another. they used to be written by joining the string of every instruction
+// and writing that with Files.writeString, streaming them through the writer has to give the very same file
+class ByteCodeFileWriterTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tpub fn sum :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\tacc += i % 3 == 0 ? i : 1;
+            \t\t}
+            \t\treturn acc;
+            \t}
+
+            \tpub fn greet :: string (string name) {
+            \t\treturn "hello " + name + " äöü";
+            \t}
+            }
+            """;
+
+    private static List<ByteCodeInstruction> program;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+    }
+
+    private static void writeWithStrings(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file) throws IOException {
+        Files.writeString(file.toPath(), String.join("", bytecode.stream().map(instr -> instr.write()).toList()), StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeStreaming(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final File file) throws IOException {
+        try (final ByteCodeFileWriter writer = new ByteCodeFileWriter(file)) {
+            for (final ByteCodeInstruction instr : bytecode) writer.write(instr);
+        }
+    }
+
+    private static File assertSameFile(@NotNull final List<ByteCodeInstruction> bytecode, @NotNull final Path dir) throws IOException {
+        final File strings = dir.resolve("strings.mib").toFile();
+        final File streamed = dir.resolve("streamed.mib").toFile();
+        writeWithStrings(bytecode, strings);
+        writeStreaming(bytecode, streamed);
+
+        assertArrayEquals(Files.readAllBytes(strings.toPath()), Files.readAllBytes(streamed.toPath()));
+        return streamed;
+    }
+
+    @Test
+    void streamedFilesEqualJoinedStrings(@TempDir final Path dir) throws Throwable {
+        final File streamed = assertSameFile(program, dir);
+        assertEquals(bytes(program), bytes(ByteCodeReader.read(streamed, new Mi(System.out, false).messageHandler())));
+    }
+
+    @Test
+    void filesLargerThanTheBufferAreFlushedInOrder(@TempDir final Path dir) throws IOException {
+        // the program is repeated until it no longer fits into the buffer a few times over
+        final List<ByteCodeInstruction> large = new ArrayList<>();
+        int length = 0;
+        while (length < 4 << 16) {
+            large.addAll(program);
+            length += program.stream().mapToInt(ByteCodeInstruction::length).sum();
+        }
+        assertEquals(length, Files.size(assertSameFile(large, dir).toPath()));
+    }
+
+    @Test
+    void positionsCountBufferedBytes(@TempDir final Path dir) throws IOException {
+        final File file = dir.resolve("positioned.mib").toFile();
+        try (final ByteCodeFileWriter writer = new ByteCodeFileWriter(file)) {
+            writer.write(new byte[] {1, 2, 3, 4});
+            assertEquals(4, writer.position());
+            writer.write(new byte[] {9, 9}, 1);
+            writer.write(new byte[] {5});
+            assertEquals(5, writer.position());
+            assertThrows(IOException.class, () -> writer.write(new byte[] {0, 0}, 4));
+            assertThrows(IOException.class, () -> writer.write(new byte[] {0}, -1));
+        }
+        assertArrayEquals(new byte[] {1, 9, 9, 4, 5}, Files.readAllBytes(file.toPath()));
+    }
+
+}
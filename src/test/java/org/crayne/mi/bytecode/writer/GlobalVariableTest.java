@@ -0,0 +1,139 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.MiCompileOptions;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.crayne.mi.bytecode.optimizer.pass.ConstantGlobalsPass;
+import org.crayne.mi.bytecode.optimizer.pass.OptimizationLevel;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// globals are read with LOAD_GLOBAL and written with STORE_GLOBAL, both taking the address of the global.
+// the ones that are never written to anywhere are replaced by their value (see ConstantGlobalsPass)
+class GlobalVariableTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tint limit = 7;
+            \tmut int counter = 0;
+            \tmut int total = 10;
+            \tmut int last = 0;
+
+            \tpub fn bump :: int () {
+            \t\tcounter++;
+            \t\treturn counter;
+            \t}
+
+            \tpub fn drop :: int () {
+            \t\tcounter--;
+            \t\treturn counter;
+            \t}
+
+            \tpub fn add :: int (int n) {
+            \t\ttotal += n;
+            \t\ttotal *= 2;
+            \t\treturn total;
+            \t}
+
+            \tpub fn set :: int (int n) {
+            \t\tlast = n * limit + 1;
+            \t\treturn last;
+            \t}
+
+            \tpub fn read :: int () {
+            \t\treturn counter + total + last + limit;
+            \t}
+            }
+            """;
+
+    private static List<ByteCodeInstruction> program;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+    }
+
+    private static List<ByteCodeInstruction> body(@NotNull final List<ByteCodeInstruction> program, @NotNull final String function) {
+        final List<ByteCodeInstruction> body = new ArrayList<>();
+        boolean inside = false;
+        for (final ByteCodeInstruction instr : program) {
+            final ByteCode type = instr.type().orElseThrow();
+            if (type == ByteCode.FUNCTION_DEFINITION_BEGIN) inside = ByteCodeLabels.definitionName(instr).equals(function);
+            else if (type == ByteCode.FUNCTION_DEFINITION_END) inside = false;
+            else if (inside) body.add(instr);
+        }
+        return body;
+    }
+
+    // the addresses of every global the program reads or writes with the given instruction
+    private static Set<Integer> addresses(@NotNull final List<ByteCodeInstruction> program, @NotNull final ByteCode type) {
+        final Set<Integer> addresses = new TreeSet<>();
+        for (final ByteCodeInstruction instr : program) {
+            if (instr.type().orElseThrow() == type) addresses.add(ByteCodeLabels.intOperand(instr));
+        }
+        return addresses;
+    }
+
+    private static int storedAddress(@NotNull final String function) {
+        return addresses(body(program, function), ByteCode.STORE_GLOBAL).iterator().next();
+    }
+
+    @Test
+    void incrementsLoadAddAndStore() {
+        final int counter = storedAddress("testing.bump");
+        assertEquals(counter, storedAddress("testing.drop"));
+        assertTrue(Collections.indexOfSubList(bytes(body(program, "testing.bump")), bytes(List.of(ByteCode.loadGlobal(counter),
+                ByteCode.push(ByteCode.integer(1)), new ByteCodeInstruction(ByteCode.PLUS.code()), ByteCode.storeGlobal(counter)))) >= 0);
+        assertTrue(Collections.indexOfSubList(bytes(body(program, "testing.drop")), bytes(List.of(ByteCode.loadGlobal(counter),
+                ByteCode.push(ByteCode.integer(-1)), new ByteCodeInstruction(ByteCode.PLUS.code()), ByteCode.storeGlobal(counter)))) >= 0);
+    }
+
+    @Test
+    void globalsAreSharedBetweenFunctions() {
+        final ByteCodeInterpreter interpreter = interpreter(program);
+        assertEquals(1, invoke(interpreter, "testing.bump"));
+        assertEquals(2, invoke(interpreter, "testing.bump"));
+        assertEquals(1, invoke(interpreter, "testing.drop"));
+        assertEquals((10 + 5) * 2, invoke(interpreter, "testing.add", 5));
+        assertEquals((30 + 1) * 2, invoke(interpreter, "testing.add", 1));
+        assertEquals(3 * 7 + 1, invoke(interpreter, "testing.set", 3));
+        assertEquals(1 + 62 + 22 + 7, invoke(interpreter, "testing.read"));
+
+        // every interpreter starts out with the initial values again
+        assertEquals(0 + 10 + 0 + 7, invoke(program, "testing.read"));
+    }
+
+    @Test
+    void onlyGlobalsThatAreNeverStoredAreFolded() {
+        // limit, and the globals of the standard library, are no longer read at all
+        final Set<Integer> stored = addresses(program, ByteCode.STORE_GLOBAL);
+        assertEquals(3, stored.size());
+        assertEquals(stored, addresses(program, ByteCode.LOAD_GLOBAL));
+        assertTrue(bytes(body(program, "testing.read")).contains(ByteCode.push(ByteCode.integer(7)).toString()));
+    }
+
+    @Test
+    void constantGlobalsPassFoldsLoads() {
+        // the constant globals pass does not run on this level
+        final List<ByteCodeInstruction> unfolded = new Mi(System.out, false).compile(MiStandardLib.standardLib(), CODE, MiCompileOptions.DEFAULT.withLevel(OptimizationLevel.O1));
+        final Set<Integer> stored = addresses(unfolded, ByteCode.STORE_GLOBAL);
+        assertEquals(4, addresses(body(unfolded, "testing.read"), ByteCode.LOAD_GLOBAL).size());
+
+        final List<ByteCodeInstruction> folded = new ConstantGlobalsPass().run(unfolded, List.of());
+        assertEquals(stored, addresses(body(folded, "testing.read"), ByteCode.LOAD_GLOBAL));
+        assertEquals(stored, addresses(folded, ByteCode.STORE_GLOBAL));
+        assertEquals(invoke(unfolded, "testing.read"), invoke(folded, "testing.read"));
+        assertEquals(invoke(unfolded, "testing.set", 4), invoke(folded, "testing.set", 4));
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.MiTestPrograms;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.optimizer.ByteCodeLabels;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// small functions, and every function marked inline, are compiled right into their callers. recursive functions can never be
+class InlineFunctionTest {
+
+    private static final String RECURSIVE = """
+            mod testing {
+            \tfn down :: int (int n) {
+            \t\treturn n <= 0 ? 0 : 1 + down(n - 1);
+            \t}
+
+            \tpub fn f :: int () {
+            \t\treturn down(3);
+            \t}
+            }
+            """;
+
+    private static final String BIG = """
+            mod testing {
+            \tinline fn big :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tmut int i = 0;
+            \t\twhile i < n {
+            \t\t\tacc += i * 2 + 1;
+            \t\t\ti++;
+            \t\t}
+            \t\tint tmp = acc + 1;
+            \t\tint tmp2 = tmp - 1;
+            \t\treturn tmp2;
+            \t}
+
+            \tfn twice :: int (int n) {
+            \t\treturn n * 2;
+            \t}
+
+            \tpub fn f :: int () {
+            \t\treturn big(4) + twice(5);
+            \t}
+            }
+            """;
+
+    private static long idOf(@NotNull final List<ByteCodeInstruction> program, @NotNull final String function) {
+        return program.stream().filter(instr -> instr.type().orElse(null) == ByteCode.FUNCTION_DEFINITION_BEGIN)
+                .filter(instr -> ByteCodeLabels.definitionName(instr).equals(function))
+                .mapToLong(ByteCodeLabels::definitionId).findFirst().orElseThrow();
+    }
+
+    // the ids of every function called in the body of the given one
+    private static List<Long> callsIn(@NotNull final List<ByteCodeInstruction> program, @NotNull final String function) {
+        final List<Long> calls = new ArrayList<>();
+        boolean inside = false;
+        for (final ByteCodeInstruction instr : program) {
+            final ByteCode type = instr.type().orElseThrow();
+            if (type == ByteCode.FUNCTION_DEFINITION_BEGIN) inside = ByteCodeLabels.definitionName(instr).equals(function);
+            else if (type == ByteCode.FUNCTION_DEFINITION_END) inside = false;
+            else if (inside && type == ByteCode.FUNCTION_CALL) calls.add(instr.longAt(1));
+        }
+        return calls;
+    }
+
+    @Test
+    void smallAndInlineFunctionsAreInlined() {
+        final List<ByteCodeInstruction> program = compileOrFail(BIG);
+        assertEquals(List.of(), callsIn(program, "testing.f"));
+        assertEquals(16 + 10, invoke(program, "testing.f"));
+    }
+
+    @Test
+    void recursiveFunctionsAreCalled() {
+        final List<ByteCodeInstruction> program = compileOrFail(RECURSIVE);
+        final long down = idOf(program, "testing.down");
+        assertEquals(List.of(down), callsIn(program, "testing.f"));
+        assertEquals(List.of(down), callsIn(program, "testing.down"));
+        assertEquals(3, invoke(program, "testing.f"));
+    }
+
+    @Test
+    void recursiveInlineFunctionsAreRejected() {
+        final MiTestPrograms.Compiled compiled = compile(RECURSIVE.replace("\tfn down", "\tinline fn down"));
+        assertTrue(compiled.program().isEmpty(), "The program compiles");
+        assertTrue(compiled.log().contains("Cannot inline recursive function '!PARENT.testing.down'"), compiled.log());
+    }
+
+}
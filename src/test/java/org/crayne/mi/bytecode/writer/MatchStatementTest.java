@@ -0,0 +1,192 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.MiTestPrograms;
+import org.crayne.mi.bytecode.common.ByteCode;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// match statements dispatch with a single switch instruction, a table for dense case values and a lookup for sparse ones
+class MatchStatementTest {
+
+    private static final String DENSE = """
+            \tpub fn dense :: int (int i) {
+            \t\tmatch i {
+            \t\t\tcase 1 {
+            \t\t\t\treturn 10;
+            \t\t\t}
+            \t\t\tcase 2, 3 {
+            \t\t\t\treturn 23;
+            \t\t\t}
+            \t\t\tcase 5 {
+            \t\t\t\treturn 50;
+            \t\t\t}
+            \t\t\tdefault {
+            \t\t\t\treturn -1;
+            \t\t\t}
+            \t\t}
+            \t\treturn -2;
+            \t}
+            """;
+
+    private static final String SPARSE = """
+            \tpub fn sparse :: int (int i) {
+            \t\tmut int r = 0;
+            \t\tmatch i {
+            \t\t\tcase -1000 {
+            \t\t\t\tr = 1;
+            \t\t\t}
+            \t\t\tcase 0 {
+            \t\t\t\tr = 2;
+            \t\t\t}
+            \t\t\tcase 1000000 {
+            \t\t\t\tr = 3;
+            \t\t\t}
+            \t\t}
+            \t\treturn r;
+            \t}
+            """;
+
+    private static List<ByteCode> switches(@NotNull final List<ByteCodeInstruction> program) {
+        return program.stream().map(instr -> instr.type().orElseThrow())
+                .filter(type -> type == ByteCode.TABLE_SWITCH || type == ByteCode.LOOKUP_SWITCH).toList();
+    }
+
+    private static String module(@NotNull final String... functions) {
+        return "mod testing {\n" + String.join("\n", functions) + "}\n";
+    }
+
+    private static void assertDoesNotCompile(@NotNull final String body, @NotNull final String error) {
+        final MiTestPrograms.Compiled compiled = compile(module("\tpub fn f :: int (int i) {\n" + body + "\t\treturn 0;\n\t}\n"));
+        assertTrue(compiled.program().isEmpty(), "The program compiles");
+        assertTrue(compiled.log().contains(error), compiled.log());
+    }
+
+    @Test
+    void denseCasesUseATable() {
+        final List<ByteCodeInstruction> program = compileOrFail(module(DENSE));
+        assertEquals(List.of(ByteCode.TABLE_SWITCH), switches(program));
+
+        final ByteCodeInterpreter interpreter = interpreter(program);
+        assertEquals(10, invoke(interpreter, "testing.dense", 1));
+        assertEquals(23, invoke(interpreter, "testing.dense", 2));
+        assertEquals(23, invoke(interpreter, "testing.dense", 3));
+        assertEquals(50, invoke(interpreter, "testing.dense", 5));
+        // holes in the table, and values outside of it, go to the default case
+        assertEquals(-1, invoke(interpreter, "testing.dense", 4));
+        assertEquals(-1, invoke(interpreter, "testing.dense", 0));
+        assertEquals(-1, invoke(interpreter, "testing.dense", 6));
+        assertEquals(-1, invoke(interpreter, "testing.dense", Integer.MIN_VALUE));
+        assertEquals(-1, invoke(interpreter, "testing.dense", Integer.MAX_VALUE));
+    }
+
+    @Test
+    void sparseCasesUseALookup() {
+        final List<ByteCodeInstruction> program = compileOrFail(module(SPARSE));
+        assertEquals(List.of(ByteCode.LOOKUP_SWITCH), switches(program));
+
+        final ByteCodeInterpreter interpreter = interpreter(program);
+        assertEquals(1, invoke(interpreter, "testing.sparse", -1000));
+        assertEquals(2, invoke(interpreter, "testing.sparse", 0));
+        assertEquals(3, invoke(interpreter, "testing.sparse", 1000000));
+        // without a default case, nothing is run for any other value
+        assertEquals(0, invoke(interpreter, "testing.sparse", 1));
+        assertEquals(0, invoke(interpreter, "testing.sparse", -999));
+    }
+
+    @Test
+    void charsAndEnumsAreMatchedToo() {
+        final ByteCodeInterpreter interpreter = interpreter(compileOrFail(module("""
+                \tenum Color { RED, GREEN, BLUE }
+
+                \tpub fn letter :: int (int i) {
+                \t\tmatch char i {
+                \t\t\tcase 'a' {
+                \t\t\t\treturn 1;
+                \t\t\t}
+                \t\t\tcase 'z' {
+                \t\t\t\treturn 26;
+                \t\t\t}
+                \t\t}
+                \t\treturn 0;
+                \t}
+
+                \tpub fn color :: int (int i) {
+                \t\tmut? c = Color::RED;
+                \t\tif i == 2 {
+                \t\t\tc = Color::BLUE;
+                \t\t}
+                \t\tmatch c {
+                \t\t\tcase Color::BLUE {
+                \t\t\t\treturn 2;
+                \t\t\t}
+                \t\t\tdefault {
+                \t\t\t\treturn 0;
+                \t\t\t}
+                \t\t}
+                \t\treturn -1;
+                \t}
+                """)));
+        assertEquals(1, invoke(interpreter, "testing.letter", (int) 'a'));
+        assertEquals(26, invoke(interpreter, "testing.letter", (int) 'z'));
+        assertEquals(0, invoke(interpreter, "testing.letter", (int) 'b'));
+        assertEquals(2, invoke(interpreter, "testing.color", 2));
+        assertEquals(0, invoke(interpreter, "testing.color", 1));
+    }
+
+    @Test
+    void duplicateCasesAreRejected() {
+        assertDoesNotCompile("""
+                \t\tmatch i {
+                \t\t\tcase 1, 2 {
+                \t\t\t\treturn 1;
+                \t\t\t}
+                \t\t\tcase 2 {
+                \t\t\t\treturn 2;
+                \t\t\t}
+                \t\t}
+                """, "Duplicate case value in match statement");
+        assertDoesNotCompile("""
+                \t\tmatch i {
+                \t\t\tdefault {
+                \t\t\t\treturn 1;
+                \t\t\t}
+                \t\t\tdefault {
+                \t\t\t\treturn 2;
+                \t\t\t}
+                \t\t}
+                """, "Duplicate default case in match statement");
+    }
+
+    @Test
+    void casesOfTheWrongTypeAreRejected() {
+        assertDoesNotCompile("""
+                \t\tmatch i {
+                \t\t\tcase 'a' {
+                \t\t\t\treturn 1;
+                \t\t\t}
+                \t\t}
+                """, "Expected case value of type nonnull int, but got a nonnull char");
+        assertDoesNotCompile("""
+                \t\tmatch "text" {
+                \t\t\tcase 1 {
+                \t\t\t\treturn 1;
+                \t\t\t}
+                \t\t}
+                """, "Expected a nonnull int, char or enum value for match statement");
+        assertDoesNotCompile("""
+                \t\tmatch i {
+                \t\t\tcase i {
+                \t\t\t\treturn 1;
+                \t\t\t}
+                \t\t}
+                """, "Expected a constant case value");
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.MiTestPrograms;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// function scopes are compiled on the common pool, so every compilation schedules them differently. the output still has to be the same
+class ParallelCompilationTest {
+
+    private static final int FUNCTIONS = 32;
+    private static final int COMPILATIONS = 4;
+
+    // every function is recursive, so that none of them is inlined, and calls the one before it
+    private static String program(@NotNull final String extra) {
+        final StringBuilder code = new StringBuilder("mod testing {\n").append(extra);
+        for (int i = 0; i < FUNCTIONS; i++) {
+            code.append("\tpub fn f").append(i).append(" :: int (int n) {\n")
+                    .append("\t\tmut int acc = ").append(i).append(";\n")
+                    .append("\t\tfor mut int j = 0, j < n, j++ {\n")
+                    .append("\t\t\tacc += j % ").append(i + 2).append(" == 0 ? ").append(i).append(" : 1;\n")
+                    .append("\t\t}\n")
+                    .append("\t\treturn n <= 0 ? acc : acc + f").append(i).append("(n - 1)").append(i > 0 ? " + f" + (i - 1) + "(0)" : "").append(";\n")
+                    .append("\t}\n\n");
+        }
+        return code.append("}\n").toString();
+    }
+
+    @Test
+    void everyCompilationGivesTheSameBytes(@TempDir final Path dir) throws IOException {
+        final String code = program("");
+        final List<ByteCodeInstruction> first = compileOrFail(code);
+        final File firstFile = dir.resolve("first.mib").toFile();
+        ByteCodeFileWriter.write(first, firstFile);
+
+        for (int i = 0; i < COMPILATIONS; i++) {
+            final List<ByteCodeInstruction> again = compileOrFail(code);
+            assertEquals(bytes(first), bytes(again));
+
+            final File file = dir.resolve(i + ".mib").toFile();
+            ByteCodeFileWriter.write(again, file);
+            assertArrayEquals(Files.readAllBytes(firstFile.toPath()), Files.readAllBytes(file.toPath()));
+        }
+        assertEquals(invoke(first, "testing.f" + (FUNCTIONS - 1), 3), invoke(compileOrFail(code), "testing.f" + (FUNCTIONS - 1), 3));
+    }
+
+    @Test
+    void anErrorInOneFunctionIsReportedOnce() {
+        final String error = "Cannot inline recursive function '!PARENT.testing.down'";
+        final String code = program("""
+                \tinline fn down :: int (int n) {
+                \t\treturn n <= 0 ? 0 : 1 + down(n - 1);
+                \t}
+
+                \tpub fn broken :: int () {
+                \t\treturn down(3);
+                \t}
+
+                """);
+        for (int i = 0; i < COMPILATIONS; i++) {
+            final MiTestPrograms.Compiled compiled = compile(code);
+            assertEquals(List.of(), compiled.program());
+            assertEquals(1, compiled.log().split(Pattern.quote(error), -1).length - 1, compiled.log());
+        }
+    }
+
+}
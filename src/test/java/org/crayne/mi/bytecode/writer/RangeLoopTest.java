@@ -0,0 +1,161 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.MiTestPrograms;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// for i in <from> .. <to>, <step> counts from the first bound up to (or down to) the second one, which is never reached itself
+class RangeLoopTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tpub fn count :: int (int from, int to, int step) {
+            \t\tmut int c = 0;
+            \t\tfor i in from .. to, step {
+            \t\t\tc++;
+            \t\t}
+            \t\treturn c;
+            \t}
+
+            \tpub fn last :: int (int from, int to, int step) {
+            \t\tmut int l = 0;
+            \t\tfor i in from .. to, step {
+            \t\t\tl = i;
+            \t\t}
+            \t\treturn l;
+            \t}
+
+            \tpub fn sum :: int (int to) {
+            \t\tmut int s = 0;
+            \t\tfor i in 0..to {
+            \t\t\ts += i;
+            \t\t}
+            \t\treturn s;
+            \t}
+
+            \tpub fn skip :: int () {
+            \t\tmut int s = 0;
+            \t\tfor i in 0..10 {
+            \t\t\tmut int x = i;
+            \t\t\tif i == 2 {
+            \t\t\t\tcontinue;
+            \t\t\t}
+            \t\t\tif i == 6 {
+            \t\t\t\tbreak;
+            \t\t\t}
+            \t\t\ts = s * 10 + x;
+            \t\t}
+            \t\treturn s;
+            \t}
+
+            \tpub fn nested :: int () {
+            \t\tmut int c = 0;
+            \t\tfor i in 0..4 {
+            \t\t\tfor j in i..4 {
+            \t\t\t\tif j == 3 {
+            \t\t\t\t\tbreak;
+            \t\t\t\t}
+            \t\t\t\tc++;
+            \t\t\t}
+            \t\t}
+            \t\treturn c;
+            \t}
+
+            \tpub fn hoisted :: int () {
+            \t\tmut int n = 5;
+            \t\tmut int c = 0;
+            \t\tfor i in 0..n {
+            \t\t\tn = 0;
+            \t\t\tc++;
+            \t\t}
+            \t\treturn c;
+            \t}
+            }
+            """;
+
+    private static List<ByteCodeInstruction> program;
+    private static ByteCodeInterpreter interpreter;
+
+    @BeforeAll
+    static void compileProgram() {
+        program = compileOrFail(CODE);
+        interpreter = interpreter(program);
+    }
+
+    private static int count(final int from, final int to, final int step) {
+        return (int) invoke(interpreter, "testing.count", from, to, step);
+    }
+
+    private static int last(final int from, final int to, final int step) {
+        return (int) invoke(interpreter, "testing.last", from, to, step);
+    }
+
+    @Test
+    void positiveStepsCountUp() {
+        assertEquals(4950, invoke(interpreter, "testing.sum", 100));
+        assertEquals(10, count(0, 10, 1));
+        assertEquals(5, count(0, 9, 2));
+        assertEquals(8, last(0, 9, 2));
+        assertEquals(4, count(-3, 9, 3));
+        assertEquals(6, last(-3, 9, 3));
+    }
+
+    @Test
+    void negativeStepsCountDown() {
+        assertEquals(4, count(10, 0, -3));
+        assertEquals(1, last(10, 0, -3));
+        assertEquals(10, count(0, -10, -1));
+        assertEquals(-9, last(0, -10, -1));
+    }
+
+    @Test
+    void emptyRangesNeverRunTheBody() {
+        assertEquals(0, invoke(interpreter, "testing.sum", 0));
+        assertEquals(0, count(5, 5, 1));
+        assertEquals(0, count(5, 5, -1));
+        // a range going the other way than its step is empty too
+        assertEquals(0, count(10, 0, 1));
+        assertEquals(0, count(0, 10, -1));
+        assertEquals(0, count(Integer.MAX_VALUE, Integer.MIN_VALUE, 1));
+    }
+
+    @Test
+    void breakAndContinueLeaveTheRightLoop() {
+        assertEquals(1345, invoke(interpreter, "testing.skip"));
+        assertEquals(3 + 2 + 1, invoke(interpreter, "testing.nested"));
+    }
+
+    @Test
+    void boundsAreOnlyEvaluatedOnce() {
+        assertEquals(5, invoke(interpreter, "testing.hoisted"));
+    }
+
+    @Test
+    void countersNeverOverflowPastTheBound() {
+        assertEquals(5, count(Integer.MAX_VALUE - 5, Integer.MAX_VALUE, 1));
+        assertEquals(3, count(Integer.MAX_VALUE - 5, Integer.MAX_VALUE, 2));
+        assertEquals(Integer.MAX_VALUE - 1, last(Integer.MAX_VALUE - 5, Integer.MAX_VALUE, 2));
+        assertEquals(1, count(Integer.MAX_VALUE - 1, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(2, count(Integer.MIN_VALUE + 2, Integer.MIN_VALUE, -1));
+        assertEquals(1, count(Integer.MIN_VALUE + 1, Integer.MIN_VALUE, Integer.MIN_VALUE));
+        assertEquals(2, count(0, Integer.MAX_VALUE, Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    void stepsMustBeNonZeroInts() {
+        // the interpreter cannot be used again after a function failed, so this one gets its own
+        assertThrows(RuntimeException.class, () -> invoke(program, "testing.count", 0, 10, 0));
+
+        final MiTestPrograms.Compiled compiled = compile(CODE.replace("for i in 0..to {", "for i in 0..to, 1L {"));
+        assertTrue(compiled.program().isEmpty(), "The program compiles");
+        assertTrue(compiled.log().contains("Expected a nonnull int bound and step for range for statement"), compiled.log());
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.bytecode.reader.ByteCodeInterpreter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// the right side of && and || is only evaluated when the left side does not already decide the result.
+// side() counts how often it is called, every function returns that count next to the result (the result is worth 100)
+class ShortCircuitTest {
+
+    private static final String CODE = """
+            mod testing {
+            \tmut int calls = 0;
+
+            \tfn side :: bool (bool b) {
+            \t\tcalls++;
+            \t\treturn b;
+            \t}
+
+            \tfn result :: int (bool r) {
+            \t\tint c = calls;
+            \t\tcalls = 0;
+            \t\treturn r ? c + 100 : c;
+            \t}
+
+            \tpub fn both :: int (bool a, bool b) {
+            \t\treturn result(side(a) && side(b));
+            \t}
+
+            \tpub fn either :: int (bool a, bool b) {
+            \t\treturn result(side(a) || side(b));
+            \t}
+
+            \tpub fn mixed :: int (bool a, bool b, bool c) {
+            \t\treturn result(side(a) || side(b) && side(c));
+            \t}
+
+            \tpub fn branch :: int (bool a, bool b) {
+            \t\tif side(a) && side(b) {
+            \t\t\treturn result(true);
+            \t\t}
+            \t\treturn result(false);
+            \t}
+
+            \tpub fn guarded :: bool (int i) {
+            \t\treturn i != 0 && 10 / i > 1;
+            \t}
+            }
+            """;
+
+    private static ByteCodeInterpreter interpreter;
+
+    @BeforeAll
+    static void compileProgram() {
+        interpreter = interpreter(compileOrFail(CODE));
+    }
+
+    @Test
+    void andSkipsTheRightSideOfFalse() {
+        assertEquals(1, invoke(interpreter, "testing.both", false, true));
+        assertEquals(1, invoke(interpreter, "testing.both", false, false));
+        assertEquals(2, invoke(interpreter, "testing.both", true, false));
+        assertEquals(102, invoke(interpreter, "testing.both", true, true));
+    }
+
+    @Test
+    void orSkipsTheRightSideOfTrue() {
+        assertEquals(101, invoke(interpreter, "testing.either", true, false));
+        assertEquals(101, invoke(interpreter, "testing.either", true, true));
+        assertEquals(102, invoke(interpreter, "testing.either", false, true));
+        assertEquals(2, invoke(interpreter, "testing.either", false, false));
+    }
+
+    @Test
+    void nestedOperatorsSkipWholeSubexpressions() {
+        // && binds tighter, so a true left side of || skips both calls of the right side
+        assertEquals(101, invoke(interpreter, "testing.mixed", true, false, false));
+        assertEquals(2, invoke(interpreter, "testing.mixed", false, false, true));
+        assertEquals(103, invoke(interpreter, "testing.mixed", false, true, true));
+        assertEquals(3, invoke(interpreter, "testing.mixed", false, true, false));
+    }
+
+    @Test
+    void conditionsShortCircuitToo() {
+        assertEquals(1, invoke(interpreter, "testing.branch", false, true));
+        assertEquals(102, invoke(interpreter, "testing.branch", true, true));
+    }
+
+    @Test
+    void skippedRightSidesCannotFail() {
+        assertEquals(false, invoke(interpreter, "testing.guarded", 0));
+        assertEquals(true, invoke(interpreter, "testing.guarded", 2));
+        assertEquals(false, invoke(interpreter, "testing.guarded", 20));
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.crayne.mi.bytecode.writer;
+
+import org.crayne.mi.Mi;
+import org.crayne.mi.MiTestPrograms;
+import org.crayne.mi.bytecode.common.ByteCodeInstruction;
+import org.crayne.mi.stdlib.MiStandardLib;
+import org.crayne.mi.stdlib.MiStandardLibSnapshot;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// the standard library is only tokenized, parsed and checked by the first compile against it, every other compile starts from a copy of that.
+// whatever one compile declares must not show up in the next one
+class StandardLibSnapshotTest {
+
+    private static final String FIRST = """
+            mod testing {
+            \tmut int calls = 0;
+
+            \tpub fn square :: int (int n) {
+            \t\tcalls++;
+            \t\treturn n * n;
+            \t}
+
+            \tpub fn greet :: string (string name) {
+            \t\treturn "hello " + name;
+            \t}
+            }
+            """;
+
+    private static final String SECOND = """
+            mod testing {
+            \tpub fn sum :: int (int n) {
+            \t\tmut int acc = 0;
+            \t\tfor mut int i = 0, i < n, i++ {
+            \t\t\tacc += i;
+            \t\t}
+            \t\treturn acc;
+            \t}
+            }
+
+            mod other {
+            \tpub fn twice :: int (int n) {
+            \t\treturn testing.sum(n) * 2;
+            \t}
+            }
+            """;
+
+    // without a standard library of its own there is nothing to take a snapshot of, so the whole program is compiled from scratch
+    private static List<ByteCodeInstruction> compileWithoutSnapshot(@NotNull final String code) {
+        return new Mi(System.out, false).compile("", MiStandardLib.standardLib() + code);
+    }
+
+    @Test
+    void compilesAgainstTheSameStandardLibShareOneSnapshot() {
+        final List<ByteCodeInstruction> first = compileOrFail(FIRST);
+        final List<ByteCodeInstruction> second = compileOrFail(SECOND);
+
+        // both compiles above went through the snapshot, which is kept for every compile after them
+        final Optional<MiStandardLibSnapshot> snapshot = MiStandardLibSnapshot.of(MiStandardLib.standardLib(), List.of());
+        assertTrue(snapshot.isPresent());
+        assertSame(snapshot.get(), MiStandardLibSnapshot.of(MiStandardLib.standardLib(), List.of()).orElseThrow());
+
+        assertEquals(bytes(compileWithoutSnapshot(FIRST)), bytes(first));
+        assertEquals(bytes(compileWithoutSnapshot(SECOND)), bytes(second));
+    }
+
+    @Test
+    void compilesAgainstASnapshotRunLikeTheirOwn() {
+        for (int i = 0; i < 2; i++) {
+            final List<ByteCodeInstruction> first = compileOrFail(FIRST);
+            assertEquals(49, invoke(first, "testing.square", 7));
+            assertEquals("hello mi", invoke(first, "testing.greet", "mi"));
+
+            final List<ByteCodeInstruction> second = compileOrFail(SECOND);
+            assertEquals(45, invoke(second, "testing.sum", 10));
+            assertEquals(90, invoke(second, "other.twice", 10));
+        }
+    }
+
+    @Test
+    void declarationsDoNotLeakIntoTheNextCompile() {
+        compileOrFail(FIRST);
+        final MiTestPrograms.Compiled leaked = compile(SECOND.replace("testing.sum(n) * 2", "testing.square(n)"));
+        assertEquals(List.of(), leaked.program());
+        assertTrue(leaked.log().contains("square"), leaked.log());
+
+        // a compile that failed leaves the snapshot as it was, too
+        assertEquals(90, invoke(compileOrFail(SECOND), "other.twice", 10));
+        assertEquals(49, invoke(compileOrFail(FIRST), "testing.square", 7));
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.crayne.mi.cache;
+
+import org.crayne.mi.MiTestPrograms;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.crayne.mi.MiTestPrograms.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// the module of a program is only compiled again when it or the declarations of any other module change,
+// and a program compiled from the cache is exactly the one compiled with an empty cache. that is not always the one compiled without a cache,
+// since functions of other modules are never inlined into a cached module
+class MiModuleCacheTest {
+
+    private static final String MATH = """
+            mod mathx {
+            \tpub fn sq :: int (int x) {
+            \t\treturn x * x;
+            \t}
+            }
+            """;
+
+    private static final String APP = """
+            mod testing {
+            \tpub fn result :: int () {
+            \t\treturn mathx.sq(7) + 1;
+            \t}
+            }
+            """;
+
+    private static MiTestPrograms.Compiled compileOrFail(@NotNull final String code, @NotNull final MiModuleCache cache) {
+        final MiTestPrograms.Compiled compiled = MiTestPrograms.compile(code, cache);
+        assertFalse(compiled.program().isEmpty(), () -> "The program does not compile:\n" + compiled.log());
+        return compiled;
+    }
+
+    // compiles the program with the cache, checks it against the program compiled with an empty one and returns how many modules were reused.
+    // fragments of reused modules are not written again, so they are the ones that are still as old as before the compile
+    private static int compile(@NotNull final String code, @NotNull final MiModuleCache cache, final int expected) throws IOException {
+        final File[] before = cache.directory().listFiles();
+        if (before != null) for (final File fragment : before) assertTrue(fragment.setLastModified(0));
+
+        final MiTestPrograms.Compiled compiled = compileOrFail(code, cache);
+        final Path empty = Files.createTempDirectory(cache.directory().toPath().getParent(), "empty");
+        assertEquals(bytes(compileOrFail(code, new MiModuleCache(empty.toFile())).program()), bytes(compiled.program()));
+        assertEquals(expected, invoke(compiled.program(), "testing.result"));
+
+        final File[] fragments = cache.directory().listFiles();
+        assertNotNull(fragments);
+        assertEquals(2, fragments.length);
+        return (int) Arrays.stream(fragments).filter(f -> f.lastModified() == 0).count();
+    }
+
+    @Test
+    void unchangedModulesAreReused(@TempDir final Path directory) throws IOException {
+        final MiModuleCache cache = new MiModuleCache(directory.resolve("cache").toFile());
+        assertEquals(0, compile(MATH + APP, cache, 50));
+        assertTrue(new File(cache.directory(), "mathx.mic").isFile());
+        assertTrue(new File(cache.directory(), "testing.mic").isFile());
+        assertEquals(2, compile(MATH + APP, cache, 50));
+    }
+
+    @Test
+    void changedBodiesOnlyMissTheirOwnModule(@TempDir final Path directory) throws IOException {
+        final MiModuleCache cache = new MiModuleCache(directory.resolve("cache").toFile());
+        assertEquals(0, compile(MATH + APP, cache, 50));
+        assertEquals(1, compile(MATH + APP.replace("+ 1", "+ 2"), cache, 51));
+        assertEquals(1, compile(MATH.replace("x * x", "x * x * 2") + APP.replace("+ 1", "+ 2"), cache, 100));
+    }
+
+    @Test
+    void changedDeclarationsInvalidateEveryModule(@TempDir final Path directory) throws IOException {
+        final MiModuleCache cache = new MiModuleCache(directory.resolve("cache").toFile());
+        assertEquals(0, compile(MATH + APP, cache, 50));
+
+        // a new function shifts the ids of everything declared after it, so even the module that did not change is compiled again
+        final String added = MATH.replace("\tpub fn sq", "\tpub fn cube :: int (int x) {\n\t\treturn x * x * x;\n\t}\n\tpub fn sq");
+        assertEquals(0, compile(added + APP, cache, 50));
+        assertEquals(2, compile(added + APP, cache, 50));
+
+        final String changed = added.replace("pub fn cube :: int (int x)", "pub fn cube :: long (int x)").replace("return x * x * x;", "return long (x * x * x);");
+        assertEquals(0, compile(changed + APP, cache, 50));
+    }
+
+    @Test
+    void unreadableFragmentsAreCompiledAgain(@TempDir final Path directory) throws IOException {
+        final MiModuleCache cache = new MiModuleCache(directory.resolve("cache").toFile());
+        assertEquals(0, compile(MATH + APP, cache, 50));
+        try (final var fragments = Files.list(cache.directory().toPath())) {
+            for (final Path fragment : fragments.toList()) Files.write(fragment, new byte[] {1, 2, 3});
+        }
+        assertEquals(0, compile(MATH + APP, cache, 50));
+        assertEquals(2, compile(MATH + APP, cache, 50));
+    }
+
+}